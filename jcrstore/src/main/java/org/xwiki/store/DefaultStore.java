@@ -1,19 +1,31 @@
 package org.xwiki.store;
 
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.Vector;
 
+import org.apache.commons.lang.StringUtils;
+
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
 import org.xwiki.context.Execution;
 import org.xwiki.query.QueryManager;
 import org.xwiki.store.dao.DocumentDao;
+import org.xwiki.store.dao.DocumentQuery;
+import org.xwiki.store.dao.LinkDao;
 import org.xwiki.store.dao.ObjectDao;
 import org.xwiki.store.dao.WikiDao;
+import org.xwiki.store.internal.HqlClauseParser;
 import org.xwiki.store.value.DocumentId;
 import org.xwiki.store.value.DocumentValue;
+import org.xwiki.store.value.LinkValue;
 import org.xwiki.store.value.ObjectId;
 import org.xwiki.store.value.ObjectValue;
 import org.xwiki.store.value.ValueConverter;
@@ -34,7 +46,7 @@
 /**
  * Clean version of {@link XWikiHibernateStore} 
  */
-public class DefaultStore implements XWikiStoreInterface
+public class DefaultStore implements XWikiStoreInterface, Initializable
 {
     /**
      * QueryManager for this store. Injected via component manager.
@@ -47,14 +59,27 @@ public class DefaultStore implements XWikiStoreInterface
 
     private ObjectDao objectDao;
 
+    private LinkDao linkDao;
+
     private Execution execution;
 
-    private ValueConverter valueConverter = new ValueConverter(execution);
+    /** Created once the execution has been injected. */
+    private ValueConverter valueConverter;
 
     private XWikiVersioningStoreInterface versioningStore;
 
     private XWikiAttachmentStoreInterface attachmentStore;
 
+    /**
+     * {@inheritDoc}
+     * 
+     * @see org.xwiki.component.phase.Initializable#initialize()
+     */
+    public void initialize() throws InitializationException
+    {
+        valueConverter = new ValueConverter(execution);
+    }
+
     /**
      * {@inheritDoc}
      * 
@@ -197,6 +222,10 @@ public XWikiDocument loadXWikiDoc(XWikiDocument doc, XWikiContext context) throw
 
             DocumentId docId = valueConverter.getId(doc);
             DocumentValue docValue = documentDao.load(docId);
+            if (docValue == null) {
+                doc.setNew(true);
+                return doc;
+            }
             docValue.database = context.getDatabase();
             doc = valueConverter.fromValue(docValue, doc);
             doc.setNew(false);
@@ -218,9 +247,9 @@ public XWikiDocument loadXWikiDoc(XWikiDocument doc, XWikiContext context) throw
             // of classes
             context.addBaseClass(bclass);
 
-            Collection<ObjectId> lst = objectDao.list(docId);
-            for (ObjectId oid : lst) {
-                ObjectValue ovalue = objectDao.load(oid);
+            // Fetch all the objects at once rather than one round trip per object
+            Map<ObjectId, ObjectValue> objects = objectDao.loadAll(objectDao.list(docId));
+            for (ObjectValue ovalue : objects.values()) {
                 BaseObject obj = valueConverter.fromValue(ovalue);
                 doc.setObject(obj.getClassName(), obj.getNumber(), obj);
                 obj.setWiki(context.getDatabase());
@@ -247,7 +276,6 @@ public void deleteXWikiDoc(XWikiDocument doc, XWikiContext context) throws XWiki
             }
 
             DocumentId docId = valueConverter.getId(doc);
-            documentDao.delete(docId);
 
             // Let's delete any attachment this document might have
             for (XWikiAttachment attachment : doc.getAttachmentList()) {
@@ -306,32 +334,96 @@ public void deleteLock(XWikiLock lock, XWikiContext context, boolean bTransactio
 
     public List<XWikiLink> loadLinks(long docId, XWikiContext context, boolean bTransaction) throws XWikiException
     {
-        List<XWikiLink> links = new ArrayList<XWikiLink>();
-        // TODO:
-        return links;
+        try {
+            List<XWikiLink> links = new ArrayList<XWikiLink>();
+            for (LinkValue value : linkDao.list(docId)) {
+                XWikiLink link = new XWikiLink();
+                link.setDocId(value.docId);
+                link.setFullName(value.fullName);
+                link.setLink(value.link);
+                links.add(link);
+            }
+            return links;
+        } catch (Exception e) {
+            throw new XWikiException(XWikiException.MODULE_XWIKI_STORE,
+                XWikiException.ERROR_XWIKI_STORE_HIBERNATE_LOADING_LINKS, "Exception while loading links", e);
+        }
     }
 
     public List loadBacklinks(String fullName, XWikiContext context, boolean bTransaction) throws XWikiException
     {
-        List backlinks = new ArrayList();
-        // TODO:
-        return backlinks;
+        try {
+            return new ArrayList<String>(linkDao.listBacklinks(fullName));
+        } catch (Exception e) {
+            throw new XWikiException(XWikiException.MODULE_XWIKI_STORE,
+                XWikiException.ERROR_XWIKI_STORE_HIBERNATE_LOADING_BACKLINKS, "Exception while loading backlinks", e);
+        }
     }
 
+    @SuppressWarnings("unchecked")
     public void saveLinks(XWikiDocument doc, XWikiContext context, boolean bTransaction) throws XWikiException
     {
-        // TODO:
+        try {
+            // necessary to blank links from doc
+            context.remove("links");
+            List<LinkValue> links = new ArrayList<LinkValue>();
+            for (String link : (List<String>) doc.getUniqueLinkedPages(context)) {
+                links.add(new LinkValue(doc.getId(), doc.getFullName(), link));
+            }
+            linkDao.save(doc.getId(), links);
+        } catch (Exception e) {
+            throw new XWikiException(XWikiException.MODULE_XWIKI_STORE,
+                XWikiException.ERROR_XWIKI_STORE_HIBERNATE_SAVING_LINKS, "Exception while saving links", e);
+        }
     }
 
     public void deleteLinks(long docId, XWikiContext context, boolean bTransaction) throws XWikiException
     {
-        // TODO:
+        try {
+            linkDao.delete(docId);
+        } catch (Exception e) {
+            throw new XWikiException(XWikiException.MODULE_XWIKI_STORE,
+                XWikiException.ERROR_XWIKI_STORE_HIBERNATE_DELETING_LINKS, "Exception while deleting links", e);
+        }
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Lists the classes having objects, the class definitions themselves are not indexed.
+     */
     public List<String> getClassList(XWikiContext context) throws XWikiException
     {
-        // TODO:
-        return Collections.emptyList();
+        try {
+            return new ArrayList<String>(objectDao.listClassNames());
+        } catch (Exception e) {
+            throw new XWikiException(XWikiException.MODULE_XWIKI_STORE,
+                XWikiException.ERROR_XWIKI_STORE_HIBERNATE_SEARCH, "Exception while listing classes", e);
+        }
+    }
+
+    /**
+     * Run a query on the documents of the current wiki, resolving its class criterion with the objects unless the
+     * document dao searches it.
+     */
+    protected List<DocumentId> search(DocumentQuery query, XWikiContext context) throws Exception
+    {
+        query.setWiki(context.getDatabase());
+        if (query.getClassName() != null && !documentDao.isSearchingClassName()) {
+            Set<String> fullNames = new HashSet<String>();
+            for (DocumentId docId : objectDao.listDocuments(query.getClassName())) {
+                fullNames.add(DocumentQuery.getFullName(docId.getSpace(), docId.getName()));
+            }
+            query.setFullNames(fullNames);
+        }
+        return documentDao.search(query);
+    }
+
+    private XWikiException searchException(String sql, Exception e)
+    {
+        Object[] args = {sql};
+        return new XWikiException(XWikiException.MODULE_XWIKI_STORE, XWikiException.ERROR_XWIKI_STORE_HIBERNATE_SEARCH,
+            "Exception while searching documents with sql {0}", e, args);
     }
 
     @Deprecated
@@ -345,7 +437,22 @@ public List<String> searchDocumentsNames(String parametrizedSqlClause, List para
     public List<String> searchDocumentsNames(String parametrizedSqlClause, int nb, int start, List parameterValues,
         XWikiContext context) throws XWikiException
     {
-        return Collections.emptyList();
+        try {
+            DocumentQuery query = HqlClauseParser.parseWhere(parametrizedSqlClause, parameterValues);
+            // One name per document, like the distinct selection of the hibernate store
+            if (query.getLanguage() == null) {
+                query.setLanguage("");
+            }
+            query.setOffset(start);
+            query.setLimit(nb);
+            List<String> names = new ArrayList<String>();
+            for (DocumentId docId : search(query, context)) {
+                names.add(DocumentQuery.getFullName(docId.getSpace(), docId.getName()));
+            }
+            return names;
+        } catch (Exception e) {
+            throw searchException(parametrizedSqlClause, e);
+        }
     }
 
     @Deprecated
@@ -367,20 +474,71 @@ public List search(String sql, int nb, int start, Object[][] whereParams, XWikiC
         return search(sql, nb, start, whereParams, null, context);
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Only selections of the name fields of documents are supported, see {@link HqlClauseParser}.
+     */
     @Deprecated    
     public List search(String sql, int nb, int start, Object[][] whereParams, List parameterValues, XWikiContext context)
         throws XWikiException
     {
-        // unsupported
-        return Collections.emptyList();
+        try {
+            if (whereParams != null && whereParams.length > 0) {
+                throw new IllegalArgumentException("Unsupported query: where parameters");
+            }
+            HqlClauseParser.Select select = HqlClauseParser.parseSelect(sql, parameterValues);
+            boolean paged = !select.distinct;
+            if (paged) {
+                select.query.setOffset(start);
+                select.query.setLimit(nb);
+            }
+            // Distinct rows are paged once duplicates are removed
+            Set<Object> rows = select.distinct ? new LinkedHashSet<Object>() : null;
+            List<Object> res = new ArrayList<Object>();
+            for (DocumentId docId : search(select.query, context)) {
+                Object[] row = new Object[select.columns.size()];
+                for (int i = 0; i < row.length; i++) {
+                    row[i] = getColumn(docId, select.columns.get(i));
+                }
+                Object value = row.length == 1 ? row[0] : row;
+                if (rows == null || rows.add(row.length == 1 ? value : Arrays.asList(row))) {
+                    res.add(value);
+                }
+            }
+            return paged ? res : page(res, nb, start);
+        } catch (Exception e) {
+            throw searchException(sql, e);
+        }
+    }
+
+    private static Object getColumn(DocumentId docId, String column)
+    {
+        if ("fullName".equals(column)) {
+            return DocumentQuery.getFullName(docId.getSpace(), docId.getName());
+        } else if ("space".equals(column) || "web".equals(column)) {
+            return docId.getSpace();
+        } else if ("name".equals(column)) {
+            return docId.getName();
+        } else if ("language".equals(column)) {
+            return StringUtils.defaultString(docId.getLanguage());
+        }
+        throw new IllegalArgumentException("Unsupported query: selection of " + column);
+    }
+
+    private static <T> List<T> page(List<T> list, int nb, int start)
+    {
+        int from = Math.min(start, list.size());
+        int to = nb > 0 ? Math.min(from + nb, list.size()) : list.size();
+        return new ArrayList<T>(list.subList(from, to));
     }
 
     @Deprecated
     public List<String> searchDocumentsNames(String wheresql, int nb, int start, String selectColumns,
         XWikiContext context) throws XWikiException
     {
-        // unsupported
-        return Collections.emptyList();
+        // Only the full names can be selected
+        return searchDocumentsNames(wheresql, nb, start, (List) null, context);
     }
 
     @Deprecated
@@ -394,8 +552,34 @@ public List<XWikiDocument> searchDocuments(String wheresql, boolean distinctbyla
     public List<XWikiDocument> searchDocuments(String wheresql, boolean distinctbylanguage, boolean customMapping,
         boolean checkRight, int nb, int start, List parameterValues, XWikiContext context) throws XWikiException
     {
-        // unsupported
-        return Collections.emptyList();
+        try {
+            DocumentQuery query = HqlClauseParser.parseWhere(wheresql, parameterValues);
+            if (distinctbylanguage && query.getLanguage() == null) {
+                query.setLanguage("");
+            }
+            // Rights are checked on the results so the paging has to be done afterwards
+            if (!checkRight) {
+                query.setOffset(start);
+                query.setLimit(nb);
+            }
+            List<XWikiDocument> documents = new ArrayList<XWikiDocument>();
+            for (DocumentId docId : search(query, context)) {
+                String fullName = DocumentQuery.getFullName(docId.getSpace(), docId.getName());
+                if (checkRight && !context.getWiki().getRightService().hasAccessLevel("view", context.getUser(),
+                    fullName, context)) {
+                    continue;
+                }
+                XWikiDocument doc = new XWikiDocument(docId.getSpace(), docId.getName());
+                doc.setDatabase(context.getDatabase());
+                if (!distinctbylanguage) {
+                    doc.setLanguage(docId.getLanguage());
+                }
+                documents.add(loadXWikiDoc(doc, context));
+            }
+            return checkRight ? page(documents, nb, start) : documents;
+        } catch (Exception e) {
+            throw searchException(wheresql, e);
+        }
     }
 
     @Deprecated
@@ -526,8 +710,23 @@ public List<XWikiDocument> searchDocuments(String wheresql, boolean distinctbyla
      */
     public List<String> getTranslationList(XWikiDocument doc, XWikiContext context) throws XWikiException
     {
-        // TODO:
-        return Collections.emptyList();
+        try {
+            DocumentQuery query = new DocumentQuery();
+            query.setSpace(doc.getSpace());
+            query.setName(doc.getName());
+            List<String> languages = new ArrayList<String>();
+            for (DocumentId docId : search(query, context)) {
+                if (!StringUtils.isEmpty(docId.getLanguage())) {
+                    languages.add(docId.getLanguage());
+                }
+            }
+            return languages;
+        } catch (Exception e) {
+            Object[] args = {doc.getFullName()};
+            throw new XWikiException(XWikiException.MODULE_XWIKI_STORE,
+                XWikiException.ERROR_XWIKI_STORE_HIBERNATE_SEARCH, "Exception while listing translations of {0}", e,
+                args);
+        }
     }
 
     /**
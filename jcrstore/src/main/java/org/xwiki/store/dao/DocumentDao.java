@@ -1,8 +1,22 @@
 package org.xwiki.store.dao;
 
+import java.util.List;
+
 import org.xwiki.store.value.DocumentId;
 import org.xwiki.store.value.DocumentValue;
 
 public interface DocumentDao extends GenericDao<DocumentId, DocumentValue>
 {
+    /**
+     * Find the documents matching a query through the indexes of the storage rather than by scanning all documents.
+     * 
+     * @return the ids of the matching documents, ordered and paged as requested by the query.
+     */
+    List<DocumentId> search(DocumentQuery query) throws Exception;
+
+    /**
+     * @return true if {@link #search(DocumentQuery)} applies the class name criterion itself, false if the store has
+     *         to resolve it into the full names of the documents having objects of the class.
+     */
+    boolean isSearchingClassName();
 }
@@ -0,0 +1,227 @@
+package org.xwiki.store.dao;
+
+import java.util.Date;
+import java.util.Set;
+
+import org.apache.commons.lang.StringUtils;
+import org.xwiki.store.value.DocumentId;
+import org.xwiki.store.value.DocumentValue;
+
+/**
+ * Criteria of a document search. Criteria left to null match any document, the default language is matched by both
+ * null and the empty string.
+ */
+public class DocumentQuery
+{
+    public enum Order
+    {
+        NONE, DATE, NAME
+    }
+
+    private String wiki;
+
+    private String space;
+
+    private String name;
+
+    private String parent;
+
+    private String language;
+
+    private String author;
+
+    /**
+     * Searched by the document dao when it can see the objects, otherwise resolved by the store into
+     * {@link #fullNames}.
+     */
+    private String className;
+
+    private Set<String> fullNames;
+
+    private Date minDate;
+
+    private Date maxDate;
+
+    private Order order = Order.NONE;
+
+    private boolean descending;
+
+    private int offset;
+
+    private int limit;
+
+    public static String getFullName(String space, String name)
+    {
+        return space + '.' + name;
+    }
+
+    /**
+     * @return whether the value matches all the criteria but the class name, which is only checked through the full
+     *         names it was resolved to.
+     */
+    public boolean matches(DocumentValue value)
+    {
+        return matchesName(value.space, value.name)
+            && (wiki == null || wiki.equals(value.database))
+            && (parent == null || parent.equals(value.parent))
+            && (language == null || language.equals(StringUtils.defaultString(value.language)))
+            && (author == null || author.equals(value.author))
+            && (minDate == null || (value.date != null && !value.date.before(minDate)))
+            && (maxDate == null || (value.date != null && !value.date.after(maxDate)));
+    }
+
+    public boolean matchesName(String space, String name)
+    {
+        return (this.space == null || this.space.equals(space))
+            && (this.name == null || this.name.equals(name))
+            && (fullNames == null || fullNames.contains(getFullName(space, name)));
+    }
+
+    public boolean matchesName(DocumentId id)
+    {
+        return matchesName(id.getSpace(), id.getName());
+    }
+
+    public String getWiki()
+    {
+        return wiki;
+    }
+
+    public void setWiki(String wiki)
+    {
+        this.wiki = wiki;
+    }
+
+    public String getSpace()
+    {
+        return space;
+    }
+
+    public void setSpace(String space)
+    {
+        this.space = space;
+    }
+
+    public String getName()
+    {
+        return name;
+    }
+
+    public void setName(String name)
+    {
+        this.name = name;
+    }
+
+    public String getParent()
+    {
+        return parent;
+    }
+
+    public void setParent(String parent)
+    {
+        this.parent = parent;
+    }
+
+    public String getLanguage()
+    {
+        return language;
+    }
+
+    public void setLanguage(String language)
+    {
+        this.language = language;
+    }
+
+    public String getAuthor()
+    {
+        return author;
+    }
+
+    public void setAuthor(String author)
+    {
+        this.author = author;
+    }
+
+    public String getClassName()
+    {
+        return className;
+    }
+
+    public void setClassName(String className)
+    {
+        this.className = className;
+    }
+
+    public Set<String> getFullNames()
+    {
+        return fullNames;
+    }
+
+    public void setFullNames(Set<String> fullNames)
+    {
+        this.fullNames = fullNames;
+    }
+
+    public Date getMinDate()
+    {
+        return minDate;
+    }
+
+    /** @param minDate the earliest modification date matched, inclusive */
+    public void setMinDate(Date minDate)
+    {
+        this.minDate = minDate;
+    }
+
+    public Date getMaxDate()
+    {
+        return maxDate;
+    }
+
+    /** @param maxDate the latest modification date matched, inclusive */
+    public void setMaxDate(Date maxDate)
+    {
+        this.maxDate = maxDate;
+    }
+
+    public Order getOrder()
+    {
+        return order;
+    }
+
+    public void setOrder(Order order)
+    {
+        this.order = order;
+    }
+
+    public boolean isDescending()
+    {
+        return descending;
+    }
+
+    public void setDescending(boolean descending)
+    {
+        this.descending = descending;
+    }
+
+    public int getOffset()
+    {
+        return offset;
+    }
+
+    public void setOffset(int offset)
+    {
+        this.offset = offset;
+    }
+
+    /** @return the maximum number of results, 0 for no limit */
+    public int getLimit()
+    {
+        return limit;
+    }
+
+    public void setLimit(int limit)
+    {
+        this.limit = limit;
+    }
+}
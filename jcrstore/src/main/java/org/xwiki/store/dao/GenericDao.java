@@ -1,9 +1,19 @@
 package org.xwiki.store.dao;
 
+import java.util.Collection;
+import java.util.Map;
+
 public interface GenericDao<I, E>
 {
     E load(I id) throws Exception;
 
+    /**
+     * Load several entities at once, implementations fetch all of them in a single round trip to the storage.
+     * 
+     * @return the loaded entities in the order of the ids, ids which do not exist are left out.
+     */
+    Map<I, E> loadAll(Collection<I> ids) throws Exception;
+
     void save(E entity) throws Exception;
 
     void delete(I id) throws Exception;
@@ -0,0 +1,22 @@
+package org.xwiki.store.dao;
+
+import java.util.Collection;
+
+import org.xwiki.store.value.LinkValue;
+
+public interface LinkDao
+{
+    Collection<LinkValue> list(long docId) throws Exception;
+
+    /**
+     * @return the full names of the documents linking to the page, without duplicates.
+     */
+    Collection<String> listBacklinks(String link) throws Exception;
+
+    /**
+     * Replace all the links of a document.
+     */
+    void save(long docId, Collection<LinkValue> links) throws Exception;
+
+    void delete(long docId) throws Exception;
+}
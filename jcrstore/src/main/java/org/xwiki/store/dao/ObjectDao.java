@@ -9,4 +9,14 @@
 public interface ObjectDao extends GenericDao<ObjectId, ObjectValue>
 {
     Collection<ObjectId> list(DocumentId docId);
+
+    /**
+     * @return the names of the classes having objects, sorted.
+     */
+    Collection<String> listClassNames() throws Exception;
+
+    /**
+     * @return the ids of the documents holding at least one object of the class.
+     */
+    Collection<DocumentId> listDocuments(String className) throws Exception;
 }
@@ -3,6 +3,7 @@
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
@@ -31,6 +32,18 @@ public AttachmentValue load(AttachmentId id)
         return attachments.get(id);
     }
 
+    public Map<AttachmentId, AttachmentValue> loadAll(Collection<AttachmentId> ids)
+    {
+        Map<AttachmentId, AttachmentValue> res = new LinkedHashMap<AttachmentId, AttachmentValue>();
+        for (AttachmentId id : ids) {
+            AttachmentValue value = attachments.get(id);
+            if (value != null) {
+                res.put(id, value);
+            }
+        }
+        return res;
+    }
+
     public void save(AttachmentValue entity)
     {
         AttachmentId aId = entity.getId();
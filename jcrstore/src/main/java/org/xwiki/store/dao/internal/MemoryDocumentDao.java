@@ -1,19 +1,56 @@
 package org.xwiki.store.dao.internal;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
 
+import org.apache.commons.lang.StringUtils;
 import org.xwiki.store.dao.DocumentDao;
+import org.xwiki.store.dao.DocumentQuery;
 import org.xwiki.store.value.DocumentId;
 import org.xwiki.store.value.DocumentValue;
 
+/**
+ * Keeps the documents in memory, with secondary indexes on the space, full name, parent, language and date so that a
+ * search only looks at the documents of its most selective criterion. A page of an ordered search walks the full name
+ * or date index in order and stops once the page is filled, unless a criterion selects few enough documents to sort.
+ */
 public class MemoryDocumentDao implements DocumentDao
 {
     protected Map<DocumentId, DocumentValue> documents = new ConcurrentHashMap<DocumentId, DocumentValue>();
 
-    public void delete(DocumentId id)
+    // The indexes are only accessed with the lock of the dao held
+
+    protected Map<String, Set<DocumentId>> spaceIndex = new HashMap<String, Set<DocumentId>>();
+
+    protected SortedMap<String, Set<DocumentId>> fullNameIndex = new TreeMap<String, Set<DocumentId>>();
+
+    protected Map<String, Set<DocumentId>> parentIndex = new HashMap<String, Set<DocumentId>>();
+
+    protected Map<String, Set<DocumentId>> languageIndex = new HashMap<String, Set<DocumentId>>();
+
+    protected SortedMap<Date, Set<DocumentId>> dateIndex = new TreeMap<Date, Set<DocumentId>>();
+
+    /** The documents without a date, which are not in the date index and sort before the others */
+    protected Set<DocumentId> undatedIndex = new HashSet<DocumentId>();
+
+    public synchronized void delete(DocumentId id)
     {
-        documents.remove(id);
+        DocumentValue old = documents.remove(id);
+        if (old != null) {
+            unindex(id, old);
+        }
     }
 
     public DocumentValue load(DocumentId id)
@@ -21,8 +58,290 @@ public DocumentValue load(DocumentId id)
         return documents.get(id);
     }
 
-    public void save(DocumentValue entity)
+    public Map<DocumentId, DocumentValue> loadAll(Collection<DocumentId> ids)
+    {
+        Map<DocumentId, DocumentValue> res = new LinkedHashMap<DocumentId, DocumentValue>();
+        for (DocumentId id : ids) {
+            DocumentValue value = documents.get(id);
+            if (value != null) {
+                res.put(id, value);
+            }
+        }
+        return res;
+    }
+
+    public synchronized void save(DocumentValue entity)
+    {
+        DocumentId id = entity.getId();
+        DocumentValue old = documents.put(id, entity);
+        if (old != null) {
+            unindex(id, old);
+        }
+        index(spaceIndex, entity.space, id);
+        index(fullNameIndex, DocumentQuery.getFullName(entity.space, entity.name), id);
+        index(parentIndex, entity.parent, id);
+        index(languageIndex, StringUtils.defaultString(entity.language), id);
+        index(dateIndex, entity.date, id);
+        if (entity.date == null) {
+            undatedIndex.add(id);
+        }
+    }
+
+    public synchronized List<DocumentId> search(final DocumentQuery query)
+    {
+        Collection<DocumentId> candidates = null;
+        if (query.getSpace() != null && query.getName() != null) {
+            candidates = get(fullNameIndex, DocumentQuery.getFullName(query.getSpace(), query.getName()));
+        }
+        if (query.getFullNames() != null) {
+            Set<DocumentId> named = new HashSet<DocumentId>();
+            for (String fullName : query.getFullNames()) {
+                named.addAll(get(fullNameIndex, fullName));
+            }
+            candidates = smallest(candidates, named);
+        }
+        candidates = smallest(candidates, get(spaceIndex, query.getSpace()));
+        candidates = smallest(candidates, get(parentIndex, query.getParent()));
+        candidates = smallest(candidates, get(languageIndex, query.getLanguage()));
+        if (isWalked(query, candidates)) {
+            return searchPage(query, candidates);
+        }
+        if (candidates == null && (query.getMinDate() != null || query.getMaxDate() != null)) {
+            candidates = new ArrayList<DocumentId>();
+            for (Set<DocumentId> ids : getDateRange(query.getMinDate(), query.getMaxDate()).values()) {
+                candidates.addAll(ids);
+            }
+        }
+        if (candidates == null) {
+            candidates = documents.keySet();
+        }
+
+        List<DocumentValue> res = new ArrayList<DocumentValue>();
+        for (DocumentId id : candidates) {
+            DocumentValue value = documents.get(id);
+            if (value != null && query.matches(value)) {
+                res.add(value);
+            }
+        }
+        if (query.getOrder() != DocumentQuery.Order.NONE) {
+            Collections.sort(res, new Comparator<DocumentValue>()
+            {
+                public int compare(DocumentValue v1, DocumentValue v2)
+                {
+                    int c;
+                    if (query.getOrder() == DocumentQuery.Order.DATE) {
+                        c = compareNullable(v1.date, v2.date);
+                    } else {
+                        c = compareNullable(DocumentQuery.getFullName(v1.space, v1.name),
+                            DocumentQuery.getFullName(v2.space, v2.name));
+                    }
+                    return query.isDescending() ? -c : c;
+                }
+            });
+        }
+
+        int from = Math.min(query.getOffset(), res.size());
+        int to = query.getLimit() > 0 ? Math.min(from + query.getLimit(), res.size()) : res.size();
+        List<DocumentId> ids = new ArrayList<DocumentId>(to - from);
+        for (DocumentValue value : res.subList(from, to)) {
+            ids.add(value.getId());
+        }
+        return ids;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The objects are kept by the object dao, so the store resolves the class name.
+     */
+    public boolean isSearchingClassName()
+    {
+        return false;
+    }
+
+    /**
+     * @return whether the page is found faster by walking the index of the order than by sorting the candidates
+     */
+    private static boolean isWalked(DocumentQuery query, Collection<DocumentId> candidates)
+    {
+        if (query.getLimit() <= 0 || query.getOrder() == DocumentQuery.Order.NONE) {
+            return false;
+        }
+        if (candidates != null) {
+            return candidates.size() > query.getOffset() + query.getLimit();
+        }
+        // A date range may be more selective than the whole name index
+        return query.getOrder() == DocumentQuery.Order.DATE
+            || (query.getMinDate() == null && query.getMaxDate() == null);
+    }
+
+    /**
+     * Walks the index of the order of the query until the page is filled, rather than sorting every match.
+     * 
+     * @param candidates the documents of the most selective criterion, or null when no indexed criterion is set
+     */
+    private List<DocumentId> searchPage(DocumentQuery query, Collection<DocumentId> candidates)
+    {
+        Page page = new Page(query, candidates);
+        if (query.getOrder() == DocumentQuery.Order.NAME) {
+            page.walk(fullNameIndex, query.isDescending());
+        } else if (query.getMinDate() != null || query.getMaxDate() != null) {
+            page.walk(getDateRange(query.getMinDate(), query.getMaxDate()), query.isDescending());
+        } else if (query.isDescending()) {
+            if (page.walk(dateIndex, true)) {
+                page.add(undatedIndex);
+            }
+        } else if (page.add(undatedIndex)) {
+            page.walk(dateIndex, false);
+        }
+        return page.ids;
+    }
+
+    private SortedMap<Date, Set<DocumentId>> getDateRange(Date min, Date max)
     {
-        documents.put(entity.getId(), entity);
+        if (min != null && max != null) {
+            // subMap excludes its upper bound
+            return dateIndex.subMap(min, new Date(max.getTime() + 1));
+        } else if (min != null) {
+            return dateIndex.tailMap(min);
+        } else {
+            return dateIndex.headMap(new Date(max.getTime() + 1));
+        }
+    }
+
+    private void unindex(DocumentId id, DocumentValue old)
+    {
+        unindex(spaceIndex, old.space, id);
+        unindex(fullNameIndex, DocumentQuery.getFullName(old.space, old.name), id);
+        unindex(parentIndex, old.parent, id);
+        unindex(languageIndex, StringUtils.defaultString(old.language), id);
+        unindex(dateIndex, old.date, id);
+        undatedIndex.remove(id);
+    }
+
+    private static <K> void index(Map<K, Set<DocumentId>> index, K key, DocumentId id)
+    {
+        if (key != null) {
+            Set<DocumentId> ids = index.get(key);
+            if (ids == null) {
+                ids = new HashSet<DocumentId>();
+                index.put(key, ids);
+            }
+            ids.add(id);
+        }
+    }
+
+    private static <K> void unindex(Map<K, Set<DocumentId>> index, K key, DocumentId id)
+    {
+        if (key != null) {
+            Set<DocumentId> ids = index.get(key);
+            if (ids != null) {
+                ids.remove(id);
+                if (ids.isEmpty()) {
+                    index.remove(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the documents having the key in the index, or null when the criterion is not set.
+     */
+    private static Collection<DocumentId> get(Map<String, Set<DocumentId>> index, String key)
+    {
+        if (key == null) {
+            return null;
+        }
+        Set<DocumentId> ids = index.get(key);
+        return ids != null ? ids : Collections.<DocumentId> emptySet();
+    }
+
+    private static Collection<DocumentId> smallest(Collection<DocumentId> c1, Collection<DocumentId> c2)
+    {
+        if (c1 == null || (c2 != null && c2.size() < c1.size())) {
+            return c2;
+        }
+        return c1;
+    }
+
+    private static <T extends Comparable<T>> int compareNullable(T o1, T o2)
+    {
+        if (o1 == null) {
+            return o2 == null ? 0 : -1;
+        }
+        return o2 == null ? 1 : o1.compareTo(o2);
+    }
+
+    /**
+     * The page of an ordered search, filled with the matching documents in the order they are visited.
+     */
+    private class Page
+    {
+        final List<DocumentId> ids;
+
+        private final DocumentQuery query;
+
+        private final Collection<DocumentId> candidates;
+
+        private int skip;
+
+        Page(DocumentQuery query, Collection<DocumentId> candidates)
+        {
+            this.query = query;
+            this.candidates = candidates;
+            this.skip = query.getOffset();
+            this.ids = new ArrayList<DocumentId>(query.getLimit());
+        }
+
+        /**
+         * @return whether the page can take more documents
+         */
+        boolean add(Collection<DocumentId> visited)
+        {
+            for (DocumentId id : visited) {
+                if (ids.size() == query.getLimit()) {
+                    return false;
+                }
+                if (candidates != null && !candidates.contains(id)) {
+                    continue;
+                }
+                DocumentValue value = documents.get(id);
+                if (value != null && query.matches(value)) {
+                    if (skip > 0) {
+                        skip--;
+                    } else {
+                        ids.add(id);
+                    }
+                }
+            }
+            return ids.size() < query.getLimit();
+        }
+
+        /**
+         * Visits the documents of an index in the order of its keys.
+         * 
+         * @return whether the page can take more documents
+         */
+        <K> boolean walk(SortedMap<K, Set<DocumentId>> index, boolean descending)
+        {
+            if (!descending) {
+                for (Set<DocumentId> visited : index.values()) {
+                    if (!add(visited)) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+            // Sorted maps can only be iterated in ascending order, so each step takes the last key of a head map
+            SortedMap<K, Set<DocumentId>> remaining = index;
+            while (!remaining.isEmpty()) {
+                K key = remaining.lastKey();
+                if (!add(remaining.get(key))) {
+                    return false;
+                }
+                remaining = remaining.headMap(key);
+            }
+            return true;
+        }
     }
 }
@@ -0,0 +1,69 @@
+package org.xwiki.store.dao.internal;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.xwiki.store.dao.LinkDao;
+import org.xwiki.store.value.LinkValue;
+
+/**
+ * Keeps the links in memory, indexed by the linking document and by the linked page.
+ */
+public class MemoryLinkDao implements LinkDao
+{
+    protected Map<Long, Collection<LinkValue>> links = new HashMap<Long, Collection<LinkValue>>();
+
+    protected Map<String, Set<LinkValue>> backlinks = new HashMap<String, Set<LinkValue>>();
+
+    public synchronized Collection<LinkValue> list(long docId)
+    {
+        Collection<LinkValue> res = links.get(docId);
+        return res != null ? new ArrayList<LinkValue>(res) : Collections.<LinkValue> emptyList();
+    }
+
+    public synchronized Collection<String> listBacklinks(String link)
+    {
+        Set<String> res = new LinkedHashSet<String>();
+        Set<LinkValue> values = backlinks.get(link);
+        if (values != null) {
+            for (LinkValue value : values) {
+                res.add(value.fullName);
+            }
+        }
+        return res;
+    }
+
+    public synchronized void save(long docId, Collection<LinkValue> values)
+    {
+        delete(docId);
+        links.put(docId, new ArrayList<LinkValue>(values));
+        for (LinkValue value : values) {
+            if (backlinks.get(value.link) == null) {
+                backlinks.put(value.link, new HashSet<LinkValue>());
+            }
+            backlinks.get(value.link).add(value);
+        }
+    }
+
+    public synchronized void delete(long docId)
+    {
+        Collection<LinkValue> old = links.remove(docId);
+        if (old != null) {
+            for (LinkValue value : old) {
+                Set<LinkValue> values = backlinks.get(value.link);
+                if (values != null) {
+                    values.remove(value);
+                    if (values.isEmpty()) {
+                        backlinks.remove(value.link);
+                    }
+                }
+            }
+        }
+    }
+}
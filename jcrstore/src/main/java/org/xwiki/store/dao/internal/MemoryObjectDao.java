@@ -2,9 +2,13 @@
 
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
 
 import org.xwiki.store.dao.ObjectDao;
@@ -16,6 +20,8 @@ public class MemoryObjectDao implements ObjectDao
 {
     Map<DocumentId, Set<ObjectId>> objectIds = new ConcurrentHashMap<DocumentId, Set<ObjectId>>();
     Map<ObjectId, ObjectValue> objects = new ConcurrentHashMap<ObjectId, ObjectValue>();
+    /** Objects by class name, only accessed with the lock of the dao held. */
+    Map<String, Set<ObjectId>> classIndex = new HashMap<String, Set<ObjectId>>();
 
     public Collection<ObjectId> list(DocumentId docId)
     {
@@ -28,10 +34,27 @@ public Collection<ObjectId> list(DocumentId docId)
         return res;
     }
 
-    public void delete(ObjectId id)
+    public synchronized Collection<String> listClassNames()
     {
-        objects.remove(id);
-        Set<ObjectId> objs = objectIds.get(id);
+        return new TreeSet<String>(classIndex.keySet());
+    }
+
+    public synchronized Collection<DocumentId> listDocuments(String className)
+    {
+        Set<DocumentId> res = new LinkedHashSet<DocumentId>();
+        Set<ObjectId> ids = classIndex.get(className);
+        if (ids != null) {
+            for (ObjectId id : ids) {
+                res.add(id.getDocumentId());
+            }
+        }
+        return res;
+    }
+
+    public synchronized void delete(ObjectId id)
+    {
+        unindex(id, objects.remove(id));
+        Set<ObjectId> objs = objectIds.get(id.getDocumentId());
         if (objs != null) {
             objs.remove(id);
         }
@@ -42,13 +65,44 @@ public ObjectValue load(ObjectId id)
         return objects.get(id);
     }
 
-    public void save(ObjectValue entity)
+    public Map<ObjectId, ObjectValue> loadAll(Collection<ObjectId> ids)
+    {
+        Map<ObjectId, ObjectValue> res = new LinkedHashMap<ObjectId, ObjectValue>();
+        for (ObjectId id : ids) {
+            ObjectValue value = objects.get(id);
+            if (value != null) {
+                res.put(id, value);
+            }
+        }
+        return res;
+    }
+
+    public synchronized void save(ObjectValue entity)
     {
         ObjectId oId = entity.getId();
-        objects.put(oId, entity);
+        unindex(oId, objects.put(oId, entity));
+        if (entity.className != null) {
+            if (classIndex.get(entity.className) == null) {
+                classIndex.put(entity.className, new HashSet<ObjectId>());
+            }
+            classIndex.get(entity.className).add(oId);
+        }
         if (objectIds.get(oId.getDocumentId()) == null) {
             objectIds.put(oId.getDocumentId(), new HashSet<ObjectId>());
         }
-        objectIds.get(oId).add(oId);
+        objectIds.get(oId.getDocumentId()).add(oId);
+    }
+
+    private void unindex(ObjectId id, ObjectValue old)
+    {
+        if (old != null && old.className != null) {
+            Set<ObjectId> ids = classIndex.get(old.className);
+            if (ids != null) {
+                ids.remove(id);
+                if (ids.isEmpty()) {
+                    classIndex.remove(old.className);
+                }
+            }
+        }
     }
 }
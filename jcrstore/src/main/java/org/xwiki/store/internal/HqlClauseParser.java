@@ -0,0 +1,348 @@
+package org.xwiki.store.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.xwiki.store.dao.DocumentQuery;
+
+/**
+ * Translates the HQL queries given to the deprecated search methods of the store into {@link DocumentQuery}. Only the
+ * common forms are understood: conjunctions of comparisons between a document field and a value, optionally joined
+ * with the objects of a class, and ordered by date or name. Several bounds on the date are combined into the
+ * narrowest range, while different values required for the same field are rejected. Anything else is rejected with an
+ * {@link IllegalArgumentException} rather than answered wrongly.
+ */
+public class HqlClauseParser
+{
+    /** Result of {@link HqlClauseParser#parseSelect(String, List)}. */
+    public static class Select
+    {
+        public boolean distinct;
+
+        /** Names of the selected document fields. */
+        public List<String> columns = new ArrayList<String>();
+
+        public DocumentQuery query;
+    }
+
+    private static final Pattern TOKEN = Pattern.compile("\\s*('(?:[^']|'')*'|\\?|>=|<=|<>|!=|[=<>(),]|[\\w.]+)");
+
+    private static final String DEFAULT_DOCUMENT_ALIAS = "doc";
+
+    private List<String> tokens;
+
+    private int pos;
+
+    private Iterator< ? > parameters;
+
+    private String documentAlias = DEFAULT_DOCUMENT_ALIAS;
+
+    private String objectAlias;
+
+    /** True once the objects have been joined with their document */
+    private boolean joined;
+
+    private DocumentQuery query = new DocumentQuery();
+
+    private HqlClauseParser(String hql, List< ? > parameterValues)
+    {
+        tokens = tokenize(hql);
+        parameters = (parameterValues != null ? parameterValues : Collections.emptyList()).iterator();
+    }
+
+    /**
+     * Parse the clause appended by the store to {@code select ... from XWikiDocument as doc}.
+     */
+    public static DocumentQuery parseWhere(String clause, List< ? > parameterValues)
+    {
+        HqlClauseParser parser = new HqlClauseParser(clause == null ? "" : clause, parameterValues);
+        parser.parseClause();
+        return parser.query;
+    }
+
+    /**
+     * Parse a complete query selecting fields of documents.
+     */
+    public static Select parseSelect(String hql, List< ? > parameterValues)
+    {
+        HqlClauseParser parser = new HqlClauseParser(hql, parameterValues);
+        Select select = new Select();
+        parser.expect("select");
+        select.distinct = parser.accept("distinct");
+        List<String> paths = new ArrayList<String>();
+        do {
+            paths.add(parser.next());
+        } while (parser.accept(","));
+        parser.expect("from");
+        parser.expect("XWikiDocument");
+        parser.accept("as");
+        parser.documentAlias = parser.next();
+        for (String path : paths) {
+            select.columns.add(parser.getDocumentField(path));
+        }
+        parser.parseClause();
+        select.query = parser.query;
+        return select;
+    }
+
+    private void parseClause()
+    {
+        if (accept(",")) {
+            expect("BaseObject");
+            accept("as");
+            objectAlias = next();
+        }
+        if (accept("where")) {
+            parseConditions();
+        }
+        if (objectAlias != null) {
+            // Without both, the objects would not restrict the documents, every document would be returned
+            if (!joined) {
+                throw unsupported("objects not joined with their document");
+            }
+            if (query.getClassName() == null) {
+                throw unsupported("objects without a className condition");
+            }
+        }
+        if (accept("order")) {
+            expect("by");
+            String field = getDocumentField(next());
+            if ("date".equals(field)) {
+                query.setOrder(DocumentQuery.Order.DATE);
+            } else if ("fullName".equals(field) || "name".equals(field)) {
+                query.setOrder(DocumentQuery.Order.NAME);
+            } else {
+                throw unsupported("order on " + field);
+            }
+            if (accept("desc")) {
+                query.setDescending(true);
+            } else {
+                accept("asc");
+            }
+        }
+        if (pos < tokens.size()) {
+            throw unsupported(tokens.get(pos));
+        }
+    }
+
+    private void parseConditions()
+    {
+        do {
+            if (accept("(")) {
+                parseConditions();
+                expect(")");
+            } else {
+                parseCondition();
+            }
+        } while (accept("and"));
+    }
+
+    private void parseCondition()
+    {
+        Object left = parseOperand();
+        String op = next();
+        Object right = parseOperand();
+        if (left instanceof Path && right instanceof Path) {
+            // The join of the objects with their document
+            String l = left.toString();
+            String r = right.toString();
+            String docName = documentAlias + ".fullName";
+            String objName = objectAlias + ".name";
+            boolean join = l.equals(docName) && r.equals(objName) || l.equals(objName) && r.equals(docName);
+            if (!"=".equals(op) || !join) {
+                throw unsupported(l + op + r);
+            }
+            joined = true;
+        } else if (left instanceof Path) {
+            apply((Path) left, op, right);
+        } else if (right instanceof Path) {
+            apply((Path) right, reverse(op), left);
+        } else {
+            throw unsupported(left + op + right);
+        }
+    }
+
+    private void apply(Path path, String op, Object value)
+    {
+        if (path.alias.equals(objectAlias) && "className".equals(path.field) && "=".equals(op)) {
+            query.setClassName(combine("className", query.getClassName(), toString(value)));
+            return;
+        }
+        String field = getDocumentField(path.toString());
+        if ("date".equals(field) && value instanceof Date) {
+            long time = ((Date) value).getTime();
+            if (">".equals(op)) {
+                query.setMinDate(later(query.getMinDate(), new Date(time + 1)));
+            } else if (">=".equals(op)) {
+                query.setMinDate(later(query.getMinDate(), (Date) value));
+            } else if ("<".equals(op)) {
+                query.setMaxDate(earlier(query.getMaxDate(), new Date(time - 1)));
+            } else if ("<=".equals(op)) {
+                query.setMaxDate(earlier(query.getMaxDate(), (Date) value));
+            } else {
+                throw unsupported(field + op);
+            }
+            return;
+        }
+        if (!"=".equals(op)) {
+            throw unsupported(field + op);
+        }
+        String str = toString(value);
+        if ("space".equals(field) || "web".equals(field)) {
+            query.setSpace(combine(field, query.getSpace(), str));
+        } else if ("name".equals(field)) {
+            query.setName(combine(field, query.getName(), str));
+        } else if ("fullName".equals(field)) {
+            int dot = str.indexOf('.');
+            if (dot < 0) {
+                throw unsupported("fullName without space: " + str);
+            }
+            query.setSpace(combine(field, query.getSpace(), str.substring(0, dot)));
+            query.setName(combine(field, query.getName(), str.substring(dot + 1)));
+        } else if ("parent".equals(field)) {
+            query.setParent(combine(field, query.getParent(), str));
+        } else if ("language".equals(field)) {
+            query.setLanguage(combine(field, query.getLanguage(), str));
+        } else if ("author".equals(field)) {
+            query.setAuthor(combine(field, query.getAuthor(), str));
+        } else {
+            throw unsupported("condition on " + field);
+        }
+    }
+
+    private Object parseOperand()
+    {
+        String token = next();
+        if ("?".equals(token)) {
+            if (!parameters.hasNext()) {
+                throw new IllegalArgumentException("Missing value for query parameter");
+            }
+            return parameters.next();
+        } else if (token.startsWith("'")) {
+            return token.substring(1, token.length() - 1).replace("''", "'");
+        }
+        int dot = token.indexOf('.');
+        if (dot > 0) {
+            String alias = token.substring(0, dot);
+            if (alias.equals(documentAlias) || alias.equals(objectAlias)) {
+                return new Path(alias, token.substring(dot + 1));
+            }
+        }
+        throw unsupported(token);
+    }
+
+    private String getDocumentField(String path)
+    {
+        if (!path.startsWith(documentAlias + '.')) {
+            throw unsupported(path);
+        }
+        return path.substring(documentAlias.length() + 1);
+    }
+
+    /**
+     * @return the value required for a field, which can only be required once unless with the same value
+     */
+    private static String combine(String field, String current, String value)
+    {
+        if (current != null && !current.equals(value)) {
+            throw unsupported("conflicting conditions on " + field);
+        }
+        return value;
+    }
+
+    private static Date later(Date current, Date bound)
+    {
+        return current == null || bound.after(current) ? bound : current;
+    }
+
+    private static Date earlier(Date current, Date bound)
+    {
+        return current == null || bound.before(current) ? bound : current;
+    }
+
+    private static String reverse(String op)
+    {
+        if (op.startsWith("<") && !"<>".equals(op)) {
+            return ">" + op.substring(1);
+        } else if (op.startsWith(">")) {
+            return "<" + op.substring(1);
+        }
+        return op;
+    }
+
+    private static String toString(Object value)
+    {
+        if (value instanceof String) {
+            return (String) value;
+        }
+        throw unsupported("value " + value);
+    }
+
+    private boolean accept(String token)
+    {
+        if (pos < tokens.size() && tokens.get(pos).equalsIgnoreCase(token)) {
+            pos++;
+            return true;
+        }
+        return false;
+    }
+
+    private void expect(String token)
+    {
+        if (!accept(token)) {
+            throw unsupported(pos < tokens.size() ? tokens.get(pos) : "end of query");
+        }
+    }
+
+    private String next()
+    {
+        if (pos >= tokens.size()) {
+            throw unsupported("end of query");
+        }
+        return tokens.get(pos++);
+    }
+
+    private static IllegalArgumentException unsupported(String what)
+    {
+        return new IllegalArgumentException("Unsupported query: " + what);
+    }
+
+    private static List<String> tokenize(String hql)
+    {
+        List<String> res = new ArrayList<String>();
+        Matcher matcher = TOKEN.matcher(hql);
+        int end = 0;
+        while (matcher.find() && matcher.start() == end) {
+            res.add(matcher.group(1));
+            end = matcher.end();
+        }
+        if (hql.substring(end).trim().length() > 0) {
+            throw unsupported(hql.substring(end));
+        }
+        return res;
+    }
+
+    private static class Path
+    {
+        final String alias;
+
+        final String field;
+
+        Path(String alias, String field)
+        {
+            this.alias = alias;
+            this.field = field;
+        }
+
+        @Override
+        public String toString()
+        {
+            return alias + '.' + field;
+        }
+    }
+}
@@ -29,6 +29,14 @@ public static Node createNodeHierarhy(Node root, String path, String... nodeType
         return root;
     }
 
+    /**
+     * @return the value quoted as an XPath string literal.
+     */
+    public static String toXPathLiteral(String value)
+    {
+        return "'" + StringUtils.replace(value, "'", "''") + "'";
+    }
+
     public static String[] splitPath(String path)
     {
         // TODO: encoding
@@ -1,10 +1,26 @@
 package org.xwiki.store.jcr.internal.dao;
 
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 import javax.jcr.Node;
+import javax.jcr.NodeIterator;
 import javax.jcr.Session;
+import javax.jcr.query.Query;
 
+import org.apache.commons.lang.StringUtils;
 import org.jcrom.Jcrom;
 import org.xwiki.store.dao.DocumentDao;
+import org.xwiki.store.dao.DocumentQuery;
 import org.xwiki.store.jcr.JcrTemplate;
 import org.xwiki.store.jcr.JcromProvider;
 import org.xwiki.store.jcr.JcrTemplate.JcrCallback;
@@ -12,12 +28,16 @@
 import org.xwiki.store.value.DocumentId;
 import org.xwiki.store.value.DocumentValue;
 
+/**
+ * Documents are stored at /space/name, translations at /space/name/language. Searches are XPath queries so they are
+ * answered by the property indexes of the repository.
+ */
 public class JcrDocumentDao implements DocumentDao
 {
     private JcrTemplate jcrTemplate;
     private JcromProvider jcromProvider;
 
-    String getJcrPath(DocumentId docId, boolean withLanguage)
+    static String getJcrPath(DocumentId docId, boolean withLanguage)
     {
         StringBuilder sb = new StringBuilder();
         sb.append('/').append(docId.getSpace())
@@ -28,6 +48,139 @@ String getJcrPath(DocumentId docId, boolean withLanguage)
         return sb.toString();
     }
 
+    /**
+     * @return the id of the document stored in the node, read from its path and properties without loading it.
+     */
+    static DocumentId getDocumentId(Node node) throws Exception
+    {
+        String language = node.hasProperty("language") ? node.getProperty("language").getString() : null;
+        Node nameNode = StringUtils.isEmpty(language) ? node : node.getParent();
+        return new DocumentId(null, node.getProperty("space").getString(), nameNode.getName(), language);
+    }
+
+    /**
+     * Build the XPath query for the criteria which are stored as properties, the name is part of the path and is
+     * checked on the results. The class name is a property of the objects, which are children of the default
+     * document, so it is only part of the query when searching default documents.
+     */
+    static String getXPath(DocumentQuery query, Session session) throws Exception
+    {
+        // Only document nodes have a space property
+        StringBuilder sb = new StringBuilder("//*[@space");
+        if (query.getSpace() != null) {
+            sb.append(" = ").append(JcrUtil.toXPathLiteral(query.getSpace()));
+        }
+        if (query.getParent() != null) {
+            sb.append(" and @parent = ").append(JcrUtil.toXPathLiteral(query.getParent()));
+        }
+        if (query.getLanguage() != null) {
+            sb.append(" and ");
+            if (query.getLanguage().length() == 0) {
+                sb.append("(@language = '' or not(@language))");
+            } else {
+                sb.append("@language = ").append(JcrUtil.toXPathLiteral(query.getLanguage()));
+            }
+        }
+        if (query.getAuthor() != null) {
+            sb.append(" and @author = ").append(JcrUtil.toXPathLiteral(query.getAuthor()));
+        }
+        if (query.getMinDate() != null) {
+            sb.append(" and @date >= ").append(toXPathDate(query.getMinDate(), session));
+        }
+        if (query.getMaxDate() != null) {
+            sb.append(" and @date <= ").append(toXPathDate(query.getMaxDate(), session));
+        }
+        if (query.getClassName() != null && isDefaultLanguage(query)) {
+            sb.append(" and ").append(JcrObjectDao.OBJECTS_NODE).append("/*/@className = ").append(
+                JcrUtil.toXPathLiteral(query.getClassName()));
+        }
+        sb.append(']');
+        if (query.getOrder() == DocumentQuery.Order.DATE) {
+            sb.append(" order by @date").append(query.isDescending() ? " descending" : " ascending");
+        }
+        return sb.toString();
+    }
+
+    private static boolean isDefaultLanguage(DocumentQuery query)
+    {
+        return query.getLanguage() != null && query.getLanguage().length() == 0;
+    }
+
+    private static String toXPathDate(Date date, Session session) throws Exception
+    {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTime(date);
+        return "xs:dateTime(" + JcrUtil.toXPathLiteral(session.getValueFactory().createValue(calendar).getString())
+            + ")";
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The objects are in the same repository, so the class name is searched with the other criteria.
+     */
+    public boolean isSearchingClassName()
+    {
+        return true;
+    }
+
+    public List<DocumentId> search(final DocumentQuery query) throws Exception
+    {
+        return getJcrTemplate().executeRead(new JcrCallback<List<DocumentId>>() {
+            public List<DocumentId> execute(Session session) throws Exception
+            {
+                // Translations have no objects, they match when their default document has an object of the class
+                Set<String> classFullNames = null;
+                if (query.getClassName() != null && !isDefaultLanguage(query)) {
+                    classFullNames = new HashSet<String>();
+                    for (DocumentId id : JcrObjectDao.listDocuments(session, query.getClassName())) {
+                        classFullNames.add(DocumentQuery.getFullName(id.getSpace(), id.getName()));
+                    }
+                }
+                Query q = session.getWorkspace().getQueryManager().createQuery(getXPath(query, session), Query.XPATH);
+                // Ordering by name is done here since the name is not a property, so all results are needed
+                boolean sortByName = query.getOrder() == DocumentQuery.Order.NAME;
+                int skip = sortByName ? 0 : query.getOffset();
+                int limit = sortByName ? 0 : query.getLimit();
+                List<DocumentId> res = new ArrayList<DocumentId>();
+                for (NodeIterator it = q.execute().getNodes(); it.hasNext();) {
+                    DocumentId id = getDocumentId(it.nextNode());
+                    if (query.matchesName(id) && (classFullNames == null
+                        || classFullNames.contains(DocumentQuery.getFullName(id.getSpace(), id.getName())))) {
+                        if (skip > 0) {
+                            skip--;
+                        } else {
+                            res.add(id);
+                            if (limit > 0 && res.size() == limit) {
+                                break;
+                            }
+                        }
+                    }
+                }
+                if (sortByName) {
+                    res = sortByName(res, query);
+                }
+                return res;
+            }
+        });
+    }
+
+    private static List<DocumentId> sortByName(List<DocumentId> ids, final DocumentQuery query)
+    {
+        Collections.sort(ids, new Comparator<DocumentId>()
+        {
+            public int compare(DocumentId id1, DocumentId id2)
+            {
+                int c = DocumentQuery.getFullName(id1.getSpace(), id1.getName()).compareTo(
+                    DocumentQuery.getFullName(id2.getSpace(), id2.getName()));
+                return query.isDescending() ? -c : c;
+            }
+        });
+        int from = Math.min(query.getOffset(), ids.size());
+        int to = query.getLimit() > 0 ? Math.min(from + query.getLimit(), ids.size()) : ids.size();
+        return new ArrayList<DocumentId>(ids.subList(from, to));
+    }
+
     public void delete(final DocumentId id) throws Exception
     {
         getJcrTemplate().executeWrite(new JcrCallback<Void>() {
@@ -44,8 +197,28 @@ public DocumentValue load(final DocumentId id) throws Exception
         return getJcrTemplate().executeRead(new JcrCallback<DocumentValue>() {
             public DocumentValue execute(Session session) throws Exception
             {
-                Node node = (Node) session.getItem(getJcrPath(id, true));
-                return getJcrom().fromNode(DocumentValue.class, node);
+                String path = getJcrPath(id, true);
+                if (!session.itemExists(path)) {
+                    return null;
+                }
+                return getJcrom().fromNode(DocumentValue.class, (Node) session.getItem(path));
+            }
+        });
+    }
+
+    public Map<DocumentId, DocumentValue> loadAll(final Collection<DocumentId> ids) throws Exception
+    {
+        return getJcrTemplate().executeRead(new JcrCallback<Map<DocumentId, DocumentValue>>() {
+            public Map<DocumentId, DocumentValue> execute(Session session) throws Exception
+            {
+                Map<DocumentId, DocumentValue> res = new LinkedHashMap<DocumentId, DocumentValue>();
+                for (DocumentId id : ids) {
+                    String path = getJcrPath(id, true);
+                    if (session.itemExists(path)) {
+                        res.put(id, getJcrom().fromNode(DocumentValue.class, (Node) session.getItem(path)));
+                    }
+                }
+                return res;
             }
         });
     }
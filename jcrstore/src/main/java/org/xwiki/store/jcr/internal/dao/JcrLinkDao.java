@@ -0,0 +1,121 @@
+package org.xwiki.store.jcr.internal.dao;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.Session;
+import javax.jcr.Value;
+import javax.jcr.query.Query;
+
+import org.xwiki.store.dao.LinkDao;
+import org.xwiki.store.jcr.JcrTemplate;
+import org.xwiki.store.jcr.JcrTemplate.JcrCallback;
+import org.xwiki.store.jcr.internal.JcrUtil;
+import org.xwiki.store.value.LinkValue;
+
+/**
+ * The links of a document are stored in one node per document under /_links, the linked pages in a multi-valued
+ * property so that backlinks are found with a query on it.
+ */
+public class JcrLinkDao implements LinkDao
+{
+    private static final String LINKS_NODE = "_links";
+
+    private static final String FULLNAME = "fullName";
+
+    private static final String LINKS = "links";
+
+    private JcrTemplate jcrTemplate;
+
+    static String getJcrPath(long docId)
+    {
+        return '/' + LINKS_NODE + '/' + docId;
+    }
+
+    public Collection<LinkValue> list(final long docId) throws Exception
+    {
+        return getJcrTemplate().executeRead(new JcrCallback<Collection<LinkValue>>() {
+            public Collection<LinkValue> execute(Session session) throws Exception
+            {
+                List<LinkValue> res = new ArrayList<LinkValue>();
+                String path = getJcrPath(docId);
+                if (session.itemExists(path)) {
+                    Node node = (Node) session.getItem(path);
+                    String fullName = node.getProperty(FULLNAME).getString();
+                    for (Value link : node.getProperty(LINKS).getValues()) {
+                        res.add(new LinkValue(docId, fullName, link.getString()));
+                    }
+                }
+                return res;
+            }
+        });
+    }
+
+    public Collection<String> listBacklinks(final String link) throws Exception
+    {
+        return getJcrTemplate().executeRead(new JcrCallback<Collection<String>>() {
+            public Collection<String> execute(Session session) throws Exception
+            {
+                Set<String> res = new LinkedHashSet<String>();
+                // A comparison on a multi-valued property matches if any of the values does
+                String xpath = "/jcr:root/" + LINKS_NODE + "/*[@" + LINKS + " = " + JcrUtil.toXPathLiteral(link) + "]";
+                Query query = session.getWorkspace().getQueryManager().createQuery(xpath, Query.XPATH);
+                for (NodeIterator it = query.execute().getNodes(); it.hasNext();) {
+                    res.add(it.nextNode().getProperty(FULLNAME).getString());
+                }
+                return res;
+            }
+        });
+    }
+
+    public void save(final long docId, final Collection<LinkValue> links) throws Exception
+    {
+        getJcrTemplate().executeWrite(new JcrCallback<Void>() {
+            public Void execute(Session session) throws Exception
+            {
+                if (links.isEmpty()) {
+                    remove(session, docId);
+                    return null;
+                }
+                Node node = JcrUtil.createNodeHierarhy(session.getRootNode(), getJcrPath(docId));
+                String[] values = new String[links.size()];
+                int i = 0;
+                for (LinkValue link : links) {
+                    values[i++] = link.link;
+                }
+                node.setProperty(FULLNAME, links.iterator().next().fullName);
+                node.setProperty(LINKS, values);
+                return null;
+            }
+        });
+    }
+
+    public void delete(final long docId) throws Exception
+    {
+        getJcrTemplate().executeWrite(new JcrCallback<Void>() {
+            public Void execute(Session session) throws Exception
+            {
+                remove(session, docId);
+                return null;
+            }
+        });
+    }
+
+    private static void remove(Session session, long docId) throws Exception
+    {
+        String path = getJcrPath(docId);
+        if (session.itemExists(path)) {
+            session.getItem(path).remove();
+        }
+    }
+
+    protected JcrTemplate getJcrTemplate()
+    {
+        return jcrTemplate;
+    }
+}
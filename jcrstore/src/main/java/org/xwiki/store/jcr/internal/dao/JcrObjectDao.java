@@ -0,0 +1,181 @@
+package org.xwiki.store.jcr.internal.dao;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.Session;
+import javax.jcr.query.Query;
+
+import org.jcrom.Jcrom;
+import org.xwiki.store.dao.ObjectDao;
+import org.xwiki.store.jcr.JcrTemplate;
+import org.xwiki.store.jcr.JcromProvider;
+import org.xwiki.store.jcr.JcrTemplate.JcrCallback;
+import org.xwiki.store.jcr.internal.JcrUtil;
+import org.xwiki.store.value.DocumentId;
+import org.xwiki.store.value.ObjectId;
+import org.xwiki.store.value.ObjectValue;
+
+/**
+ * Objects are stored as the children of the objects node of their document, named after their number, like the
+ * objects child nodes of {@link org.xwiki.store.value.DocumentValue}.
+ */
+public class JcrObjectDao implements ObjectDao
+{
+    static final String OBJECTS_NODE = "objects";
+
+    private JcrTemplate jcrTemplate;
+    private JcromProvider jcromProvider;
+
+    static String getJcrPath(DocumentId docId)
+    {
+        return JcrDocumentDao.getJcrPath(docId, true) + '/' + OBJECTS_NODE;
+    }
+
+    static String getJcrPath(ObjectId id)
+    {
+        return getJcrPath(id.getDocumentId()) + '/' + id.getNumber();
+    }
+
+    public Collection<ObjectId> list(final DocumentId docId)
+    {
+        try {
+            return getJcrTemplate().executeRead(new JcrCallback<Collection<ObjectId>>() {
+                public Collection<ObjectId> execute(Session session) throws Exception
+                {
+                    List<ObjectId> res = new ArrayList<ObjectId>();
+                    String path = getJcrPath(docId);
+                    if (session.itemExists(path)) {
+                        for (NodeIterator it = ((Node) session.getItem(path)).getNodes(); it.hasNext();) {
+                            res.add(new ObjectId(docId, Integer.parseInt(it.nextNode().getName())));
+                        }
+                    }
+                    return res;
+                }
+            });
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to list the objects of " + docId, e);
+        }
+    }
+
+    public Collection<String> listClassNames() throws Exception
+    {
+        return getJcrTemplate().executeRead(new JcrCallback<Collection<String>>() {
+            public Collection<String> execute(Session session) throws Exception
+            {
+                Set<String> res = new TreeSet<String>();
+                for (NodeIterator it = query(session, "//" + OBJECTS_NODE + "/*[@className]"); it.hasNext();) {
+                    res.add(it.nextNode().getProperty("className").getString());
+                }
+                return res;
+            }
+        });
+    }
+
+    public Collection<DocumentId> listDocuments(final String className) throws Exception
+    {
+        return getJcrTemplate().executeRead(new JcrCallback<Collection<DocumentId>>() {
+            public Collection<DocumentId> execute(Session session) throws Exception
+            {
+                return listDocuments(session, className);
+            }
+        });
+    }
+
+    /**
+     * @return the documents having an object of the class, read in an open session
+     */
+    static Set<DocumentId> listDocuments(Session session, String className) throws Exception
+    {
+        Set<DocumentId> res = new LinkedHashSet<DocumentId>();
+        String xpath = "//" + OBJECTS_NODE + "/*[@className = " + JcrUtil.toXPathLiteral(className) + "]";
+        for (NodeIterator it = query(session, xpath); it.hasNext();) {
+            res.add(JcrDocumentDao.getDocumentId(it.nextNode().getParent().getParent()));
+        }
+        return res;
+    }
+
+    private static NodeIterator query(Session session, String xpath) throws Exception
+    {
+        return session.getWorkspace().getQueryManager().createQuery(xpath, Query.XPATH).execute().getNodes();
+    }
+
+    public void delete(final ObjectId id) throws Exception
+    {
+        getJcrTemplate().executeWrite(new JcrCallback<Void>() {
+            public Void execute(Session session) throws Exception
+            {
+                String path = getJcrPath(id);
+                if (session.itemExists(path)) {
+                    session.getItem(path).remove();
+                }
+                return null;
+            }
+        });
+    }
+
+    public ObjectValue load(final ObjectId id) throws Exception
+    {
+        return getJcrTemplate().executeRead(new JcrCallback<ObjectValue>() {
+            public ObjectValue execute(Session session) throws Exception
+            {
+                return fromNode(id, (Node) session.getItem(getJcrPath(id)));
+            }
+        });
+    }
+
+    public Map<ObjectId, ObjectValue> loadAll(final Collection<ObjectId> ids) throws Exception
+    {
+        return getJcrTemplate().executeRead(new JcrCallback<Map<ObjectId, ObjectValue>>() {
+            public Map<ObjectId, ObjectValue> execute(Session session) throws Exception
+            {
+                Map<ObjectId, ObjectValue> res = new LinkedHashMap<ObjectId, ObjectValue>();
+                for (ObjectId id : ids) {
+                    String path = getJcrPath(id);
+                    if (session.itemExists(path)) {
+                        res.put(id, fromNode(id, (Node) session.getItem(path)));
+                    }
+                }
+                return res;
+            }
+        });
+    }
+
+    public void save(final ObjectValue entity) throws Exception
+    {
+        getJcrTemplate().executeWrite(new JcrCallback<Void>() {
+            public Void execute(Session session) throws Exception
+            {
+                Node node = JcrUtil.createNodeHierarhy(session.getRootNode(), getJcrPath(entity.getId()));
+                getJcrom().updateNode(node, entity);
+                return null;
+            }
+        });
+    }
+
+    private ObjectValue fromNode(ObjectId id, Node node) throws Exception
+    {
+        ObjectValue value = getJcrom().fromNode(ObjectValue.class, node);
+        // The document is not stored in the object node, it is known from its path
+        value.documentId = id.getDocumentId();
+        return value;
+    }
+
+    protected Jcrom getJcrom()
+    {
+        return jcromProvider.getJcrom();
+    }
+
+    protected JcrTemplate getJcrTemplate()
+    {
+        return jcrTemplate;
+    }
+}
@@ -0,0 +1,26 @@
+package org.xwiki.store.value;
+
+/**
+ * A link from a document to a page, like {@link com.xpn.xwiki.doc.XWikiLink}.
+ */
+public class LinkValue
+{
+    public long docId;
+
+    /** Full name of the document holding the link. */
+    public String fullName;
+
+    /** Full name of the linked page. */
+    public String link;
+
+    public LinkValue()
+    {
+    }
+
+    public LinkValue(long docId, String fullName, String link)
+    {
+        this.docId = docId;
+        this.fullName = fullName;
+        this.link = link;
+    }
+}
@@ -1,5 +1,6 @@
 package org.xwiki.store.value;
 
+import java.util.HashMap;
 import java.util.Map;
 
 import org.jcrom.annotations.JcrName;
@@ -17,7 +18,7 @@ public class ObjectValue implements Value<ObjectId>
 
     @JcrProperty public String className;
 
-    public Map<String, Object> properties;
+    public Map<String, Object> properties = new HashMap<String, Object>();
 
     public ObjectId getId()
     {
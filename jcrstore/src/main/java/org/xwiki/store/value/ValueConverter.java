@@ -2,8 +2,14 @@
 
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.xwiki.context.Execution;
 
@@ -15,11 +21,34 @@
 
 /**
  * Converts value objects to/from xwiki business objects.
+ * The getters and setters matching the public fields of a value class are looked up once per pair of classes and
+ * reused, so a conversion is a single pass over the cached accessors.
  */
 public class ValueConverter
 {
+    private static final Map<Class< ? >, Class< ? >> PRIMITIVE_WRAPPERS = new HashMap<Class< ? >, Class< ? >>();
+
+    static {
+        PRIMITIVE_WRAPPERS.put(boolean.class, Boolean.class);
+        PRIMITIVE_WRAPPERS.put(byte.class, Byte.class);
+        PRIMITIVE_WRAPPERS.put(char.class, Character.class);
+        PRIMITIVE_WRAPPERS.put(short.class, Short.class);
+        PRIMITIVE_WRAPPERS.put(int.class, Integer.class);
+        PRIMITIVE_WRAPPERS.put(long.class, Long.class);
+        PRIMITIVE_WRAPPERS.put(float.class, Float.class);
+        PRIMITIVE_WRAPPERS.put(double.class, Double.class);
+    }
+
     private Execution execution;
 
+    /** Accessors copying business object getters into value fields, by business class then value class. */
+    private final ConcurrentMap<Class< ? >, ConcurrentMap<Class< ? >, PropertyAccessor[]>> toValueAccessors =
+        new ConcurrentHashMap<Class< ? >, ConcurrentMap<Class< ? >, PropertyAccessor[]>>();
+
+    /** Accessors copying value fields into business object setters, by business class then value class. */
+    private final ConcurrentMap<Class< ? >, ConcurrentMap<Class< ? >, PropertyAccessor[]>> fromValueAccessors =
+        new ConcurrentHashMap<Class< ? >, ConcurrentMap<Class< ? >, PropertyAccessor[]>>();
+
     public ValueConverter(Execution execution)
     {
         this.execution = execution;
@@ -68,28 +97,74 @@ public BaseObject fromValue(ObjectValue ovalue) throws Exception
 
     protected <T, V> V reflectToValue(T obj, V valueObj) throws Exception 
     {
-        for (Field f : valueObj.getClass().getFields()) {
+        for (PropertyAccessor accessor : getAccessors(toValueAccessors, obj.getClass(), valueObj.getClass(), true)) {
+            accessor.field.set(valueObj, accessor.method.invoke(obj));
+        }
+        return valueObj;
+    }
+
+    protected <T, V> T reflectFromValue(V valueObj, T obj) throws Exception
+    {
+        for (PropertyAccessor accessor : getAccessors(fromValueAccessors, obj.getClass(), valueObj.getClass(), false)) {
+            accessor.method.invoke(obj, accessor.field.get(valueObj));
+        }
+        return obj;
+    }
+
+    /**
+     * Get the accessors which copy properties between a business class and a value class, looking them up on the
+     * first conversion of that pair of classes only.
+     */
+    private PropertyAccessor[] getAccessors(
+        ConcurrentMap<Class< ? >, ConcurrentMap<Class< ? >, PropertyAccessor[]>> cache, Class< ? > objClass, Class< ? > valueClass, boolean toValue)
+    {
+        ConcurrentMap<Class< ? >, PropertyAccessor[]> byValueClass = cache.get(objClass);
+        if (byValueClass == null) {
+            cache.putIfAbsent(objClass, new ConcurrentHashMap<Class< ? >, PropertyAccessor[]>());
+            byValueClass = cache.get(objClass);
+        }
+        PropertyAccessor[] accessors = byValueClass.get(valueClass);
+        if (accessors == null) {
+            accessors = toValue ? findToValueAccessors(objClass, valueClass)
+                : findFromValueAccessors(objClass, valueClass);
+            // Several threads may build the same accessors, they are equivalent so any of them can be kept
+            byValueClass.putIfAbsent(valueClass, accessors);
+        }
+        return accessors;
+    }
+
+    private PropertyAccessor[] findToValueAccessors(Class< ? > objClass, Class< ? > valueClass)
+    {
+        List<PropertyAccessor> res = new ArrayList<PropertyAccessor>();
+        for (Field f : valueClass.getFields()) {
             try {
-                Method mgetter = obj.getClass().getMethod(getGetterName(f));
-                Object value = mgetter.invoke(obj);
-                f.set(valueObj, value);
+                Method mgetter = objClass.getMethod(getGetterName(f));
+                // Getters of another type, such as BaseObject.getProperties(), do not map to the field
+                if (wrap(f.getType()).isAssignableFrom(wrap(mgetter.getReturnType()))) {
+                    res.add(new PropertyAccessor(f, mgetter));
+                }
             } catch (NoSuchMethodException e) {
             }
         }
-        return valueObj;
+        return res.toArray(new PropertyAccessor[res.size()]);
     }
 
-    protected <T, V> T reflectFromValue(V valueObj, T obj) throws Exception
+    private PropertyAccessor[] findFromValueAccessors(Class< ? > objClass, Class< ? > valueClass)
     {
-        for (Field f : valueObj.getClass().getFields()) {
-            Object value = f.get(valueObj);
+        List<PropertyAccessor> res = new ArrayList<PropertyAccessor>();
+        for (Field f : valueClass.getFields()) {
             try {
-                Method msetter = obj.getClass().getMethod(getSetterName(f), f.getType());
-                msetter.invoke(obj, value);
+                res.add(new PropertyAccessor(f, objClass.getMethod(getSetterName(f), f.getType())));
             } catch (NoSuchMethodException e) {
             }
         }
-        return obj;
+        return res.toArray(new PropertyAccessor[res.size()]);
+    }
+
+    private static Class< ? > wrap(Class< ? > type)
+    {
+        Class< ? > wrapper = PRIMITIVE_WRAPPERS.get(type);
+        return wrapper == null ? type : wrapper;
     }
 
     protected String getGetterName(Field f)
@@ -108,4 +183,20 @@ protected XWikiContext getContext()
     {
         return (XWikiContext) execution.getContext().getProperty("xwikicontext");
     }
+
+    /**
+     * A value object field and the business object method it is copied to or from.
+     */
+    private static class PropertyAccessor
+    {
+        final Field field;
+
+        final Method method;
+
+        PropertyAccessor(Field field, Method method)
+        {
+            this.field = field;
+            this.method = method;
+        }
+    }
 }
@@ -0,0 +1,240 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.xwiki.store.dao.DocumentDao;
+import org.xwiki.store.dao.DocumentQuery;
+import org.xwiki.store.dao.ObjectDao;
+import org.xwiki.store.dao.internal.MemoryDocumentDao;
+import org.xwiki.store.internal.HqlClauseParser;
+import org.xwiki.store.value.DocumentId;
+import org.xwiki.store.value.DocumentValue;
+import org.xwiki.store.value.ObjectValue;
+
+import com.xpn.xwiki.test.AbstractXWikiComponentTestCase;
+
+/**
+ * Searches a generated corpus of documents, with 100 spaces, 1000 parents, a translation for one document out of ten
+ * and one document out of a hundred holding an object.
+ */
+public class DocumentSearchTest extends AbstractXWikiComponentTestCase
+{
+    private static final int CORPUS_SIZE = 100000;
+
+    private static final int SMALL_CORPUS_SIZE = 1000;
+
+    private static final int JCR_CORPUS_SIZE = 200;
+
+    private static DocumentValue newDocument(int i, String language)
+    {
+        DocumentValue doc = new DocumentValue();
+        doc.space = "Space" + (i % 100);
+        doc.name = "Page" + i;
+        doc.parent = doc.space + ".Parent" + (i % 1000);
+        doc.language = language;
+        doc.author = "XWiki.User" + (i % 7);
+        doc.date = new Date(i * 1000L);
+        return doc;
+    }
+
+    private void generate(DocumentDao documentDao, ObjectDao objectDao, int size) throws Exception
+    {
+        for (int i = 0; i < size; i++) {
+            documentDao.save(newDocument(i, ""));
+            if (i % 10 == 0) {
+                documentDao.save(newDocument(i, "fr"));
+            }
+            if (objectDao != null && i % 100 == 0) {
+                ObjectValue obj = new ObjectValue();
+                obj.documentId = new DocumentId(null, "Space" + (i % 100), "Page" + i, "");
+                obj.className = "XWiki.Tagged";
+                obj.jcrName = "0";
+                objectDao.save(obj);
+            }
+        }
+    }
+
+    public void testMemorySearch() throws Exception
+    {
+        DocumentDao documentDao = (DocumentDao) getComponentManager().lookup(DocumentDao.class.getName(), "default");
+        ObjectDao objectDao = (ObjectDao) getComponentManager().lookup(ObjectDao.class.getName(), "default");
+        generate(documentDao, objectDao, CORPUS_SIZE);
+
+        DocumentQuery query = new DocumentQuery();
+        query.setSpace("Space7");
+        query.setLanguage("");
+        assertEquals(CORPUS_SIZE / 100, documentDao.search(query).size());
+
+        query = new DocumentQuery();
+        query.setParent("Space3.Parent3");
+        query.setLanguage("");
+        assertEquals(CORPUS_SIZE / 1000, documentDao.search(query).size());
+
+        query = new DocumentQuery();
+        query.setSpace("Space10");
+        query.setName("Page10");
+        List<DocumentId> translations = documentDao.search(query);
+        assertEquals(2, translations.size());
+
+        query = new DocumentQuery();
+        query.setMinDate(new Date(500000L));
+        query.setMaxDate(new Date(509000L));
+        query.setLanguage("fr");
+        assertEquals(Arrays.asList(new DocumentId(null, "Space0", "Page500", "fr")), documentDao.search(query));
+
+        query = new DocumentQuery();
+        query.setSpace("Space5");
+        query.setLanguage("");
+        query.setOrder(DocumentQuery.Order.DATE);
+        query.setDescending(true);
+        query.setOffset(1);
+        query.setLimit(2);
+        assertEquals(Arrays.asList(new DocumentId(null, "Space5", "Page99805", ""), new DocumentId(null, "Space5",
+            "Page99705", "")), documentDao.search(query));
+
+        // Pages without a selective criterion walk the ordered indexes
+        query = new DocumentQuery();
+        query.setLanguage("fr");
+        query.setOrder(DocumentQuery.Order.DATE);
+        query.setDescending(true);
+        query.setOffset(1);
+        query.setLimit(2);
+        assertEquals(Arrays.asList(new DocumentId(null, "Space80", "Page99980", "fr"), new DocumentId(null,
+            "Space70", "Page99970", "fr")), documentDao.search(query));
+        DocumentValue undated = newDocument(CORPUS_SIZE, "");
+        undated.date = null;
+        documentDao.save(undated);
+        query = new DocumentQuery();
+        query.setLanguage("");
+        query.setOrder(DocumentQuery.Order.DATE);
+        query.setLimit(2);
+        assertEquals(Arrays.asList(undated.getId(), new DocumentId(null, "Space0", "Page0", "")), documentDao
+            .search(query));
+        documentDao.delete(undated.getId());
+        query = new DocumentQuery();
+        query.setSpace("Space9");
+        query.setLanguage("");
+        query.setOrder(DocumentQuery.Order.NAME);
+        query.setDescending(true);
+        query.setLimit(2);
+        assertEquals(Arrays.asList(new DocumentId(null, "Space9", "Page99909", ""), new DocumentId(null, "Space9",
+            "Page99809", "")), documentDao.search(query));
+
+        assertEquals(Arrays.asList("XWiki.Tagged"), new ArrayList<String>(objectDao.listClassNames()));
+        assertEquals(CORPUS_SIZE / 100, objectDao.listDocuments("XWiki.Tagged").size());
+
+        // Updates move the document in the indexes
+        DocumentValue moved = newDocument(3, "");
+        moved.parent = "Main.WebHome";
+        documentDao.save(moved);
+        query = new DocumentQuery();
+        query.setParent("Space3.Parent3");
+        query.setLanguage("");
+        assertEquals(CORPUS_SIZE / 1000 - 1, documentDao.search(query).size());
+        documentDao.delete(moved.getId());
+        query.setParent("Main.WebHome");
+        assertEquals(0, documentDao.search(query).size());
+        documentDao.save(newDocument(3, ""));
+
+        // An indexed lookup does not depend on the size of the corpus: a scan of a corpus a hundred times larger
+        // would take a hundred times longer
+        DocumentDao small = new MemoryDocumentDao();
+        generate(small, null, SMALL_CORPUS_SIZE);
+        long smallNanos = lookupNanos(small);
+        long largeNanos = lookupNanos(documentDao);
+        assertTrue("Lookups took " + largeNanos + "ns in " + CORPUS_SIZE + " documents and " + smallNanos + "ns in "
+            + SMALL_CORPUS_SIZE, largeNanos < 10 * smallNanos);
+    }
+
+    /**
+     * @return the best time of a few rounds of looking up the first thousand documents by space and name
+     */
+    private long lookupNanos(DocumentDao documentDao) throws Exception
+    {
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < 5; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < SMALL_CORPUS_SIZE; i++) {
+                DocumentQuery query = new DocumentQuery();
+                query.setSpace("Space" + (i % 100));
+                query.setName("Page" + i);
+                assertEquals(i % 10 == 0 ? 2 : 1, documentDao.search(query).size());
+            }
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+
+    public void testJcrSearch() throws Exception
+    {
+        DocumentDao documentDao = (DocumentDao) getComponentManager().lookup(DocumentDao.class.getName(), "jcr");
+        generate(documentDao, null, JCR_CORPUS_SIZE);
+
+        DocumentQuery query = new DocumentQuery();
+        query.setSpace("Space7");
+        query.setLanguage("");
+        assertEquals(JCR_CORPUS_SIZE / 100, documentDao.search(query).size());
+
+        query = new DocumentQuery();
+        query.setSpace("Space10");
+        query.setName("Page10");
+        assertEquals(2, documentDao.search(query).size());
+
+        query = new DocumentQuery();
+        query.setLanguage("fr");
+        query.setOrder(DocumentQuery.Order.DATE);
+        query.setDescending(true);
+        query.setLimit(1);
+        assertEquals(Arrays.asList(new DocumentId(null, "Space90", "Page190", "fr")), documentDao.search(query));
+    }
+
+    public void testHqlClause() throws Exception
+    {
+        Date date = new Date();
+        DocumentQuery query = HqlClauseParser.parseWhere(", BaseObject as obj where doc.fullName = obj.name"
+            + " and obj.className = 'XWiki.XWikiUsers' and doc.web = ? and doc.date >= ? order by doc.date desc",
+            Arrays.asList("Main", date));
+        assertEquals("XWiki.XWikiUsers", query.getClassName());
+        assertEquals("Main", query.getSpace());
+        assertEquals(date, query.getMinDate());
+        assertEquals(DocumentQuery.Order.DATE, query.getOrder());
+        assertTrue(query.isDescending());
+
+        HqlClauseParser.Select select = HqlClauseParser.parseSelect(
+            "select distinct doc.fullName from XWikiDocument as doc where doc.parent = 'Main.WebHome'", null);
+        assertTrue(select.distinct);
+        assertEquals(Arrays.asList("fullName"), select.columns);
+        assertEquals("Main.WebHome", select.query.getParent());
+
+        try {
+            HqlClauseParser.parseWhere("where doc.content like '%test%'", null);
+            fail("Should have been rejected");
+        } catch (IllegalArgumentException expected) {
+        }
+
+        // Conditions on the same field are combined, never overwritten
+        query = HqlClauseParser.parseWhere("where doc.date > ? and doc.date >= ? and doc.web = 'Main'"
+            + " and doc.fullName = 'Main.WebHome'", Arrays.asList(new Date(1000L), new Date(500L)));
+        assertEquals(new Date(1001L), query.getMinDate());
+        assertEquals("WebHome", query.getName());
+        try {
+            HqlClauseParser.parseWhere("where doc.web = 'Main' and doc.web = 'XWiki'", null);
+            fail("Should have been rejected");
+        } catch (IllegalArgumentException expected) {
+        }
+
+        // Objects which do not restrict the documents to a class are rejected rather than ignored
+        try {
+            HqlClauseParser.parseWhere(", BaseObject as obj where doc.fullName = obj.name and doc.web = 'Main'",
+                null);
+            fail("Should have been rejected");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            HqlClauseParser.parseWhere(", BaseObject as obj where obj.className = 'XWiki.XWikiUsers'", null);
+            fail("Should have been rejected");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
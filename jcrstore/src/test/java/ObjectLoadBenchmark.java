@@ -0,0 +1,75 @@
+import java.util.Collection;
+import java.util.Map;
+
+import org.xwiki.store.dao.ObjectDao;
+import org.xwiki.store.value.DocumentId;
+import org.xwiki.store.value.ObjectId;
+import org.xwiki.store.value.ObjectValue;
+
+import com.xpn.xwiki.test.AbstractXWikiComponentTestCase;
+
+/**
+ * Compares the time to load all the objects of a document one at a time and with loadAll, for the JCR and the
+ * in-memory object DAOs and documents with 1 to 1000 objects. Not run with the tests, run it with
+ * -Dtest=ObjectLoadBenchmark.
+ */
+public class ObjectLoadBenchmark extends AbstractXWikiComponentTestCase
+{
+    private static final int[] SIZES = {1, 10, 100, 1000};
+
+    private static final long NANOS_PER_MICRO = 1000L;
+
+    public void testObjectLoad() throws Exception
+    {
+        System.out.println("dao\tobjects\tone by one (us/doc)\tloadAll (us/doc)");
+        for (String hint : new String[] {"default", "jcr"}) {
+            ObjectDao dao = (ObjectDao) getComponentManager().lookup(ObjectDao.class.getName(), hint);
+            for (int size : SIZES) {
+                DocumentId docId = new DocumentId(null, "Benchmark", "Objects" + size, null);
+                for (int i = 0; i < size; i++) {
+                    ObjectValue value = new ObjectValue();
+                    value.documentId = docId;
+                    value.number = i;
+                    value.jcrName = "" + i;
+                    value.name = "Benchmark.Objects" + size;
+                    value.className = "Benchmark.Class";
+                    dao.save(value);
+                }
+                int repeat = Math.max(3, 1000 / size);
+                // Warm up both paths once before measuring
+                loadOneByOne(dao, docId, size);
+                loadAll(dao, docId, size);
+                long start = System.nanoTime();
+                for (int i = 0; i < repeat; i++) {
+                    loadOneByOne(dao, docId, size);
+                }
+                long oneByOne = (System.nanoTime() - start) / repeat;
+                start = System.nanoTime();
+                for (int i = 0; i < repeat; i++) {
+                    loadAll(dao, docId, size);
+                }
+                long all = (System.nanoTime() - start) / repeat;
+                System.out.println(hint + "\t" + size + "\t" + oneByOne / NANOS_PER_MICRO + "\t"
+                    + all / NANOS_PER_MICRO);
+            }
+        }
+    }
+
+    private void loadOneByOne(ObjectDao dao, DocumentId docId, int size) throws Exception
+    {
+        Collection<ObjectId> ids = dao.list(docId);
+        int count = 0;
+        for (ObjectId id : ids) {
+            if (dao.load(id) != null) {
+                count++;
+            }
+        }
+        assertEquals(size, count);
+    }
+
+    private void loadAll(ObjectDao dao, DocumentId docId, int size) throws Exception
+    {
+        Map<ObjectId, ObjectValue> objects = dao.loadAll(dao.list(docId));
+        assertEquals(size, objects.size());
+    }
+}
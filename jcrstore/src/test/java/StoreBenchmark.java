@@ -0,0 +1,209 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiConfig;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiAttachment;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xpn.xwiki.objects.classes.BaseClass;
+import com.xpn.xwiki.store.XWikiStoreInterface;
+import com.xpn.xwiki.test.AbstractXWikiComponentTestCase;
+
+/**
+ * Measures the throughput, 99th percentile latency and retained heap of the store operations for each backend: the
+ * in-memory DAOs (default), Jackrabbit (jcr) and eXo (exo). Not run with the tests, run it with
+ * -Dtest=StoreBenchmark. The documents are shaped with the system properties benchmark.stores,
+ * benchmark.documents, benchmark.objects, benchmark.attachments and benchmark.translations.
+ */
+public class StoreBenchmark extends AbstractXWikiComponentTestCase
+{
+    private static final String SPACE = "Benchmark";
+
+    private static final String CLASS_NAME = "Benchmark.Class";
+
+    private static final String[] LANGUAGES = {"fr", "de", "es", "it", "ru"};
+
+    private final List<String> stores =
+        Arrays.asList(System.getProperty("benchmark.stores", "default,jcr,exo").split(","));
+
+    private final int documents = Integer.getInteger("benchmark.documents", 1000);
+
+    private final int objects = Integer.getInteger("benchmark.objects", 5);
+
+    private final int attachments = Integer.getInteger("benchmark.attachments", 0);
+
+    private final int translations = Math.min(Integer.getInteger("benchmark.translations", 0), LANGUAGES.length);
+
+    /**
+     * Latencies of one operation.
+     */
+    private static class Stats
+    {
+        private final long[] nanos;
+
+        private int count;
+
+        Stats(int size)
+        {
+            nanos = new long[size];
+        }
+
+        void add(long start)
+        {
+            nanos[count++] = System.nanoTime() - start;
+        }
+
+        String report(String store, String operation)
+        {
+            long[] sorted = new long[count];
+            System.arraycopy(nanos, 0, sorted, 0, count);
+            Arrays.sort(sorted);
+            long total = 0;
+            for (long n : sorted) {
+                total += n;
+            }
+            long throughput = total > 0 ? count * 1000000000L / total : 0;
+            long p99 = count > 0 ? sorted[(int) Math.ceil(count * 0.99) - 1] : 0;
+            return store + "\t" + operation + "\t" + throughput + "\t" + p99 / 1000;
+        }
+    }
+
+    public void testStores() throws Exception
+    {
+        System.out.println("documents=" + documents + " objects=" + objects + " attachments=" + attachments
+            + " translations=" + translations);
+        System.out.println("store\toperation\tops/s\tp99 (us)");
+        for (String hint : stores) {
+            XWikiStoreInterface store;
+            try {
+                store = (XWikiStoreInterface) getComponentManager().lookup(XWikiStoreInterface.ROLE, hint);
+            } catch (Exception e) {
+                // The eXo repository needs a configuration which is not always available
+                System.out.println(hint + "\tunavailable: " + e.getMessage());
+                continue;
+            }
+            run(hint, store, createContext(store));
+        }
+    }
+
+    private XWikiContext createContext(XWikiStoreInterface store) throws Exception
+    {
+        XWikiContext context = new XWikiContext();
+        XWiki xwiki = new XWiki();
+        xwiki.setConfig(new XWikiConfig());
+        xwiki.setStore(store);
+        context.setWiki(xwiki);
+
+        // The class of the objects is found in the context rather than loaded from the store
+        BaseClass bclass = new BaseClass();
+        bclass.setName(CLASS_NAME);
+        bclass.addTextField("text", "Text", 30);
+        context.addBaseClass(bclass);
+
+        Execution execution = (Execution) getComponentManager().lookup(Execution.class.getName());
+        if (execution.getContext() == null) {
+            execution.setContext(new ExecutionContext());
+        }
+        execution.getContext().setProperty("xwikicontext", context);
+        return context;
+    }
+
+    private XWikiDocument createDocument(int i, String language, XWikiContext context) throws Exception
+    {
+        XWikiDocument doc = new XWikiDocument(SPACE, "Page" + i);
+        doc.setContent("Content of page " + i);
+        doc.setParent(SPACE + ".Parent" + (i % 10));
+        doc.setAuthor("XWiki.Benchmark");
+        doc.setDefaultLanguage("en");
+        if (language != null) {
+            doc.setLanguage(language);
+            doc.setTranslation(1);
+            return doc;
+        }
+        for (int j = 0; j < objects; j++) {
+            BaseObject obj = new BaseObject();
+            obj.setClassName(CLASS_NAME);
+            obj.setName(doc.getFullName());
+            obj.setStringValue("text", "Value " + j);
+            doc.addObject(CLASS_NAME, obj);
+        }
+        for (int j = 0; j < attachments; j++) {
+            XWikiAttachment attachment = new XWikiAttachment(doc, "file" + j + ".txt");
+            attachment.setFilesize(1024);
+            doc.getAttachmentList().add(attachment);
+        }
+        return doc;
+    }
+
+    private void run(String hint, XWikiStoreInterface store, XWikiContext context) throws Exception
+    {
+        long heapBefore = usedHeap();
+        Stats save = new Stats(documents * (1 + translations));
+        for (int i = 0; i < documents; i++) {
+            XWikiDocument doc = createDocument(i, null, context);
+            long start = System.nanoTime();
+            store.saveXWikiDoc(doc, context);
+            save.add(start);
+            for (int j = 0; j < translations; j++) {
+                doc = createDocument(i, LANGUAGES[j], context);
+                start = System.nanoTime();
+                store.saveXWikiDoc(doc, context);
+                save.add(start);
+            }
+        }
+        long heap = usedHeap() - heapBefore;
+        System.out.println(save.report(hint, "save"));
+
+        Stats load = new Stats(documents);
+        List<XWikiDocument> loaded = new ArrayList<XWikiDocument>(documents);
+        for (int i = 0; i < documents; i++) {
+            XWikiDocument doc = new XWikiDocument(SPACE, "Page" + i);
+            long start = System.nanoTime();
+            loaded.add(store.loadXWikiDoc(doc, context));
+            load.add(start);
+        }
+        System.out.println(load.report(hint, "load"));
+
+        Stats list = new Stats(documents);
+        for (XWikiDocument doc : loaded) {
+            long start = System.nanoTime();
+            store.getTranslationList(doc, context);
+            list.add(start);
+        }
+        System.out.println(list.report(hint, "list"));
+
+        Stats search = new Stats(documents);
+        for (int i = 0; i < documents; i++) {
+            List<String> parameters = Arrays.asList(SPACE, SPACE + ".Parent" + (i % 10));
+            long start = System.nanoTime();
+            store.searchDocumentsNames("where doc.web = ? and doc.parent = ?", 0, 0, parameters, context);
+            search.add(start);
+        }
+        System.out.println(search.report(hint, "search"));
+
+        Stats delete = new Stats(documents);
+        for (XWikiDocument doc : loaded) {
+            long start = System.nanoTime();
+            store.deleteXWikiDoc(doc, context);
+            delete.add(start);
+        }
+        System.out.println(delete.report(hint, "delete"));
+
+        System.out.println(hint + "\theap\t" + heap / Math.max(1, documents) + " bytes/document");
+    }
+
+    private static long usedHeap()
+    {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
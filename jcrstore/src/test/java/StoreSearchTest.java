@@ -0,0 +1,105 @@
+import java.util.Arrays;
+import java.util.List;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiConfig;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xpn.xwiki.store.XWikiStoreInterface;
+import com.xpn.xwiki.test.AbstractXWikiComponentTestCase;
+
+/**
+ * Runs the deprecated HQL search entry points of the store end to end, on the memory and the JCR DAOs. Pages 0 to 5 of
+ * the Search space are saved, the even ones are children of Search.WebHome, pages 1 and 4 have a tag object and page 2
+ * has a french translation.
+ */
+public class StoreSearchTest extends AbstractXWikiComponentTestCase
+{
+    private static final String TAGGED = ", BaseObject as obj where doc.fullName = obj.name"
+        + " and obj.className = 'XWiki.Tagged'";
+
+    private XWikiContext context;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        context = new XWikiContext();
+        XWiki xwiki = new XWiki();
+        xwiki.setConfig(new XWikiConfig());
+        context.setWiki(xwiki);
+    }
+
+    private XWikiStoreInterface generate(String hint) throws Exception
+    {
+        XWikiStoreInterface store = (XWikiStoreInterface) getComponentManager().lookup(XWikiStoreInterface.ROLE, hint);
+        for (int i = 0; i < 6; i++) {
+            XWikiDocument doc = new XWikiDocument("Search", "Page" + i);
+            doc.setContent("content " + i);
+            if (i % 2 == 0) {
+                doc.setParent("Search.WebHome");
+            }
+            if (i % 3 == 1) {
+                BaseObject obj = new BaseObject();
+                obj.setClassName("XWiki.Tagged");
+                doc.addObject("XWiki.Tagged", obj);
+            }
+            store.saveXWikiDoc(doc, context);
+        }
+        XWikiDocument translation = new XWikiDocument("Search", "Page2");
+        translation.setLanguage("fr");
+        translation.setTranslation(1);
+        translation.setContent("contenu 2");
+        store.saveXWikiDoc(translation, context);
+        return store;
+    }
+
+    public void testMemorySearch() throws Exception
+    {
+        assertSearch(generate("default"));
+    }
+
+    public void testJcrSearch() throws Exception
+    {
+        assertSearch(generate("jcr"));
+    }
+
+    private void assertSearch(XWikiStoreInterface store) throws Exception
+    {
+        // searchDocumentsNames returns one name per document, ordered and paged
+        assertEquals(Arrays.asList("Search.Page2", "Search.Page4"), store.searchDocumentsNames(
+            "where doc.web = ? and doc.parent = 'Search.WebHome' order by doc.name", 2, 1, Arrays.asList("Search"),
+            context));
+        assertEquals(Arrays.asList("Search.Page1", "Search.Page4"), store.searchDocumentsNames(TAGGED
+            + " and doc.web = 'Search' order by doc.name", 0, 0, (List) null, context));
+
+        // searchDocuments loads the documents found, with their translations when not distinct by language
+        List<XWikiDocument> documents = store.searchDocuments("where doc.web = 'Search' and doc.name = 'Page2'",
+            false, false, false, 0, 0, (List) null, context);
+        assertEquals(2, documents.size());
+        for (XWikiDocument doc : documents) {
+            assertEquals("fr".equals(doc.getLanguage()) ? "contenu 2" : "content 2", doc.getContent());
+        }
+        documents = store.searchDocuments(TAGGED + " and doc.web = 'Search' order by doc.name desc", true, false,
+            false, 0, 0, (List) null, context);
+        assertEquals(2, documents.size());
+        assertEquals("Search.Page4", documents.get(0).getFullName());
+        assertEquals("content 4", documents.get(0).getContent());
+        assertEquals(1, documents.get(0).getObjects("XWiki.Tagged").size());
+        assertEquals("Search.Page1", documents.get(1).getFullName());
+
+        // search selects the name columns
+        assertEquals(Arrays.asList("Search.Page0", "Search.Page2"), store.search(
+            "select distinct doc.fullName from XWikiDocument as doc where doc.web = 'Search'"
+                + " and doc.parent = 'Search.WebHome' order by doc.name", 2, 0, (List) null, context));
+
+        // Queries the store cannot answer are rejected, not answered wrongly
+        try {
+            store.searchDocumentsNames(", BaseObject as obj where doc.fullName = obj.name", 0, 0, (List) null,
+                context);
+            fail("Should have been rejected");
+        } catch (Exception expected) {
+        }
+    }
+}
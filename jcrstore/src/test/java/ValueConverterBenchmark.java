@@ -0,0 +1,105 @@
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.Date;
+
+import org.xwiki.store.value.DocumentValue;
+import org.xwiki.store.value.ValueConverter;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.test.AbstractXWikiComponentTestCase;
+
+/**
+ * Compares the cost per property of converting a document to and from its value object with the cached accessors of
+ * ValueConverter and with a reflective lookup of every getter and setter on each conversion. Not run with the tests,
+ * run it with -Dtest=ValueConverterBenchmark.
+ */
+public class ValueConverterBenchmark extends AbstractXWikiComponentTestCase
+{
+    private static final int WARMUP = 20000;
+
+    private static final int ITERATIONS = 100000;
+
+    public void testConversion() throws Exception
+    {
+        ValueConverter converter = new ValueConverter(null);
+        XWikiDocument doc = new XWikiDocument("Benchmark", "Page");
+        doc.setTitle("Title");
+        doc.setContent("Content");
+        doc.setAuthor("XWiki.Author");
+        doc.setCreator("XWiki.Creator");
+        doc.setDate(new Date());
+        doc.setCreationDate(new Date());
+        int properties = DocumentValue.class.getFields().length;
+
+        for (int i = 0; i < WARMUP; i++) {
+            lookupToValue(doc, new DocumentValue());
+            converter.toValue(doc);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            lookupToValue(doc, new DocumentValue());
+        }
+        long lookupTo = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            converter.toValue(doc);
+        }
+        long cachedTo = System.nanoTime() - start;
+
+        DocumentValue value = converter.toValue(doc);
+        for (int i = 0; i < WARMUP; i++) {
+            lookupFromValue(value, new XWikiDocument());
+            converter.fromValue(value, new XWikiDocument());
+        }
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            lookupFromValue(value, new XWikiDocument());
+        }
+        long lookupFrom = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            converter.fromValue(value, new XWikiDocument());
+        }
+        long cachedFrom = System.nanoTime() - start;
+
+        long conversions = (long) ITERATIONS * properties;
+        System.out.println("direction\tlookup (ns/property)\tcached (ns/property)");
+        System.out.println("toValue\t" + lookupTo / conversions + "\t" + cachedTo / conversions);
+        System.out.println("fromValue\t" + lookupFrom / conversions + "\t" + cachedFrom / conversions);
+    }
+
+    /** The conversion as done before the accessors were cached. */
+    private void lookupToValue(Object obj, Object valueObj) throws Exception
+    {
+        for (Field f : valueObj.getClass().getFields()) {
+            try {
+                Method mgetter = obj.getClass().getMethod(getGetterName(f));
+                f.set(valueObj, mgetter.invoke(obj));
+            } catch (NoSuchMethodException e) {
+            } catch (IllegalArgumentException e) {
+            }
+        }
+    }
+
+    private void lookupFromValue(Object valueObj, Object obj) throws Exception
+    {
+        for (Field f : valueObj.getClass().getFields()) {
+            try {
+                Method msetter = obj.getClass().getMethod(getSetterName(f), f.getType());
+                msetter.invoke(obj, f.get(valueObj));
+            } catch (NoSuchMethodException e) {
+            }
+        }
+    }
+
+    private String getGetterName(Field f)
+    {
+        String res = f.getType().equals(boolean.class) ? "is" : "get";
+        return res + Character.toUpperCase(f.getName().charAt(0)) + f.getName().substring(1);
+    }
+
+    private String getSetterName(Field f)
+    {
+        return "set" + Character.toUpperCase(f.getName().charAt(0)) + f.getName().substring(1);
+    }
+}
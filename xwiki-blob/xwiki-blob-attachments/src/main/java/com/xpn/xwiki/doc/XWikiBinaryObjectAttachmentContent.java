@@ -24,6 +24,8 @@
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.channels.WritableByteChannel;
+import java.util.UUID;
 
 
 /**
@@ -88,6 +90,35 @@ public InputStream getContentInputStream()
         }
     }
 
+    /**
+     * Get part of the content, for serving range requests without reading the content before the range.
+     *
+     * @param offset the position of the first byte to read.
+     * @param length the maximum number of bytes to read.
+     * @return an InputStream containing the requested part of the content.
+     */
+    public InputStream getContentInputStream(final long offset, final long length)
+    {
+        try {
+            return this.storage.getContent(offset, length);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to get InputStream for range", e);
+        }
+    }
+
+    /**
+     * Write the content to a channel, if the storage supports it the content is sent by the operating system
+     * without being copied through the heap.
+     *
+     * @param target the channel to write the content to, it is not closed.
+     * @return the number of bytes written.
+     * @throws IOException if reading the content or writing to the channel fails.
+     */
+    public long transferTo(final WritableByteChannel target) throws IOException
+    {
+        return this.storage.transferTo(target);
+    }
+
     /**
      * {@inheritDoc}
      *
@@ -98,12 +129,13 @@ public void setContent(final InputStream is) throws IOException
         if (this.isShared) {
             /*
              * If this object shares storage with a clone then it must create new storage.
-             * If it was possible to append content then we would have top copy over the content from the
-             * BinaryObject but it's not so we don't have to.
+             * The content is replaced so nothing needs to be copied over from the shared BinaryObject.
              */
             this.storage = this.provider.get();
             this.isShared = false;
         }
+        // Content added to a BinaryObject is appended to what it loaded, the new content replaces it instead.
+        this.storage.clear();
         this.storage.addContent(is);
         this.setContentDirty(true);
         this.attachment.setFilesize(this.getSize());
@@ -133,4 +165,17 @@ public void save()
         this.storage.save();
         this.setContentDirty(false);
     }
+
+    /**
+     * Persist the content under the key of a new version of the attachment. The content saved under the key it
+     * was loaded from is left as it is, so it is still there if the new version is never committed.
+     *
+     * @param key the key of the new version of the attachment.
+     * @throws IOException if the content cannot be written.
+     */
+    public void save(final UUID key) throws IOException
+    {
+        this.storage.save(key);
+        this.setContentDirty(false);
+    }
 }
@@ -0,0 +1,171 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.store;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.xwiki.blob.BinaryObjectConfiguration;
+import org.xwiki.blob.internal.FilesystemStorageSweeper;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+
+/**
+ * Removes stored attachment content which no attachment refers to any more, such as the content of deleted
+ * attachments. Every wiki is queried for the ids and versions of its attachments and only content stored under
+ * an attachment key which is not among them is removed. Any other content, such as the scratch files of
+ * BinaryObjects which are in use, is left alone.
+ *
+ * @version $Id$
+ */
+public class AttachmentContentSweeper implements Runnable
+{
+    /** Logging helper object. */
+    private static final Log LOG = LogFactory.getLog(AttachmentContentSweeper.class);
+
+    /** Selects the key of every attachment. */
+    private static final String ATTACHMENT_KEYS_QUERY = "select attach.id, attach.version from XWikiAttachment attach";
+
+    /** Milliseconds in a minute. */
+    private static final long MILLIS_PER_MINUTE = 60 * 1000L;
+
+    /** The blob storage configuration. */
+    private final BinaryObjectConfiguration config;
+
+    /** Holds the execution context of the sweep thread. */
+    private final Execution execution;
+
+    /** The context used to query the wikis, it must not be shared with a request. */
+    private final XWikiContext context;
+
+    /**
+     * The Constructor.
+     *
+     * @param config the blob storage configuration.
+     * @param execution holds the execution context of the sweep thread.
+     * @param context the context used to query the wikis, it must not be shared with a request.
+     */
+    public AttachmentContentSweeper(final BinaryObjectConfiguration config,
+                                    final Execution execution,
+                                    final XWikiContext context)
+    {
+        this.config = config;
+        this.execution = execution;
+        this.context = context;
+    }
+
+    /**
+     * {@inheritDoc}
+     * Sweeps every configured interval until the thread is interrupted.
+     *
+     * @see java.lang.Runnable#run()
+     */
+    public void run()
+    {
+        final ExecutionContext executionContext = new ExecutionContext();
+        executionContext.setProperty(XWikiContext.EXECUTIONCONTEXT_KEY, this.context);
+        this.execution.setContext(executionContext);
+        try {
+            while (true) {
+                Thread.sleep(this.config.getSweepInterval() * MILLIS_PER_MINUTE);
+                try {
+                    final FilesystemStorageSweeper.Result result = this.sweep();
+                    LOG.info("Attachment content sweep " + result);
+                } catch (XWikiException e) {
+                    LOG.warn("Attachment content sweep failed, nothing was removed.", e);
+                }
+            }
+        } catch (InterruptedException e) {
+            // Stopped.
+        } finally {
+            this.execution.removeContext();
+        }
+    }
+
+    /**
+     * Remove stored attachment content which no attachment refers to.
+     *
+     * @return the number of files examined and removed and the number of bytes freed.
+     * @throws XWikiException if the attachments of a wiki cannot be listed, nothing is removed in that case.
+     * @throws InterruptedException if the thread is interrupted while waiting for the rate limits.
+     */
+    public FilesystemStorageSweeper.Result sweep() throws XWikiException, InterruptedException
+    {
+        // Attachment keys all have the same most significant bits so only the least significant ones are kept.
+        final long[] referenced = this.getReferencedKeys();
+        final File storageDirectory = this.config.getStorageDirectory();
+        final FilesystemStorageSweeper sweeper =
+            new FilesystemStorageSweeper(storageDirectory,
+                                         this.config.getSweepMinimumAge() * MILLIS_PER_MINUTE,
+                                         this.config.getSweepFilesPerSecond(),
+                                         this.config.getSweepBytesPerSecond());
+        return sweeper.sweep(new FilesystemStorageSweeper.Collectable() {
+            public boolean isCollectable(final UUID key)
+            {
+                return XWikiBinaryObjectAttachmentStore.isAttachmentKey(key)
+                    && Arrays.binarySearch(referenced, key.getLeastSignificantBits()) < 0;
+            }
+        });
+    }
+
+    /**
+     * @return the sorted least significant bits of the key of every attachment in every wiki.
+     * @throws XWikiException if the attachments of a wiki cannot be listed.
+     */
+    private long[] getReferencedKeys() throws XWikiException
+    {
+        final Set<String> wikis = new LinkedHashSet<String>();
+        wikis.add(this.context.getMainXWiki());
+        wikis.addAll(this.context.getWiki().getVirtualWikisDatabaseNames(this.context));
+
+        long[] keys = new long[1024];
+        int count = 0;
+        final String database = this.context.getDatabase();
+        try {
+            for (String wiki : wikis) {
+                this.context.setDatabase(wiki);
+                final List<Object[]> rows =
+                    this.context.getWiki().getStore().search(ATTACHMENT_KEYS_QUERY, 0, 0, this.context);
+                for (Object[] row : rows) {
+                    if (count == keys.length) {
+                        keys = Arrays.copyOf(keys, count * 2);
+                    }
+                    final UUID key = XWikiBinaryObjectAttachmentStore.getAttachmentUUID(
+                        ((Number) row[0]).longValue(), (String) row[1]);
+                    keys[count++] = key.getLeastSignificantBits();
+                }
+            }
+        } finally {
+            this.context.setDatabase(database);
+        }
+        keys = Arrays.copyOf(keys, count);
+        Arrays.sort(keys);
+        return keys;
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.store;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs a batch of content saves on a bounded number of threads.
+ * Only a few saves are queued ahead of the threads, when the queue is full the submitting thread runs the next
+ * save itself, so a large batch never has more than a few streams open at once. As soon as one save fails the
+ * saves which have not started are skipped and the failure is thrown once the running saves are finished.
+ *
+ * @version $Id$
+ */
+public class ParallelContentSaver
+{
+    /** The number of threads saving content. */
+    private final int parallelism;
+
+    /**
+     * The Constructor.
+     *
+     * @param parallelism the number of threads saving content, 1 saves everything in the calling thread.
+     */
+    public ParallelContentSaver(final int parallelism)
+    {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1, got " + parallelism);
+        }
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Run every save and wait for them to finish.
+     *
+     * @param saves the saves to run, each returns the number of bytes it saved.
+     * @return the number of saves, bytes and time taken.
+     * @throws Exception the first exception thrown by a save, the saves which had not started are not run.
+     */
+    public Result saveAll(final List<Callable<Long>> saves) throws Exception
+    {
+        final long start = System.nanoTime();
+        final AtomicLong bytes = new AtomicLong();
+        final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+
+        if (this.parallelism == 1 || saves.size() < 2) {
+            for (Callable<Long> save : saves) {
+                bytes.addAndGet(save.call());
+            }
+            return new Result(saves.size(), bytes.get(), System.nanoTime() - start);
+        }
+
+        final CountDownLatch done = new CountDownLatch(saves.size());
+        final ThreadPoolExecutor executor =
+            new ThreadPoolExecutor(this.parallelism, this.parallelism, 0, TimeUnit.MILLISECONDS,
+                                   new ArrayBlockingQueue<Runnable>(this.parallelism),
+                                   new SaverThreadFactory(),
+                                   new ThreadPoolExecutor.CallerRunsPolicy());
+        try {
+            for (final Callable<Long> save : saves) {
+                executor.execute(new Runnable() {
+                    public void run()
+                    {
+                        try {
+                            if (failure.get() == null) {
+                                bytes.addAndGet(save.call());
+                            }
+                        } catch (Exception e) {
+                            failure.compareAndSet(null, e);
+                        } finally {
+                            done.countDown();
+                        }
+                    }
+                });
+            }
+            done.await();
+        } finally {
+            executor.shutdown();
+        }
+
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+        return new Result(saves.size(), bytes.get(), System.nanoTime() - start);
+    }
+
+    /** The outcome of a batch of saves. */
+    public static class Result
+    {
+        /** Nanoseconds in a second. */
+        private static final double NANOS_PER_SECOND = 1000000000.0;
+
+        /** The number of saves. */
+        private final int count;
+
+        /** The total number of bytes saved. */
+        private final long bytes;
+
+        /** The wall clock time taken by the whole batch. */
+        private final long nanos;
+
+        /**
+         * The Constructor.
+         *
+         * @param count the number of saves.
+         * @param bytes the total number of bytes saved.
+         * @param nanos the wall clock time taken by the whole batch.
+         */
+        Result(final int count, final long bytes, final long nanos)
+        {
+            this.count = count;
+            this.bytes = bytes;
+            this.nanos = nanos;
+        }
+
+        /** @return the number of saves. */
+        public int getCount()
+        {
+            return this.count;
+        }
+
+        /** @return the total number of bytes saved. */
+        public long getBytes()
+        {
+            return this.bytes;
+        }
+
+        /** @return the wall clock time taken by the whole batch in nanoseconds. */
+        public long getNanos()
+        {
+            return this.nanos;
+        }
+
+        /** @return the aggregate throughput in bytes per second. */
+        public double getThroughput()
+        {
+            return (this.nanos == 0) ? 0 : this.bytes * NANOS_PER_SECOND / this.nanos;
+        }
+
+        /**
+         * {@inheritDoc}
+         *
+         * @see java.lang.Object#toString()
+         */
+        @Override
+        public String toString()
+        {
+            return this.count + " saves, " + this.bytes + " bytes in " + (this.nanos / 1000000) + " ms ("
+                + (long) this.getThroughput() + " bytes/s)";
+        }
+    }
+
+    /** Creates daemon threads so that a stuck save cannot prevent shutdown. */
+    private static class SaverThreadFactory implements ThreadFactory
+    {
+        /** Numbers the threads. */
+        private static final AtomicInteger COUNTER = new AtomicInteger();
+
+        /**
+         * {@inheritDoc}
+         *
+         * @see java.util.concurrent.ThreadFactory#newThread(Runnable)
+         */
+        public Thread newThread(final Runnable runnable)
+        {
+            final Thread thread = new Thread(runnable, "XWiki attachment content saver " + COUNTER.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -19,14 +19,26 @@
  */
 package com.xpn.xwiki.store;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.xwiki.blob.BinaryObject;
+import org.xwiki.blob.BinaryObjectConfiguration;
+import org.xwiki.blob.BinaryObjectProvider;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.component.annotation.Requirement;
+import org.xwiki.context.Execution;
 
 import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.XWikiException;
 import com.xpn.xwiki.doc.XWikiAttachment;
+import com.xpn.xwiki.doc.XWikiBinaryObjectAttachmentContent;
 import com.xpn.xwiki.doc.XWikiDocument;
 
 /**
@@ -37,6 +49,15 @@
 @Component("blob")
 public class XWikiBinaryObjectAttachmentStore implements XWikiAttachmentStoreInterface
 {
+    /** Logging helper object. */
+    private static final Log LOG = LogFactory.getLog(XWikiBinaryObjectAttachmentStore.class);
+
+    /** The xwiki.cfg parameter for the number of attachments which are saved at the same time. */
+    private static final String SAVE_THREADS_PARAM = "xwiki.store.attachment.blob.saveThreads";
+
+    /** The number of attachments which are saved at the same time if it is not configured. */
+    private static final long DEFAULT_SAVE_THREADS = 4;
+
     /** Number which will be the first 8 bytes of the UUIDs for all attachment contents. */
     private static final long UUID_MOST_SIGNIFICANT = 0xA77AC40000000000L;
 
@@ -48,6 +69,17 @@ public class XWikiBinaryObjectAttachmentStore implements XWikiAttachmentStoreInt
     @Requirement
     private XWikiAttachmentStoreInterface hibernateAttachStore;
 
+    /** The blob storage configuration, used to set up the sweep of unused attachment content. */
+    @Requirement
+    private BinaryObjectConfiguration config;
+
+    /** Used to give the background sweep of unused attachment content an execution context of its own. */
+    @Requirement
+    private Execution execution;
+
+    /** True once the background sweep of unused attachment content has been started. */
+    private final AtomicBoolean sweeperStarted = new AtomicBoolean();
+
     /**
      * {@inheritDoc}
      *
@@ -77,19 +109,7 @@ public void saveAttachmentContent(final XWikiAttachment attachment,
                                                     + "implementation.");
         }
 
-        final XWikiBinaryObjectAttachmentContent content;
-
-        if (!(attachment.getAttachment_content() instanceof XWikiBinaryObjectAttachmentContent)) {
-            // If it's a different type of attachment content then we'll copy it over.
-            final BinaryObject store = this.binProvider.get();
-            store.load(XWikiBinaryObjectAttachmentStore.getAttachmentUUID(attachment));
-
-            content = new XWikiBinaryObjectAttachmentContent(this.binProvider, store);
-            content.setContent(attachment.getAttachment_content().getContentInputStream());
-            content.setContentDirty(attachment.getAttachment_content().isContentDirty());
-        } else {
-            content = (XWikiBinaryObjectAttachmentContent) attachment.getAttachment_content();
-        }
+        final XWikiBinaryObjectAttachmentContent content = this.getBinaryContent(attachment);
 
         boolean inTransaction = bTransaction;
         final XWikiHibernateStore hibernate = context.getContext().getWiki().getHibernateStore();
@@ -111,13 +131,14 @@ public void saveAttachmentContent(final XWikiAttachment attachment,
                     context.setDatabase(attachdb);
                 }
 
-                // Save the actual attachment content.
-                content.save();
+                // Save the actual attachment content, changed content goes under the key of the next version.
+                final UUID savedKey = XWikiBinaryObjectAttachmentStore.saveContent(attachment, content, contentDirty);
 
                 // Update the content archive.
                 if (contentDirty) {
                     attachment.updateContentArchive(context);
                 }
+                XWikiBinaryObjectAttachmentStore.checkVersionKey(attachment, content, savedKey);
 
                 // Load the attachment revision history.
                 if (attachment.getAttachment_archive() == null) {
@@ -165,25 +186,188 @@ public void saveAttachmentsContent(final List<XWikiAttachment> attachments,
         if (attachments == null) {
             return;
         }
+        this.startSweeper(context);
+
+        // Changed content is saved under the key of the version the attachment gets when its archive is updated.
+        // The content of the current version is not touched, so if any content fails to save or the transaction
+        // is rolled back, the committed versions still load the content they had.
+        final boolean[] contentDirty = new boolean[attachments.size()];
+        final UUID[] savedKeys = new UUID[attachments.size()];
+        try {
+            this.saveContents(attachments, contentDirty, savedKeys, context);
+        } catch (Exception e) {
+            throw new XWikiException(XWikiException.MODULE_XWIKI_STORE,
+                                     XWikiException.ERROR_XWIKI_STORE_HIBERNATE_SAVING_ATTACHMENT,
+                                     "Exception while saving attachments", e);
+        }
+
         new TransactionRunnable() {
             public void run() throws XWikiException
-                {
-                try {
-                    for (XWikiAttachment attach : attachments) {
-                        this.saveAttachmentContent(attach, false, context, false);
-                    }
-                    if (bParentUpdate) {
-                        context.getWiki().getStore().saveXWikiDoc(doc, context, false);
-                    }
-                } catch {
-                    throw new XWikiException(XWikiException.MODULE_XWIKI_STORE,
-                                             XWikiException.ERROR_XWIKI_STORE_HIBERNATE_SAVING_ATTACHMENT,
-                                             "Exception while saving attachments", e);
+            {
+                for (int i = 0; i < attachments.size(); i++) {
+                    final XWikiAttachment attachment = attachments.get(i);
+                    XWikiBinaryObjectAttachmentStore.saveArchive(attachment, contentDirty[i], context);
+                    XWikiBinaryObjectAttachmentStore.checkVersionKey(attachment,
+                        (XWikiBinaryObjectAttachmentContent) attachment.getAttachment_content(), savedKeys[i]);
+                }
+                if (bParentUpdate) {
+                    context.getWiki().getStore().saveXWikiDoc(doc, context, false);
                 }
             }
         }.start(bTransaction, context);
     }
 
+    /**
+     * Save the content of every attachment, several at the same time.
+     * The number of attachments saved at the same time is set by the xwiki.cfg parameter
+     * {@value #SAVE_THREADS_PARAM}.
+     *
+     * @param attachments the attachments whose content should be saved.
+     * @param contentDirty filled with whether the content of each attachment was dirty before it was saved.
+     * @param savedKeys filled with the key the changed content of each attachment was saved under.
+     * @param context the XWikiContext for the request.
+     * @throws Exception if any content could not be saved.
+     */
+    private void saveContents(final List<XWikiAttachment> attachments,
+                              final boolean[] contentDirty,
+                              final UUID[] savedKeys,
+                              final XWikiContext context) throws Exception
+    {
+        final List<Callable<Long>> saves = new ArrayList<Callable<Long>>(attachments.size());
+        for (int i = 0; i < attachments.size(); i++) {
+            final XWikiAttachment attachment = attachments.get(i);
+            final int index = i;
+            saves.add(new Callable<Long>() {
+                public Long call() throws Exception
+                {
+                    final XWikiBinaryObjectAttachmentContent content =
+                        XWikiBinaryObjectAttachmentStore.this.getBinaryContent(attachment);
+                    contentDirty[index] = content.isContentDirty();
+                    savedKeys[index] =
+                        XWikiBinaryObjectAttachmentStore.saveContent(attachment, content, contentDirty[index]);
+                    attachment.setAttachment_content(content);
+                    return Long.valueOf(content.getSize());
+                }
+            });
+        }
+
+        final int threads = (int) context.getWiki().ParamAsLong(SAVE_THREADS_PARAM, DEFAULT_SAVE_THREADS);
+        final ParallelContentSaver.Result result = new ParallelContentSaver(Math.max(1, threads)).saveAll(saves);
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Saved attachment content for " + result);
+        }
+    }
+
+    /**
+     * Save the content of an attachment. Changed content is saved under the key of the next version of the
+     * attachment, so the content saved under the key of the current version stays as it is until the new version
+     * is committed.
+     *
+     * @param attachment the attachment whose content should be saved.
+     * @param content the content of the attachment.
+     * @param contentDirty true if the content has changed.
+     * @return the key the changed content was saved under, null if the content had not changed.
+     * @throws IOException if the content cannot be saved.
+     */
+    private static UUID saveContent(final XWikiAttachment attachment,
+                                     final XWikiBinaryObjectAttachmentContent content,
+                                     final boolean contentDirty) throws IOException
+    {
+        if (!contentDirty) {
+            content.save();
+            return null;
+        }
+        final String nextVersion = attachment.getRCSVersion().next().toString();
+        final UUID key = XWikiBinaryObjectAttachmentStore.getAttachmentUUID(attachment.getId(), nextVersion);
+        content.save(key);
+        return key;
+    }
+
+    /**
+     * Make sure that the changed content of an attachment is saved under the key of the version its archive
+     * gave it. The key was chosen before the version was incremented, if it does not match then the content is
+     * saved again, still before the transaction is committed.
+     *
+     * @param attachment the attachment whose archive was updated.
+     * @param content the content of the attachment.
+     * @param savedKey the key the content was saved under, null if it had not changed.
+     * @throws XWikiException if the content cannot be saved.
+     */
+    private static void checkVersionKey(final XWikiAttachment attachment,
+                                        final XWikiBinaryObjectAttachmentContent content,
+                                        final UUID savedKey) throws XWikiException
+    {
+        final UUID key = XWikiBinaryObjectAttachmentStore.getAttachmentUUID(attachment);
+        if (savedKey == null || savedKey.equals(key)) {
+            return;
+        }
+        try {
+            content.save(key);
+        } catch (IOException e) {
+            throw new XWikiException(XWikiException.MODULE_XWIKI_STORE,
+                                     XWikiException.ERROR_XWIKI_STORE_HIBERNATE_SAVING_ATTACHMENT,
+                                     "Exception while saving the content of attachment " + attachment.getFilename(),
+                                     e);
+        }
+    }
+
+    /**
+     * Save the archive of an attachment after its content was saved.
+     *
+     * @param attachment the attachment whose archive should be saved.
+     * @param contentDirty true if the content had changed before it was saved.
+     * @param context the XWikiContext for the request.
+     * @throws XWikiException if the archive cannot be loaded or saved.
+     */
+    private static void saveArchive(final XWikiAttachment attachment,
+                                    final boolean contentDirty,
+                                    final XWikiContext context) throws XWikiException
+    {
+        final String db = context.getDatabase();
+        final String attachdb = (attachment.getDoc() == null) ? null : attachment.getDoc().getDatabase();
+        try {
+            if (attachdb != null) {
+                context.setDatabase(attachdb);
+            }
+            if (contentDirty) {
+                attachment.updateContentArchive(context);
+            }
+            if (attachment.getAttachment_archive() == null) {
+                attachment.loadArchive(context);
+            }
+            context.getWiki().getAttachmentVersioningStore().saveArchive(attachment.getAttachment_archive(),
+                                                                         context, false);
+        } finally {
+            context.setDatabase(db);
+        }
+    }
+
+    /**
+     * Get the content of an attachment as a XWikiBinaryObjectAttachmentContent, copying it into a new
+     * BinaryObject if it is a different type of attachment content.
+     *
+     * @param attachment the attachment to get the content of.
+     * @return the content of the attachment.
+     * @throws IOException if the content cannot be copied.
+     */
+    private XWikiBinaryObjectAttachmentContent getBinaryContent(final XWikiAttachment attachment)
+        throws IOException
+    {
+        if (attachment.getAttachment_content() instanceof XWikiBinaryObjectAttachmentContent) {
+            return (XWikiBinaryObjectAttachmentContent) attachment.getAttachment_content();
+        }
+
+        // If it's a different type of attachment content then we'll copy it over.
+        final BinaryObject store = this.binProvider.get();
+        store.load(XWikiBinaryObjectAttachmentStore.getAttachmentUUID(attachment));
+
+        final XWikiBinaryObjectAttachmentContent content =
+            new XWikiBinaryObjectAttachmentContent(this.binProvider, store);
+        content.setContent(attachment.getAttachment_content().getContentInputStream());
+        content.setContentDirty(attachment.getAttachment_content().isContentDirty());
+        return content;
+    }
+
     /**
      * {@inheritDoc}
      *
@@ -194,6 +378,7 @@ public void loadAttachmentContent(final XWikiAttachment attachment,
                                       final boolean bTransaction)
         throws XWikiException
     {
+        this.startSweeper(context);
         try {
             final BinaryObject binObj = this.binProvider.get();
             binObj.load(XWikiBinaryObjectAttachmentStore.getAttachmentUUID(attachment));
@@ -247,9 +432,68 @@ public void deleteXWikiAttachment(final XWikiAttachment attachment,
      * @return a uuid corrisponding to the Attachment.
      */
     private static UUID getAttachmentUUID(final XWikiAttachment attachment)
+    {
+        return XWikiBinaryObjectAttachmentStore.getAttachmentUUID(attachment.getId(), attachment.getVersion());
+    }
+
+    /**
+     * Get the UUID for an attachment from its database id and version.
+     *
+     * @param id the database id of the attachment.
+     * @param version the version of the attachment.
+     * @return a uuid corrisponding to the Attachment.
+     * @see #getAttachmentUUID(XWikiAttachment)
+     */
+    static UUID getAttachmentUUID(final long id, final String version)
     {
         return new UUID(XWikiBinaryObjectAttachmentStore.UUID_MOST_SIGNIFICANT,
-                        (attachment.getId() << 32) & ((long) attachment.getVersion().hashCode()));
+                        (id << 32) | (version.hashCode() & 0xFFFFFFFFL));
+    }
+
+    /**
+     * @param key the key of some stored content.
+     * @return true if the key was made by {@link #getAttachmentUUID(long, String)}.
+     */
+    static boolean isAttachmentKey(final UUID key)
+    {
+        return key.getMostSignificantBits() == XWikiBinaryObjectAttachmentStore.UUID_MOST_SIGNIFICANT;
+    }
+
+    /**
+     * Start the background sweep of unused attachment content the first time this store is used, if it is
+     * enabled by the blob.sweep.interval configuration.
+     *
+     * @param context the context of the request, the sweep only takes the wiki instance from it.
+     */
+    private void startSweeper(final XWikiContext context)
+    {
+        if (this.config.getSweepInterval() <= 0 || !this.sweeperStarted.compareAndSet(false, true)) {
+            return;
+        }
+        final AttachmentContentSweeper runnable =
+            new AttachmentContentSweeper(this.config, this.execution, createSweeperContext(context));
+        final Thread sweeper = new Thread(runnable, "XWiki attachment content sweeper");
+        sweeper.setDaemon(true);
+        sweeper.setPriority(Thread.MIN_PRIORITY);
+        sweeper.start();
+    }
+
+    /**
+     * Create the context of the sweep thread, as the scheduler does for its jobs. A request context cannot be
+     * kept by another thread since the request changes it and releases it when it ends, so the new context only
+     * takes the wiki instance and the engine context from it and is set on the main wiki.
+     *
+     * @param context the context of a request.
+     * @return a new context for the sweep thread.
+     */
+    private static XWikiContext createSweeperContext(final XWikiContext context)
+    {
+        final XWikiContext sweeperContext = new XWikiContext();
+        sweeperContext.setWiki(context.getWiki());
+        sweeperContext.setEngineContext(context.getEngineContext());
+        sweeperContext.setMainXWiki(context.getMainXWiki());
+        sweeperContext.setDatabase(context.getMainXWiki());
+        return sweeperContext;
     }
 
     private static abstract class TransactionRunnable
@@ -0,0 +1,245 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.store;
+
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.xwiki.blob.BinaryObject;
+import org.xwiki.blob.StorageItem;
+import org.xwiki.blob.internal.DefaultBinaryObject;
+import org.xwiki.blob.internal.FilesystemFastStorageItem;
+
+/**
+ * Tests the ParallelContentSaver by saving a batch of attachments serially and in parallel to a persistent
+ * storage which has some latency.
+ *
+ * @version $Id$
+ */
+public class ParallelContentSaverTest
+{
+    private static final int ATTACHMENTS = 48;
+
+    private static final int ATTACHMENT_SIZE = 256 * 1024;
+
+    /** Simulated latency of the persistent storage for each write, in milliseconds. */
+    private static final long LATENCY = 10;
+
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        this.dir = new File(System.getProperty("java.io.tmpdir"), "parallel-saver-" + UUID.randomUUID());
+        this.dir.mkdirs();
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        FileUtils.deleteDirectory(this.dir);
+    }
+
+    @Test
+    public void parallelAgainstSerialTest() throws Exception
+    {
+        final List<BinaryObject> serialObjects = this.newObjects();
+        final ParallelContentSaver.Result serial = new ParallelContentSaver(1).saveAll(saves(serialObjects));
+
+        final List<BinaryObject> parallelObjects = this.newObjects();
+        final ParallelContentSaver.Result parallel = new ParallelContentSaver(4).saveAll(saves(parallelObjects));
+
+        Assert.assertEquals(ATTACHMENTS, parallel.getCount());
+        Assert.assertEquals((long) ATTACHMENTS * ATTACHMENT_SIZE, parallel.getBytes());
+        Assert.assertEquals(serial.getBytes(), parallel.getBytes());
+        // Every write waits for the store, so saving four at a time must take less time than one at a time.
+        final String times = "serial " + serial.getNanos() / 1000000 + "ms, parallel " + parallel.getNanos() / 1000000
+                              + "ms";
+        System.out.println("Saved " + ATTACHMENTS + " attachments: " + times);
+        Assert.assertTrue(times, parallel.getNanos() < serial.getNanos());
+        for (int i = 0; i < ATTACHMENTS; i++) {
+            final InputStream is = parallelObjects.get(i).getContent();
+            Assert.assertTrue(Arrays.equals(content(i), IOUtils.toByteArray(is)));
+            is.close();
+        }
+    }
+
+    @Test
+    public void boundedParallelismTest() throws Exception
+    {
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final List<Callable<Long>> saves = new ArrayList<Callable<Long>>();
+        for (int i = 0; i < 40; i++) {
+            saves.add(new Callable<Long>() {
+                public Long call() throws Exception
+                {
+                    final int now = running.incrementAndGet();
+                    synchronized (maxRunning) {
+                        maxRunning.set(Math.max(maxRunning.get(), now));
+                    }
+                    Thread.sleep(5);
+                    running.decrementAndGet();
+                    return Long.valueOf(1);
+                }
+            });
+        }
+        Assert.assertEquals(40, new ParallelContentSaver(3).saveAll(saves).getBytes());
+        // The pool threads and the submitting thread when the queue is full.
+        Assert.assertTrue("Up to " + maxRunning.get() + " saves ran at once", maxRunning.get() <= 4);
+    }
+
+    @Test
+    public void failureStopsBatchTest() throws Exception
+    {
+        final AtomicInteger started = new AtomicInteger();
+        final List<Callable<Long>> saves = new ArrayList<Callable<Long>>();
+        for (int i = 0; i < 40; i++) {
+            final int index = i;
+            saves.add(new Callable<Long>() {
+                public Long call() throws Exception
+                {
+                    started.incrementAndGet();
+                    Thread.sleep(5);
+                    if (index == 2) {
+                        throw new IOException("Failed to save " + index);
+                    }
+                    return Long.valueOf(1);
+                }
+            });
+        }
+        try {
+            new ParallelContentSaver(2).saveAll(saves);
+            Assert.fail("The failure should have been thrown.");
+        } catch (IOException e) {
+            Assert.assertEquals("Failed to save 2", e.getMessage());
+        }
+        Assert.assertTrue("Started " + started.get() + " saves", started.get() < saves.size());
+    }
+
+    private List<BinaryObject> newObjects() throws IOException
+    {
+        final List<BinaryObject> objects = new ArrayList<BinaryObject>();
+        for (int i = 0; i < ATTACHMENTS; i++) {
+            final BinaryObject obj = new DefaultBinaryObject(new FilesystemFastStorageItem(this.dir),
+                                                             new FilesystemFastStorageItem(this.dir),
+                                                             new SlowStorageItem(this.dir));
+            final OutputStream os = obj.addContent();
+            os.write(content(i));
+            os.close();
+            objects.add(obj);
+        }
+        return objects;
+    }
+
+    private static List<Callable<Long>> saves(final List<BinaryObject> objects)
+    {
+        final List<Callable<Long>> saves = new ArrayList<Callable<Long>>();
+        for (final BinaryObject obj : objects) {
+            saves.add(new Callable<Long>() {
+                public Long call() throws Exception
+                {
+                    obj.save();
+                    return Long.valueOf(obj.size());
+                }
+            });
+        }
+        return saves;
+    }
+
+    private static byte[] content(final int index)
+    {
+        final byte[] content = new byte[ATTACHMENT_SIZE];
+        Arrays.fill(content, (byte) index);
+        return content;
+    }
+
+    /** A persistent store which takes some time to complete each write, like a remote store. */
+    private static class SlowStorageItem implements StorageItem
+    {
+        private final FilesystemFastStorageItem item;
+
+        SlowStorageItem(final File dir)
+        {
+            this.item = new FilesystemFastStorageItem(dir);
+        }
+
+        public void init(final UUID key) throws IOException
+        {
+            this.item.init(key);
+        }
+
+        public InputStream read() throws IOException
+        {
+            return this.item.read();
+        }
+
+        public OutputStream write() throws IOException
+        {
+            return new FilterOutputStream(this.item.write()) {
+                // FilterOutputStream would otherwise write one byte at a time.
+                public void write(byte[] buffer, int offset, int length) throws IOException
+                {
+                    this.out.write(buffer, offset, length);
+                }
+
+                public void close() throws IOException
+                {
+                    super.close();
+                    try {
+                        Thread.sleep(LATENCY);
+                    } catch (InterruptedException e) {
+                        throw new IOException("Interrupted");
+                    }
+                }
+            };
+        }
+
+        public void clear() throws IOException
+        {
+            this.item.clear();
+        }
+
+        public UUID getKey()
+        {
+            return this.item.getKey();
+        }
+
+        public long size()
+        {
+            return this.item.size();
+        }
+    }
+}
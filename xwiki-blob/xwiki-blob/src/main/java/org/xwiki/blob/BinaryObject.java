@@ -24,6 +24,7 @@
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
 import java.util.UUID;
 
 import org.xwiki.component.annotation.ComponentRole;
@@ -78,6 +79,18 @@ public interface BinaryObject extends Cloneable
      */
     UUID save() throws IOException;
 
+    /**
+     * Save the current content into the persistent storage location under a new key.
+     * The content saved under the key this BinaryObject was loaded from or last saved to is left untouched, so
+     * it can still be loaded if the new content must not be used after all.
+     * If this BinaryObject is still being written to, this call will block until it is finished.
+     *
+     * @param key the UUID to save the content under, any content already saved under it is overwritten.
+     * @return UUID the ID which can be used to load the same BinaryObject content later, the given key.
+     * @throws IOException if the BinaryObject is unable to write to the persistent storage.
+     */
+    UUID save(final UUID key) throws IOException;
+
     /**
      * Load content from the persistent storage location.
      * If it is being written to, any further writing to the same stream will have no effect.
@@ -107,6 +120,29 @@ public interface BinaryObject extends Cloneable
      */
     void getContent(final OutputStream writeTo) throws IOException;
 
+    /**
+     * Read part of the content from this BinaryObject.
+     * The content before the range is not read if the underlying storage supports it, this should be used to
+     * serve range requests. The stream should be closed after reading is finished.
+     *
+     * @param offset the position of the first byte to read.
+     * @param length the maximum number of bytes to read, the stream ends earlier if the content ends earlier.
+     * @return an InputStream containing the requested part of the content.
+     * @throws IOException if the BinaryObject is unable to read from the storage location.
+     */
+    InputStream getContent(final long offset, final long length) throws IOException;
+
+    /**
+     * Write the content of this BinaryObject to a channel.
+     * If the underlying storage supports it, the content is sent by the operating system without being copied
+     * through the heap.
+     *
+     * @param target the channel to write the content to, it will not be closed.
+     * @return the number of bytes written.
+     * @throws IOException if the BinaryObject is unable to read from the storage location or write to the channel.
+     */
+    long transferTo(final WritableByteChannel target) throws IOException;
+
     /** @return the number of bytes of data in this BinaryObject. */
     long size();
 }
@@ -36,4 +36,16 @@
 
     /** @return the component hint for the type of FastStorageItem to use for caching. */
     String getCachingStorageHint();
+
+    /** @return the number of minutes between sweeps of unused content, 0 or less disables sweeping. */
+    long getSweepInterval();
+
+    /** @return the minimum age in minutes of content which may be removed by a sweep. */
+    long getSweepMinimumAge();
+
+    /** @return the maximum number of files examined per second by a sweep, 0 or less means unlimited. */
+    long getSweepFilesPerSecond();
+
+    /** @return the maximum number of bytes removed per second by a sweep, 0 or less means unlimited. */
+    long getSweepBytesPerSecond();
 }
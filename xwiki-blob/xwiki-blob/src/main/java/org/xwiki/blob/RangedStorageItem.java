@@ -0,0 +1,62 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+
+
+package org.xwiki.blob;
+
+import java.io.InputStream;
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+
+import org.xwiki.component.annotation.ComponentRole;
+
+
+/**
+ * A FastStorageItem which can serve part of its content without reading what comes before it and which can
+ * hand its content directly to a channel, allowing the operating system to send it without copying it through
+ * user space.
+ *
+ * @version $Id$
+ * @since 2.6M1
+ */
+@ComponentRole
+public interface RangedStorageItem extends FastStorageItem
+{
+    /**
+     * Read part of the content of this item.
+     * If the range extends past the end of the content, the stream ends with the content.
+     *
+     * @param offset the position of the first byte to read.
+     * @param length the maximum number of bytes to read.
+     * @return an InputStream containing the requested part of the content, it should be closed after reading.
+     * @throws IOException if the item is unable to read from the storage location.
+     */
+    InputStream openRange(final long offset, final long length) throws IOException;
+
+    /**
+     * Write the entire content of this item to a channel.
+     *
+     * @param target the channel to write the content to, it is not closed.
+     * @return the number of bytes written.
+     * @throws IOException if the item is unable to read from the storage location or to write to the channel.
+     */
+    long transferTo(final WritableByteChannel target) throws IOException;
+}
@@ -0,0 +1,132 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+
+
+package org.xwiki.blob.internal;
+
+import java.io.InputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * An InputStream over part of a file which uses positional reads on a FileChannel.
+ * The channel is closed when the stream is closed.
+ *
+ * @version $Id$
+ * @since 2.6M1
+ */
+public class ChannelRangeInputStream extends InputStream
+{
+    /** The channel to read from. */
+    private final FileChannel channel;
+
+    /** The position in the channel after the last byte of the range. */
+    private final long end;
+
+    /** The position in the channel of the next byte to read. */
+    private long position;
+
+    /**
+     * The Constructor.
+     *
+     * @param channel the channel to read from.
+     * @param offset the position of the first byte in the range.
+     * @param length the maximum number of bytes in the range.
+     */
+    public ChannelRangeInputStream(final FileChannel channel, final long offset, final long length)
+    {
+        this.channel = channel;
+        this.position = offset;
+        // Guard against overflow when the caller asks for "everything after offset".
+        this.end = (Long.MAX_VALUE - offset < length) ? Long.MAX_VALUE : offset + length;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see java.io.InputStream#read()
+     */
+    public int read() throws IOException
+    {
+        final byte[] single = new byte[1];
+        return (this.read(single, 0, 1) == -1) ? -1 : (single[0] & 0xff);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see java.io.InputStream#read(byte[], int, int)
+     */
+    public int read(final byte[] buffer, final int offset, final int length) throws IOException
+    {
+        if (length == 0) {
+            return 0;
+        }
+        final long remaining = this.end - this.position;
+        if (remaining <= 0) {
+            return -1;
+        }
+        final int toRead = (int) Math.min(length, remaining);
+        final int read = this.channel.read(ByteBuffer.wrap(buffer, offset, toRead), this.position);
+        if (read > 0) {
+            this.position += read;
+        }
+        return read;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see java.io.InputStream#skip(long)
+     */
+    public long skip(final long bytesToSkip) throws IOException
+    {
+        if (bytesToSkip <= 0) {
+            return 0;
+        }
+        final long available = Math.min(this.end, this.channel.size()) - this.position;
+        final long skipped = Math.max(0, Math.min(bytesToSkip, available));
+        this.position += skipped;
+        return skipped;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see java.io.InputStream#available()
+     */
+    public int available() throws IOException
+    {
+        final long available = Math.min(this.end, this.channel.size()) - this.position;
+        return (int) Math.max(0, Math.min(available, Integer.MAX_VALUE));
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see java.io.InputStream#close()
+     */
+    public void close() throws IOException
+    {
+        this.channel.close();
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+
+
+package org.xwiki.blob.internal;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * A directory of content addressed chunks.
+ * Each chunk is stored once, in a file named by the SHA-1 hash of its content, so identical chunks of
+ * different objects or of different versions of the same object share the same file.
+ * The files are spread over two levels of sub directories named by the first bytes of the hash, so that no
+ * single directory grows too large.
+ * <p>
+ * Chunks are never removed while they are being stored: storing a chunk which is already present marks it as
+ * recently used, and {@link #remove(String, long)} keeps recently used chunks.
+ *
+ * @version $Id$
+ * @since 2.6M1
+ */
+public class ChunkStore
+{
+    /** The hash algorithm which names the chunks. */
+    private static final String HASH_ALGORITHM = "SHA-1";
+
+    /** Hexadecimal digits. */
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /** The number of hexadecimal digits in a hash. */
+    private static final int HASH_LENGTH = 40;
+
+    /** Appended to the name of a chunk while it is being removed. */
+    private static final String REMOVED_SUFFIX = ".removed";
+
+    /** The number of hexadecimal digits in the name of each level of sub directory. */
+    private static final int SHARD_WIDTH = 2;
+
+    /** The directory which holds the chunks. */
+    private final File directory;
+
+    /**
+     * The Constructor.
+     *
+     * @param directory the directory which holds the chunks.
+     */
+    public ChunkStore(final File directory)
+    {
+        this.directory = directory;
+    }
+
+    /** @return the directory which holds the chunks. */
+    public File getDirectory()
+    {
+        return this.directory;
+    }
+
+    /**
+     * Store a chunk, unless a chunk with the same content is already stored.
+     *
+     * @param buffer the array holding the content of the chunk.
+     * @param offset the offset of the chunk in the array.
+     * @param length the length of the chunk.
+     * @return the hash which identifies the chunk.
+     * @throws IOException if the chunk could not be written.
+     */
+    public String put(final byte[] buffer, final int offset, final int length) throws IOException
+    {
+        final String hash = ChunkStore.toHex(digest(buffer, offset, length));
+        final File file = this.getFile(hash);
+        // Marking the chunk as used fails if it was just moved aside to be removed, it is then stored again.
+        if (file.length() == length && file.setLastModified(System.currentTimeMillis())) {
+            return hash;
+        }
+
+        final File parent = file.getParentFile();
+        if (!parent.exists() && !parent.mkdirs() && !parent.exists()) {
+            throw new IOException("Could not create directory " + parent);
+        }
+        // Write to a temporary file first so that a chunk is never visible half written.
+        final File tmp = File.createTempFile(hash, ".tmp", parent);
+        final OutputStream os = new FileOutputStream(tmp);
+        try {
+            os.write(buffer, offset, length);
+        } finally {
+            os.close();
+        }
+        if (!tmp.renameTo(file)) {
+            // Another writer stored the same chunk concurrently.
+            tmp.delete();
+            if (!file.exists()) {
+                throw new IOException("Could not store chunk " + hash);
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Remove a chunk unless it was stored or used after a given time.
+     * The chunk is moved aside before its age is checked a second time, so a writer storing the same chunk
+     * concurrently either finds it missing and stores it again, or marks it as used before it is moved and it is
+     * then put back.
+     *
+     * @param hash the hash of a stored chunk.
+     * @param cutoff chunks stored or used after this time are kept.
+     * @return the length of the removed chunk or -1 if it was kept.
+     */
+    public long remove(final String hash, final long cutoff)
+    {
+        final File file = this.getFile(hash);
+        if (file.lastModified() > cutoff) {
+            return -1;
+        }
+        final File removed = new File(file.getParentFile(), hash + REMOVED_SUFFIX);
+        if (!file.renameTo(removed)) {
+            return -1;
+        }
+        if (removed.lastModified() > cutoff) {
+            // Any chunk stored again in the meantime has the same content.
+            if (!removed.renameTo(file)) {
+                removed.delete();
+            }
+            return -1;
+        }
+        final long length = removed.length();
+        return removed.delete() ? length : -1;
+    }
+
+    /**
+     * @param fileName the name of a file in the chunk directory.
+     * @return true if the file is a chunk, false if it is a temporary file.
+     */
+    public static boolean isChunk(final String fileName)
+    {
+        if (fileName.length() != HASH_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < HASH_LENGTH; i++) {
+            if (Character.digit(fileName.charAt(i), 16) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param hash the hash of a stored chunk.
+     * @return a stream over the content of the chunk.
+     * @throws IOException if the chunk is missing.
+     */
+    public InputStream open(final String hash) throws IOException
+    {
+        return new FileInputStream(this.getFile(hash));
+    }
+
+    /**
+     * @param hash the hash of a chunk.
+     * @return the file which holds the chunk.
+     */
+    public File getFile(final String hash)
+    {
+        final File first = new File(this.directory, hash.substring(0, SHARD_WIDTH));
+        final File second = new File(first, hash.substring(SHARD_WIDTH, 2 * SHARD_WIDTH));
+        return new File(second, hash);
+    }
+
+    /**
+     * @param bytes some bytes.
+     * @return the bytes as a string of hexadecimal digits.
+     */
+    private static String toHex(final byte[] bytes)
+    {
+        final char[] chars = new char[2 * bytes.length];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[2 * i] = HEX[(bytes[i] >> 4) & 0xf];
+            chars[2 * i + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new String(chars);
+    }
+
+    /**
+     * @param buffer the array holding the content.
+     * @param offset the offset of the content in the array.
+     * @param length the length of the content.
+     * @return the digest of the content.
+     */
+    private static byte[] digest(final byte[] buffer, final int offset, final int length)
+    {
+        try {
+            final MessageDigest md = MessageDigest.getInstance(HASH_ALGORITHM);
+            md.update(buffer, offset, length);
+            return md.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(HASH_ALGORITHM + " is not supported by this JVM.", e);
+        }
+    }
+}
@@ -0,0 +1,517 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+
+
+package org.xwiki.blob.internal;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import org.xwiki.blob.BinaryObjectConfiguration;
+import org.xwiki.blob.FastStorageItem;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.descriptor.ComponentInstantiationStrategy;
+import org.xwiki.component.annotation.InstantiationStrategy;
+import org.xwiki.component.annotation.Requirement;
+
+
+/**
+ * Content addressed implementation of FastStorageItem.
+ * Content is split into chunks at boundaries determined by the content itself (using a rolling "gear" hash),
+ * and each chunk is stored once in a {@link ChunkStore}. An item is only a small index file listing its chunks,
+ * so identical attachments, and the unchanged regions of different versions of an attachment, are stored only
+ * once and are not written again when they are saved.
+ * Chunks are never removed by this class since they may be shared, {@link #clear()} only removes the index.
+ * Chunks which no index refers to any more are removed by the {@link FilesystemStorageSweeper}.
+ *
+ * @version $Id$
+ * @since 2.6M1
+ */
+@Component("chunked")
+@InstantiationStrategy(ComponentInstantiationStrategy.PER_LOOKUP)
+public class ChunkedStorageItem implements FastStorageItem
+{
+    /** The name of the directory under the storage directory which holds the chunks and the indexes. */
+    public static final String DIRECTORY_NAME = "chunked";
+
+    /** The names of all index files will begin with this. */
+    private static final String FILE_NAME_PREFIX = "BinaryObj_";
+
+    /** The names of all index files will end with this. */
+    private static final String FILE_NAME_SUFFIX = ".idx";
+
+    /** The suffix of an index while it is written. */
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /** The encoding of the index files. */
+    private static final String ENCODING = "US-ASCII";
+
+    /** Chunks are never smaller than this, except for the last chunk of a write. */
+    private static final int MIN_CHUNK_SIZE = 2 * 1024;
+
+    /** Chunks are never larger than this. */
+    private static final int MAX_CHUNK_SIZE = 64 * 1024;
+
+    /** The number of bits of the rolling hash which must be zero at a boundary, giving 8KB chunks on average. */
+    private static final int BOUNDARY_BITS = 13;
+
+    /** Mask for the high bits of the rolling hash, which depend on the last 64 bytes. */
+    private static final long BOUNDARY_MASK = ((1L << BOUNDARY_BITS) - 1) << (Long.SIZE - BOUNDARY_BITS);
+
+    /** Seed for the gear table, which must never change or the chunk boundaries will move. */
+    private static final long GEAR_SEED = 0x5EEDC0DEL;
+
+    /** A random value for each byte value, mixed into the rolling hash. */
+    private static final long[] GEAR = new long[256];
+
+    static {
+        final Random random = new Random(GEAR_SEED);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    /** Get the configuration so we can get the right directory to put files in. */
+    @Requirement
+    private BinaryObjectConfiguration config;
+
+    /** The key to allow the same item to be recovered later. */
+    private UUID key;
+
+    /** The index file of this item. */
+    private File indexFile;
+
+    /** The store holding the chunks. */
+    private ChunkStore chunkStore;
+
+    /** Default constructor, used by the component manager. */
+    public ChunkedStorageItem()
+    {
+        // The configuration is injected.
+    }
+
+    /**
+     * Constructor with storage location defined.
+     * Useful primarily for testing.
+     *
+     * @param storageDirectory the directory under which the chunks and the indexes will be located.
+     */
+    public ChunkedStorageItem(final File storageDirectory)
+    {
+        this.config = new DefaultBinaryObjectConfiguration() {
+            public File store = storageDirectory;
+
+            public File getStorageDirectory()
+            {
+                return this.store;
+            }
+        };
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see org.xwiki.blob.StorageItem#init(UUID)
+     */
+    public void init(final UUID key)
+    {
+        final File storageDirectory = this.config.getStorageDirectory();
+        this.chunkStore = new ChunkStore(getChunkDirectory(storageDirectory));
+        this.indexFile =
+            new File(getIndexDirectory(storageDirectory), FILE_NAME_PREFIX + key.toString() + FILE_NAME_SUFFIX);
+        this.key = key;
+    }
+
+    /**
+     * @param storageDirectory the storage directory.
+     * @return the directory holding the chunks of the chunked store.
+     */
+    static File getChunkDirectory(final File storageDirectory)
+    {
+        return new File(new File(storageDirectory, DIRECTORY_NAME), "chunks");
+    }
+
+    /**
+     * @param storageDirectory the storage directory.
+     * @return the directory holding the index of every item of the chunked store.
+     */
+    static File getIndexDirectory(final File storageDirectory)
+    {
+        return new File(new File(storageDirectory, DIRECTORY_NAME), "index");
+    }
+
+    /**
+     * @param fileName the name of a file in the index directory.
+     * @return the key of the item the file is the index of or null if it is not an index.
+     */
+    static UUID parseKey(final String fileName)
+    {
+        if (!fileName.startsWith(FILE_NAME_PREFIX) || !fileName.endsWith(FILE_NAME_SUFFIX)) {
+            return null;
+        }
+        try {
+            return UUID.fromString(
+                fileName.substring(FILE_NAME_PREFIX.length(), fileName.length() - FILE_NAME_SUFFIX.length()));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @param indexFile an index file.
+     * @return the hashes of the chunks the index refers to, nothing if the index does not exist.
+     * @throws IOException if the index could not be read.
+     */
+    static List<String> readHashes(final File indexFile) throws IOException
+    {
+        final List<String> hashes = new ArrayList<String>();
+        for (String[] entry : readIndex(indexFile)) {
+            hashes.add(entry[0]);
+        }
+        return hashes;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see org.xwiki.blob.StorageItem#read()
+     */
+    public InputStream read() throws IOException
+    {
+        final List<String> hashes = readHashes(this.indexFile);
+        if (hashes.isEmpty()) {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+        return new ChunkSequenceInputStream(this.chunkStore, hashes.iterator());
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see org.xwiki.blob.StorageItem#write()
+     */
+    public OutputStream write() throws IOException
+    {
+        if (this.indexFile == null) {
+            throw new IOException("Cannot write to uninitialized StorageItem.");
+        }
+        return new ChunkingOutputStream();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see org.xwiki.blob.StorageItem#clear()
+     */
+    public void clear()
+    {
+        if (this.indexFile.exists()) {
+            this.indexFile.delete();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see org.xwiki.blob.StorageItem#getKey()
+     */
+    public UUID getKey()
+    {
+        return this.key;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see org.xwiki.blob.StorageItem#size()
+     */
+    public long size()
+    {
+        long size = 0;
+        try {
+            for (String[] entry : readIndex(this.indexFile)) {
+                size += Long.parseLong(entry[1]);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read the index " + this.indexFile, e);
+        }
+        return size;
+    }
+
+    /**
+     * @param indexFile the index file to read.
+     * @return the entries of the index, each one holding the hash and the length of a chunk.
+     * @throws IOException if the index could not be read.
+     */
+    private static List<String[]> readIndex(final File indexFile) throws IOException
+    {
+        final List<String[]> entries = new ArrayList<String[]>();
+        if (!indexFile.exists()) {
+            return entries;
+        }
+        final BufferedReader reader =
+            new BufferedReader(new InputStreamReader(new FileInputStream(indexFile), ENCODING));
+        try {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                if (line.length() > 0) {
+                    entries.add(line.split(" "));
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return entries;
+    }
+
+    /**
+     * Append entries to the index.
+     * The whole index is written to a temporary file which then replaces it, so that a crash never leaves a
+     * truncated index whose chunks the sweeper would consider unreferenced.
+     *
+     * @param entries lines of the form "hash length".
+     * @throws IOException if the index could not be written.
+     */
+    private void appendToIndex(final List<String> entries) throws IOException
+    {
+        final File parent = this.indexFile.getParentFile();
+        if (!parent.exists() && !parent.mkdirs() && !parent.exists()) {
+            throw new IOException("Could not create directory " + parent);
+        }
+        final List<String[]> previous = readIndex(this.indexFile);
+        final File tmp = File.createTempFile(this.indexFile.getName(), TEMP_SUFFIX, parent);
+        try {
+            final Writer writer = new OutputStreamWriter(new FileOutputStream(tmp), ENCODING);
+            try {
+                for (String[] entry : previous) {
+                    writer.write(entry[0]);
+                    writer.write(' ');
+                    writer.write(entry[1]);
+                    writer.write('\n');
+                }
+                for (String entry : entries) {
+                    writer.write(entry);
+                    writer.write('\n');
+                }
+            } finally {
+                writer.close();
+            }
+            if (!tmp.renameTo(this.indexFile)) {
+                throw new IOException("Could not replace the index " + this.indexFile);
+            }
+        } finally {
+            if (tmp.exists()) {
+                tmp.delete();
+            }
+        }
+    }
+
+    /**
+     * @param fileName the name of a file in the index directory.
+     * @return true if the file is an index being written, which the sweeper may remove once it is old.
+     */
+    static boolean isTemporary(final String fileName)
+    {
+        return fileName.startsWith(FILE_NAME_PREFIX) && fileName.endsWith(TEMP_SUFFIX);
+    }
+
+    /*-------------- Internal Classes --------------*/
+
+    /**
+     * A stream which splits the content written to it into chunks, stores them and adds them to the index
+     * when it is closed.
+     */
+    private class ChunkingOutputStream extends OutputStream
+    {
+        /** The content of the current chunk. */
+        private final byte[] buffer = new byte[MAX_CHUNK_SIZE];
+
+        /** The index entries of the chunks stored so far. */
+        private final List<String> entries = new ArrayList<String>();
+
+        /** The length of the current chunk. */
+        private int length;
+
+        /** The rolling hash. */
+        private long hash;
+
+        /** True once the stream is closed. */
+        private boolean closed;
+
+        /**
+         * {@inheritDoc}
+         *
+         * @see java.io.OutputStream#write(int)
+         */
+        public void write(final int singleByte) throws IOException
+        {
+            this.buffer[this.length++] = (byte) singleByte;
+            this.hash = (this.hash << 1) + GEAR[singleByte & 0xff];
+            if (this.length == MAX_CHUNK_SIZE
+                || (this.length >= MIN_CHUNK_SIZE && (this.hash & BOUNDARY_MASK) == 0))
+            {
+                this.endChunk();
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         *
+         * @see java.io.OutputStream#write(byte[], int, int)
+         */
+        public void write(final byte[] byteArray, final int offset, final int count) throws IOException
+        {
+            for (int i = offset; i < offset + count; i++) {
+                this.write(byteArray[i]);
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         *
+         * @see java.io.OutputStream#close()
+         */
+        public void close() throws IOException
+        {
+            if (this.closed) {
+                return;
+            }
+            this.closed = true;
+            if (this.length > 0) {
+                this.endChunk();
+            }
+            appendToIndex(this.entries);
+        }
+
+        /**
+         * Store the current chunk and start a new one.
+         *
+         * @throws IOException if the chunk could not be stored.
+         */
+        private void endChunk() throws IOException
+        {
+            this.entries.add(chunkStore.put(this.buffer, 0, this.length) + " " + this.length);
+            this.length = 0;
+            this.hash = 0;
+        }
+    }
+
+    /** A stream over the content of a sequence of chunks, which are opened one at a time. */
+    private static class ChunkSequenceInputStream extends InputStream
+    {
+        /** The store holding the chunks. */
+        private final ChunkStore store;
+
+        /** The hashes of the chunks which have not yet been opened. */
+        private final Iterator<String> hashes;
+
+        /** The stream over the current chunk, null at the end. */
+        private InputStream current;
+
+        /**
+         * The Constructor.
+         *
+         * @param store the store holding the chunks.
+         * @param hashes the hashes of the chunks, there must be at least one.
+         * @throws IOException if the first chunk could not be opened.
+         */
+        ChunkSequenceInputStream(final ChunkStore store, final Iterator<String> hashes) throws IOException
+        {
+            this.store = store;
+            this.hashes = hashes;
+            this.current = store.open(hashes.next());
+        }
+
+        /**
+         * {@inheritDoc}
+         *
+         * @see java.io.InputStream#read()
+         */
+        public int read() throws IOException
+        {
+            while (this.current != null) {
+                final int b = this.current.read();
+                if (b != -1) {
+                    return b;
+                }
+                this.next();
+            }
+            return -1;
+        }
+
+        /**
+         * {@inheritDoc}
+         *
+         * @see java.io.InputStream#read(byte[], int, int)
+         */
+        public int read(final byte[] buffer, final int offset, final int length) throws IOException
+        {
+            if (length == 0) {
+                return 0;
+            }
+            while (this.current != null) {
+                final int count = this.current.read(buffer, offset, length);
+                if (count > 0) {
+                    return count;
+                }
+                this.next();
+            }
+            return -1;
+        }
+
+        /**
+         * {@inheritDoc}
+         *
+         * @see java.io.InputStream#close()
+         */
+        public void close() throws IOException
+        {
+            if (this.current != null) {
+                this.current.close();
+                this.current = null;
+            }
+        }
+
+        /**
+         * Close the current chunk and open the next one.
+         *
+         * @throws IOException if the next chunk could not be opened.
+         */
+        private void next() throws IOException
+        {
+            this.current.close();
+            this.current = this.hashes.hasNext() ? this.store.open(this.hashes.next()) : null;
+        }
+    }
+}
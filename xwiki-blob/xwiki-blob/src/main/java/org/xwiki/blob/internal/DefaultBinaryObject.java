@@ -19,41 +19,83 @@
  *
  */
 
+
 package org.xwiki.blob.internal;
 
+import java.io.FilterInputStream;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.commons.io.IOUtils;
 import org.xwiki.blob.BinaryObject;
 import org.xwiki.blob.FastStorageItem;
+import org.xwiki.blob.RangedStorageItem;
 import org.xwiki.blob.StorageItem;
 
 
 /**
  * Filesystem based BinaryObject.
+ * Readers never block: every read is served from the last committed {@link Version}, which is published by
+ * swapping a single reference. Writers are serialized and never modify a store while it is published or while a
+ * reader of a version which was replaced is still using it, they wait for those readers to finish instead.
+ * <p>
+ * Content is added to a scratch store. Saving publishes the scratch store as the new version and copies it into
+ * the persistent store, then the other fast store becomes the scratch store. When the persistent store is itself
+ * a {@link FastStorageItem}, loaded content is published directly from it so loading an object copies nothing,
+ * the previous content is only copied away first if it is being read when another key is loaded.
+ * Otherwise the persistent content is copied into a fast store when it is loaded. Content which was committed is
+ * only copied into the scratch store when more content is added to it.
  *
  * @version $Id$
  * @since 2.6M1
  */
 public class DefaultBinaryObject implements BinaryObject
 {
-    /** This holds the unsaved version, all write actions go to this item. */
-    private final FastStorageItem writeStore;
-
-    /** This holds the saved version, all read actions got to this item. */
-    private final FastStorageItem readStore;
-
     /**
      * This holds the data in it's persistent state.
      * To save resources, it is only loaded on first load and only saved when {@link #save()} is called.
      */
     private final StorageItem persistentStore;
 
-    /** A simple which causes concurrent read or write actions to block. */
-    private DualItemLock lock = new DualItemLock();
+    /** True if the saved content can be read directly from the persistent store. */
+    private final boolean persistentStoreIsFast;
+
+    /** The number of bytes copied from one store to another. */
+    private final AtomicLong bytesCopied = new AtomicLong();
+
+    /** The last committed version, all read actions go to its store. */
+    private final AtomicReference<Version> current;
+
+    /**
+     * Held by the one writer which may change the stores.
+     * This is not a lock from java.util.concurrent.locks because a thread might get an OutputStream and hand it
+     * off to another thread which closes it.
+     */
+    private final Semaphore writeLock = new Semaphore(1);
+
+    /** Versions which were replaced and may still have readers. Only used while holding the write lock. */
+    private final List<Version> retired = new ArrayList<Version>();
+
+    /** This holds the unsaved version, all write actions go to this item. Only used with the write lock. */
+    private FastStorageItem scratchStore;
+
+    /** The other fast store, it may be published or may be waiting to be reused. Only used with the write lock. */
+    private FastStorageItem snapshotStore;
+
+    /** False if the committed content must be copied into the scratch store before more can be added. */
+    private boolean scratchStoreCurrent = true;
 
     /**
      * Constructor with underlying StorageItems specified.
@@ -67,12 +109,14 @@ public DefaultBinaryObject(final FastStorageItem writeStore,
                                final FastStorageItem readStore,
                                final StorageItem persistentStore) throws IOException
     {
-        this.writeStore = writeStore;
-        this.readStore = readStore;
+        this.scratchStore = writeStore;
+        this.snapshotStore = readStore;
         this.persistentStore = persistentStore;
-        this.writeStore.init(UUID.randomUUID());
-        this.readStore.init(UUID.randomUUID());
+        this.persistentStoreIsFast = persistentStore instanceof FastStorageItem;
+        this.scratchStore.init(UUID.randomUUID());
+        this.snapshotStore.init(UUID.randomUUID());
         this.persistentStore.init(UUID.randomUUID());
+        this.current = new AtomicReference<Version>(new Version(this.snapshotStore, this.snapshotStore.size()));
     }
 
     /*-------------- BinaryObject Methods --------------*/
@@ -96,16 +140,20 @@ public void addContent(final InputStream content) throws IOException
      */
     public OutputStream addContent() throws IOException
     {
-        final DualItemLock dil = this.lock;
-        dil.lock(DualItemLock.Action.ADD);
-        // Content is always added to temporary storage.
-        return new RunOnCloseOutputStream(this.writeStore.write(), new Runnable() {
-
-            private DualItemLock lock = dil;
-
-            public void run()
+        this.writeLock.acquireUninterruptibly();
+        final OutputStream os;
+        try {
+            this.copyOnWrite();
+            // Content is always added to the scratch store.
+            os = this.scratchStore.write();
+        } catch (IOException e) {
+            this.writeLock.release();
+            throw e;
+        }
+        return new RunOnCloseOutputStream(os, new Release() {
+            protected void release()
             {
-                this.lock.unlock(DualItemLock.Action.ADD);
+                DefaultBinaryObject.this.writeLock.release();
             }
         });
     }
@@ -117,11 +165,13 @@ public void run()
      */
     public void clear() throws IOException
     {
-        this.lock.lock(DualItemLock.Action.CLEAR);
-
-        this.writeStore.clear();
-
-        this.lock.unlock(DualItemLock.Action.CLEAR);
+        this.writeLock.acquireUninterruptibly();
+        try {
+            this.prepare(this.scratchStore);
+            this.scratchStoreCurrent = true;
+        } finally {
+            this.writeLock.release();
+        }
     }
 
     /**
@@ -131,32 +181,52 @@ public void clear() throws IOException
      */
     public UUID save() throws IOException
     {
-        this.lock.lock(DualItemLock.Action.SAVE);
-
-        this.persistentStore.clear();
-        DefaultBinaryObject.copy(this.writeStore, this.persistentStore);
-        this.readStore.clear();
-        DefaultBinaryObject.copy(this.persistentStore, this.readStore);
-
-        this.lock.unlock(DualItemLock.Action.SAVE);
+        this.writeLock.acquireUninterruptibly();
+        try {
+            // If the scratch store is not current, nothing was added or cleared since the content was committed.
+            if (this.scratchStoreCurrent) {
+                final FastStorageItem saved = this.scratchStore;
+                // Publishing first moves readers off the persistent store so that it can be rewritten.
+                this.publish(saved);
+                this.swapStores();
+                this.scratchStoreCurrent = false;
+                this.prepare(this.persistentStore);
+                this.copy(saved, this.persistentStore);
+            }
+        } finally {
+            this.writeLock.release();
+        }
 
         return this.persistentStore.getKey();
     }
 
     /**
-     * Copy content of one StorageItem to another.
+     * {@inheritDoc}
      *
-     * @param from copy content out of this item.
-     * @param to copy content into this item.
-     * @throws IOException if the copy operation fails.
+     * @see BinaryObject#save(UUID)
      */
-    private static void copy(final StorageItem from, final StorageItem to) throws IOException
+    public UUID save(final UUID key) throws IOException
     {
-        final OutputStream os = to.write();
-        final InputStream is = from.read();
-        IOUtils.copy(is, os);
-        is.close();
-        os.close();
+        this.writeLock.acquireUninterruptibly();
+        try {
+            if (this.scratchStoreCurrent) {
+                this.publish(this.scratchStore);
+                this.swapStores();
+                this.scratchStoreCurrent = false;
+            } else if (this.current.get().getStore() == this.persistentStore) {
+                // The content is read from the persistent store under the previous key, it is copied away so that
+                // the store can be pointed at the new key.
+                this.publishCopy(this.persistentStore);
+            }
+            this.drain(this.persistentStore);
+            this.persistentStore.init(key);
+            this.prepare(this.persistentStore);
+            this.copy(this.current.get().getStore(), this.persistentStore);
+        } finally {
+            this.writeLock.release();
+        }
+
+        return key;
     }
 
     /**
@@ -166,11 +236,35 @@ private static void copy(final StorageItem from, final StorageItem to) throws IO
      */
     public void load(final UUID key) throws IOException
     {
-        this.lock.lock(DualItemLock.Action.LOAD);
-        this.persistentStore.init(key);
-        this.readStore.clear();
-        DefaultBinaryObject.copy(this.persistentStore, this.readStore);
-        this.lock.unlock(DualItemLock.Action.LOAD);
+        this.writeLock.acquireUninterruptibly();
+        try {
+            this.drain(this.persistentStore);
+            final Version loaded = this.current.get();
+            if (loaded.getStore() == this.persistentStore && !loaded.close()) {
+                // Readers are reading the persistent store, it cannot be pointed at another key until they
+                // are moved to a copy of it.
+                this.publishCopy(this.persistentStore);
+                this.drain(this.persistentStore);
+            }
+            try {
+                this.persistentStore.init(key);
+            } catch (IOException e) {
+                if (this.current.get() == loaded) {
+                    // Let the readers which are waiting for the closed version fail on the store instead.
+                    this.publish(this.persistentStore);
+                }
+                throw e;
+            }
+            if (this.persistentStoreIsFast) {
+                // Nothing is copied until the content is added to.
+                this.publish(this.persistentStore);
+            } else {
+                this.publishCopy(this.persistentStore);
+            }
+            this.scratchStoreCurrent = false;
+        } finally {
+            this.writeLock.release();
+        }
     }
 
     /**
@@ -180,16 +274,50 @@ public void load(final UUID key) throws IOException
      */
     public InputStream getContent() throws IOException
     {
-        final DualItemLock dil = this.lock;
-        dil.lock(DualItemLock.Action.GET);
-        // All reads come from readStore. Anything unsaved is not available.
-        return new RunOnCloseInputStream(this.readStore.read(), new Runnable() {
-
-            private DualItemLock lock = dil;
+        final Version version = this.acquire();
+        // All reads come from the committed content. Anything unsaved is not available.
+        final InputStream is;
+        try {
+            is = version.getStore().read();
+        } catch (IOException e) {
+            version.release();
+            throw e;
+        }
+        return new RunOnCloseInputStream(is, new Release() {
+            protected void release()
+            {
+                version.release();
+            }
+        });
+    }
 
-            public void run()
+    /**
+     * {@inheritDoc}
+     *
+     * @see BinaryObject#getContent(long, long)
+     */
+    public InputStream getContent(final long offset, final long length) throws IOException
+    {
+        if (offset < 0 || length < 0) {
+            throw new IllegalArgumentException("Invalid range, offset: " + offset + " length: " + length);
+        }
+        final Version version = this.acquire();
+        final InputStream is;
+        try {
+            final StorageItem store = version.getStore();
+            if (store instanceof RangedStorageItem) {
+                is = ((RangedStorageItem) store).openRange(offset, length);
+            } else {
+                is = new BoundedInputStream(store.read(), offset, length);
+            }
+        } catch (IOException e) {
+            version.release();
+            throw e;
+        }
+        return new RunOnCloseInputStream(is, new Release() {
+            protected void release()
             {
-                this.lock.unlock(DualItemLock.Action.GET);
+                version.release();
             }
         });
     }
@@ -197,18 +325,41 @@ public void run()
     /**
      * {@inheritDoc}
      *
-     * @see BinaryObject#size()
+     * @see BinaryObject#transferTo(WritableByteChannel)
      */
-    public long size()
+    public long transferTo(final WritableByteChannel target) throws IOException
     {
-        this.lock.lock(DualItemLock.Action.SIZE);
+        final Version version = this.acquire();
         try {
-            return this.readStore.size();
+            final StorageItem store = version.getStore();
+            if (store instanceof RangedStorageItem) {
+                return ((RangedStorageItem) store).transferTo(target);
+            }
+            final InputStream is = store.read();
+            try {
+                // Not closed since that would close the target channel.
+                final OutputStream os = Channels.newOutputStream(target);
+                final long count = IOUtils.copyLarge(is, os);
+                os.flush();
+                return count;
+            } finally {
+                is.close();
+            }
         } finally {
-            this.lock.unlock(DualItemLock.Action.SIZE);
+            version.release();
         }
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * @see BinaryObject#size()
+     */
+    public long size()
+    {
+        return this.current.get().getSize();
+    }
+
     /**
      * {@inheritDoc}
      *
@@ -221,118 +372,373 @@ public void getContent(final OutputStream writeTo) throws IOException
         is.close();
     }
 
-    /*-------------- Internal Classes --------------*/
+    /** @return the number of bytes copied from one store to another since this object was created. */
+    long getBytesCopied()
+    {
+        return this.bytesCopied.get();
+    }
+
+    /*-------------- Reader Methods --------------*/
 
     /**
-     * A simple lock which can handle two files, one which is the authority to be read from and one is the
-     * scratch pad to be written to.
-     * This class differs from the classes in java.util.concurrent.locks because it will lock out the thread
-     * who aquired the lock. There is a good chance that a thread might get an OutputStream and hand it off to
-     * another thread and the first thread will then try to get another stream.
-     * This lock will make that request block.
+     * Register a reader of the current version without blocking.
+     * The reader count is incremented before checking that the version is still current so that a writer which
+     * replaced it is certain to wait for this reader. A reader which finds the version closed waits for it to be
+     * replaced, this only happens while {@link #load(UUID)} points the persistent store at another key.
+     *
+     * @return the current version, {@link Version#release()} must be called when reading is finished.
      */
-    private static class DualItemLock
+    private Version acquire()
     {
-        /** Enumerates all actions which can be done on a NonConcurrentFileBinaryObject. */
-        public static enum Action
-        {
-            /** Action representing getting of content from the file. */
-            GET(false, true),
-
-            /** Action representing appending content into the file. */
-            ADD(true, false),
+        while (true) {
+            final Version version = this.current.get();
+            if (version.readers.incrementAndGet() > 0 && this.current.get() == version) {
+                return version;
+            }
+            version.release();
+            if (this.current.get() == version) {
+                // The version was closed by a writer which is about to replace it.
+                version.awaitRetired();
+            }
+        }
+    }
 
-            /** Action representing clearing the file of content. */
-            CLEAR(true, false),
+    /*-------------- Writer Methods, all need the write lock --------------*/
 
-            /** Action which represents saving of a binary object. */
-            SAVE(true, true),
+    /**
+     * Copy the committed content into the scratch store if it was committed since content was last added, so
+     * that added content is appended to it.
+     *
+     * @throws IOException if the copy operation fails.
+     */
+    private void copyOnWrite() throws IOException
+    {
+        if (!this.scratchStoreCurrent) {
+            this.prepare(this.scratchStore);
+            this.copy(this.current.get().getStore(), this.scratchStore);
+            this.scratchStoreCurrent = true;
+        }
+    }
 
-            /** Action which represents loading of a binary object. */
-            LOAD(false, true),
+    /**
+     * Copy content into the scratch store and publish it, the scratch store is then replaced by the other fast
+     * store.
+     *
+     * @param from the store to copy the content from.
+     * @throws IOException if the copy operation fails.
+     */
+    private void publishCopy(final StorageItem from) throws IOException
+    {
+        final FastStorageItem copy = this.scratchStore;
+        this.prepare(copy);
+        this.copy(from, copy);
+        this.publish(copy);
+        this.swapStores();
+    }
 
-            /** Get the size of the read store. */
-            SIZE(false, true);
+    /**
+     * Make a store the current version, readers which already have the previous version keep reading it.
+     *
+     * @param store the store holding the committed content.
+     */
+    private void publish(final StorageItem store)
+    {
+        final Version previous = this.current.getAndSet(new Version(store, store.size()));
+        previous.retire();
+        for (Iterator<Version> it = this.retired.iterator(); it.hasNext();) {
+            if (it.next().readers.get() <= 0) {
+                it.remove();
+            }
+        }
+        this.retired.add(previous);
+    }
 
-            /** True if this action uses the temporary file. */
-            private final boolean locksWriteStore;
+    /** Exchange the scratch store with the other fast store. */
+    private void swapStores()
+    {
+        final FastStorageItem scratch = this.scratchStore;
+        this.scratchStore = this.snapshotStore;
+        this.snapshotStore = scratch;
+    }
 
-            /** True if this action uses the persistent file. */
-            private final boolean locksReadStore;
+    /**
+     * Wait for the readers of every replaced version of a store, then remove its content.
+     * The store must not be the current version.
+     *
+     * @param store the store which is going to be written to.
+     * @throws IOException if clearing the store fails.
+     */
+    private void prepare(final StorageItem store) throws IOException
+    {
+        this.drain(store);
+        store.clear();
+    }
 
-            /**
-             * Private Constructor.
-             * Used internally by Action.
-             *
-             * @param locksWriteStore true if the action uses the temporary file.
-             * @param locksReadStore true if this action uses the persistent file.
-             */
-            private Action(final boolean locksWriteStore, final boolean locksReadStore)
-            {
-                this.locksWriteStore = locksWriteStore;
-                this.locksReadStore = locksReadStore;
+    /**
+     * Wait for the readers of every replaced version of a store.
+     *
+     * @param store the store which is going to be changed.
+     */
+    private void drain(final StorageItem store)
+    {
+        for (Iterator<Version> it = this.retired.iterator(); it.hasNext();) {
+            final Version version = it.next();
+            if (version.getStore() == store) {
+                version.awaitReaders();
+                it.remove();
             }
+        }
+    }
 
-            /** @return true if this action uses the temporary file. */
-            public boolean locksWriteStore()
-            {
-                return this.locksWriteStore;
-            }
+    /**
+     * Copy content of one StorageItem to another.
+     *
+     * @param from copy content out of this item.
+     * @param to copy content into this item.
+     * @throws IOException if the copy operation fails.
+     */
+    private void copy(final StorageItem from, final StorageItem to) throws IOException
+    {
+        final OutputStream os = to.write();
+        final InputStream is = from.read();
+        this.bytesCopied.addAndGet(IOUtils.copyLarge(is, os));
+        is.close();
+        os.close();
+    }
 
-            /** @return true if this action uses the persistent file. */
-            public boolean locksReadStore()
-            {
-                return this.locksReadStore;
-            }
-        }
+    /*-------------- Internal Classes --------------*/
+
+    /**
+     * A committed version of the content. The store of a version is not changed until the version has been
+     * replaced and all of its readers have finished.
+     */
+    private static final class Version
+    {
+        /** The reader count of a closed version, far enough below zero that readers retrying cannot reach it. */
+        private static final int CLOSED = Integer.MIN_VALUE / 2;
+
+        /** The longest a reader waits for a closed version to be replaced before checking again. */
+        private static final long CLOSED_WAIT_MILLIS = 10;
 
-        /** True if one of the current actions is using the temporary file. */
-        private boolean writeStoreLocked;
+        /** The number of readers which are using this version. */
+        private final AtomicInteger readers = new AtomicInteger();
 
-        /** True if one of the current actions is using the persistent file. */
-        private boolean readStoreLocked;
+        /** The store holding the content of this version. */
+        private final StorageItem store;
+
+        /** The size of the content, taken when the version was published. */
+        private final long size;
+
+        /** True once this version has been replaced, readers must then wake a waiting writer. */
+        private volatile boolean retired;
 
         /**
-         * Will block if a request is make on a resource which is being held.
+         * The Constructor.
          *
-         * @param action the action which we are locking for (used to give more helpfull exception messages)
+         * @param store the store holding the content of this version.
+         * @param size the size of the content.
          */
-        public synchronized void lock(Action action)
+        Version(final StorageItem store, final long size)
+        {
+            this.store = store;
+            this.size = size;
+        }
+
+        /** @return the store holding the content of this version. */
+        public StorageItem getStore()
+        {
+            return this.store;
+        }
+
+        /** @return the size of the content. */
+        public long getSize()
+        {
+            return this.size;
+        }
+
+        /** Mark this version as replaced, waking the readers which wait for it to be. */
+        public synchronized void retire()
+        {
+            this.retired = true;
+            this.notifyAll();
+        }
+
+        /**
+         * Wait a bounded time for this closed version to be replaced, only called by readers which found it closed.
+         * The wait is bounded so that a reader checks again even if it missed the version being replaced.
+         */
+        public synchronized void awaitRetired()
         {
             try {
-                while ((action.locksWriteStore() && this.writeStoreLocked)
-                       || (action.locksReadStore() && this.readStoreLocked))
-                {
-                    this.wait();
+                if (!this.retired) {
+                    this.wait(CLOSED_WAIT_MILLIS);
                 }
-                if (action.locksWriteStore()) {
-                    writeStoreLocked = true;
+            } catch (InterruptedException e) {
+                // this is not an expected condition.
+                throw new RuntimeException("The thread was interrupted while waiting for a version to be replaced.");
+            }
+        }
+
+        /**
+         * Stop new readers from using this version, only called by writers which are about to replace it.
+         *
+         * @return true if the version had no readers and was closed, false if it is still being read.
+         */
+        public boolean close()
+        {
+            return this.readers.compareAndSet(0, CLOSED);
+        }
+
+        /** Called by a reader when it is finished with this version. */
+        public void release()
+        {
+            if (this.readers.decrementAndGet() == 0 && this.retired) {
+                synchronized (this) {
+                    this.notifyAll();
                 }
-                if (action.locksReadStore()) {
-                    readStoreLocked = true;
+            }
+        }
+
+        /** Block until every reader of this version has finished, only called by writers. */
+        public synchronized void awaitReaders()
+        {
+            try {
+                while (this.readers.get() > 0) {
+                    this.wait();
                 }
             } catch (InterruptedException e) {
                 // this is not an expected condition.
-                throw new RuntimeException("The thread was interrupted while waiting to aquire the lock.");
+                throw new RuntimeException("The thread was interrupted while waiting for readers to finish.");
             }
         }
+    }
+
+    /** Releases something exactly once, even if the stream it is attached to is closed more than once. */
+    private abstract static class Release implements Runnable
+    {
+        /** True once released. */
+        private final AtomicBoolean done = new AtomicBoolean();
 
         /**
-         * Unlock the resources.
-         * Called when the streams are closed. Whatever resources were locked by the given action are unlocked
-         * and any threads waiting are notified.
+         * {@inheritDoc}
          *
-         * @param action the action which the lock was set for.
+         * @see java.lang.Runnable#run()
          */
-        public synchronized void unlock(Action action)
+        public final void run()
         {
-            if (action.locksWriteStore()) {
-                writeStoreLocked = false;
+            if (this.done.compareAndSet(false, true)) {
+                this.release();
             }
-            if (action.locksReadStore()) {
-                readStoreLocked = false;
+        }
+
+        /** Release whatever is held. */
+        protected abstract void release();
+    }
+
+    /**
+     * A stream over part of another stream, used for ranged reads on stores which cannot seek.
+     * The content before the range is skipped when the stream is created.
+     */
+    private static class BoundedInputStream extends FilterInputStream
+    {
+        /** The number of bytes which may still be read. */
+        private long remaining;
+
+        /**
+         * The Constructor.
+         *
+         * @param toWrap the stream to read from, it is closed when this stream is closed.
+         * @param offset the number of bytes to skip.
+         * @param length the maximum number of bytes to read after skipping.
+         * @throws IOException if skipping fails.
+         */
+        public BoundedInputStream(final InputStream toWrap, final long offset, final long length)
+            throws IOException
+        {
+            super(toWrap);
+            this.remaining = length;
+            long toSkip = offset;
+            while (toSkip > 0) {
+                final long skipped = toWrap.skip(toSkip);
+                if (skipped <= 0) {
+                    // Some streams only report the end of the content through read().
+                    if (toWrap.read() == -1) {
+                        break;
+                    }
+                    toSkip--;
+                } else {
+                    toSkip -= skipped;
+                }
             }
-            this.notifyAll();
+        }
+
+        /**
+         * {@inheritDoc}
+         *
+         * @see java.io.FilterInputStream#read()
+         */
+        public int read() throws IOException
+        {
+            if (this.remaining <= 0) {
+                return -1;
+            }
+            final int out = super.read();
+            if (out != -1) {
+                this.remaining--;
+            }
+            return out;
+        }
+
+        /**
+         * {@inheritDoc}
+         *
+         * @see java.io.FilterInputStream#read(byte[], int, int)
+         */
+        public int read(final byte[] buffer, final int offset, final int length) throws IOException
+        {
+            if (this.remaining <= 0) {
+                return -1;
+            }
+            final int read = super.read(buffer, offset, (int) Math.min(length, this.remaining));
+            if (read > 0) {
+                this.remaining -= read;
+            }
+            return read;
+        }
+
+        /**
+         * {@inheritDoc}
+         *
+         * @see java.io.FilterInputStream#skip(long)
+         */
+        public long skip(final long bytesToSkip) throws IOException
+        {
+            final long skipped = super.skip(Math.min(bytesToSkip, this.remaining));
+            if (skipped > 0) {
+                this.remaining -= skipped;
+            }
+            return skipped;
+        }
+
+        /**
+         * {@inheritDoc}
+         *
+         * @see java.io.FilterInputStream#available()
+         */
+        public int available() throws IOException
+        {
+            return (int) Math.min(super.available(), this.remaining);
+        }
+
+        /**
+         * {@inheritDoc}
+         *
+         * Marking is not supported since the remaining count could not be restored.
+         * @see java.io.FilterInputStream#markSupported()
+         */
+        public boolean markSupported()
+        {
+            return false;
         }
     }
 }
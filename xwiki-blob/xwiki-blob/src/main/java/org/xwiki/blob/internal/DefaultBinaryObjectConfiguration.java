@@ -61,4 +61,44 @@ public String getCachingStorageHint()
     {
         return configSource.getProperty("blob.cachingStorageHint", "default");
     }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see BinaryObjectConfiguration#getSweepInterval()
+     */
+    public long getSweepInterval()
+    {
+        return configSource.getProperty("blob.sweep.interval", Long.valueOf(0)).longValue();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see BinaryObjectConfiguration#getSweepMinimumAge()
+     */
+    public long getSweepMinimumAge()
+    {
+        return configSource.getProperty("blob.sweep.minimumAge", Long.valueOf(24 * 60)).longValue();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see BinaryObjectConfiguration#getSweepFilesPerSecond()
+     */
+    public long getSweepFilesPerSecond()
+    {
+        return configSource.getProperty("blob.sweep.filesPerSecond", Long.valueOf(1000)).longValue();
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see BinaryObjectConfiguration#getSweepBytesPerSecond()
+     */
+    public long getSweepBytesPerSecond()
+    {
+        return configSource.getProperty("blob.sweep.bytesPerSecond", Long.valueOf(10 * 1024 * 1024)).longValue();
+    }
 }
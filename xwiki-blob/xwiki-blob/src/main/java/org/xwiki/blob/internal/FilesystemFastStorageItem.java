@@ -40,6 +40,9 @@
 
 /**
  * Filesystem based implementation of FastStorageItem.
+ * Files are spread over two levels of directories named after a hash of the key so that no directory holds too
+ * many files. Files found in the flat layout used by earlier versions are moved when they are first used, the
+ * {@link FlatLayoutMigrator} moves all of them.
  *
  * @version $Id$
  * @since 2.6M1
@@ -49,7 +52,13 @@
 public class FilesystemFastStorageItem implements FastStorageItem
 {
     /** The names of all files which back BinaryObjects of this class will begin with this. */
-    private static final String FILE_NAME_PREFIX = "BinaryObj_";
+    static final String FILE_NAME_PREFIX = "BinaryObj_";
+
+    /** The number of bits of the key hash used to name each level of directories. */
+    private static final int BITS_PER_LEVEL = 8;
+
+    /** Selects the bits of the key hash used to name one level of directories. */
+    private static final int LEVEL_MASK = (1 << BITS_PER_LEVEL) - 1;
 
     /** Get the configuration so we can get the right directory to put files in. */
     @Requirement
@@ -87,8 +96,13 @@ public File getStorageDirectory()
      */
     public void init(final UUID key)
     {
-        this.file = FilesystemFastStorageItem.getFile(this.config.getStorageDirectory(), key);
+        final File storageDirectory = this.config.getStorageDirectory();
+        this.file = FilesystemFastStorageItem.getFile(storageDirectory, key);
         this.key = key;
+        if (!this.file.exists()) {
+            FilesystemFastStorageItem.migrate(FilesystemFastStorageItem.getFlatFile(storageDirectory, key),
+                                              this.file);
+        }
     }
 
     /**
@@ -115,6 +129,10 @@ public OutputStream write() throws IOException
         if (this.file == null) {
             throw new IOException("Cannot write to uninitialized StorageItem.");
         }
+        final File parent = this.file.getParentFile();
+        if (!parent.exists() && !parent.mkdirs() && !parent.exists()) {
+            throw new IOException("Could not create the directory " + parent);
+        }
         return new FileOutputStream(this.file, true);
     }
 
@@ -150,13 +168,67 @@ public long size()
         return this.file.length();
     }
 
+    /** @return the file which backs this item, null if it has not been initialized. */
+    protected File getBackingFile()
+    {
+        return this.file;
+    }
+
     /**
      * @param storageDirectory the directory to store the files in.
      * @param storageKey the UUID to get the correct file.
      * @return the file.
      */
-    private static File getFile(final File storageDirectory, final UUID storageKey)
+    static File getFile(final File storageDirectory, final UUID storageKey)
+    {
+        // Attachment keys share most of their bits so all of them are mixed before choosing the directories.
+        long hash = storageKey.getMostSignificantBits() ^ storageKey.getLeastSignificantBits();
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        final int first = (int) (hash >>> BITS_PER_LEVEL) & LEVEL_MASK;
+        final int second = (int) hash & LEVEL_MASK;
+        final File shard = new File(new File(storageDirectory, toHex(first)), toHex(second));
+        return new File(shard, FILE_NAME_PREFIX + storageKey.toString());
+    }
+
+    /**
+     * @param storageDirectory the directory to store the files in.
+     * @param storageKey the UUID to get the correct file.
+     * @return the location of the file in the flat layout used by earlier versions.
+     */
+    static File getFlatFile(final File storageDirectory, final UUID storageKey)
     {
         return new File(storageDirectory, FILE_NAME_PREFIX + storageKey.toString());
     }
+
+    /**
+     * Move a file from the flat layout to the sharded layout if it exists.
+     * This is safe to call from several threads or processes at once since only one rename can succeed.
+     *
+     * @param flat the location of the file in the flat layout.
+     * @param sharded the location of the file in the sharded layout.
+     * @return true if the file was moved by this call.
+     */
+    static boolean migrate(final File flat, final File sharded)
+    {
+        if (!flat.exists()) {
+            return false;
+        }
+        final File parent = sharded.getParentFile();
+        if (!parent.exists()) {
+            parent.mkdirs();
+        }
+        return !sharded.exists() && flat.renameTo(sharded);
+    }
+
+    /**
+     * @param level the number of a directory within one level.
+     * @return the two digit hexadecimal name of the directory.
+     */
+    private static String toHex(final int level)
+    {
+        final String hex = Integer.toHexString(level);
+        return (hex.length() == 1) ? "0" + hex : hex;
+    }
 }
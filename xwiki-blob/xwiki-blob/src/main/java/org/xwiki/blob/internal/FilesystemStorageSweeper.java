@@ -0,0 +1,299 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+
+
+package org.xwiki.blob.internal;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Removes the files of {@link FilesystemFastStorageItem}s which are no longer needed from a storage directory.
+ * The caller decides which keys may be collected, files which were modified recently are always kept since their
+ * item may be in the middle of being saved. Both the number of files examined and the number of bytes deleted
+ * per second can be limited so that a sweep does not compete with the wiki for disk access.
+ * <p>
+ * The indexes of collectable {@link ChunkedStorageItem}s are removed the same way. Chunks are shared between
+ * items, so once every remaining index was read, the chunks which none of them refers to are removed as well.
+ *
+ * @version $Id$
+ * @since 2.6M1
+ */
+public class FilesystemStorageSweeper
+{
+    /** Decides whether the file of a storage item may be removed. */
+    public interface Collectable
+    {
+        /**
+         * @param key the key of a storage item which has a file in the storage directory.
+         * @return true if nothing refers to the item any more.
+         */
+        boolean isCollectable(UUID key);
+    }
+
+    /** The storage directory to sweep. */
+    private final File storageDirectory;
+
+    /** Files modified less than this many milliseconds ago are kept. */
+    private final long minimumAge;
+
+    /** Limits the number of files examined per second. */
+    private final RateLimiter fileLimiter;
+
+    /** Limits the number of bytes deleted per second. */
+    private final RateLimiter byteLimiter;
+
+    /**
+     * The Constructor.
+     *
+     * @param storageDirectory the storage directory to sweep.
+     * @param minimumAge files modified less than this many milliseconds ago are kept.
+     * @param filesPerSecond the maximum number of files examined per second, 0 or less means unlimited.
+     * @param bytesPerSecond the maximum number of bytes deleted per second, 0 or less means unlimited.
+     */
+    public FilesystemStorageSweeper(final File storageDirectory,
+                                    final long minimumAge,
+                                    final double filesPerSecond,
+                                    final double bytesPerSecond)
+    {
+        this.storageDirectory = storageDirectory;
+        this.minimumAge = minimumAge;
+        this.fileLimiter = new RateLimiter(filesPerSecond);
+        this.byteLimiter = new RateLimiter(bytesPerSecond);
+    }
+
+    /**
+     * Examine every storage item file, in the sharded and in the flat layout, and remove the collectable ones.
+     * Then examine the chunked store and remove the collectable indexes and the chunks no index refers to.
+     *
+     * @param collectable decides which items may be removed.
+     * @return the number of files examined and removed and the number of bytes freed.
+     * @throws InterruptedException if the thread is interrupted while waiting for the rate limits.
+     */
+    public Result sweep(final Collectable collectable) throws InterruptedException
+    {
+        final Result result = new Result();
+        final long cutoff = System.currentTimeMillis() - this.minimumAge;
+        this.sweepDirectory(this.storageDirectory, collectable, cutoff, result);
+        final File[] first = this.storageDirectory.listFiles();
+        if (first != null) {
+            for (File firstLevel : first) {
+                // The chunked store keeps its own directory in the storage directory, it is swept separately.
+                final File[] second = isShard(firstLevel) ? firstLevel.listFiles() : null;
+                if (second != null) {
+                    for (File secondLevel : second) {
+                        if (isShard(secondLevel)) {
+                            this.sweepDirectory(secondLevel, collectable, cutoff, result);
+                        }
+                    }
+                }
+            }
+        }
+        this.sweepChunked(collectable, cutoff, result);
+        return result;
+    }
+
+    /**
+     * Remove the collectable indexes of the chunked store, then the chunks which no remaining index refers to.
+     * Chunks which are stored or reused while the indexes are read are recent, so they are kept.
+     *
+     * @param collectable decides which items may be removed.
+     * @param cutoff files modified after this time are kept.
+     * @param result the counts to add to.
+     * @throws InterruptedException if the thread is interrupted while waiting for the rate limits.
+     */
+    private void sweepChunked(final Collectable collectable,
+                              final long cutoff,
+                              final Result result) throws InterruptedException
+    {
+        final File indexDirectory = ChunkedStorageItem.getIndexDirectory(this.storageDirectory);
+        final String[] names = indexDirectory.list();
+        if (names == null) {
+            return;
+        }
+        final Set<String> referenced = new HashSet<String>();
+        for (String name : names) {
+            final UUID key = ChunkedStorageItem.parseKey(name);
+            if (key == null) {
+                // An index left half written by a crash.
+                final File tmp = new File(indexDirectory, name);
+                if (ChunkedStorageItem.isTemporary(name) && tmp.lastModified() <= cutoff && tmp.delete()) {
+                    result.removed++;
+                }
+                continue;
+            }
+            this.fileLimiter.acquire(1);
+            result.examined++;
+            final File index = new File(indexDirectory, name);
+            if (collectable.isCollectable(key) && index.lastModified() <= cutoff) {
+                final long length = index.length();
+                if (index.delete()) {
+                    result.removed++;
+                    result.bytes += length;
+                    this.byteLimiter.acquire(length);
+                    continue;
+                }
+            }
+            try {
+                referenced.addAll(ChunkedStorageItem.readHashes(index));
+            } catch (FileNotFoundException e) {
+                // The item was cleared since the directory was listed.
+            } catch (IOException e) {
+                // Any chunk might be referred to by the index which cannot be read.
+                return;
+            }
+        }
+
+        final ChunkStore chunkStore =
+            new ChunkStore(ChunkedStorageItem.getChunkDirectory(this.storageDirectory));
+        final File[] first = chunkStore.getDirectory().listFiles();
+        if (first == null) {
+            return;
+        }
+        for (File firstLevel : first) {
+            final File[] second = isShard(firstLevel) ? firstLevel.listFiles() : null;
+            if (second == null) {
+                continue;
+            }
+            for (File secondLevel : second) {
+                final String[] chunks = isShard(secondLevel) ? secondLevel.list() : null;
+                if (chunks == null) {
+                    continue;
+                }
+                for (String hash : chunks) {
+                    if (!ChunkStore.isChunk(hash)) {
+                        continue;
+                    }
+                    this.fileLimiter.acquire(1);
+                    result.examined++;
+                    if (referenced.contains(hash)) {
+                        continue;
+                    }
+                    final long length = chunkStore.remove(hash, cutoff);
+                    if (length >= 0) {
+                        result.removed++;
+                        result.bytes += length;
+                        this.byteLimiter.acquire(length);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Examine the storage item files directly in a directory.
+     *
+     * @param directory the directory to examine.
+     * @param collectable decides which items may be removed.
+     * @param cutoff files modified after this time are kept.
+     * @param result the counts to add to.
+     * @throws InterruptedException if the thread is interrupted while waiting for the rate limits.
+     */
+    private void sweepDirectory(final File directory,
+                                final Collectable collectable,
+                                final long cutoff,
+                                final Result result) throws InterruptedException
+    {
+        final String[] names = directory.list();
+        if (names == null) {
+            return;
+        }
+        for (String name : names) {
+            final UUID key = FlatLayoutMigrator.parseKey(name);
+            if (key == null) {
+                continue;
+            }
+            this.fileLimiter.acquire(1);
+            result.examined++;
+            if (!collectable.isCollectable(key)) {
+                continue;
+            }
+            final File file = new File(directory, name);
+            if (file.lastModified() > cutoff) {
+                continue;
+            }
+            final long length = file.length();
+            if (file.delete()) {
+                result.removed++;
+                result.bytes += length;
+                this.byteLimiter.acquire(length);
+            }
+        }
+    }
+
+    /**
+     * @param file a file in the storage directory or in one of its shards.
+     * @return true if the file is a shard directory of the sharded layout.
+     */
+    private static boolean isShard(final File file)
+    {
+        final String name = file.getName();
+        return name.length() == 2 && Character.digit(name.charAt(0), 16) >= 0
+            && Character.digit(name.charAt(1), 16) >= 0 && file.isDirectory();
+    }
+
+    /** The outcome of a sweep. */
+    public static class Result
+    {
+        /** The number of storage item files examined. */
+        private long examined;
+
+        /** The number of files removed. */
+        private long removed;
+
+        /** The number of bytes freed. */
+        private long bytes;
+
+        /** @return the number of storage item files examined. */
+        public long getExamined()
+        {
+            return this.examined;
+        }
+
+        /** @return the number of files removed. */
+        public long getRemoved()
+        {
+            return this.removed;
+        }
+
+        /** @return the number of bytes freed. */
+        public long getBytes()
+        {
+            return this.bytes;
+        }
+
+        /**
+         * {@inheritDoc}
+         *
+         * @see java.lang.Object#toString()
+         */
+        @Override
+        public String toString()
+        {
+            return "examined " + this.examined + " files, removed " + this.removed + " freeing " + this.bytes
+                + " bytes";
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+
+
+package org.xwiki.blob.internal;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.UUID;
+
+/**
+ * Moves the files of a {@link FilesystemFastStorageItem} storage directory from the flat layout used by earlier
+ * versions into the sharded layout. It can be run while the wiki is running since storage items look for their
+ * file in the flat layout and move it themselves if it is still there.
+ * Run from the command line with the storage directory and optionally the maximum number of files to move per
+ * second.
+ *
+ * @version $Id$
+ * @since 2.6M1
+ */
+public class FlatLayoutMigrator
+{
+    /** The storage directory to migrate. */
+    private final File storageDirectory;
+
+    /** Limits the number of files moved per second. */
+    private final RateLimiter limiter;
+
+    /**
+     * The Constructor.
+     *
+     * @param storageDirectory the storage directory to migrate.
+     * @param filesPerSecond the maximum number of files to move per second, 0 or less means unlimited.
+     */
+    public FlatLayoutMigrator(final File storageDirectory, final double filesPerSecond)
+    {
+        this.storageDirectory = storageDirectory;
+        this.limiter = new RateLimiter(filesPerSecond);
+    }
+
+    /**
+     * Move every file which is still in the flat layout.
+     *
+     * @return the number of files which were moved.
+     * @throws InterruptedException if the thread is interrupted while waiting for the rate limit.
+     */
+    public int migrate() throws InterruptedException
+    {
+        final String[] names = this.storageDirectory.list(new FilenameFilter() {
+            public boolean accept(final File dir, final String name)
+            {
+                return name.startsWith(FilesystemFastStorageItem.FILE_NAME_PREFIX);
+            }
+        });
+        if (names == null) {
+            return 0;
+        }
+        int moved = 0;
+        for (String name : names) {
+            final UUID key = parseKey(name);
+            if (key == null) {
+                continue;
+            }
+            this.limiter.acquire(1);
+            if (FilesystemFastStorageItem.migrate(new File(this.storageDirectory, name),
+                                                  FilesystemFastStorageItem.getFile(this.storageDirectory, key)))
+            {
+                moved++;
+            }
+        }
+        return moved;
+    }
+
+    /**
+     * @param fileName the name of a file in a storage directory.
+     * @return the key of the storage item backed by the file or null if it is not the file of a storage item.
+     */
+    static UUID parseKey(final String fileName)
+    {
+        if (!fileName.startsWith(FilesystemFastStorageItem.FILE_NAME_PREFIX)) {
+            return null;
+        }
+        try {
+            return UUID.fromString(fileName.substring(FilesystemFastStorageItem.FILE_NAME_PREFIX.length()));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Migrate a storage directory from the command line.
+     *
+     * @param args the storage directory and optionally the maximum number of files to move per second.
+     * @throws Exception if the migration fails.
+     */
+    public static void main(final String[] args) throws Exception
+    {
+        if (args.length < 1) {
+            System.err.println("Usage: FlatLayoutMigrator <storage directory> [files per second]");
+            System.exit(1);
+        }
+        final double filesPerSecond = (args.length > 1) ? Double.parseDouble(args[1]) : 0;
+        final int moved = new FlatLayoutMigrator(new File(args[0]), filesPerSecond).migrate();
+        System.out.println("Moved " + moved + " files into the sharded layout.");
+    }
+}
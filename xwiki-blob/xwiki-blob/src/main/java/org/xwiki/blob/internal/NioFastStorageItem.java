@@ -0,0 +1,108 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+
+
+package org.xwiki.blob.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+import org.xwiki.blob.RangedStorageItem;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.descriptor.ComponentInstantiationStrategy;
+import org.xwiki.component.annotation.InstantiationStrategy;
+
+
+/**
+ * Filesystem based RangedStorageItem which uses NIO channels.
+ * Ranges are served with positional reads so nothing before the range is read, and
+ * {@link #transferTo(WritableByteChannel)} uses {@link FileChannel#transferTo(long, long, WritableByteChannel)}
+ * which lets the operating system send the file to a socket without copying it through the heap.
+ *
+ * @version $Id$
+ * @since 2.6M1
+ */
+@Component("nio")
+@InstantiationStrategy(ComponentInstantiationStrategy.PER_LOOKUP)
+public class NioFastStorageItem extends FilesystemFastStorageItem implements RangedStorageItem
+{
+    /**
+     * Constructor with storage location defined.
+     *
+     * @param storageDirectory the directory where the file backing this item will be located.
+     */
+    public NioFastStorageItem(final File storageDirectory)
+    {
+        super(storageDirectory);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see org.xwiki.blob.RangedStorageItem#openRange(long, long)
+     */
+    public InputStream openRange(final long offset, final long length) throws IOException
+    {
+        if (offset < 0 || length < 0) {
+            throw new IllegalArgumentException("Invalid range, offset: " + offset + " length: " + length);
+        }
+        final File file = this.getBackingFile();
+        if (!file.exists()) {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+        return new ChannelRangeInputStream(new FileInputStream(file).getChannel(), offset, length);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @see org.xwiki.blob.RangedStorageItem#transferTo(WritableByteChannel)
+     */
+    public long transferTo(final WritableByteChannel target) throws IOException
+    {
+        final File file = this.getBackingFile();
+        if (!file.exists()) {
+            return 0;
+        }
+        final FileChannel channel = new FileInputStream(file).getChannel();
+        try {
+            final long size = channel.size();
+            long position = 0;
+            // transferTo may send less than was asked for so it is called until everything is sent.
+            while (position < size) {
+                final long sent = channel.transferTo(position, size - position, target);
+                if (sent <= 0) {
+                    // The file was truncated while it was being sent.
+                    break;
+                }
+                position += sent;
+            }
+            return position;
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+
+
+package org.xwiki.blob.internal;
+
+/**
+ * Spaces out operations so that no more than a given number of permits are used per second on average.
+ * Used to limit the disk activity of maintenance tasks which run while the wiki is serving requests.
+ *
+ * @version $Id$
+ * @since 2.6M1
+ */
+public class RateLimiter
+{
+    /** Nanoseconds in a second. */
+    private static final double NANOS_PER_SECOND = 1000000000.0;
+
+    /** Nanoseconds in a millisecond. */
+    private static final long NANOS_PER_MILLI = 1000000L;
+
+    /** The number of permits per second, 0 or less means unlimited. */
+    private final double permitsPerSecond;
+
+    /** The time at which the next permits may be used. */
+    private long next = System.nanoTime();
+
+    /**
+     * The Constructor.
+     *
+     * @param permitsPerSecond the number of permits per second, 0 or less means unlimited.
+     */
+    public RateLimiter(final double permitsPerSecond)
+    {
+        this.permitsPerSecond = permitsPerSecond;
+    }
+
+    /**
+     * Wait until permits may be used. Permits which were not used while idle are not saved up, so there is no
+     * burst after a pause.
+     *
+     * @param permits the number of permits to use.
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     */
+    public void acquire(final long permits) throws InterruptedException
+    {
+        if (this.permitsPerSecond <= 0) {
+            return;
+        }
+        final long wait;
+        synchronized (this) {
+            final long now = System.nanoTime();
+            if (this.next < now) {
+                this.next = now;
+            }
+            wait = this.next - now;
+            this.next += (long) (permits / this.permitsPerSecond * NANOS_PER_SECOND);
+        }
+        if (wait > 0) {
+            Thread.sleep(wait / NANOS_PER_MILLI, (int) (wait % NANOS_PER_MILLI));
+        }
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+
+
+package org.xwiki.blob.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.UUID;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the ChunkedStorageItem
+ *
+ * @version $Id$
+ * @since 2.6M1
+ */
+public class ChunkedStorageItemTest
+{
+    private File storageDirectory;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        this.storageDirectory = new File(System.getProperty("java.io.tmpdir"), "chunked-" + UUID.randomUUID());
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        FileUtils.deleteDirectory(this.storageDirectory);
+    }
+
+    @Test
+    public void writeReadTest() throws Exception
+    {
+        final byte[] content = randomBytes(1, 300 * 1024);
+        final ChunkedStorageItem item = this.newItem();
+        write(item, content);
+        Assert.assertEquals(content.length, item.size());
+        Assert.assertArrayEquals(content, read(item));
+
+        // Writes append.
+        write(item, content);
+        Assert.assertEquals(2 * content.length, item.size());
+
+        item.clear();
+        Assert.assertEquals(0, item.size());
+        Assert.assertEquals(0, read(item).length);
+    }
+
+    @Test
+    public void deduplicationTest() throws Exception
+    {
+        final byte[] content = randomBytes(2, 1024 * 1024);
+        write(this.newItem(), content);
+        final long stored = FileUtils.sizeOfDirectory(this.chunkDirectory());
+
+        // An identical object stores nothing new.
+        write(this.newItem(), content);
+        Assert.assertEquals(stored, FileUtils.sizeOfDirectory(this.chunkDirectory()));
+
+        // A version with a few bytes inserted in the middle only stores the chunks around the change.
+        final byte[] modified = new byte[content.length + 3];
+        System.arraycopy(content, 0, modified, 0, content.length / 2);
+        System.arraycopy(content, content.length / 2, modified, content.length / 2 + 3, content.length / 2);
+        final ChunkedStorageItem item = this.newItem();
+        write(item, modified);
+        Assert.assertArrayEquals(modified, read(item));
+        Assert.assertTrue(FileUtils.sizeOfDirectory(this.chunkDirectory()) - stored < 200 * 1024);
+    }
+
+    @Test
+    public void sweepTest() throws Exception
+    {
+        final byte[] shared = randomBytes(3, 200 * 1024);
+        final byte[] unique = randomBytes(4, 200 * 1024);
+        final ChunkedStorageItem kept = this.newItem();
+        write(kept, shared);
+        final long sharedSize = FileUtils.sizeOfDirectory(this.chunkDirectory());
+        final ChunkedStorageItem cleared = this.newItem();
+        write(cleared, shared);
+        write(cleared, unique);
+        final UUID collectableKey = UUID.randomUUID();
+        final ChunkedStorageItem collectable = new ChunkedStorageItem(this.storageDirectory);
+        collectable.init(collectableKey);
+        write(collectable, randomBytes(5, 200 * 1024));
+        cleared.clear();
+        this.age(this.storageDirectory);
+
+        final FilesystemStorageSweeper.Result result =
+            new FilesystemStorageSweeper(this.storageDirectory, 60 * 1000L, 0, 0).sweep(
+                new FilesystemStorageSweeper.Collectable() {
+                    public boolean isCollectable(final UUID key)
+                    {
+                        return key.equals(collectableKey);
+                    }
+                });
+
+        // The index of the collectable item is removed, then every chunk but those of the shared content.
+        Assert.assertEquals(0, collectable.size());
+        Assert.assertArrayEquals(shared, read(kept));
+        Assert.assertEquals(sharedSize, FileUtils.sizeOfDirectory(this.chunkDirectory()));
+        Assert.assertTrue(result.getRemoved() > 2);
+    }
+
+    @Test
+    public void interruptedIndexWriteTest() throws Exception
+    {
+        final byte[] content = randomBytes(6, 200 * 1024);
+        final ChunkedStorageItem item = this.newItem();
+        write(item, content);
+        write(item, content);
+        final File indexDirectory = ChunkedStorageItem.getIndexDirectory(this.storageDirectory);
+        Assert.assertEquals(1, indexDirectory.list().length);
+
+        // An index write interrupted by a crash leaves the previous index whole and a temporary file behind.
+        final File[] indexes = indexDirectory.listFiles();
+        FileUtils.writeStringToFile(new File(indexDirectory, indexes[0].getName() + "1.tmp"), "trunc");
+        this.age(this.storageDirectory);
+        final long stored = FileUtils.sizeOfDirectory(this.chunkDirectory());
+
+        new FilesystemStorageSweeper(this.storageDirectory, 60 * 1000L, 0, 0).sweep(
+            new FilesystemStorageSweeper.Collectable() {
+                public boolean isCollectable(final UUID key)
+                {
+                    return false;
+                }
+            });
+
+        Assert.assertEquals(1, indexDirectory.list().length);
+        Assert.assertEquals(stored, FileUtils.sizeOfDirectory(this.chunkDirectory()));
+        Assert.assertEquals(2 * content.length, item.size());
+    }
+
+    private void age(final File file)
+    {
+        if (file.isDirectory()) {
+            for (File child : file.listFiles()) {
+                this.age(child);
+            }
+        }
+        file.setLastModified(System.currentTimeMillis() - 60 * 60 * 1000L);
+    }
+
+    private ChunkedStorageItem newItem()
+    {
+        final ChunkedStorageItem item = new ChunkedStorageItem(this.storageDirectory);
+        item.init(UUID.randomUUID());
+        return item;
+    }
+
+    private File chunkDirectory()
+    {
+        return new File(new File(this.storageDirectory, ChunkedStorageItem.DIRECTORY_NAME), "chunks");
+    }
+
+    private static byte[] randomBytes(final long seed, final int length)
+    {
+        final byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static void write(final ChunkedStorageItem item, final byte[] content) throws Exception
+    {
+        final OutputStream os = item.write();
+        os.write(content);
+        os.close();
+    }
+
+    private static byte[] read(final ChunkedStorageItem item) throws Exception
+    {
+        final InputStream is = item.read();
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        IOUtils.copy(is, baos);
+        is.close();
+        return baos.toByteArray();
+    }
+}
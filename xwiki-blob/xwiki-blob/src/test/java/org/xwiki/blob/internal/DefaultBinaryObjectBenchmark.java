@@ -0,0 +1,158 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+
+
+package org.xwiki.blob.internal;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.UUID;
+
+import org.apache.commons.io.FileUtils;
+import org.xwiki.blob.StorageItem;
+
+/**
+ * Measures the time to first byte and the number of bytes copied when loading and reading a DefaultBinaryObject,
+ * with a local persistent store, which is read directly, and with a persistent store which is not a
+ * FastStorageItem and is therefore copied into the read store.
+ * Run with the sizes in megabytes as arguments, the default is 1, 16, 256 and 1024.
+ *
+ * @version $Id$
+ * @since 2.6M1
+ */
+public final class DefaultBinaryObjectBenchmark
+{
+    private static final int MEGABYTE = 1024 * 1024;
+
+    private static final long NANOS_PER_MILLI = 1000000L;
+
+    private DefaultBinaryObjectBenchmark()
+    {
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        int[] sizes = {1, 16, 256, 1024};
+        if (args.length > 0) {
+            sizes = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                sizes[i] = Integer.parseInt(args[i]);
+            }
+        }
+
+        final File dir = new File(System.getProperty("java.io.tmpdir"), "blob-benchmark-" + UUID.randomUUID());
+        dir.mkdirs();
+        try {
+            System.out.println("size(MB)\tpersistent\tttfb(ms)\tread(ms)\tcopied(MB)");
+            for (int size : sizes) {
+                final UUID key = store(dir, (long) size * MEGABYTE);
+                run(dir, key, size, true);
+                run(dir, key, size, false);
+            }
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+
+    private static UUID store(File dir, long size) throws IOException
+    {
+        final DefaultBinaryObject obj = new DefaultBinaryObject(new FilesystemFastStorageItem(dir),
+                                                                new FilesystemFastStorageItem(dir),
+                                                                new FilesystemFastStorageItem(dir));
+        final byte[] buffer = new byte[64 * 1024];
+        final OutputStream os = obj.addContent();
+        for (long written = 0; written < size; written += buffer.length) {
+            os.write(buffer, 0, (int) Math.min(buffer.length, size - written));
+        }
+        os.close();
+        final UUID key = obj.save();
+        obj.clear();
+        return key;
+    }
+
+    private static void run(File dir, UUID key, int size, boolean fast) throws IOException
+    {
+        final StorageItem persistent = fast ? new FilesystemFastStorageItem(dir)
+                                            : new SlowStorageItem(new FilesystemFastStorageItem(dir));
+        final DefaultBinaryObject obj = new DefaultBinaryObject(new FilesystemFastStorageItem(dir),
+                                                                new FilesystemFastStorageItem(dir),
+                                                                persistent);
+        final byte[] buffer = new byte[64 * 1024];
+        final long start = System.nanoTime();
+        obj.load(key);
+        final InputStream is = obj.getContent();
+        is.read();
+        final long firstByte = System.nanoTime();
+        while (is.read(buffer) != -1) {
+            // Drain the content.
+        }
+        is.close();
+        final long end = System.nanoTime();
+
+        System.out.println(size + "\t" + (fast ? "fast" : "slow")
+                           + "\t" + (firstByte - start) / NANOS_PER_MILLI
+                           + "\t" + (end - start) / NANOS_PER_MILLI
+                           + "\t" + obj.getBytesCopied() / MEGABYTE);
+    }
+
+    /** A persistent store which is not a FastStorageItem, so its content is copied before it is read. */
+    private static class SlowStorageItem implements StorageItem
+    {
+        private final StorageItem item;
+
+        SlowStorageItem(StorageItem item)
+        {
+            this.item = item;
+        }
+
+        public void init(UUID key) throws IOException
+        {
+            this.item.init(key);
+        }
+
+        public InputStream read() throws IOException
+        {
+            return this.item.read();
+        }
+
+        public OutputStream write() throws IOException
+        {
+            return this.item.write();
+        }
+
+        public void clear() throws IOException
+        {
+            this.item.clear();
+        }
+
+        public UUID getKey()
+        {
+            return this.item.getKey();
+        }
+
+        public long size()
+        {
+            return this.item.size();
+        }
+    }
+}
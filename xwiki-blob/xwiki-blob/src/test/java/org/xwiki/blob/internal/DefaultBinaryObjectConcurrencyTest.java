@@ -0,0 +1,202 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+
+
+package org.xwiki.blob.internal;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Stresses a DefaultBinaryObject with many readers and a few writers which append records and save after each
+ * one. Readers must only ever see whole committed records, never fewer than they saw before, and no record may
+ * be lost. The latency of getContent() is reported as p50, p99 and max over every read.
+ *
+ * @version $Id$
+ * @since 2.6M1
+ */
+public class DefaultBinaryObjectConcurrencyTest
+{
+    private static final int READERS = 16;
+
+    private static final int WRITERS = 2;
+
+    private static final int RECORDS_PER_WRITER = 200;
+
+    /** Each record is a writer number, a dash, a 5 digit sequence number and a newline. */
+    private static final int RECORD_LENGTH = 8;
+
+    private File dir;
+
+    private DefaultBinaryObject binaryObj;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        this.dir = new File(System.getProperty("java.io.tmpdir"), "blob-concurrency-" + UUID.randomUUID());
+        this.dir.mkdirs();
+        this.binaryObj = new DefaultBinaryObject(new FilesystemFastStorageItem(this.dir),
+                                                 new FilesystemFastStorageItem(this.dir),
+                                                 new FilesystemFastStorageItem(this.dir));
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        FileUtils.deleteDirectory(this.dir);
+    }
+
+    @Test
+    public void readersAndWritersTest() throws Exception
+    {
+        final AtomicBoolean writing = new AtomicBoolean(true);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final CountDownLatch start = new CountDownLatch(1);
+        final long[][] latencies = new long[READERS][100000];
+        final int[] reads = new int[READERS];
+        final List<Thread> readers = new ArrayList<Thread>();
+        final List<Thread> writers = new ArrayList<Thread>();
+
+        for (int i = 0; i < READERS; i++) {
+            final int reader = i;
+            readers.add(new Thread(new Runnable() {
+                public void run()
+                {
+                    try {
+                        start.await();
+                        final long[] samples = latencies[reader];
+                        int seen = 0;
+                        int count = 0;
+                        while (writing.get()) {
+                            final long before = System.nanoTime();
+                            final InputStream is = binaryObj.getContent();
+                            if (count < samples.length) {
+                                samples[count++] = System.nanoTime() - before;
+                            }
+                            final String content = IOUtils.toString(is, "US-ASCII");
+                            is.close();
+                            final int records = checkRecords(content).size();
+                            Assert.assertTrue("Went back from " + seen + " to " + records, records >= seen);
+                            seen = records;
+                            Assert.assertEquals(0, binaryObj.size() % RECORD_LENGTH);
+                        }
+                        reads[reader] = count;
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    }
+                }
+            }));
+        }
+        for (int i = 0; i < WRITERS; i++) {
+            final int writer = i;
+            writers.add(new Thread(new Runnable() {
+                public void run()
+                {
+                    try {
+                        start.await();
+                        for (int j = 0; j < RECORDS_PER_WRITER; j++) {
+                            final String record = writer + "-" + String.format("%05d", j) + "\n";
+                            binaryObj.addContent(new ByteArrayInputStream(record.getBytes("US-ASCII")));
+                            binaryObj.save();
+                        }
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    }
+                }
+            }));
+        }
+
+        for (Thread thread : readers) {
+            thread.start();
+        }
+        for (Thread thread : writers) {
+            thread.start();
+        }
+        start.countDown();
+        for (Thread thread : writers) {
+            thread.join();
+        }
+        writing.set(false);
+        for (Thread thread : readers) {
+            thread.join();
+        }
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+
+        // No lost updates.
+        final String content = IOUtils.toString(this.binaryObj.getContent(), "US-ASCII");
+        Assert.assertEquals(WRITERS * RECORDS_PER_WRITER, checkRecords(content).size());
+        Assert.assertEquals(content.length(), this.binaryObj.size());
+
+        printPercentiles(latencies, reads);
+    }
+
+    private static Set<String> checkRecords(final String content)
+    {
+        Assert.assertEquals("Torn record in: " + content, 0, content.length() % RECORD_LENGTH);
+        final Set<String> records = new HashSet<String>();
+        for (int i = 0; i < content.length(); i += RECORD_LENGTH) {
+            final String record = content.substring(i, i + RECORD_LENGTH);
+            Assert.assertTrue("Malformed record: " + record, record.matches("\\d-\\d{5}\n"));
+            Assert.assertTrue("Duplicate record: " + record, records.add(record));
+        }
+        return records;
+    }
+
+    private static void printPercentiles(final long[][] latencies, final int[] reads)
+    {
+        int total = 0;
+        for (int count : reads) {
+            total += count;
+        }
+        if (total == 0) {
+            return;
+        }
+        final long[] all = new long[total];
+        int index = 0;
+        for (int i = 0; i < latencies.length; i++) {
+            System.arraycopy(latencies[i], 0, all, index, reads[i]);
+            index += reads[i];
+        }
+        Arrays.sort(all);
+        System.out.println("Reader getContent() latency over " + total + " reads (us): p50="
+                           + all[total / 2] / 1000 + " p99=" + all[(int) (total * 0.99)] / 1000
+                           + " max=" + all[total - 1] / 1000);
+    }
+}
@@ -27,8 +27,11 @@
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.InputStream;
+import java.nio.channels.Channels;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReference;
 
+import org.apache.commons.io.IOUtils;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
@@ -112,4 +115,218 @@ public void saveTest() throws Exception
         this.binaryObj.getContent(baos);
         Assert.assertEquals(this.testContent, baos.toString());
     }
+
+    @Test
+    public void loadTest() throws Exception
+    {
+        this.binaryObj.addContent(new ByteArrayInputStream(this.testContent.getBytes("US-ASCII")));
+        final UUID key = this.binaryObj.save();
+
+        final File tmpdir = new File(System.getProperty("java.io.tmpdir"));
+        final DefaultBinaryObject loaded = new DefaultBinaryObject(new FilesystemFastStorageItem(tmpdir),
+                                                                   new FilesystemFastStorageItem(tmpdir),
+                                                                   new FilesystemFastStorageItem(tmpdir));
+        loaded.load(key);
+
+        // The persistent store is local, so the content is read from it without being copied.
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        loaded.getContent(baos);
+        Assert.assertEquals(this.testContent, baos.toString());
+        Assert.assertEquals(this.testContent.length(), loaded.size());
+        Assert.assertEquals(0, loaded.getBytesCopied());
+
+        // Adding content copies the loaded content into the write store first, so it is appended.
+        loaded.addContent(new ByteArrayInputStream(this.otherTestContent.getBytes("US-ASCII")));
+        loaded.save();
+        baos = new ByteArrayOutputStream();
+        loaded.getContent(baos);
+        Assert.assertEquals(this.testContent + this.otherTestContent, baos.toString());
+        loaded.clear();
+        loaded.save();
+    }
+
+    @Test
+    public void replaceLoadedContentTest() throws Exception
+    {
+        this.binaryObj.addContent(new ByteArrayInputStream(this.testContent.getBytes("US-ASCII")));
+        final UUID key = this.binaryObj.save();
+
+        final File tmpdir = new File(System.getProperty("java.io.tmpdir"));
+        final BinaryObject loaded = new DefaultBinaryObject(new FilesystemFastStorageItem(tmpdir),
+                                                            new FilesystemFastStorageItem(tmpdir),
+                                                            new FilesystemFastStorageItem(tmpdir));
+        loaded.load(key);
+
+        // Clearing before adding replaces the loaded content, as setting the content of an attachment does.
+        loaded.clear();
+        loaded.addContent(new ByteArrayInputStream(this.otherTestContent.getBytes("US-ASCII")));
+        loaded.save();
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        loaded.getContent(baos);
+        Assert.assertEquals(this.otherTestContent, baos.toString());
+        Assert.assertEquals(this.otherTestContent.length(), loaded.size());
+        loaded.clear();
+        loaded.save();
+    }
+
+    @Test
+    public void saveUnderNewKeyTest() throws Exception
+    {
+        this.binaryObj.addContent(new ByteArrayInputStream(this.testContent.getBytes("US-ASCII")));
+        final UUID key = this.binaryObj.save();
+
+        final File tmpdir = new File(System.getProperty("java.io.tmpdir"));
+        final BinaryObject loaded = new DefaultBinaryObject(new FilesystemFastStorageItem(tmpdir),
+                                                            new FilesystemFastStorageItem(tmpdir),
+                                                            new FilesystemFastStorageItem(tmpdir));
+        loaded.load(key);
+        final UUID copyKey = UUID.randomUUID();
+        loaded.save(copyKey);
+        loaded.clear();
+        loaded.addContent(new ByteArrayInputStream(this.otherTestContent.getBytes("US-ASCII")));
+        final UUID newKey = UUID.randomUUID();
+        Assert.assertEquals(newKey, loaded.save(newKey));
+
+        // The content under the loaded key is untouched.
+        Assert.assertEquals(this.testContent, load(key));
+        Assert.assertEquals(this.testContent, load(copyKey));
+        Assert.assertEquals(this.otherTestContent, load(newKey));
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        loaded.getContent(baos);
+        Assert.assertEquals(this.otherTestContent, baos.toString());
+    }
+
+    @Test
+    public void reloadTest() throws Exception
+    {
+        this.binaryObj.addContent(new ByteArrayInputStream(this.testContent.getBytes("US-ASCII")));
+        final UUID key = this.binaryObj.save();
+        final File tmpdir = new File(System.getProperty("java.io.tmpdir"));
+        final BinaryObject other = new DefaultBinaryObject(new FilesystemFastStorageItem(tmpdir),
+                                                           new FilesystemFastStorageItem(tmpdir),
+                                                           new FilesystemFastStorageItem(tmpdir));
+        other.addContent(new ByteArrayInputStream(this.otherTestContent.getBytes("US-ASCII")));
+        final UUID otherKey = other.save();
+
+        final DefaultBinaryObject loaded = new DefaultBinaryObject(new FilesystemFastStorageItem(tmpdir),
+                                                                   new FilesystemFastStorageItem(tmpdir),
+                                                                   new FilesystemFastStorageItem(tmpdir));
+        loaded.load(key);
+
+        // Nothing is reading the loaded content so loading another key copies nothing.
+        loaded.load(otherKey);
+        Assert.assertEquals(0, loaded.getBytesCopied());
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        loaded.getContent(baos);
+        Assert.assertEquals(this.otherTestContent, baos.toString());
+
+        // A reader keeps the content it started with, new readers get a copy while the loader waits for it.
+        final InputStream is = loaded.getContent();
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final Thread loader = new Thread(new Runnable() {
+            public void run()
+            {
+                try {
+                    loaded.load(key);
+                } catch (Throwable t) {
+                    failure.set(t);
+                }
+            }
+        });
+        loader.start();
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (loader.getState() != Thread.State.WAITING) {
+            if (failure.get() != null) {
+                throw new AssertionError(failure.get());
+            }
+            Assert.assertTrue("The loader did not wait for the reader.", loader.isAlive());
+            Assert.assertTrue("Timed out waiting for the loader.", System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+        }
+        Assert.assertEquals(this.otherTestContent, IOUtils.toString(is, "US-ASCII"));
+        is.close();
+        loader.join(10000);
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        Assert.assertFalse("The loader did not finish.", loader.isAlive());
+        Assert.assertEquals(this.otherTestContent.length(), loaded.getBytesCopied());
+        baos = new ByteArrayOutputStream();
+        loaded.getContent(baos);
+        Assert.assertEquals(this.testContent, baos.toString());
+
+        other.clear();
+        other.save();
+    }
+
+    @Test
+    public void rangeTest() throws Exception
+    {
+        this.binaryObj.addContent(new ByteArrayInputStream(this.testContent.getBytes("US-ASCII")));
+        this.binaryObj.save();
+        assertRanges(this.binaryObj);
+    }
+
+    @Test
+    public void nioRangeAndTransferTest() throws Exception
+    {
+        final File tmpdir = new File(System.getProperty("java.io.tmpdir"));
+        final BinaryObject nio = new DefaultBinaryObject(new NioFastStorageItem(tmpdir),
+                                                         new NioFastStorageItem(tmpdir),
+                                                         new NioFastStorageItem(tmpdir));
+        nio.addContent(new ByteArrayInputStream(this.testContent.getBytes("US-ASCII")));
+        nio.save();
+        assertRanges(nio);
+
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        Assert.assertEquals(this.testContent.length(), nio.transferTo(Channels.newChannel(baos)));
+        Assert.assertEquals(this.testContent, baos.toString());
+        nio.clear();
+        nio.save();
+    }
+
+    @Test
+    public void transferTest() throws Exception
+    {
+        this.binaryObj.addContent(new ByteArrayInputStream(this.testContent.getBytes("US-ASCII")));
+        this.binaryObj.save();
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        Assert.assertEquals(this.testContent.length(), this.binaryObj.transferTo(Channels.newChannel(baos)));
+        Assert.assertEquals(this.testContent, baos.toString());
+    }
+
+    private static String load(final UUID key) throws Exception
+    {
+        final File tmpdir = new File(System.getProperty("java.io.tmpdir"));
+        final BinaryObject obj = new DefaultBinaryObject(new FilesystemFastStorageItem(tmpdir),
+                                                         new FilesystemFastStorageItem(tmpdir),
+                                                         new FilesystemFastStorageItem(tmpdir));
+        obj.load(key);
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        obj.getContent(baos);
+        return baos.toString();
+    }
+
+    private void assertRanges(final BinaryObject obj) throws Exception
+    {
+        Assert.assertEquals(this.testContent.substring(8, 12), readRange(obj, 8, 4));
+        Assert.assertEquals(this.testContent.substring(0, 4), readRange(obj, 0, 4));
+        // Ranges past the end are cut short.
+        Assert.assertEquals(this.testContent.substring(30), readRange(obj, 30, 100));
+        Assert.assertEquals("", readRange(obj, 1000, 10));
+    }
+
+    private static String readRange(final BinaryObject obj, final long offset, final long length)
+        throws Exception
+    {
+        final InputStream is = obj.getContent(offset, length);
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[3];
+        int read;
+        while ((read = is.read(buffer)) != -1) {
+            baos.write(buffer, 0, read);
+        }
+        is.close();
+        return baos.toString();
+    }
 }
@@ -0,0 +1,181 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+
+
+package org.xwiki.blob.internal;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the sharded layout of FilesystemFastStorageItem, the FlatLayoutMigrator and the FilesystemStorageSweeper.
+ *
+ * @version $Id$
+ * @since 2.6M1
+ */
+public class FilesystemStorageSweeperTest
+{
+    private static final String CONTENT = "Some content.";
+
+    private static final long DAY = 24 * 60 * 60 * 1000L;
+
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        this.dir = new File(System.getProperty("java.io.tmpdir"), "blob-sweeper-" + UUID.randomUUID());
+        this.dir.mkdirs();
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        FileUtils.deleteDirectory(this.dir);
+    }
+
+    @Test
+    public void shardedLayoutTest() throws Exception
+    {
+        final UUID key = this.store(UUID.randomUUID());
+        final File file = FilesystemFastStorageItem.getFile(this.dir, key);
+        Assert.assertTrue(file.exists());
+        Assert.assertEquals(this.dir, file.getParentFile().getParentFile().getParentFile());
+        Assert.assertFalse(FilesystemFastStorageItem.getFlatFile(this.dir, key).exists());
+        Assert.assertEquals(CONTENT, this.read(key));
+    }
+
+    @Test
+    public void migrateOnInitTest() throws Exception
+    {
+        final UUID key = UUID.randomUUID();
+        this.writeFlat(key);
+        Assert.assertEquals(CONTENT, this.read(key));
+        Assert.assertFalse(FilesystemFastStorageItem.getFlatFile(this.dir, key).exists());
+        Assert.assertTrue(FilesystemFastStorageItem.getFile(this.dir, key).exists());
+    }
+
+    @Test
+    public void migratorTest() throws Exception
+    {
+        final Set<UUID> keys = new HashSet<UUID>();
+        for (int i = 0; i < 20; i++) {
+            final UUID key = UUID.randomUUID();
+            this.writeFlat(key);
+            keys.add(key);
+        }
+        Assert.assertEquals(20, new FlatLayoutMigrator(this.dir, 0).migrate());
+        for (UUID key : keys) {
+            Assert.assertFalse(FilesystemFastStorageItem.getFlatFile(this.dir, key).exists());
+            Assert.assertEquals(CONTENT, this.read(key));
+        }
+        Assert.assertEquals(0, new FlatLayoutMigrator(this.dir, 0).migrate());
+    }
+
+    @Test
+    public void sweepTest() throws Exception
+    {
+        final UUID referenced = this.age(this.store(UUID.randomUUID()));
+        final UUID orphan = this.age(this.store(UUID.randomUUID()));
+        final UUID recentOrphan = this.store(UUID.randomUUID());
+        final UUID flatOrphan = UUID.randomUUID();
+        this.writeFlat(flatOrphan);
+        FilesystemFastStorageItem.getFlatFile(this.dir, flatOrphan).setLastModified(System.currentTimeMillis() - DAY);
+
+        final FilesystemStorageSweeper.Result result =
+            new FilesystemStorageSweeper(this.dir, DAY / 2, 0, 0).sweep(new FilesystemStorageSweeper.Collectable() {
+                public boolean isCollectable(final UUID key)
+                {
+                    return !key.equals(referenced);
+                }
+            });
+
+        Assert.assertEquals(4, result.getExamined());
+        Assert.assertEquals(2, result.getRemoved());
+        Assert.assertEquals(2 * CONTENT.length(), result.getBytes());
+        Assert.assertTrue(FilesystemFastStorageItem.getFile(this.dir, referenced).exists());
+        Assert.assertTrue(FilesystemFastStorageItem.getFile(this.dir, recentOrphan).exists());
+        Assert.assertFalse(FilesystemFastStorageItem.getFile(this.dir, orphan).exists());
+        Assert.assertFalse(FilesystemFastStorageItem.getFlatFile(this.dir, flatOrphan).exists());
+    }
+
+    @Test
+    public void rateLimitTest() throws Exception
+    {
+        for (int i = 0; i < 6; i++) {
+            this.store(UUID.randomUUID());
+        }
+        final long start = System.currentTimeMillis();
+        new FilesystemStorageSweeper(this.dir, 0, 20, 0).sweep(new FilesystemStorageSweeper.Collectable() {
+            public boolean isCollectable(final UUID key)
+            {
+                return false;
+            }
+        });
+        // 6 files at 20 per second, the first one is not delayed.
+        Assert.assertTrue(System.currentTimeMillis() - start >= 200);
+    }
+
+    private UUID store(final UUID key) throws Exception
+    {
+        final FilesystemFastStorageItem item = new FilesystemFastStorageItem(this.dir);
+        item.init(key);
+        final OutputStream os = item.write();
+        os.write(CONTENT.getBytes("US-ASCII"));
+        os.close();
+        return key;
+    }
+
+    private UUID age(final UUID key)
+    {
+        FilesystemFastStorageItem.getFile(this.dir, key).setLastModified(System.currentTimeMillis() - DAY);
+        return key;
+    }
+
+    private void writeFlat(final UUID key) throws Exception
+    {
+        final OutputStream os = new FileOutputStream(FilesystemFastStorageItem.getFlatFile(this.dir, key));
+        os.write(CONTENT.getBytes("US-ASCII"));
+        os.close();
+    }
+
+    private String read(final UUID key) throws Exception
+    {
+        final FilesystemFastStorageItem item = new FilesystemFastStorageItem(this.dir);
+        item.init(key);
+        final InputStream is = item.read();
+        final String content = IOUtils.toString(is, "US-ASCII");
+        is.close();
+        return content;
+    }
+}
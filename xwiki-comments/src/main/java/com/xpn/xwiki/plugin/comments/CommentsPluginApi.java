@@ -148,6 +148,26 @@ public List<CommentApi> getComments(CommentApi comment, int start, int count, bo
     }
 
 
+    public int getNumberOfComments(Document doc)
+    {
+        try {
+            return getCommentsPlugin().getNumberOfComments(context.getWiki().getDocument(doc.getFullName(), context), context);
+        } catch (Exception e) {
+            context.put("exception", e);
+            return -1;
+        }
+    }
+
+    public int getNumberOfComments(CommentApi comment)
+    {
+        try {
+            return getCommentsPlugin().getNumberOfComments(comment.getComment(), context);
+        } catch (Exception e) {
+            context.put("exception", e);
+            return -1;
+        }
+    }
+
     public int getNumberOfCommentsInThread(Document doc)
     {
         try {
@@ -3,6 +3,11 @@
  */
 package com.xpn.xwiki.plugin.comments.internal;
 
+import java.util.List;
+
+import com.xpn.xwiki.plugin.comments.Comment;
+import com.xpn.xwiki.plugin.comments.CommentsException;
+import com.xpn.xwiki.plugin.comments.Container;
 import com.xpn.xwiki.plugin.comments.XWikiMockTestCase;
 
 /**
@@ -29,4 +34,25 @@ protected void tearDown() throws Exception
         super.tearDown();
     }
 
+    public void testGetCommentsPage() throws CommentsException
+    {
+        Container container = new DefaultContainer(context);
+        container.setDocumentName("TestPage");
+        for (int i = 0; i < 3; i++) {
+            commentsmanager.addComment(container, "TestAuthor", "Content" + i, context);
+        }
+        assertEquals(3, commentsmanager.getNumberOfComments(container, context));
+
+        List<Comment> comments = commentsmanager.getComments(container, 1, 1, true, context);
+        assertEquals(1, comments.size());
+        assertEquals("Content1", comments.get(0).getContent());
+
+        comments = commentsmanager.getComments(container, 0, 2, false, context);
+        assertEquals(2, comments.size());
+        assertEquals("Content2", comments.get(0).getContent());
+        assertEquals("Content1", comments.get(1).getContent());
+
+        assertEquals(0, commentsmanager.getComments(container, 3, 0, true, context).size());
+    }
+
 }
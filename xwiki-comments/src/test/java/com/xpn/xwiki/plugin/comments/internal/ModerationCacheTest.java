@@ -0,0 +1,73 @@
+package com.xpn.xwiki.plugin.comments.internal;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.notify.XWikiDocChangeNotificationInterface;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xpn.xwiki.plugin.comments.XWikiMockTestCase;
+
+public class ModerationCacheTest extends XWikiMockTestCase
+{
+    protected ModerationCache cache;
+
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        cache = new ModerationCache();
+        context.setUser("XWiki.Author");
+    }
+
+    protected XWikiContext newRequest(String user)
+    {
+        XWikiContext request = new XWikiContext();
+        request.setWiki(xwiki);
+        request.setUser(user);
+        return request;
+    }
+
+    public void testDecisionsAreKeptAcrossRequests()
+    {
+        assertNull(cache.get("moderated", context));
+        cache.put("moderated", true, cache.getGeneration(), context);
+
+        assertEquals(Boolean.TRUE, cache.get("moderated", context));
+        assertEquals(Boolean.TRUE, cache.get("moderated", newRequest("XWiki.Author")));
+        assertNull(cache.get("moderated", newRequest("XWiki.Other")));
+        assertNull(cache.get("moderator", context));
+    }
+
+    public void testGroupChangeInvalidatesDecisions()
+    {
+        cache.put("moderated", true, cache.getGeneration(), context);
+
+        XWikiDocument group = new XWikiDocument("XWiki", "ModeratedGroup");
+        BaseObject member = new BaseObject();
+        member.setClassName("XWiki.XWikiGroups");
+        member.setStringValue("member", "XWiki.Author");
+        group.addObject("XWiki.XWikiGroups", member);
+        cache.notify(null, group, null, XWikiDocChangeNotificationInterface.EVENT_CHANGE, context);
+
+        assertNull(cache.get("moderated", context));
+        assertNull(cache.get("moderated", newRequest("XWiki.Author")));
+    }
+
+    public void testDecisionComputedBeforeChangeIsOnlyKeptForTheRequest()
+    {
+        long generation = cache.getGeneration();
+        cache.notify(null, new XWikiDocument("Main", "WebPreferences"), null,
+            XWikiDocChangeNotificationInterface.EVENT_CHANGE, context);
+        cache.put("moderator", false, generation, context);
+
+        assertEquals(Boolean.FALSE, cache.get("moderator", context));
+        assertNull(cache.get("moderator", newRequest("XWiki.Author")));
+    }
+
+    public void testOtherDocumentChangesAreIgnored()
+    {
+        cache.put("moderation", true, cache.getGeneration(), context);
+        cache.notify(null, new XWikiDocument("Main", "WebHome"), null,
+            XWikiDocChangeNotificationInterface.EVENT_CHANGE, context);
+
+        assertEquals(Boolean.TRUE, cache.get("moderation", newRequest("XWiki.Author")));
+    }
+}
@@ -23,21 +23,44 @@
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.AttachmentReference;
+import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.EntityReference;
 import org.xwiki.model.reference.EntityReferenceResolver;
+import org.xwiki.model.reference.ObjectReference;
+import org.xwiki.model.reference.SpaceReference;
 
 /**
  * Generic implementation deferring default values for unspecified reference parts to extending classes. This allows
  * for example both the Current Entity Reference Resolver and the Default Entity Reference Resolver to share the code
  * from this class. 
+ * <p>
+ * Resolved references are cached: the parsed names are kept per representation and type, and the resolved references
+ * per type and names, once the default values have been filled in. Since default values are asked to the extending
+ * class on each call, a change of the defaults (for example of the current wiki) never returns a stale reference.
+ * Each cache holds at most {@link #getCacheCapacity()} entries and is emptied when full.
+ * <p>
+ * The cached references are immutable and shared. {@link #resolve(String, EntityType)} returns a mutable copy so that
+ * callers remain free to modify the result, while {@link #resolveShared(String, EntityType)} returns the shared
+ * instance to the callers which only read it or copy it anyway, such as the typed resolvers. The cached references are
+ * typed ({@link DocumentReference}, {@link SpaceReference}, etc.) down to their wiki, so that the typed references
+ * built from them share their parents.
  *
  * @version $Id$
  * @since 2.2M1
  */
 public abstract class AbstractStringEntityReferenceResolver implements EntityReferenceResolver<String>
 {
+    /**
+     * Default maximum number of entries of each cache.
+     */
+    public static final int DEFAULT_CACHE_CAPACITY = 10000;
+
     private Map<EntityType, List<Character>> separators = new HashMap<EntityType, List<Character>>() {{
         put(EntityType.DOCUMENT, Arrays.asList('.', ':'));
         put(EntityType.ATTACHMENT, Arrays.asList('@', '.', ':'));
@@ -57,6 +80,22 @@ public abstract class AbstractStringEntityReferenceResolver implements EntityRef
             EntityType.DOCUMENT, EntityType.SPACE, EntityType.WIKI));
     }};
 
+    /**
+     * Names parsed from a representation, from the reference to its root, null for the parts to default.
+     */
+    private ConcurrentMap<CacheKey, String[]> parsedNames = new ConcurrentHashMap<CacheKey, String[]>();
+
+    /**
+     * Shared immutable references, per type and names from the reference to its root.
+     */
+    private ConcurrentMap<CacheKey, EntityReference> references = new ConcurrentHashMap<CacheKey, EntityReference>();
+
+    private volatile int cacheCapacity = DEFAULT_CACHE_CAPACITY;
+
+    private AtomicLong cacheHits = new AtomicLong();
+
+    private AtomicLong cacheMisses = new AtomicLong();
+
     /**
      * @param type the entity type for which to return the default value to use (since the use has not specified it)
      * @return the default value to use
@@ -65,14 +104,25 @@ public abstract class AbstractStringEntityReferenceResolver implements EntityRef
 
     /**
      * {@inheritDoc}
-     * 
+     * <p>
+     * The returned reference is a mutable copy of the cached one.
+     *
      * @see org.xwiki.model.reference.EntityReferenceResolver#resolve(Object, org.xwiki.model.EntityType)
      */
     public EntityReference resolve(String entityReferenceRepresentation, EntityType type)
     {
-        // TODO: Once we support nested spaces, handle the possibility of having nested spaces. The format is still
-        // to be defined but it could be for example: Wiki:Space1.Space2.Page
+        return resolveShared(entityReferenceRepresentation, type).clone();
+    }
 
+    /**
+     * Same as {@link #resolve(String, EntityType)} but without copying the cached reference.
+     *
+     * @param entityReferenceRepresentation the representation of the reference to resolve
+     * @param type the type of the reference to resolve
+     * @return the resolved reference, immutable and shared with the other callers resolving the same reference
+     */
+    public EntityReference resolveShared(String entityReferenceRepresentation, EntityType type)
+    {
         // First, check if there's a definition for the type
         if (!this.separators.containsKey(type)) {
             throw new RuntimeException("No parsing definition found for Entity Type [" + type + "]");
@@ -80,60 +130,199 @@ public EntityReference resolve(String entityReferenceRepresentation, EntityType
 
         // Handle the case when the passed representation is null. In this case we consider it similar to passing
         // an empty string.
-        StringBuilder representation;
-        if (entityReferenceRepresentation == null) {
-            representation = new StringBuilder();
+        String representation = entityReferenceRepresentation == null ? "" : entityReferenceRepresentation;
+
+        CacheKey parsedKey = new CacheKey(type, representation);
+        String[] parsed = this.parsedNames.get(parsedKey);
+        if (parsed == null) {
+            parsed = parse(representation, type);
+            cache(this.parsedNames, parsedKey, parsed);
+        }
+
+        // Fill in the default values
+        List<EntityType> entityTypesForType = this.entityTypes.get(type);
+        String[] names = parsed;
+        for (int i = 0; i < parsed.length; i++) {
+            if (parsed[i] == null) {
+                if (names == parsed) {
+                    names = parsed.clone();
+                }
+                names[i] = getDefaultValuesForType(entityTypesForType.get(i));
+            }
+        }
+
+        CacheKey referenceKey = new CacheKey(type, names);
+        EntityReference reference = this.references.get(referenceKey);
+        if (reference != null) {
+            this.cacheHits.incrementAndGet();
         } else {
-            representation = new StringBuilder(entityReferenceRepresentation);
+            this.cacheMisses.incrementAndGet();
+            reference = createReference(names, entityTypesForType);
+            EntityReference existing = cache(this.references, referenceKey, reference);
+            if (existing != null) {
+                reference = existing;
+            }
         }
 
+        return reference;
+    }
+
+    /**
+     * Resolve a reference which is copied by the caller, without copying it first when the resolver caches shared
+     * references.
+     *
+     * @param resolver the resolver to use
+     * @param entityReferenceRepresentation the representation of the reference to resolve
+     * @param type the type of the reference to resolve
+     * @return the resolved reference, which must not be modified
+     */
+    static EntityReference resolveForCopy(EntityReferenceResolver<String> resolver,
+        String entityReferenceRepresentation, EntityType type)
+    {
+        if (resolver instanceof AbstractStringEntityReferenceResolver) {
+            return ((AbstractStringEntityReferenceResolver) resolver).resolveShared(entityReferenceRepresentation,
+                type);
+        }
+        return resolver.resolve(entityReferenceRepresentation, type);
+    }
+
+    /**
+     * @return the number of resolutions answered with a cached reference
+     */
+    public long getCacheHits()
+    {
+        return this.cacheHits.get();
+    }
+
+    /**
+     * @return the number of resolutions which created a new reference
+     */
+    public long getCacheMisses()
+    {
+        return this.cacheMisses.get();
+    }
+
+    /**
+     * @return the number of references currently cached
+     */
+    public int getCacheSize()
+    {
+        return this.references.size();
+    }
+
+    /**
+     * @return the maximum number of entries of each cache
+     */
+    public int getCacheCapacity()
+    {
+        return this.cacheCapacity;
+    }
+
+    /**
+     * @param cacheCapacity the maximum number of entries of each cache, 0 to disable caching
+     */
+    public void setCacheCapacity(int cacheCapacity)
+    {
+        this.cacheCapacity = cacheCapacity;
+        clearCache();
+    }
+
+    /**
+     * Empty the caches and reset their statistics.
+     */
+    public void clearCache()
+    {
+        this.parsedNames.clear();
+        this.references.clear();
+        this.cacheHits.set(0);
+        this.cacheMisses.set(0);
+    }
+
+    /**
+     * @return the value already cached for the key, if any
+     */
+    private <V> V cache(ConcurrentMap<CacheKey, V> cache, CacheKey key, V value)
+    {
+        if (this.cacheCapacity <= 0) {
+            return null;
+        }
+        if (cache.size() >= this.cacheCapacity) {
+            // Cheaper than tracking the usage of the entries, the hot ones are back after a few resolutions
+            cache.clear();
+        }
+        return cache.putIfAbsent(key, value);
+    }
+
+    private EntityReference createReference(String[] names, List<EntityType> entityTypesForType)
+    {
         EntityReference reference = null;
-        EntityReference lastReference = null;
+        for (int i = names.length - 1; i >= 0; i--) {
+            reference = new EntityReference(names[i], entityTypesForType.get(i), reference);
+        }
+        reference = toTypedReference(reference);
+        reference.makeImmutable();
+        return reference;
+    }
+
+    /**
+     * Convert the chain into typed references, so that the typed resolvers building for example a
+     * {@link DocumentReference} from the cached reference share its immutable parents instead of copying them.
+     *
+     * @param reference the reference to convert
+     * @return the typed reference, or the given reference if there is no typed reference for its type
+     */
+    private EntityReference toTypedReference(EntityReference reference)
+    {
+        switch (reference.getType()) {
+            case SPACE:
+                return new SpaceReference(reference);
+            case DOCUMENT:
+                return new DocumentReference(reference);
+            case ATTACHMENT:
+                return new AttachmentReference(reference);
+            case OBJECT:
+                return new ObjectReference(reference);
+            case OBJECT_PROPERTY:
+                // ObjectPropertyReference#setType() turns the type into an object type, so only the parents are typed
+                reference.setParent(new ObjectReference(reference.getParent()));
+                return reference;
+            default:
+                return reference;
+        }
+    }
+
+    /**
+     * @return the names of the reference and its parents, null for the parts which are not specified
+     */
+    private String[] parse(String entityReferenceRepresentation, EntityType type)
+    {
+        // TODO: Once we support nested spaces, handle the possibility of having nested spaces. The format is still
+        // to be defined but it could be for example: Wiki:Space1.Space2.Page
+
+        StringBuilder representation = new StringBuilder(entityReferenceRepresentation);
         List<Character> separatorsForType = this.separators.get(type);
-        List<EntityType> entityTypesForType = this.entityTypes.get(type);
+        String[] names = new String[separatorsForType.size() + 1];
 
         // Iterate over the representation string looking for iterators in the correct order (rightmost separator
         // looked for first).
         for (int i = 0; i < separatorsForType.size(); i++) {
-            String name;
             if (representation.length() > 0) {
-                char separator = separatorsForType.get(i);
-                name = lastIndexOf(representation, separator, entityTypesForType.get(i));
-            } else {
-                // There's no definition for the current segment use default values
-                name = getDefaultValuesForType(entityTypesForType.get(i));
-            }
-
-            EntityReference newReference = new EntityReference(name, entityTypesForType.get(i));
-            if (lastReference != null) {
-                lastReference.setParent(newReference);
-            }
-            lastReference = newReference;
-            if (reference == null) {
-                reference = lastReference;
+                names[i] = lastIndexOf(representation, separatorsForType.get(i));
             }
         }
 
         // Handle last entity reference's name
-        String name;
         if (representation.length() > 0) {
-            name = representation.toString();
-        } else {
-            name = getDefaultValuesForType(entityTypesForType.get(separatorsForType.size()));
+            names[separatorsForType.size()] = representation.toString();
         }
 
-        EntityReference newReference = new EntityReference(name, entityTypesForType.get(separatorsForType.size()));
-        if (lastReference != null) {
-            lastReference.setParent(newReference);
-        }
-        if (reference == null) {
-            reference = newReference;
-        }
-
-        return reference;
+        return names;
     }
 
-    private String lastIndexOf(StringBuilder representation, char separator, EntityType entityType)
+    /**
+     * @return the reference name found after the last non escaped separator, null if it is empty
+     */
+    private String lastIndexOf(StringBuilder representation, char separator)
     {
         String name = null;
 
@@ -149,9 +338,7 @@ private String lastIndexOf(StringBuilder representation, char separator, EntityT
             if (nextChar != '\\' && currentChar == separator) {
                 // Found a valid separator (not escaped), separate content on its left from content on its
                 // right
-                if (j == representation.length() - 1) {
-                    name = getDefaultValuesForType(entityType);
-                } else {
+                if (j < representation.length() - 1) {
                     name = representation.substring(j + 1, representation.length());
                 }
                 representation.delete(j, representation.length());
@@ -172,4 +359,42 @@ private String lastIndexOf(StringBuilder representation, char separator, EntityT
 
         return name;
     }
+
+    /**
+     * Key of the caches: an entity type and the names of a reference or its representation.
+     */
+    private static class CacheKey
+    {
+        private final EntityType type;
+
+        private final String[] names;
+
+        private final int hash;
+
+        CacheKey(EntityType type, String... names)
+        {
+            this.type = type;
+            this.names = names;
+            this.hash = 31 * type.hashCode() + Arrays.hashCode(names);
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (obj == this) {
+                return true;
+            }
+            if (!(obj instanceof CacheKey)) {
+                return false;
+            }
+            CacheKey key = (CacheKey) obj;
+            return this.hash == key.hash && this.type == key.type && Arrays.equals(this.names, key.names);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return this.hash;
+        }
+    }
 }
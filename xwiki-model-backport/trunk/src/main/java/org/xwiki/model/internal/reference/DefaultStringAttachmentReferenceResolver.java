@@ -48,7 +48,7 @@ public class DefaultStringAttachmentReferenceResolver implements AttachmentRefer
      */
     public AttachmentReference resolve(String attachmentReferenceRepresentation)
     {
-        return new AttachmentReference(this.entityReferenceResolver.resolve(
-            attachmentReferenceRepresentation, EntityType.ATTACHMENT));
+        return new AttachmentReference(AbstractStringEntityReferenceResolver.resolveForCopy(
+            this.entityReferenceResolver, attachmentReferenceRepresentation, EntityType.ATTACHMENT));
     }
 }
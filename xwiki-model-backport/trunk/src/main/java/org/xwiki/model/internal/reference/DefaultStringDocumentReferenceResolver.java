@@ -48,7 +48,7 @@ public class DefaultStringDocumentReferenceResolver implements DocumentReference
      */
     public DocumentReference resolve(String documentReferenceRepresentation)
     {
-        return new DocumentReference(this.entityReferenceResolver.resolve(documentReferenceRepresentation,
-            EntityType.DOCUMENT));
+        return new DocumentReference(AbstractStringEntityReferenceResolver.resolveForCopy(
+            this.entityReferenceResolver, documentReferenceRepresentation, EntityType.DOCUMENT));
     }
 }
@@ -19,20 +19,22 @@
  */
 package org.xwiki.model.internal.reference;
 
-import org.apache.commons.lang.StringUtils;
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Map;
+
 import org.xwiki.component.annotation.Component;
 import org.xwiki.model.EntityType;
 import org.xwiki.model.reference.EntityReference;
 import org.xwiki.model.reference.EntityReferenceSerializer;
 
-import java.util.Arrays;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-
 /**
  * Generate a string representation of an entity reference (eg "wiki:space.page" for a document reference in the wiki
  * Wiki, the space Space and the page Page). 
+ * <p>
+ * Each name is escaped and appended in a single scan, and names without any character to escape are appended as is.
+ * The representation can be written directly to an {@link Appendable} with
+ * {@link #serialize(EntityReference, Appendable)}.
  *
  * @version $Id$
  * @since 2.2M1
@@ -40,20 +42,15 @@
 @Component
 public class DefaultStringEntityReferenceSerializer implements EntityReferenceSerializer<String>
 {
-    private Map<EntityType, List<String>> escapes = new HashMap<EntityType, List<String>>() {{
-        put(EntityType.ATTACHMENT, Arrays.asList("@"));
-        put(EntityType.DOCUMENT, Arrays.asList("."));
-        put(EntityType.SPACE, Arrays.asList(":", "."));
-        put(EntityType.OBJECT, Arrays.asList("^"));
-        put(EntityType.OBJECT_PROPERTY, Arrays.asList("."));        
-    }};
-
-    private Map<EntityType, List<String>> replacements = new HashMap<EntityType, List<String>>() {{
-        put(EntityType.ATTACHMENT, Arrays.asList("\\@"));
-        put(EntityType.DOCUMENT, Arrays.asList("\\."));
-        put(EntityType.SPACE, Arrays.asList("\\:", "\\."));
-        put(EntityType.OBJECT, Arrays.asList("\\^"));
-        put(EntityType.OBJECT_PROPERTY, Arrays.asList("\\."));        
+    /**
+     * Characters escaped in the names of each type, the first one being the separator written before the name.
+     */
+    private Map<EntityType, char[]> escapes = new EnumMap<EntityType, char[]>(EntityType.class) {{
+        put(EntityType.ATTACHMENT, new char[] {'@'});
+        put(EntityType.DOCUMENT, new char[] {'.'});
+        put(EntityType.SPACE, new char[] {':', '.'});
+        put(EntityType.OBJECT, new char[] {'^'});
+        put(EntityType.OBJECT_PROPERTY, new char[] {'.'});
     }};
 
     /**
@@ -66,34 +63,94 @@ public String serialize(EntityReference reference)
             return null;
         }
 
-        EntityReference currentReference = reference.getRoot();
-        StringBuilder representation = new StringBuilder();
-        // While we still have children and they're not the children of the reference to serialize 
-        while (currentReference != null && currentReference != reference.getChild()) {
-            serializeEntityReference(currentReference, representation, currentReference == reference);
-            currentReference = currentReference.getChild();
+        // Room for the names and their separators, enough unless some characters are escaped
+        int length = 0;
+        for (EntityReference current = reference; current != null; current = current.getParent()) {
+            length += current.getName().length() + 1;
+        }
+        StringBuilder representation = new StringBuilder(length + 8);
+        try {
+            serialize(reference, representation);
+        } catch (IOException e) {
+            // Never thrown by a StringBuilder
+            throw new RuntimeException("Failed to serialize [" + reference + "]", e);
         }
         return representation.toString();
     }
 
-    protected void serializeEntityReference(EntityReference currentReference, StringBuilder representation, 
-        boolean isLastReference)
+    /**
+     * Write the representation of a reference, without creating any intermediate string.
+     *
+     * @param reference the reference to serialize
+     * @param representation where to write the representation
+     * @throws IOException if the representation cannot be written
+     */
+    public void serialize(EntityReference reference, Appendable representation) throws IOException
     {
-        List<String> currentEscapeChars = this.escapes.get(currentReference.getType());
+        if (reference != null) {
+            serialize(reference, null, representation);
+        }
+    }
 
-        // If we're on the Root reference then we don't need to escape anything
-        if (currentEscapeChars != null) {
-            representation.append(StringUtils.replaceEach(currentReference.getName(),
-                currentEscapeChars.toArray(new String[0]),
-                    this.replacements.get(currentReference.getType()).toArray(new String[0])));
-        } else {
-            representation.append(currentReference.getName());
+    /**
+     * The chain is followed through the parents rather than the children, since an immutable reference shared by
+     * several references only knows the first child it had.
+     */
+    private void serialize(EntityReference currentReference, EntityReference childReference,
+        Appendable representation) throws IOException
+    {
+        if (currentReference.getParent() != null) {
+            serialize(currentReference.getParent(), currentReference, representation);
         }
+        serializeEntityReference(currentReference, childReference, representation);
+    }
+
+    /**
+     * @param currentReference the reference to write the name of
+     * @param childReference the next reference to be written, null if the current reference is the last one
+     * @param representation where to write the representation
+     * @throws IOException if the representation cannot be written
+     */
+    protected void serializeEntityReference(EntityReference currentReference, EntityReference childReference,
+        Appendable representation) throws IOException
+    {
+        // There's nothing to escape in the name of the Root reference
+        appendEscaped(currentReference.getName(), this.escapes.get(currentReference.getType()), representation);
 
         //  If the reference is the last one in the chain then don't print the separator char
-        if (!isLastReference && currentReference.getChild() != null) {
-            String separatorChar = this.escapes.get(currentReference.getChild().getType()).get(0);
-            representation.append(separatorChar);
+        if (childReference != null) {
+            representation.append(this.escapes.get(childReference.getType())[0]);
+        }
+    }
+
+    /**
+     * Append a name with a backslash in front of the characters to escape.
+     *
+     * @param name the name to append
+     * @param escapeChars the characters to escape, null if there are none
+     * @param representation where to append the name
+     * @throws IOException if the name cannot be appended
+     */
+    protected static void appendEscaped(String name, char[] escapeChars, Appendable representation)
+        throws IOException
+    {
+        int start = 0;
+        if (escapeChars != null) {
+            for (int i = 0; i < name.length(); i++) {
+                char c = name.charAt(i);
+                for (char escapeChar : escapeChars) {
+                    if (c == escapeChar) {
+                        representation.append(name, start, i).append('\\');
+                        start = i;
+                        break;
+                    }
+                }
+            }
+        }
+        if (start == 0) {
+            representation.append(name);
+        } else {
+            representation.append(name, start, name.length());
         }
     }
 }
@@ -51,7 +51,7 @@ public class DefaultStringObjectPropertyReferenceResolver implements ObjectPrope
      */
     public ObjectPropertyReference resolve(String propertyReferenceRepresentation)
     {
-        return new ObjectPropertyReference(entityReferenceResolver.resolve(propertyReferenceRepresentation,
-            EntityType.OBJECT_PROPERTY));
+        return new ObjectPropertyReference(AbstractStringEntityReferenceResolver.resolveForCopy(
+            entityReferenceResolver, propertyReferenceRepresentation, EntityType.OBJECT_PROPERTY));
     }
 }
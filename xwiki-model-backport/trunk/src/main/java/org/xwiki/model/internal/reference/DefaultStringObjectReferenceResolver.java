@@ -51,6 +51,7 @@ public class DefaultStringObjectReferenceResolver implements ObjectReferenceReso
      */
     public ObjectReference resolve(String objectReferenceRepresentation)
     {
-        return new ObjectReference(entityReferenceResolver.resolve(objectReferenceRepresentation, EntityType.OBJECT));
+        return new ObjectReference(AbstractStringEntityReferenceResolver.resolveForCopy(entityReferenceResolver,
+            objectReferenceRepresentation, EntityType.OBJECT));
     }
 }
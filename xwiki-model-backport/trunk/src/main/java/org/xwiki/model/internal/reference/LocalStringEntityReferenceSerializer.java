@@ -19,6 +19,8 @@
  */
 package org.xwiki.model.internal.reference;
 
+import java.io.IOException;
+
 import org.xwiki.component.annotation.Component;
 import org.xwiki.model.EntityType;
 import org.xwiki.model.reference.EntityReference;
@@ -38,14 +40,15 @@ public class LocalStringEntityReferenceSerializer extends DefaultStringEntityRef
 {
     /**
      * {@inheritDoc}
-     * @see DefaultStringEntityReferenceSerializer#serializeEntityReference(EntityReference , StringBuilder, boolean)
+     * @see DefaultStringEntityReferenceSerializer#serializeEntityReference(EntityReference, EntityReference,
+     *      Appendable)
      */
     @Override
-    protected void serializeEntityReference(EntityReference currentReference, StringBuilder representation, 
-        boolean isLastReference)
+    protected void serializeEntityReference(EntityReference currentReference, EntityReference childReference,
+        Appendable representation) throws IOException
     {
         if (currentReference.getType() != EntityType.WIKI) {
-            super.serializeEntityReference(currentReference, representation, isLastReference);
+            super.serializeEntityReference(currentReference, childReference, representation);
         }
     }
 }
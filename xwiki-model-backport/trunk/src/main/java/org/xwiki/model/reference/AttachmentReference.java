@@ -61,7 +61,12 @@ public AttachmentReference(String fileName, DocumentReference parent)
             throw new IllegalArgumentException("Invalid parent reference [" + parent + "] for an attachment reference");
         }
 
-        super.setParent(new DocumentReference(parent));
+        // An immutable parent cannot change under this reference so it is shared rather than copied
+        if (parent.isImmutable() && parent instanceof DocumentReference) {
+            super.setParent(parent);
+        } else {
+            super.setParent(new DocumentReference(parent));
+        }
     }
 
     /**
@@ -74,7 +74,12 @@ public DocumentReference(String pageName, SpaceReference parent)
             throw new IllegalArgumentException("Invalid parent reference [" + parent + "] for a document reference");
         }
 
-        super.setParent(new SpaceReference(parent));
+        // An immutable parent cannot change under this reference so it is shared rather than copied
+        if (parent.isImmutable() && parent instanceof SpaceReference) {
+            super.setParent(parent);
+        } else {
+            super.setParent(new SpaceReference(parent));
+        }
     }
 
     /**
@@ -101,8 +106,16 @@ public WikiReference getWikiReference()
 
     public void setWikiReference(WikiReference newWikiReference)
     {
-        EntityReference wikiReference = extractReference(EntityType.WIKI);
-        wikiReference.getChild().setParent(newWikiReference);
+        // Walk up through the parents since a shared immutable parent does not point back to this reference as child
+        EntityReference reference = this;
+        while (reference.getParent() != null && reference.getParent().getType() != EntityType.WIKI) {
+            if (reference.getParent().isImmutable()) {
+                // A shared parent cannot be modified, this reference gets its own copy of it
+                reference.setParent(reference.getParent().clone());
+            }
+            reference = reference.getParent();
+        }
+        reference.setParent(newWikiReference);
     }
 
     public SpaceReference getLastSpaceReference()
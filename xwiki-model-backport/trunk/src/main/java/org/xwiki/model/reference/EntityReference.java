@@ -20,13 +20,16 @@
 package org.xwiki.model.reference;
 
 import org.apache.commons.lang.StringUtils;
-import org.apache.commons.lang.builder.CompareToBuilder;
 import org.xwiki.model.EntityType;
 
 import java.io.Serializable;
 
 /**
  * Represents a reference to an Entity (Document, Attachment, Space, Wiki, etc).
+ * <p>
+ * A reference can be made immutable with {@link #makeImmutable()}, for example before using it as a map key. An
+ * immutable reference computes its hash code only once and is shared, rather than copied, by the references created
+ * with it as parent.
  *  
  * @version $Id$
  * @since 2.2M1
@@ -47,6 +50,13 @@ public class EntityReference implements Serializable, Cloneable, Comparable<Enti
 
     private EntityType type;
 
+    private boolean immutable;
+
+    /**
+     * Cached hash code of an immutable reference, 0 when not computed yet.
+     */
+    private transient int hash;
+
     public EntityReference(String name, EntityType type)
     {
         this(name, type, null);
@@ -64,6 +74,7 @@ public EntityReference(String name, EntityType type, EntityReference parent)
      */
     public void setName(String name)
     {
+        checkMutable();
         if (StringUtils.isEmpty(name)) {
             throw new IllegalArgumentException("An Entity Reference name cannot be null or empty");
         }
@@ -77,6 +88,7 @@ public String getName()
 
     public void setParent(EntityReference parent)
     {
+        checkMutable();
         this.parent = parent;
         if (parent != null) {
             parent.setChild(this);
@@ -88,9 +100,15 @@ public EntityReference getParent()
         return this.parent;
     }
 
+    /**
+     * The child of an immutable reference is the one it had when it was made immutable, since it can be shared by
+     * several children.
+     */
     public void setChild(EntityReference child)
     {
-        this.child = child;
+        if (!this.immutable) {
+            this.child = child;
+        }
     }
 
     public EntityReference getChild()
@@ -103,6 +121,7 @@ public EntityReference getChild()
      */
     public void setType(EntityType type)
     {
+        checkMutable();
         if (type == null) {
             throw new IllegalArgumentException("An Entity Reference type cannot be null");
         }
@@ -114,6 +133,30 @@ public EntityType getType()
         return this.type;
     }
 
+    /**
+     * Make this reference and all its parents immutable: their setters then throw
+     * {@link UnsupportedOperationException}. Clones of an immutable reference are mutable.
+     */
+    public void makeImmutable()
+    {
+        for (EntityReference reference = this; reference != null && !reference.immutable;
+            reference = reference.getParent()) {
+            reference.immutable = true;
+        }
+    }
+
+    public boolean isImmutable()
+    {
+        return this.immutable;
+    }
+
+    private void checkMutable()
+    {
+        if (this.immutable) {
+            throw new UnsupportedOperationException("Immutable entity reference [" + this + "] cannot be modified");
+        }
+    }
+
     public EntityReference getRoot()
     {
         EntityReference reference = this;
@@ -160,12 +203,18 @@ public boolean equals(Object obj)
         } else if (obj instanceof EntityReference) {
             EntityReference entityReference = (EntityReference) obj;
 
+            // Immutable references have their hash code at hand, which differs for most unequal references
+            if (this.immutable && entityReference.immutable && hashCode() != entityReference.hashCode()) {
+                return false;
+            }
+
+            // Compare the parents last, they are often shared
             equals =
                 (entityReference.getName() == null ? getName() == null : entityReference.getName().equals(getName()))
-                    && (entityReference.getParent() == null ? getParent() == null : entityReference.getParent().equals(
-                        getParent()))
                     && (entityReference.getType() == null ? getType() == null : entityReference.getType().equals(
-                        getType())); 
+                        getType()))
+                    && (entityReference.getParent() == null ? getParent() == null : entityReference.getParent().equals(
+                        getParent()));
         }
 
         return equals;
@@ -173,13 +222,31 @@ public boolean equals(Object obj)
 
     /**
      * {@inheritDoc}
+     * <p>
+     * Computed from the names and types of the reference chain, and only once for an immutable reference.
      *
      * @see Object#hashCode() 
      */
     @Override
     public int hashCode()
     {
-        return toString().hashCode();
+        if (!this.immutable) {
+            return computeHashCode();
+        }
+        int h = this.hash;
+        if (h == 0) {
+            h = computeHashCode();
+            this.hash = h;
+        }
+        return h;
+    }
+
+    private int computeHashCode()
+    {
+        int h = getParent() != null ? getParent().hashCode() : 0;
+        h = 31 * h + getName().hashCode();
+        // The ordinal is used rather than the enum hash code so that the hash is the same in all JVMs
+        return 31 * h + getType().ordinal();
     }
 
     /**
@@ -196,6 +263,8 @@ public int hashCode()
             // Should never happen
             throw new RuntimeException("Failed to clone object", e);
         }
+        reference.immutable = false;
+        reference.hash = 0;
         reference.setName(getName());
         reference.setType(getType());
         if (getParent() != null) {
@@ -206,10 +275,51 @@ public int hashCode()
 
     /**
      * {@inheritDoc}
+     * <p>
+     * References are compared level by level starting from their roots, by name and then by type. When one chain is a
+     * prefix of the other the shorter one comes first. This order is consistent with {@link #equals(Object)} but is
+     * not the order of the serialized references, since the separators and escapes are not taken into account.
+     *
      * @see Comparable#compareTo(Object)
      */
     public int compareTo(EntityReference reference)
     {
-        return new CompareToBuilder().append(toString(), reference.toString()).toComparison();
+        if (reference == this) {
+            return 0;
+        }
+
+        EntityReference[] chain = getReversedChain();
+        EntityReference[] otherChain = reference.getReversedChain();
+        int depth = Math.min(chain.length, otherChain.length);
+        for (int i = 0; i < depth; i++) {
+            if (chain[i] == otherChain[i]) {
+                // Shared parents, the references differ below
+                continue;
+            }
+            int result = chain[i].getName().compareTo(otherChain[i].getName());
+            if (result == 0) {
+                result = chain[i].getType().compareTo(otherChain[i].getType());
+            }
+            if (result != 0) {
+                return result;
+            }
+        }
+        return chain.length - otherChain.length;
+    }
+
+    /**
+     * @return the reference chain from the root to this reference
+     */
+    private EntityReference[] getReversedChain()
+    {
+        int depth = 0;
+        for (EntityReference reference = this; reference != null; reference = reference.getParent()) {
+            depth++;
+        }
+        EntityReference[] chain = new EntityReference[depth];
+        for (EntityReference reference = this; reference != null; reference = reference.getParent()) {
+            chain[--depth] = reference;
+        }
+        return chain;
     }
 }
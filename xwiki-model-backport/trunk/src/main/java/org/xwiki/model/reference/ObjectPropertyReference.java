@@ -93,6 +93,11 @@ public void setParent(EntityReference parent)
                 + "reference");
         }
 
-        super.setParent(new ObjectReference(parent));
+        // An immutable parent cannot change under this reference so it is shared rather than copied
+        if (parent.isImmutable() && parent instanceof ObjectReference) {
+            super.setParent(parent);
+        } else {
+            super.setParent(new ObjectReference(parent));
+        }
     }
 }
@@ -65,7 +65,10 @@ public SpaceReference(String spaceName, WikiReference parent)
             throw new IllegalArgumentException("Invalid parent reference [" + parent + "] for a space reference");
         }
 
-        if (parent.getType() == EntityType.SPACE) {
+        if (parent.isImmutable() && (parent instanceof SpaceReference || parent instanceof WikiReference)) {
+            // An immutable parent cannot change under this reference so it is shared rather than copied
+            super.setParent(parent);
+        } else if (parent.getType() == EntityType.SPACE) {
             super.setParent(new SpaceReference(parent));
         } else {
             super.setParent(new WikiReference(parent));
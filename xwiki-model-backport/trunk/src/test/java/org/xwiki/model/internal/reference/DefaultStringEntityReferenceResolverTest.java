@@ -27,8 +27,10 @@
 import org.xwiki.component.util.ReflectionUtils;
 import org.xwiki.model.EntityType;
 import org.xwiki.model.ModelConfiguration;
+import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.EntityReference;
 import org.xwiki.model.reference.EntityReferenceResolver;
+import org.xwiki.model.reference.WikiReference;
 
 /**
  * Unit tests for {@link DefaultStringEntityReferenceResolver}.
@@ -347,4 +349,96 @@ public void testResolvePropertyReference()
         Assert.assertEquals(DEFAULT_OBJECT, reference.extractReference(EntityType.OBJECT).getName());
         Assert.assertEquals(":^.@", reference.getName());
     }
+
+    @Test
+    public void testResolveSharedReturnsSharedImmutableReference()
+    {
+        DefaultStringEntityReferenceResolver cachingResolver = (DefaultStringEntityReferenceResolver) resolver;
+        EntityReference reference = cachingResolver.resolveShared("space.page", EntityType.DOCUMENT);
+        Assert.assertTrue(reference.isImmutable());
+        Assert.assertSame(reference, cachingResolver.resolveShared("space.page", EntityType.DOCUMENT));
+
+        // Representations of the same reference share its instance
+        Assert.assertSame(reference, cachingResolver.resolveShared(DEFAULT_WIKI + ":space.page",
+            EntityType.DOCUMENT));
+        Assert.assertNotSame(reference, cachingResolver.resolveShared("space.page", EntityType.OBJECT));
+
+        Assert.assertEquals(2, cachingResolver.getCacheHits());
+        Assert.assertEquals(2, cachingResolver.getCacheMisses());
+        Assert.assertEquals(2, cachingResolver.getCacheSize());
+    }
+
+    @Test
+    public void testTypedReferencesShareCachedParents()
+    {
+        DefaultStringEntityReferenceResolver cachingResolver = (DefaultStringEntityReferenceResolver) resolver;
+        EntityReference cached = cachingResolver.resolveShared("wiki:space.page", EntityType.DOCUMENT);
+        Assert.assertTrue(cached instanceof DocumentReference);
+
+        DocumentReference reference = new DocumentReference(AbstractStringEntityReferenceResolver.resolveForCopy(
+            resolver, "wiki:space.page", EntityType.DOCUMENT));
+        Assert.assertNotSame(cached, reference);
+        Assert.assertSame(cached.getParent(), reference.getParent());
+        Assert.assertSame(cached.getParent().getParent(), reference.getWikiReference());
+
+        // The typed references built from the cached one can still be modified without affecting it
+        reference.setName("otherpage");
+        reference.setWikiReference(new WikiReference("otherwiki"));
+        Assert.assertEquals("page", cached.getName());
+        Assert.assertEquals("wiki", cached.extractReference(EntityType.WIKI).getName());
+
+        // The mutable copies keep their type
+        Assert.assertTrue(resolver.resolve("wiki:space.page", EntityType.DOCUMENT) instanceof DocumentReference);
+    }
+
+    @Test
+    public void testResolveReturnsMutableCopy()
+    {
+        EntityReference reference = resolver.resolve("space.page", EntityType.DOCUMENT);
+        Assert.assertFalse(reference.isImmutable());
+        reference.setName("otherpage");
+        reference.getParent().setName("otherspace");
+
+        // The cached reference is not affected
+        Assert.assertEquals(new EntityReference("page", EntityType.DOCUMENT, new EntityReference("space",
+            EntityType.SPACE, new EntityReference(DEFAULT_WIKI, EntityType.WIKI))),
+            resolver.resolve("space.page", EntityType.DOCUMENT));
+    }
+
+    @Test
+    public void testResolveFollowsDefaultValues()
+    {
+        final String[] defaultWiki = new String[] {"wiki1"};
+        AbstractStringEntityReferenceResolver currentResolver = new AbstractStringEntityReferenceResolver()
+        {
+            protected String getDefaultValuesForType(EntityType type)
+            {
+                return type == EntityType.WIKI ? defaultWiki[0] : DEFAULT_SPACE;
+            }
+        };
+
+        EntityReference reference = currentResolver.resolve("space.page", EntityType.DOCUMENT);
+        Assert.assertEquals("wiki1", reference.extractReference(EntityType.WIKI).getName());
+
+        defaultWiki[0] = "wiki2";
+        reference = currentResolver.resolve("space.page", EntityType.DOCUMENT);
+        Assert.assertEquals("wiki2", reference.extractReference(EntityType.WIKI).getName());
+    }
+
+    @Test
+    public void testCacheCapacity()
+    {
+        DefaultStringEntityReferenceResolver cachingResolver = (DefaultStringEntityReferenceResolver) resolver;
+        cachingResolver.setCacheCapacity(10);
+        for (int i = 0; i < 100; i++) {
+            resolver.resolve("space.page" + i, EntityType.DOCUMENT);
+            Assert.assertTrue(cachingResolver.getCacheSize() <= 10);
+        }
+
+        cachingResolver.setCacheCapacity(0);
+        EntityReference reference = resolver.resolve("space.page", EntityType.DOCUMENT);
+        Assert.assertNotSame(reference, resolver.resolve("space.page", EntityType.DOCUMENT));
+        Assert.assertEquals(reference, resolver.resolve("space.page", EntityType.DOCUMENT));
+        Assert.assertEquals(0, cachingResolver.getCacheSize());
+    }
 }
@@ -27,9 +27,12 @@
 import org.xwiki.component.util.ReflectionUtils;
 import org.xwiki.model.EntityType;
 import org.xwiki.model.ModelConfiguration;
+import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.EntityReference;
 import org.xwiki.model.reference.EntityReferenceResolver;
 import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.model.reference.SpaceReference;
+import org.xwiki.model.reference.WikiReference;
 
 /**
  * Unit tests for {@link DefaultStringEntityReferenceSerializer}.
@@ -163,6 +166,19 @@ public void testSerializeReferenceWithChild()
         Assert.assertEquals("wiki", serializer.serialize(reference.getParent().getParent()));
     }
 
+    @Test
+    public void testSerializeReferenceWithSharedParent()
+    {
+        SpaceReference spaceReference = new SpaceReference("space", new WikiReference("wiki"));
+        spaceReference.makeImmutable();
+        DocumentReference reference1 = new DocumentReference("page1", spaceReference);
+        DocumentReference reference2 = new DocumentReference("page2", spaceReference);
+
+        Assert.assertEquals("wiki:space.page1", serializer.serialize(reference1));
+        Assert.assertEquals("wiki:space.page2", serializer.serialize(reference2));
+        Assert.assertEquals("wiki:space", serializer.serialize(spaceReference));
+    }
+
     /**
      * Tests resolving and re-serializing an object reference.
      */
@@ -219,4 +235,13 @@ public void testResolveAndSerializePropertyReference()
         reference = resolver.resolve(":\\.^@", EntityType.OBJECT_PROPERTY);
         Assert.assertEquals("xwiki:XWiki.WebHome^Object.:\\.^@", serializer.serialize(reference));        
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testSerializeToAppendable() throws Exception
+    {
+        EntityReference reference = resolver.resolve("wiki:spa.ce.page^obj\\^ect", EntityType.OBJECT);
+        StringBuilder representation = new StringBuilder("reference=");
+        ((DefaultStringEntityReferenceSerializer) serializer).serialize(reference, representation);
+        Assert.assertEquals("reference=wiki:spa\\.ce.page^obj\\^ect", representation.toString());
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.model.internal.reference;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang.StringUtils;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.ObjectReference;
+
+/**
+ * Measures the time and the bytes allocated per serialization of document and object references, for the previous
+ * implementation escaping the names with {@link StringUtils#replaceEach(String, String[], String[])}, for
+ * {@link DefaultStringEntityReferenceSerializer#serialize(EntityReference)} and for
+ * {@link DefaultStringEntityReferenceSerializer#serialize(EntityReference, Appendable)} into a reused
+ * {@link StringBuilder}. Allocations are read from the HotSpot thread allocation counter. Not a unit test, run it with
+ * its main method.
+ *
+ * @version $Id$
+ */
+public final class EntityReferenceSerializerBenchmark
+{
+    private static final int REFERENCES = 1000;
+
+    private static final int ROUNDS = 2000;
+
+    private EntityReferenceSerializerBenchmark()
+    {
+    }
+
+    /**
+     * One way of serializing a reference.
+     */
+    private interface Serialization
+    {
+        /**
+         * @return the length of the representation, so that the work is not optimized away
+         */
+        int serialize(EntityReference reference) throws Exception;
+    }
+
+    /**
+     * The previous implementation of {@link DefaultStringEntityReferenceSerializer}.
+     */
+    private static final class ReplaceEachSerialization implements Serialization
+    {
+        private Map<EntityType, List<String>> escapes = new HashMap<EntityType, List<String>>() {{
+            put(EntityType.ATTACHMENT, Arrays.asList("@"));
+            put(EntityType.DOCUMENT, Arrays.asList("."));
+            put(EntityType.SPACE, Arrays.asList(":", "."));
+            put(EntityType.OBJECT, Arrays.asList("^"));
+            put(EntityType.OBJECT_PROPERTY, Arrays.asList("."));
+        }};
+
+        private Map<EntityType, List<String>> replacements = new HashMap<EntityType, List<String>>() {{
+            put(EntityType.ATTACHMENT, Arrays.asList("\\@"));
+            put(EntityType.DOCUMENT, Arrays.asList("\\."));
+            put(EntityType.SPACE, Arrays.asList("\\:", "\\."));
+            put(EntityType.OBJECT, Arrays.asList("\\^"));
+            put(EntityType.OBJECT_PROPERTY, Arrays.asList("\\."));
+        }};
+
+        public int serialize(EntityReference reference)
+        {
+            EntityReference currentReference = reference.getRoot();
+            StringBuilder representation = new StringBuilder();
+            while (currentReference != null && currentReference != reference.getChild()) {
+                List<String> currentEscapeChars = this.escapes.get(currentReference.getType());
+                if (currentEscapeChars != null) {
+                    representation.append(StringUtils.replaceEach(currentReference.getName(),
+                        currentEscapeChars.toArray(new String[0]),
+                            this.replacements.get(currentReference.getType()).toArray(new String[0])));
+                } else {
+                    representation.append(currentReference.getName());
+                }
+                if (currentReference != reference && currentReference.getChild() != null) {
+                    representation.append(this.escapes.get(currentReference.getChild().getType()).get(0));
+                }
+                currentReference = currentReference.getChild();
+            }
+            return representation.toString().length();
+        }
+    }
+
+    private static final DefaultStringEntityReferenceSerializer SERIALIZER =
+        new DefaultStringEntityReferenceSerializer();
+
+    private static final Serialization STRING = new Serialization()
+    {
+        public int serialize(EntityReference reference)
+        {
+            return SERIALIZER.serialize(reference).length();
+        }
+    };
+
+    private static final Serialization APPENDABLE = new Serialization()
+    {
+        private StringBuilder representation = new StringBuilder(128);
+
+        public int serialize(EntityReference reference) throws Exception
+        {
+            this.representation.setLength(0);
+            SERIALIZER.serialize(reference, this.representation);
+            return this.representation.length();
+        }
+    };
+
+    private static EntityReference[] createReferences(boolean objects, boolean escaped)
+    {
+        EntityReference[] references = new EntityReference[REFERENCES];
+        for (int i = 0; i < REFERENCES; i++) {
+            String space = escaped ? "Space." + (i % 100) : "Space" + (i % 100);
+            DocumentReference document = new DocumentReference("xwiki", space, "Page" + i);
+            references[i] = objects ? new ObjectReference("XWiki.Class[" + (i % 5) + "]", document) : document;
+        }
+        return references;
+    }
+
+    /**
+     * @return the nanoseconds and the bytes allocated per serialization
+     */
+    private static long[] run(Serialization serialization, EntityReference[] references) throws Exception
+    {
+        com.sun.management.ThreadMXBean bean =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        int length = 0;
+        long bytes = bean.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        for (int round = 0; round < ROUNDS; round++) {
+            for (EntityReference reference : references) {
+                length += serialization.serialize(reference);
+            }
+        }
+        long time = System.nanoTime() - start;
+        bytes = bean.getThreadAllocatedBytes(threadId) - bytes;
+        if (length == 0) {
+            throw new IllegalStateException();
+        }
+        long count = (long) ROUNDS * references.length;
+        return new long[] {time / count, bytes / count};
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        String[] names = {"document", "document escaped", "object", "object escaped"};
+        System.out.println("reference\treplaceEach (ns, bytes)\tstring (ns, bytes)\tappendable (ns, bytes)");
+        for (int i = 0; i < names.length; i++) {
+            EntityReference[] references = createReferences(i >= 2, i % 2 == 1);
+            Serialization[] serializations = {new ReplaceEachSerialization(), STRING, APPENDABLE};
+            StringBuilder line = new StringBuilder(names[i]);
+            for (Serialization serialization : serializations) {
+                // Warm up
+                run(serialization, references);
+                long[] result = run(serialization, references);
+                line.append('\t').append(result[0]).append(", ").append(result[1]);
+            }
+            System.out.println(line);
+        }
+    }
+}
@@ -112,6 +112,19 @@ public void testSetWikiReference()
         Assert.assertEquals(new DocumentReference("newwiki", "space", "page"), reference);
     }
 
+    @Test
+    public void testSetWikiReferenceWithSharedParent()
+    {
+        SpaceReference spaceReference = new SpaceReference("space", new WikiReference("wiki"));
+        spaceReference.makeImmutable();
+        DocumentReference reference = new DocumentReference("page", spaceReference);
+
+        reference.setWikiReference(new WikiReference("newwiki"));
+
+        Assert.assertEquals(new DocumentReference("newwiki", "space", "page"), reference);
+        Assert.assertEquals(new SpaceReference("space", new WikiReference("wiki")), spaceReference);
+    }
+
     @Test
     public void testGetLastSpaceReferenceWhenOneSpace()
     {
@@ -143,4 +156,21 @@ public void testSpaceReferences()
         Assert.assertEquals(new SpaceReference("space2", new SpaceReference("space1", new WikiReference("wiki"))),
             spaceRefs2.get(1));
     }
+
+    @Test
+    public void testImmutableParentIsShared()
+    {
+        SpaceReference space = new SpaceReference("space", new WikiReference("wiki"));
+        space.makeImmutable();
+
+        DocumentReference reference1 = new DocumentReference("page1", space);
+        DocumentReference reference2 = new DocumentReference("page2", space);
+        Assert.assertSame(space, reference1.getParent());
+        Assert.assertSame(space, reference2.getParent());
+        Assert.assertFalse(reference1.isImmutable());
+
+        // A mutable parent is still copied
+        SpaceReference mutableSpace = new SpaceReference("space", new WikiReference("wiki"));
+        Assert.assertNotSame(mutableSpace, new DocumentReference("page", mutableSpace).getParent());
+    }
 }
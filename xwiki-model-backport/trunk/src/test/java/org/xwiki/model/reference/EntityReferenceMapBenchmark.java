@@ -0,0 +1,123 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.xwiki.model.reference;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Measures the cost of putting and getting references in a {@link HashMap} at the wiki, space, document and object
+ * depths, for references hashed from their serialization as before, mutable references hashed from their chain and
+ * immutable references with a cached hash. Not a unit test, run it with its main method.
+ *
+ * @version $Id$
+ */
+public final class EntityReferenceMapBenchmark
+{
+    private static final int KEYS = 10000;
+
+    private static final int ROUNDS = 50;
+
+    private static final String[] DEPTHS = {"wiki", "space", "document", "object"};
+
+    private EntityReferenceMapBenchmark()
+    {
+    }
+
+    /**
+     * Key hashed and compared through the serialization of the reference, as EntityReference did before.
+     */
+    private static final class SerializedKey
+    {
+        private final EntityReference reference;
+
+        SerializedKey(EntityReference reference)
+        {
+            this.reference = reference;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return this.reference.toString().hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            return obj instanceof SerializedKey && this.reference.equals(((SerializedKey) obj).reference);
+        }
+    }
+
+    private static EntityReference createReference(int depth, int i)
+    {
+        EntityReference reference = new WikiReference("wiki" + (i % 10));
+        if (depth >= 1) {
+            reference = new SpaceReference("space" + (i % 100), (WikiReference) reference);
+        }
+        if (depth >= 2) {
+            reference = new DocumentReference("page" + i, (SpaceReference) reference);
+        }
+        if (depth >= 3) {
+            reference = new ObjectReference("XWiki.Class[" + (i % 5) + "]", (DocumentReference) reference);
+        }
+        return reference;
+    }
+
+    private static long run(Object[] keys)
+    {
+        long start = System.nanoTime();
+        for (int round = 0; round < ROUNDS; round++) {
+            Map<Object, Object> map = new HashMap<Object, Object>();
+            for (Object key : keys) {
+                map.put(key, key);
+            }
+            for (Object key : keys) {
+                if (map.get(key) == null) {
+                    throw new IllegalStateException("Missing key " + key);
+                }
+            }
+        }
+        // One put and one get per key and round
+        return (System.nanoTime() - start) / (2L * ROUNDS * keys.length);
+    }
+
+    public static void main(String[] args)
+    {
+        System.out.println("depth\tserialized (ns/op)\tmutable (ns/op)\timmutable (ns/op)");
+        for (int depth = 0; depth < DEPTHS.length; depth++) {
+            Object[] serialized = new Object[KEYS];
+            Object[] mutable = new Object[KEYS];
+            Object[] immutable = new Object[KEYS];
+            for (int i = 0; i < KEYS; i++) {
+                EntityReference reference = createReference(depth, i);
+                serialized[i] = new SerializedKey(reference);
+                mutable[i] = reference.clone();
+                reference.makeImmutable();
+                immutable[i] = reference;
+            }
+            // Warm up
+            run(serialized);
+            run(mutable);
+            run(immutable);
+            System.out.println(DEPTHS[depth] + "\t" + run(serialized) + "\t" + run(mutable) + "\t" + run(immutable));
+        }
+    }
+}
@@ -211,4 +211,58 @@ public void testEmptyName()
             Assert.assertEquals("An Entity Reference name cannot be null or empty", expected.getMessage());
         }
     }
+
+    @Test
+    public void testCompareToWithDifferentDepths()
+    {
+        EntityReference space = new EntityReference("space", EntityType.SPACE,
+            new EntityReference("wiki", EntityType.WIKI));
+        EntityReference page = new EntityReference("page", EntityType.DOCUMENT, space);
+
+        Assert.assertTrue(space.compareTo(page) < 0);
+        Assert.assertTrue(page.compareTo(space) > 0);
+        Assert.assertEquals(0, page.compareTo(new EntityReference("page", EntityType.DOCUMENT,
+            new EntityReference("space", EntityType.SPACE, new EntityReference("wiki", EntityType.WIKI)))));
+    }
+
+    @Test
+    public void testMakeImmutable()
+    {
+        EntityReference reference = new EntityReference("page", EntityType.DOCUMENT,
+            new EntityReference("space", EntityType.SPACE,
+                new EntityReference("wiki", EntityType.WIKI)));
+        EntityReference mutableReference = reference.clone();
+        reference.makeImmutable();
+
+        Assert.assertTrue(reference.isImmutable());
+        Assert.assertTrue(reference.getParent().isImmutable());
+        Assert.assertTrue(reference.getRoot().isImmutable());
+        Assert.assertEquals(mutableReference, reference);
+        Assert.assertEquals(mutableReference.hashCode(), reference.hashCode());
+        Assert.assertEquals(0, mutableReference.compareTo(reference));
+
+        try {
+            reference.getParent().setName("otherspace");
+            Assert.fail("Should have thrown an exception here");
+        } catch (UnsupportedOperationException expected) {
+            // Expected
+        }
+
+        EntityReference clonedReference = reference.clone();
+        Assert.assertFalse(clonedReference.isImmutable());
+        Assert.assertFalse(clonedReference.getParent().isImmutable());
+        clonedReference.getParent().setName("otherspace");
+        Assert.assertEquals("space", reference.getParent().getName());
+    }
+
+    @Test
+    public void testHashCodeOfMutableReferenceFollowsChanges()
+    {
+        EntityReference reference = new EntityReference("page", EntityType.DOCUMENT,
+            new EntityReference("space", EntityType.SPACE,
+                new EntityReference("wiki", EntityType.WIKI)));
+        int hashCode = reference.hashCode();
+        reference.getRoot().setName("wiki2");
+        Assert.assertFalse(hashCode == reference.hashCode());
+    }
 }
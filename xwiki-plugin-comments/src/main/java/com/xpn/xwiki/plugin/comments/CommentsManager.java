@@ -60,9 +60,22 @@
 
     Comment addComment(Container container, String author, String content, Map commentMap, XWikiContext context) throws CommentsException;
 
+    /**
+     * Lists a page of the comments of a container, sorted by date.
+     *
+     * @param start the number of comments to skip
+     * @param count the maximum number of comments to return, 0 for all of them
+     * @param asc true to list the oldest comments first, false for the newest first
+     */
     List<Comment> getComments(Container container, int start, int count, boolean asc, XWikiContext context)
             throws CommentsException;
 
+    /**
+     * @return the number of comments listed by {@link #getComments(Container, int, int, boolean, XWikiContext)},
+     *         to page through them
+     */
+    int getNumberOfComments(Container container, XWikiContext context) throws CommentsException;
+
     List<Comment> getModeratedComments(Container container, int start, int count, boolean asc, XWikiContext context)
             throws CommentsException;
 
@@ -205,6 +205,16 @@ public boolean isModerated(XWikiContext context) throws CommentsException {
 
     }
 
+    public int getNumberOfComments(XWikiDocument doc, XWikiContext context) throws CommentsException {
+        Container container = getCommentsManager(context).newContainer(context);
+        container.setDocumentName(doc.getFullName());
+        return getCommentsManager(context).getNumberOfComments(container, context);
+    }
+
+    public int getNumberOfComments(Comment comment, XWikiContext context) throws CommentsException {
+        return getCommentsManager(context).getNumberOfComments(comment.getAsContainer(), context);
+    }
+
     public int getNumberOfCommentsInThread(XWikiDocument document, XWikiContext context) throws CommentsException {
         return getCommentsManager(context).getNumberOfCommentsInThread(document, context);
     }
@@ -39,6 +39,17 @@ public abstract class AbstractCommentsManager implements CommentsManager
 {
     private static String defaultCommentClassName = "XWiki.XWikiComments";
 
+    private static final String DECISION_MODERATION = "moderation";
+
+    private static final String DECISION_MODERATED = "moderated";
+
+    private static final String DECISION_MODERATOR = "moderator";
+
+    /**
+     * Moderation decisions of the users, for the request and across requests.
+     */
+    private final ModerationCache moderationCache = new ModerationCache();
+
     public AbstractCommentsManager() {
     }
 
@@ -162,11 +173,29 @@ public Comment getParentComment(Comment comment, XWikiContext context) throws Co
     }
 
     public boolean hasModeration(XWikiContext context) {
+        Boolean moderation = moderationCache.get(DECISION_MODERATION, context);
+        if (moderation == null) {
+            long generation = moderationCache.getGeneration();
+            moderation = Boolean.valueOf(computeHasModeration(context));
+            moderationCache.put(DECISION_MODERATION, moderation.booleanValue(), generation, context);
+        }
+        return moderation.booleanValue();
+    }
+
+    protected boolean computeHasModeration(XWikiContext context) {
         int hasModerationDefault = (int) context.getWiki().ParamAsLong("xwiki.comments.moderation", 0);
         int hasModeration = context.getWiki().getWebPreferenceAsInt("comments_moderation", hasModerationDefault, context);
         return (hasModeration==1);
     }
 
+    /**
+     * @return the comments listed to the readers: the comments which are not waiting for moderation nor refused when
+     *         moderation is on, all of them otherwise
+     */
+    protected CommentThreadIndex.Filter getThreadFilter(XWikiContext context) {
+        return hasModeration(context) ? CommentThreadIndex.Filter.VISIBLE : CommentThreadIndex.Filter.ALL;
+    }
+
     protected String getModeratedGroups(XWikiContext context) {
         String moderatedGroupsDefault = context.getWiki().Param("xwiki.comments.moderatedgroups", "XWiki.ModeratedGroup");
         return context.getWiki().getWebPreference("comments_moderatedgroups", moderatedGroupsDefault, context);
@@ -182,7 +211,25 @@ protected String getModeratorsGroups(XWikiContext context) {
         return context.getWiki().getWebPreference("comments_moderatorsgroups", moderatorsGroupsDefault, context);
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * The decision is computed once per request, and kept across requests until a group or a preferences document
+     * changes, since it is asked for each rendered comment.
+     *
+     * @see com.xpn.xwiki.plugin.comments.CommentsManager#isModerated(com.xpn.xwiki.XWikiContext)
+     */
     public boolean isModerated(XWikiContext context) throws CommentsException {
+        Boolean moderated = moderationCache.get(DECISION_MODERATED, context);
+        if (moderated == null) {
+            long generation = moderationCache.getGeneration();
+            moderated = Boolean.valueOf(computeIsModerated(context));
+            moderationCache.put(DECISION_MODERATED, moderated.booleanValue(), generation, context);
+        }
+        return moderated.booleanValue();
+    }
+
+    protected boolean computeIsModerated(XWikiContext context) throws CommentsException {
        try {
         if (context.getWiki().getRightService().hasAdminRights(context))
              return false;
@@ -210,7 +257,23 @@ public boolean isModerated(XWikiContext context) throws CommentsException {
     }
 
 
+    /**
+     * {@inheritDoc}
+     *
+     * @see #isModerated(XWikiContext)
+     * @see com.xpn.xwiki.plugin.comments.CommentsManager#isModerator(com.xpn.xwiki.XWikiContext)
+     */
     public boolean isModerator(XWikiContext context) throws CommentsException {
+        Boolean moderator = moderationCache.get(DECISION_MODERATOR, context);
+        if (moderator == null) {
+            long generation = moderationCache.getGeneration();
+            moderator = Boolean.valueOf(computeIsModerator(context));
+            moderationCache.put(DECISION_MODERATOR, moderator.booleanValue(), generation, context);
+        }
+        return moderator.booleanValue();
+    }
+
+    protected boolean computeIsModerator(XWikiContext context) throws CommentsException {
        try {
         if (context.getWiki().getRightService().hasAdminRights(context))
              return true;
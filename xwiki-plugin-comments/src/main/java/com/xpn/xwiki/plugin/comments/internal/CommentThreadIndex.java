@@ -0,0 +1,501 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.plugin.comments.internal;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.notify.DocChangeRule;
+import com.xpn.xwiki.notify.XWikiDocChangeNotificationInterface;
+import com.xpn.xwiki.notify.XWikiNotificationManager;
+import com.xpn.xwiki.notify.XWikiNotificationRule;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xpn.xwiki.plugin.comments.CommentsManager;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Index of the comment threads stored in separate pages. The comments of a page are loaded with two queries the first
+ * time the page is accessed, and then kept up to date from the save and delete notifications of the comment documents,
+ * so that listing or counting the comments of a thread does not query the store anymore. The least recently used pages
+ * are dropped once more than xwiki.comments.threadindex.size pages (1000 by default) are indexed.
+ */
+public class CommentThreadIndex implements XWikiDocChangeNotificationInterface
+{
+    /**
+     * Which comments of a thread are listed or counted.
+     */
+    public enum Filter
+    {
+        /** All the comments. */
+        ALL,
+        /** The comments which are neither waiting for moderation nor refused. */
+        VISIBLE,
+        /** The comments waiting for moderation. */
+        MODERATED;
+
+        /**
+         * @param status the moderation status of a comment
+         * @return whether the comment is listed
+         */
+        public boolean matches(String status)
+        {
+            switch (this) {
+                case VISIBLE:
+                    return !CommentsManager.COMMENT_MODERATION_MODERATED.equals(status)
+                        && !CommentsManager.COMMENT_MODERATION_REFUSED.equals(status);
+                case MODERATED:
+                    return CommentsManager.COMMENT_MODERATION_MODERATED.equals(status);
+                default:
+                    return true;
+            }
+        }
+    }
+
+    private static Log LOG = LogFactory.getLog(CommentThreadIndex.class);
+
+    private static final int DEFAULT_SIZE = 1000;
+
+    private static final Comparator<Entry> DATE_ORDER = new Comparator<Entry>()
+    {
+        public int compare(Entry e1, Entry e2)
+        {
+            if (e1.date != e2.date) {
+                return (e1.date < e2.date) ? -1 : 1;
+            }
+            return e1.name.compareTo(e2.name);
+        }
+    };
+
+    /**
+     * A comment of a thread.
+     */
+    private static class Entry
+    {
+        final String name;
+
+        final String parent;
+
+        final String status;
+
+        final long date;
+
+        Entry(String name, String parent, String status, long date)
+        {
+            this.name = name;
+            this.parent = parent;
+            this.status = status;
+            this.date = date;
+        }
+
+        boolean matches(Filter filter)
+        {
+            return filter.matches(status);
+        }
+    }
+
+    /**
+     * The comments of a page, only accessed with its lock held.
+     */
+    private static class Page
+    {
+        boolean loaded;
+
+        final Map<String, Entry> comments = new HashMap<String, Entry>();
+
+        /** The comments of each parent, sorted by date. */
+        final Map<String, List<Entry>> children = new HashMap<String, List<Entry>>();
+
+        /** The number of comments waiting for moderation or refused. */
+        int hidden;
+    }
+
+    private final CommentsManager manager;
+
+    private final Map<String, Page> pages;
+
+    /** The indexed page of each comment of the loaded pages. */
+    private final Map<String, String> commentPages = new ConcurrentHashMap<String, String>();
+
+    private int size = DEFAULT_SIZE;
+
+    private volatile boolean registered;
+
+    public CommentThreadIndex(CommentsManager manager)
+    {
+        this.manager = manager;
+        this.pages = new LinkedHashMap<String, Page>(16, 0.75f, true)
+        {
+            protected boolean removeEldestEntry(Map.Entry<String, Page> eldest)
+            {
+                if (size() <= size) {
+                    return false;
+                }
+                synchronized (eldest.getValue()) {
+                    for (String name : eldest.getValue().comments.keySet()) {
+                        commentPages.remove(getWikiPrefix(eldest.getKey()) + name);
+                    }
+                }
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Reads the size of the index from the configuration and listens to the document changes.
+     */
+    public void init(XWikiContext context)
+    {
+        size = (int) context.getWiki().ParamAsLong("xwiki.comments.threadindex.size", DEFAULT_SIZE);
+        register(context);
+    }
+
+    private void register(XWikiContext context)
+    {
+        if (registered) {
+            return;
+        }
+        synchronized (this) {
+            XWikiNotificationManager notificationManager = context.getWiki().getNotificationManager();
+            if (!registered && notificationManager != null) {
+                notificationManager.addGeneralRule(new DocChangeRule(this));
+                registered = true;
+            }
+        }
+    }
+
+    /**
+     * @param parent the page or the comment the comments answer to
+     * @param start the number of comments to skip
+     * @param count the maximum number of comments returned, 0 for all of them
+     * @param asc true to list the oldest comments first
+     * @return the names of the documents of the comments
+     */
+    public List<String> getComments(String parent, Filter filter, int start, int count, boolean asc,
+        XWikiContext context) throws XWikiException
+    {
+        List<String> names = new ArrayList<String>();
+        if (parent == null) {
+            return names;
+        }
+        Page page = getPage(getPageName(parent, context), context);
+        synchronized (page) {
+            List<Entry> children = page.children.get(parent);
+            if (children == null) {
+                return names;
+            }
+            int skipped = 0;
+            for (int i = 0; i < children.size(); i++) {
+                Entry entry = children.get(asc ? i : children.size() - 1 - i);
+                if (!entry.matches(filter)) {
+                    continue;
+                }
+                if (skipped < start) {
+                    skipped++;
+                    continue;
+                }
+                names.add(entry.name);
+                if (count != 0 && names.size() == count) {
+                    break;
+                }
+            }
+        }
+        return names;
+    }
+
+    /**
+     * @param pageName the page holding the thread
+     * @return the number of comments of the thread of the page, with all the answers
+     */
+    public int getNumberOfComments(String pageName, Filter filter, XWikiContext context) throws XWikiException
+    {
+        Page page = getPage(pageName, context);
+        synchronized (page) {
+            if (filter == Filter.ALL) {
+                return page.comments.size();
+            } else if (filter == Filter.VISIBLE) {
+                return page.comments.size() - page.hidden;
+            }
+            int nb = 0;
+            for (Entry entry : page.comments.values()) {
+                if (entry.matches(filter)) {
+                    nb++;
+                }
+            }
+            return nb;
+        }
+    }
+
+    /**
+     * @param parent the page or the comment the comments answer to
+     * @return the number of comments answering directly to the parent
+     */
+    public int getNumberOfChildren(String parent, Filter filter, XWikiContext context) throws XWikiException
+    {
+        if (parent == null) {
+            return 0;
+        }
+        Page page = getPage(getPageName(parent, context), context);
+        synchronized (page) {
+            List<Entry> children = page.children.get(parent);
+            if (children == null) {
+                return 0;
+            } else if (filter == Filter.ALL) {
+                return children.size();
+            }
+            int nb = 0;
+            for (Entry entry : children) {
+                if (entry.matches(filter)) {
+                    nb++;
+                }
+            }
+            return nb;
+        }
+    }
+
+    /**
+     * Drops all the indexed threads, they are loaded again when accessed.
+     */
+    public void clear()
+    {
+        synchronized (pages) {
+            pages.clear();
+            commentPages.clear();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see XWikiDocChangeNotificationInterface#notify(XWikiNotificationRule, XWikiDocument, XWikiDocument, int,
+     *      XWikiContext)
+     */
+    public void notify(XWikiNotificationRule rule, XWikiDocument newdoc, XWikiDocument olddoc, int event,
+        XWikiContext context)
+    {
+        try {
+            String className = manager.getCommentsClassName(context);
+            BaseObject oldObject = (olddoc != null) ? olddoc.getObject(className) : null;
+            BaseObject newObject = (newdoc != null) ? newdoc.getObject(className) : null;
+            if (event == EVENT_DELETE) {
+                // Depending on the caller the deleted document is given as the new or the old one
+                oldObject = (oldObject != null) ? oldObject : newObject;
+                newObject = null;
+            }
+            XWikiDocument doc = (newdoc != null) ? newdoc : olddoc;
+            if (doc == null || (oldObject == null && newObject == null)) {
+                return;
+            }
+            String name = doc.getFullName();
+            String wikiPrefix = getWikiPrefix(context);
+
+            String indexedPage = commentPages.get(wikiPrefix + name);
+            if (indexedPage != null) {
+                remove(indexedPage, name, context);
+            }
+            if (oldObject != null) {
+                String oldPage = getPageName(oldObject);
+                if (oldPage != null && !oldPage.equals(indexedPage)) {
+                    remove(oldPage, name, context);
+                }
+            }
+            if (newObject != null) {
+                String newPage = getPageName(newObject);
+                if (newPage != null) {
+                    Date date = doc.getDate();
+                    add(newPage, new Entry(name, newObject.getStringValue(CommentsManager.COMMENT_CLASS_FIELDNAME_PARENT),
+                        newObject.getStringValue(CommentsManager.COMMENT_CLASS_FIELDNAME_STATUS),
+                        (date != null) ? date.getTime() : 0), context);
+                }
+            }
+        } catch (Exception e) {
+            // The thread would not be accurate anymore
+            LOG.error("Failed to update the comment threads for " + ((newdoc != null) ? newdoc : olddoc), e);
+            clear();
+        }
+    }
+
+    private void add(String pageName, Entry entry, XWikiContext context)
+    {
+        Page page = getLoadedPage(pageName, context);
+        if (page != null) {
+            synchronized (page) {
+                if (page.loaded) {
+                    add(page, entry);
+                    commentPages.put(getWikiPrefix(context) + entry.name, pageName);
+                }
+            }
+        }
+    }
+
+    private void remove(String pageName, String name, XWikiContext context)
+    {
+        Page page = getLoadedPage(pageName, context);
+        if (page != null) {
+            synchronized (page) {
+                if (page.loaded) {
+                    remove(page, name);
+                    commentPages.remove(getWikiPrefix(context) + name);
+                }
+            }
+        }
+    }
+
+    private static void add(Page page, Entry entry)
+    {
+        remove(page, entry.name);
+        page.comments.put(entry.name, entry);
+        if (!entry.matches(Filter.VISIBLE)) {
+            page.hidden++;
+        }
+        List<Entry> children = page.children.get(entry.parent);
+        if (children == null) {
+            children = new ArrayList<Entry>();
+            page.children.put(entry.parent, children);
+        }
+        int pos = Collections.binarySearch(children, entry, DATE_ORDER);
+        children.add((pos < 0) ? -pos - 1 : pos, entry);
+    }
+
+    private static void remove(Page page, String name)
+    {
+        Entry entry = page.comments.remove(name);
+        if (entry == null) {
+            return;
+        }
+        if (!entry.matches(Filter.VISIBLE)) {
+            page.hidden--;
+        }
+        List<Entry> children = page.children.get(entry.parent);
+        if (children != null) {
+            children.remove(entry);
+            if (children.isEmpty()) {
+                page.children.remove(entry.parent);
+            }
+        }
+    }
+
+    /**
+     * @return the page if it is currently indexed, null otherwise
+     */
+    private Page getLoadedPage(String pageName, XWikiContext context)
+    {
+        synchronized (pages) {
+            return pages.get(getWikiPrefix(context) + pageName);
+        }
+    }
+
+    private Page getPage(String pageName, XWikiContext context) throws XWikiException
+    {
+        register(context);
+        Page page;
+        synchronized (pages) {
+            String key = getWikiPrefix(context) + pageName;
+            page = pages.get(key);
+            if (page == null) {
+                page = new Page();
+                pages.put(key, page);
+            }
+        }
+        synchronized (page) {
+            // A change notified before the page is loaded is already in the store when the page is loaded, and a
+            // change notified afterwards waits for the loading to be done
+            if (!page.loaded) {
+                load(page, pageName, context);
+                page.loaded = true;
+            }
+        }
+        return page;
+    }
+
+    private void load(Page page, String pageName, XWikiContext context) throws XWikiException
+    {
+        String from = " from XWikiDocument as doc, BaseObject as obj, StringProperty as pageprop";
+        String where = " where doc.fullName=obj.name and obj.className=? and obj.id=pageprop.id.id and pageprop.id.name='"
+            + CommentsManager.COMMENT_CLASS_FIELDNAME_PAGE + "' and pageprop.value=?";
+        List<String> parameters = Arrays.asList(manager.getCommentsClassName(context), pageName);
+
+        Map<String, String> statuses = new HashMap<String, String>();
+        List<Object[]> rows = context.getWiki().getStore().search("select obj.name, statusprop.value" + from
+            + ", StringProperty as statusprop" + where + " and obj.id=statusprop.id.id and statusprop.id.name='"
+            + CommentsManager.COMMENT_CLASS_FIELDNAME_STATUS + "'", 0, 0, parameters, context);
+        for (Object[] row : rows) {
+            statuses.put((String) row[0], (String) row[1]);
+        }
+
+        rows = context.getWiki().getStore().search("select doc.fullName, doc.date, parentprop.value" + from
+            + ", StringProperty as parentprop" + where + " and obj.id=parentprop.id.id and parentprop.id.name='"
+            + CommentsManager.COMMENT_CLASS_FIELDNAME_PARENT + "'", 0, 0, parameters, context);
+        String wikiPrefix = getWikiPrefix(context);
+        for (Object[] row : rows) {
+            String name = (String) row[0];
+            Date date = (Date) row[1];
+            add(page, new Entry(name, (String) row[2], statuses.get(name), (date != null) ? date.getTime() : 0));
+            commentPages.put(wikiPrefix + name, pageName);
+        }
+    }
+
+    /**
+     * @param name a page or a comment
+     * @return the page holding the thread the comments answering to the given name belong to
+     */
+    private String getPageName(String name, XWikiContext context) throws XWikiException
+    {
+        String pageName = commentPages.get(getWikiPrefix(context) + name);
+        if (pageName != null) {
+            return pageName;
+        }
+        XWikiDocument doc = context.getWiki().getDocument(name, context);
+        BaseObject object = doc.getObject(manager.getCommentsClassName(context));
+        if (object != null) {
+            pageName = getPageName(object);
+        }
+        return (pageName != null) ? pageName : name;
+    }
+
+    private static String getPageName(BaseObject object)
+    {
+        String pageName = object.getStringValue(CommentsManager.COMMENT_CLASS_FIELDNAME_PAGE);
+        return "".equals(pageName) ? null : pageName;
+    }
+
+    private static String getWikiPrefix(XWikiContext context)
+    {
+        return context.getDatabase() + ":";
+    }
+
+    private static String getWikiPrefix(String key)
+    {
+        return key.substring(0, key.indexOf(':') + 1);
+    }
+
+}
@@ -42,10 +42,21 @@ public class DefaultCommentsManager extends AbstractCommentsManager
 
     private static Log LOG = LogFactory.getLog(DefaultCommentsManager.class);
 
+    /**
+     * Comment objects of the documents sorted by date, for each parent and moderation status.
+     */
+    private final DocumentCommentIndex commentIndex = new DocumentCommentIndex();
+
     public DefaultCommentsManager() {
         super();
     }
 
+    public void init(XWikiContext context)
+    {
+        commentIndex.init(context);
+        super.init(context);
+    }
+
 
     /**
      * {@inheritDoc}
@@ -73,90 +84,49 @@ public List<Comment> getComments(Container container, int start, int count, bool
     {
         if (LOG.isDebugEnabled())
           LOG.debug("Calling default manager code for comments");
-        try {
-            int skipped = 0;
-            int nb = 0;
-            XWikiDocument doc =
-                context.getWiki().getDocument(container.getDocumentName(), context);
-            List<BaseObject> bobjects = doc.getObjects(getCommentsClassName(context));
-            if (bobjects != null) {
-                List<Comment> comments = new ArrayList<Comment>();
-                for (BaseObject bobj : bobjects) {
-                    if (bobj != null) {
-                        if (!hasModeration(context)) {
-                            if (skipped<start) {
-                                skipped++;
-                            } else {
-                                comments.add(getDefaultComment(container, doc, bobj, context));
-                                nb++;
-                            }
-                        } else {
-                            // we need to check the comment status first
-                            Comment comment = getDefaultComment(container, doc, bobj, context);
-                            if (!comment.getStatus().equals(COMMENT_MODERATION_MODERATED)&&!comment.getStatus().equals(COMMENT_MODERATION_REFUSED)) {
-                                if (skipped<start) {
-                                    skipped++;
-                                } else {
-                                    comments.add(comment);
-                                    nb++;
-                                }
-                            }
-                        }
-                        if ((count!=0)&&(nb==count))
-                         break;
-                    }
-                }
-                return comments;
-            }
-        } catch (XWikiException e) {
-            e.printStackTrace();
-        }
-        return null;
+        CommentThreadIndex.Filter filter = getThreadFilter(context);
+        return getComments(container, filter, start, count, asc, context);
     }
 
     public List<Comment> getModeratedComments(Container container, int start, int count, boolean asc, XWikiContext context) throws CommentsException {
         if (LOG.isDebugEnabled())
           LOG.debug("Calling default manager code for comments");
+        return getComments(container, CommentThreadIndex.Filter.MODERATED, start, count, asc, context);
+    }
+
+    public int getNumberOfComments(Container container, XWikiContext context) throws CommentsException {
         try {
-            int skipped = 0;
-            int nb = 0;
-            XWikiDocument doc =
-                context.getWiki().getDocument(container.getDocumentName(), context);
-            List<BaseObject> bobjects = doc.getObjects(getCommentsClassName(context));
-            if (bobjects != null) {
-                List<Comment> comments = new ArrayList<Comment>();
-                for (BaseObject bobj : bobjects) {
-                    if (bobj != null) {
-                        if (hasModeration(context)) {
-                            if (skipped<start) {
-                                skipped++;
-                            } else {
-                                comments.add(getDefaultComment(container, doc, bobj, context));
-                                nb++;
-                            }
-                        } else {
-                            // we need to check the comment status first
-                            Comment comment = getDefaultComment(container, doc, bobj, context);
-                            if (comment.getStatus().equals(COMMENT_MODERATION_MODERATED)) {
-                                if (skipped<start) {
-                                    skipped++;
-                                } else {
-                                    comments.add(comment);
-                                    nb++;
-                                }
-                            }
-                        }
-                        if ((count!=0)&&(nb==count))
-                         break;
-                    }
-                }
-                return comments;
+            XWikiDocument doc = context.getWiki().getDocument(container.getDocumentName(), context);
+            CommentThreadIndex.Filter filter = getThreadFilter(context);
+            return commentIndex.getNumberOfComments(doc, getCommentsClassName(context), getParent(container), filter);
+        } catch (XWikiException e) {
+            throw new CommentsException(e);
+        }
+    }
+
+    /**
+     * Reads the requested page of comments from the sorted index of the document, the other comment objects are not
+     * looked at.
+     */
+    private List<Comment> getComments(Container container, CommentThreadIndex.Filter filter, int start, int count, boolean asc, XWikiContext context) throws CommentsException {
+        try {
+            XWikiDocument doc = context.getWiki().getDocument(container.getDocumentName(), context);
+            List<BaseObject> bobjects = commentIndex.getComments(doc, getCommentsClassName(context), getParent(container), filter, start, count, asc);
+            List<Comment> comments = new ArrayList<Comment>(bobjects.size());
+            for (BaseObject bobj : bobjects) {
+                comments.add(getDefaultComment(container, doc, bobj, context));
             }
+            return comments;
         } catch (XWikiException e) {
             throw new CommentsException(e);
         }
-        return null;
+    }
 
+    /**
+     * @return the comment the container answers to, or null to list all the comments of the document
+     */
+    private String getParent(Container container) {
+        return (container.getComment() != null) ? container.getComment().getCommentId() : null;
     }
 
     public List<Comment> getComments(String status, int start, int count, boolean asc, XWikiContext context) throws CommentsException {
@@ -221,30 +191,16 @@ public Comment getComment(Container container, int id, XWikiContext context)
     public List<Comment> getComments(Comment comment, int startlevel, int levelsnumber, boolean asc, XWikiContext context) throws CommentsException {
         try {
             XWikiDocument doc = ((DefaultComment) comment).getDocument();
-            List<BaseObject> bobjects = doc.getObjects(getCommentsClassName(context));
-            if (bobjects != null) {
-                List<Comment> comments = new ArrayList<Comment>();
-                for (BaseObject bobj : bobjects) {
-                    if (bobj != null) {
-                        if (bobj.getStringValue(COMMENT_CLASS_FIELDNAME_PARENT).equals(comment.getCommentId())) {
-                            if (!hasModeration(context)) {
-                             comments.add(new DefaultComment(comment.getContainer(), doc, bobj, context));
-                            } else {
-                               Comment childcomment = new DefaultComment(comment.getContainer(), doc, bobj, context);
-                               if (!childcomment.getStatus().equals(COMMENT_MODERATION_MODERATED)&&!childcomment.getStatus().equals(COMMENT_MODERATION_REFUSED)) {
-                                   comments.add(childcomment);
-                               }
-
-                            }
-                        }
-                    }
-                }
-                return comments;
+            CommentThreadIndex.Filter filter = getThreadFilter(context);
+            List<BaseObject> bobjects = commentIndex.getComments(doc, getCommentsClassName(context), comment.getCommentId(), filter, 0, 0, asc);
+            List<Comment> comments = new ArrayList<Comment>(bobjects.size());
+            for (BaseObject bobj : bobjects) {
+                comments.add(new DefaultComment(comment.getContainer(), doc, bobj, context));
             }
+            return comments;
         } catch (XWikiException e) {
             throw new CommentsException(e);
         }
-        return null;
     }
 
     public int getNumberOfCommentsInThread(XWikiDocument document, XWikiContext context) throws CommentsException {
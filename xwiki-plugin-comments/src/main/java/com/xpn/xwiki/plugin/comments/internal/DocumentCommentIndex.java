@@ -0,0 +1,219 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.plugin.comments.internal;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xpn.xwiki.plugin.comments.CommentsManager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sorted index of the comments stored as objects of the commented document, so that reading a page of comments does
+ * not go through all the objects of the document. The index of a document is built the first time its comments are
+ * listed and built again once the document is modified. The least recently used documents are dropped once more than
+ * xwiki.comments.threadindex.size documents (1000 by default) are indexed.
+ */
+public class DocumentCommentIndex
+{
+    private static final int DEFAULT_SIZE = 1000;
+
+    /**
+     * A comment object, sorted by date and then by object number.
+     */
+    private static class Entry implements Comparable<Entry>
+    {
+        final int number;
+
+        final String parent;
+
+        final String status;
+
+        final long date;
+
+        Entry(BaseObject object)
+        {
+            this.number = object.getNumber();
+            this.parent = object.getStringValue(CommentsManager.COMMENT_CLASS_FIELDNAME_PARENT);
+            this.status = object.getStringValue(CommentsManager.COMMENT_CLASS_FIELDNAME_STATUS);
+            Date date = object.getDateValue(CommentsManager.COMMENT_CLASS_FIELDNAME_DATE);
+            this.date = (date != null) ? date.getTime() : 0;
+        }
+
+        boolean matches(CommentThreadIndex.Filter filter)
+        {
+            return filter.matches(status);
+        }
+
+        public int compareTo(Entry entry)
+        {
+            if (date != entry.date) {
+                return (date < entry.date) ? -1 : 1;
+            }
+            return number - entry.number;
+        }
+    }
+
+    /**
+     * The sorted object numbers of the comments of a document, for each parent and each filter.
+     */
+    private static class Document
+    {
+        final String stamp;
+
+        final Map<String, int[][]> numbers = new HashMap<String, int[][]>();
+
+        Document(String stamp)
+        {
+            this.stamp = stamp;
+        }
+    }
+
+    private final Map<String, Document> documents;
+
+    private int size = DEFAULT_SIZE;
+
+    public DocumentCommentIndex()
+    {
+        this.documents = new LinkedHashMap<String, Document>(16, 0.75f, true)
+        {
+            protected boolean removeEldestEntry(Map.Entry<String, Document> eldest)
+            {
+                return size() > size;
+            }
+        };
+    }
+
+    /**
+     * Reads the size of the index from the configuration.
+     */
+    public void init(XWikiContext context)
+    {
+        size = (int) context.getWiki().ParamAsLong("xwiki.comments.threadindex.size", DEFAULT_SIZE);
+    }
+
+    /**
+     * @param parent the number of the comment the comments answer to, the empty string for the comments of the
+     *            document itself and null for all the comments of the document
+     * @param start the number of comments to skip
+     * @param count the maximum number of comments returned, 0 for all of them
+     * @param asc true to list the oldest comments first
+     * @return the objects of the comments
+     */
+    public List<BaseObject> getComments(XWikiDocument doc, String className, String parent,
+        CommentThreadIndex.Filter filter, int start, int count, boolean asc)
+    {
+        int[] numbers = getNumbers(doc, className, parent, filter);
+        int from = Math.min(Math.max(start, 0), numbers.length);
+        int to = (count > 0) ? Math.min(from + count, numbers.length) : numbers.length;
+        List<BaseObject> objects = new ArrayList<BaseObject>(to - from);
+        for (int i = from; i < to; i++) {
+            objects.add(doc.getObject(className, numbers[asc ? i : numbers.length - 1 - i]));
+        }
+        return objects;
+    }
+
+    /**
+     * @param parent see {@link #getComments(XWikiDocument, String, String, CommentThreadIndex.Filter, int, int, boolean)}
+     * @return the number of comments listed by
+     *         {@link #getComments(XWikiDocument, String, String, CommentThreadIndex.Filter, int, int, boolean)}
+     */
+    public int getNumberOfComments(XWikiDocument doc, String className, String parent,
+        CommentThreadIndex.Filter filter)
+    {
+        return getNumbers(doc, className, parent, filter).length;
+    }
+
+    private int[] getNumbers(XWikiDocument doc, String className, String parent, CommentThreadIndex.Filter filter)
+    {
+        List<BaseObject> objects = doc.getObjects(className);
+        // Saving the document changes its version, adding a comment changes the number of objects
+        String stamp = doc.getVersion() + ":" + ((objects != null) ? objects.size() : 0);
+        String key = doc.getDatabase() + ":" + doc.getFullName();
+        Document document;
+        synchronized (documents) {
+            document = documents.get(key);
+        }
+        if (document == null || !document.stamp.equals(stamp)) {
+            document = build(stamp, objects);
+            synchronized (documents) {
+                documents.put(key, document);
+            }
+        }
+        int[][] numbers = document.numbers.get(parent);
+        return (numbers != null) ? numbers[filter.ordinal()] : new int[0];
+    }
+
+    private static Document build(String stamp, List<BaseObject> objects)
+    {
+        List<Entry> entries = new ArrayList<Entry>();
+        if (objects != null) {
+            for (BaseObject object : objects) {
+                if (object != null) {
+                    entries.add(new Entry(object));
+                }
+            }
+        }
+        Collections.sort(entries);
+
+        Map<String, List<Entry>> byParent = new HashMap<String, List<Entry>>();
+        byParent.put(null, entries);
+        for (Entry entry : entries) {
+            List<Entry> children = byParent.get(entry.parent);
+            if (children == null) {
+                children = new ArrayList<Entry>();
+                byParent.put(entry.parent, children);
+            }
+            children.add(entry);
+        }
+
+        Document document = new Document(stamp);
+        CommentThreadIndex.Filter[] filters = CommentThreadIndex.Filter.values();
+        for (Map.Entry<String, List<Entry>> children : byParent.entrySet()) {
+            int[][] numbers = new int[filters.length][];
+            for (CommentThreadIndex.Filter filter : filters) {
+                int[] filtered = new int[children.getValue().size()];
+                int nb = 0;
+                for (Entry entry : children.getValue()) {
+                    if (entry.matches(filter)) {
+                        filtered[nb++] = entry.number;
+                    }
+                }
+                numbers[filter.ordinal()] = (nb == filtered.length) ? filtered : copyOf(filtered, nb);
+            }
+            document.numbers.put(children.getKey(), numbers);
+        }
+        return document;
+    }
+
+    private static int[] copyOf(int[] array, int length)
+    {
+        int[] copy = new int[length];
+        System.arraycopy(array, 0, copy, 0, length);
+        return copy;
+    }
+}
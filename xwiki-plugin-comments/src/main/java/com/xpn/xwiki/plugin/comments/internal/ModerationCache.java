@@ -0,0 +1,175 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xpn.xwiki.plugin.comments.internal;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.notify.DocChangeRule;
+import com.xpn.xwiki.notify.XWikiDocChangeNotificationInterface;
+import com.xpn.xwiki.notify.XWikiNotificationManager;
+import com.xpn.xwiki.notify.XWikiNotificationRule;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Moderation decisions (whether moderation is on, whether the user is moderated, whether the user is a moderator) for
+ * each wiki, user and space. A decision is kept in the context for the rest of the request, and across requests until
+ * a group or a preferences document is modified. At most xwiki.comments.moderationcache.size decisions (10000 by
+ * default, 0 to only keep them for the request) are kept across requests.
+ */
+public class ModerationCache implements XWikiDocChangeNotificationInterface
+{
+    private static final String CONTEXT_KEY = "comments.moderationcache";
+
+    private static final String GROUPS_CLASS_NAME = "XWiki.XWikiGroups";
+
+    private static final int DEFAULT_SIZE = 10000;
+
+    private final Map<String, Boolean> decisions = new ConcurrentHashMap<String, Boolean>();
+
+    private int size = DEFAULT_SIZE;
+
+    /** Changed on each invalidation, so that a decision computed before a change is not kept. */
+    private long generation;
+
+    private volatile boolean registered;
+
+    /**
+     * @param decision the name of the decision
+     * @return the decision for the current wiki, user and space, or null if it is not known
+     */
+    public Boolean get(String decision, XWikiContext context)
+    {
+        String key = getKey(decision, context);
+        Map<String, Boolean> requestDecisions = getRequestDecisions(context);
+        Boolean value = requestDecisions.get(key);
+        if (value == null && register(context)) {
+            value = decisions.get(key);
+            if (value != null) {
+                requestDecisions.put(key, value);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * @return the value to give to {@link #put(String, boolean, long, XWikiContext)} for a decision computed from now
+     */
+    public long getGeneration()
+    {
+        synchronized (decisions) {
+            return generation;
+        }
+    }
+
+    /**
+     * @param decision the name of the decision
+     * @param value the decision for the current wiki, user and space
+     * @param generation the value of {@link #getGeneration()} before the decision was computed
+     */
+    public void put(String decision, boolean value, long generation, XWikiContext context)
+    {
+        String key = getKey(decision, context);
+        getRequestDecisions(context).put(key, Boolean.valueOf(value));
+        if (register(context)) {
+            synchronized (decisions) {
+                if (generation == this.generation) {
+                    if (decisions.size() >= size) {
+                        decisions.clear();
+                    }
+                    decisions.put(key, Boolean.valueOf(value));
+                }
+            }
+        }
+    }
+
+    /**
+     * Forgets all the decisions taken across requests.
+     */
+    public void clear()
+    {
+        synchronized (decisions) {
+            generation++;
+            decisions.clear();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @see XWikiDocChangeNotificationInterface#notify(XWikiNotificationRule, XWikiDocument, XWikiDocument, int,
+     *      XWikiContext)
+     */
+    public void notify(XWikiNotificationRule rule, XWikiDocument newdoc, XWikiDocument olddoc, int event,
+        XWikiContext context)
+    {
+        if (affectsModeration(newdoc) || affectsModeration(olddoc)) {
+            clear();
+            context.remove(CONTEXT_KEY);
+        }
+    }
+
+    /**
+     * @return whether the document holds groups, rights or the moderation preferences
+     */
+    private static boolean affectsModeration(XWikiDocument doc)
+    {
+        return doc != null
+            && ("XWiki.XWikiPreferences".equals(doc.getFullName()) || "WebPreferences".equals(doc.getName()) || doc
+                .getObject(GROUPS_CLASS_NAME) != null);
+    }
+
+    /**
+     * @return whether the decisions can be kept across requests, which needs to be notified of the changes
+     */
+    private boolean register(XWikiContext context)
+    {
+        if (registered) {
+            return size > 0;
+        }
+        synchronized (this) {
+            XWikiNotificationManager notificationManager = context.getWiki().getNotificationManager();
+            if (!registered && notificationManager != null) {
+                size = (int) context.getWiki().ParamAsLong("xwiki.comments.moderationcache.size", DEFAULT_SIZE);
+                notificationManager.addGeneralRule(new DocChangeRule(this));
+                registered = true;
+            }
+        }
+        return registered && size > 0;
+    }
+
+    private static Map<String, Boolean> getRequestDecisions(XWikiContext context)
+    {
+        Map<String, Boolean> requestDecisions = (Map<String, Boolean>) context.get(CONTEXT_KEY);
+        if (requestDecisions == null) {
+            requestDecisions = new HashMap<String, Boolean>();
+            context.put(CONTEXT_KEY, requestDecisions);
+        }
+        return requestDecisions;
+    }
+
+    private static String getKey(String decision, XWikiContext context)
+    {
+        String space = (context.getDoc() != null) ? context.getDoc().getSpace() : "";
+        return decision + ":" + context.getDatabase() + ":" + context.getUser() + ":" + space;
+    }
+}
@@ -33,6 +33,7 @@
 import com.xpn.xwiki.plugin.comments.CommentsManager;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Vector;
@@ -41,12 +42,18 @@ public class SeparatePageCommentsManager extends AbstractCommentsManager
 {
     private static Log LOG = LogFactory.getLog(SeparatePageCommentsManager.class);
 
+    /**
+     * Parents, moderation status and counts of the comments of the pages, kept up to date on save and delete.
+     */
+    private final CommentThreadIndex threadIndex = new CommentThreadIndex(this);
+
     public SeparatePageCommentsManager() {
        super();
     }
 
     public void init(XWikiContext context)
     {
+        threadIndex.init(context);
         try {
             initCommentsClass(context, true);
         } catch (Exception e) {
@@ -90,27 +97,12 @@ public List<Comment> getComments(Container container, int start, int count, bool
         if (LOG.isDebugEnabled())
           LOG.debug("Calling separate page manager code for comments");
 
-        String pageName = container.getDocumentName();
-        String sql;
-        if (!hasModeration(context))
-            sql = ", BaseObject as obj, StringProperty as parentprop where doc.fullName=obj.name and obj.className='" + getCommentsClassName(context) + "' and obj.id=parentprop.id.id and parentprop.id.name='" + COMMENT_CLASS_FIELDNAME_PARENT + "' and parentprop.value='"
-                    + pageName + "' order by doc.date " + (asc  ? "asc" : "desc");
-        else
-            sql = ", BaseObject as obj, StringProperty as parentprop where doc.fullName=obj.name and obj.className='" + getCommentsClassName(context) + "' and obj.id=parentprop.id.id and parentprop.id.name='" + COMMENT_CLASS_FIELDNAME_PARENT + "' and parentprop.value='"
-                    + pageName + "' and obj.name not in (select obj2.name from BaseObject as obj2, StringProperty as statusprop where obj2.className='" + getCommentsClassName(context) + "' and obj2.id=statusprop.id.id and statusprop.id.name='status' and (statusprop.value='" + COMMENT_MODERATION_MODERATED + "' or statusprop.value='" + COMMENT_MODERATION_REFUSED + "') and obj.id=obj2.id) order by doc.date " + (asc  ? "asc" : "desc");
-
-        List<Comment> comments = new ArrayList<Comment>();
         try {
-            List<String> commentPageNameList = context.getWiki().getStore().searchDocumentsNames(sql, count, start, context);
-
-            for (String commentPageName : commentPageNameList) {
-                comments.add(new SeparatePageCommentsManager().getCommentFromDocument(container, context.getWiki().getDocument(commentPageName, context), context));
-            }
+            List<String> commentPageNameList = threadIndex.getComments(container.getDocumentName(), getThreadFilter(context), start, count, asc, context);
+            return getCommentsFromDocuments(container, commentPageNameList, context);
         } catch (XWikiException e) {
             throw new CommentsException(e);
         }
-
-        return comments;
   }
 
 
@@ -125,23 +117,22 @@ public List<Comment> getModeratedComments(Container container, int start, int co
         if (LOG.isDebugEnabled())
           LOG.debug("Calling separate page manager code for comments");
 
-        String pageName = container.getDocumentName();
-        String sql = ", BaseObject as obj, StringProperty as parentprop, StringProperty as statusprop where doc.fullName=obj.name and obj.className='" + getCommentsClassName(context) + "' and obj.id=parentprop.id.id and parentprop.id.name='" + COMMENT_CLASS_FIELDNAME_PARENT + "' and parentprop.value='"
-                      + pageName + "' and obj.id=statusprop.id.id and statusprop.id.name='status' and statusprop.value='" + COMMENT_MODERATION_MODERATED + "' order by doc.date " + (asc  ? "asc" : "desc");
-        List<Comment> comments = new ArrayList<Comment>();
         try {
-            List<String> commentPageNameList = context.getWiki().getStore().searchDocumentsNames(sql, count, start, context);
-
-            for (String commentPageName : commentPageNameList) {
-                comments.add(new SeparatePageCommentsManager().getCommentFromDocument(container, context.getWiki().getDocument(commentPageName, context), context));
-            }
+            List<String> commentPageNameList = threadIndex.getComments(container.getDocumentName(), CommentThreadIndex.Filter.MODERATED, start, count, asc, context);
+            return getCommentsFromDocuments(container, commentPageNameList, context);
         } catch (XWikiException e) {
             throw new CommentsException(e);
         }
-
-        return comments;
   }
 
+    public int getNumberOfComments(Container container, XWikiContext context) throws CommentsException {
+        try {
+            return threadIndex.getNumberOfChildren(container.getDocumentName(), getThreadFilter(context), context);
+        } catch (XWikiException e) {
+            throw new CommentsException(e);
+        }
+    }
+
     /**
      * {@inheritDoc}
      *
@@ -153,14 +144,14 @@ public List<Comment> getComments(String status, int start, int count, boolean as
         if (LOG.isDebugEnabled())
             LOG.debug("Calling separate page manager code for comments");
 
-        String sql = ", BaseObject as obj, StringProperty as statusprop where doc.fullName=obj.name and obj.className='" + getCommentsClassName(context) + "' and obj.id=statusprop.id.id and statusprop.id.name='status' and statusprop.value='" + status + "' order by doc.date " + (asc  ? "asc" : "desc");
+        String sql = ", BaseObject as obj, StringProperty as statusprop where doc.fullName=obj.name and obj.className=? and obj.id=statusprop.id.id and statusprop.id.name='" + COMMENT_CLASS_FIELDNAME_STATUS + "' and statusprop.value=? order by doc.date " + (asc  ? "asc" : "desc");
         List<Comment> comments = new ArrayList<Comment>();
         try {
-            List<String> commentPageNameList = context.getWiki().getStore().searchDocumentsNames(sql, count, start, context);
+            List<String> commentPageNameList = context.getWiki().getStore().searchDocumentsNames(sql, count, start, Arrays.asList(getCommentsClassName(context), status), context);
 
             for (String commentPageName : commentPageNameList) {
                 // Container container = newContainer(context);                
-                comments.add(new SeparatePageCommentsManager().getCommentFromDocument(null, context.getWiki().getDocument(commentPageName, context), context));
+                comments.add(getCommentFromDocument(null, context.getWiki().getDocument(commentPageName, context), context));
             }
         } catch (XWikiException e) {
             throw new CommentsException(e);
@@ -178,20 +169,12 @@ public List<Comment> getComments(String status, int start, int count, boolean as
     public Comment getComment(Container container, int id, XWikiContext context)
             throws CommentsException
     {
-        String pageName = container.getDocumentName();
-        String sql;
-        if (!hasModeration(context))
-            sql = ", BaseObject as obj, StringProperty as parentprop where doc.fullName=obj.name and obj.className='" + getCommentsClassName(context) + "' and obj.id=parentprop.id.id and parentprop.id.name='" + COMMENT_CLASS_FIELDNAME_PARENT + "' and parentprop.value='"
-                    + pageName + "' order by doc.date desc";
-        else
-            sql = ", BaseObject as obj, StringProperty as parentprop where doc.fullName=obj.name and obj.className='" + getCommentsClassName(context) + "' and obj.id=parentprop.id.id and parentprop.id.name='" + COMMENT_CLASS_FIELDNAME_PARENT + "' and parentprop.value='"
-                    + pageName + "' and obj.name not in (select obj2.name from BaseObject as obj2, StringProperty as statusprop where obj2.className='" + getCommentsClassName(context) + "' and obj2.id=statusprop.id.id and statusprop.id.name='status' and (statusprop.value='" + COMMENT_MODERATION_MODERATED + "' or statusprop.value='" + COMMENT_MODERATION_REFUSED + "') and obj.id=obj2.id) order by doc.date desc";
         try {
-            List<String> commentPageNameList = context.getWiki().getStore().searchDocumentsNames(sql, 1, id, context);
-            if ((commentPageNameList==null)||(commentPageNameList.size()==0))
+            List<String> commentPageNameList = threadIndex.getComments(container.getDocumentName(), getThreadFilter(context), id, 1, false, context);
+            if (commentPageNameList.size()==0)
                 return null;
             else {
-                return new SeparatePageCommentsManager().getCommentFromDocument(container, context.getWiki().getDocument(commentPageNameList.get(0), context), context);
+                return getCommentFromDocument(container, context.getWiki().getDocument(commentPageNameList.get(0), context), context);
             }
         } catch (XWikiException e) {
             throw new CommentsException(e);
@@ -245,26 +228,12 @@ public Comment getParentComment(Comment comment, XWikiContext context) throws Co
     }
 
     public List<Comment> getComments(Comment comment, int startlevel, int levelsnumber, boolean asc, XWikiContext context) throws CommentsException {
-        String sql;
-        if (!hasModeration(context))
-          sql = ", BaseObject as obj, StringProperty as parentprop where doc.fullName=obj.name and obj.id=parentprop.id.id and parentprop.id.name='" + COMMENT_CLASS_FIELDNAME_PARENT + "' and parentprop.value='"
-                  + comment.getCommentId() + "' order by doc.date " + (asc  ? "asc" : "desc");
-        else
-          sql = ", BaseObject as obj, StringProperty as parentprop where doc.fullName=obj.name and obj.className='" + getCommentsClassName(context) + "' and obj.id=parentprop.id.id and parentprop.id.name='" + COMMENT_CLASS_FIELDNAME_PARENT + "' and parentprop.value='"
-                    + comment.getCommentId() + "' and obj.name not in (select obj2.name from BaseObject as obj2, StringProperty as statusprop where obj2.className='" + getCommentsClassName(context) + "' and obj2.id=statusprop.id.id and statusprop.id.name='status' and (statusprop.value='" + COMMENT_MODERATION_MODERATED + "' or statusprop.value='" + COMMENT_MODERATION_REFUSED +"') and obj.id=obj2.id) order by doc.date " + (asc  ? "asc" : "desc");
-
-        List<Comment> comments = new ArrayList<Comment>();
         try {
-            List<String> commentPageNameList = context.getWiki().getStore().searchDocumentsNames(sql, context);
-
-            for (String commentPageName : commentPageNameList) {
-                comments.add(new SeparatePageCommentsManager().getCommentFromDocument(comment.getAsContainer(), context.getWiki().getDocument(commentPageName, context), context));
-            }
+            List<String> commentPageNameList = threadIndex.getComments(comment.getCommentId(), getThreadFilter(context), 0, 0, asc, context);
+            return getCommentsFromDocuments(comment.getAsContainer(), commentPageNameList, context);
         } catch (XWikiException e) {
             throw new CommentsException(e);
         }
-
-        return comments;
     }
 
     public Comment getCommentFromDocument(Container container, XWikiDocument doc, XWikiContext context) throws CommentsException {
@@ -285,32 +254,30 @@ public Container getContainer(Comment comment, XWikiContext context) {
 
 
     public int getNumberOfCommentsInThread(XWikiDocument document, XWikiContext context) throws CommentsException {
-        String sql;
-           if (!hasModeration(context))
-             sql = "select count(distinct doc.fullName) from XWikiDocument as doc, BaseObject as obj, StringProperty as pageprop where doc.fullName=obj.name and obj.id=pageprop.id.id and pageprop.id.name='" + COMMENT_CLASS_FIELDNAME_PAGE + "' and pageprop.value='"
-                     + document.getFullName() + "'";
-           else
-             sql = "select count(distinct doc.fullName) from XWikiDocument as doc, BaseObject as obj, StringProperty as pageprop where doc.fullName=obj.name and obj.className='" + getCommentsClassName(context) + "' and obj.id=pageprop.id.id and pageprop.id.name='" + COMMENT_CLASS_FIELDNAME_PAGE + "' and pageprop.value='"
-                       + document.getFullName() + "' and obj.name not in (select obj2.name from BaseObject as obj2, StringProperty as statusprop where obj2.className='" + getCommentsClassName(context) + "' and obj2.id=statusprop.id.id and statusprop.id.name='status' and (statusprop.value='" + COMMENT_MODERATION_MODERATED + "' or statusprop.value='" + COMMENT_MODERATION_REFUSED +"') and obj.id=obj2.id)";
-
-        List result = null;
         try {
-            result = context.getWiki().search(sql, context);
+            return threadIndex.getNumberOfComments(document.getFullName(), getThreadFilter(context), context);
         } catch (XWikiException e) {
             throw new CommentsException(e);
         }
-        if ((result==null)||(result.size()==0))
-              return 0;
-           else
-              return ((Number) result.get(0)).intValue();
     }
 
     public int getNumberOfCommentsInThread(Comment comment, XWikiContext context) throws CommentsException {
         try {
-            return getNumberOfCommentsInThread(context.getWiki().getDocument(comment.getPage(), context), context);
+            return threadIndex.getNumberOfComments(comment.getPage(), getThreadFilter(context), context);
         } catch (XWikiException e) {
             throw new CommentsException(e);
         }
     }
 
+    /**
+     * Loads the documents of the listed comments, only the requested page of comments is loaded.
+     */
+    private List<Comment> getCommentsFromDocuments(Container container, List<String> commentPageNameList, XWikiContext context) throws XWikiException {
+        List<Comment> comments = new ArrayList<Comment>(commentPageNameList.size());
+        for (String commentPageName : commentPageNameList) {
+            comments.add(getCommentFromDocument(container, context.getWiki().getDocument(commentPageName, context), context));
+        }
+        return comments;
+    }
+
 }
\ No newline at end of file
@@ -98,6 +98,7 @@ public Object invoke(Invocation invocation) throws Throwable
                     return names;
                 }
             });
+        this.mockXWikiStore.stubs().method("search").will(returnValue(new ArrayList<Object>()));
         this.mockXWikiStore.stubs().method("getTranslationList").will(returnValue(new ArrayList<Object>()));
 
         mockXWikiRightService = mock(XWikiRightService.class, new Class[] {}, new Object[] {});
@@ -0,0 +1,87 @@
+package com.xpn.xwiki.plugin.comments.internal;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.notify.XWikiDocChangeNotificationInterface;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xpn.xwiki.plugin.comments.CommentsManager;
+import com.xpn.xwiki.plugin.comments.XWikiMockTestCase;
+
+public class CommentThreadIndexTest extends XWikiMockTestCase
+{
+    protected CommentsManager commentsManager;
+
+    protected CommentThreadIndex index;
+
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        commentsManager = new SeparatePageCommentsManager();
+        index = new CommentThreadIndex(commentsManager);
+    }
+
+    protected XWikiDocument newComment(String name, String parent, String status, long date)
+    {
+        XWikiDocument doc = new XWikiDocument("Main", name);
+        doc.setDate(new Date(date));
+        BaseObject obj = new BaseObject();
+        obj.setClassName(commentsManager.getCommentsClassName(context));
+        obj.setName(doc.getFullName());
+        obj.setStringValue(CommentsManager.COMMENT_CLASS_FIELDNAME_PARENT, parent);
+        obj.setStringValue(CommentsManager.COMMENT_CLASS_FIELDNAME_PAGE, "Main.Page");
+        obj.setStringValue(CommentsManager.COMMENT_CLASS_FIELDNAME_STATUS, status);
+        doc.addObject(commentsManager.getCommentsClassName(context), obj);
+        return doc;
+    }
+
+    protected void save(XWikiDocument newdoc, XWikiDocument olddoc)
+    {
+        index.notify(null, newdoc, olddoc, XWikiDocChangeNotificationInterface.EVENT_CHANGE, context);
+    }
+
+    public void testThreadFollowsChanges() throws Exception
+    {
+        // Loads the empty thread, the changes are then only taken from the notifications
+        assertEquals(0, index.getNumberOfComments("Main.Page", CommentThreadIndex.Filter.ALL, context));
+
+        save(newComment("PageC1", "Main.Page", "", 1000), null);
+        save(newComment("PageC2", "Main.Page", CommentsManager.COMMENT_MODERATION_MODERATED, 2000), null);
+        save(newComment("PageC3", "Main.Page", "", 3000), null);
+        save(newComment("PageC4", "Main.PageC1", "", 4000), null);
+
+        assertEquals(Arrays.asList("Main.PageC1", "Main.PageC2", "Main.PageC3"), index.getComments("Main.Page",
+            CommentThreadIndex.Filter.ALL, 0, 0, true, context));
+        assertEquals(Arrays.asList("Main.PageC3", "Main.PageC1"), index.getComments("Main.Page",
+            CommentThreadIndex.Filter.VISIBLE, 0, 0, false, context));
+        assertEquals(Arrays.asList("Main.PageC2"), index.getComments("Main.Page",
+            CommentThreadIndex.Filter.ALL, 1, 1, true, context));
+        assertEquals(Arrays.asList("Main.PageC2"), index.getComments("Main.Page",
+            CommentThreadIndex.Filter.MODERATED, 0, 0, true, context));
+        assertEquals(Arrays.asList("Main.PageC4"), index.getComments("Main.PageC1",
+            CommentThreadIndex.Filter.ALL, 0, 0, true, context));
+        assertEquals(4, index.getNumberOfComments("Main.Page", CommentThreadIndex.Filter.ALL, context));
+        assertEquals(3, index.getNumberOfComments("Main.Page", CommentThreadIndex.Filter.VISIBLE, context));
+
+        // Accepting a comment and deleting another one
+        save(newComment("PageC2", "Main.Page", CommentsManager.COMMENT_MODERATION_ACCEPTED, 2000),
+            newComment("PageC2", "Main.Page", CommentsManager.COMMENT_MODERATION_MODERATED, 2000));
+        index.notify(null, new XWikiDocument("Main", "PageC4"), newComment("PageC4", "Main.PageC1", "", 4000),
+            XWikiDocChangeNotificationInterface.EVENT_DELETE, context);
+
+        assertEquals(Collections.emptyList(), index.getComments("Main.PageC1", CommentThreadIndex.Filter.ALL, 0, 0,
+            true, context));
+        assertEquals(3, index.getNumberOfComments("Main.Page", CommentThreadIndex.Filter.VISIBLE, context));
+        assertEquals(0, index.getNumberOfComments("Main.Page", CommentThreadIndex.Filter.MODERATED, context));
+    }
+
+    public void testChangesOfPagesNotLoadedAreIgnored() throws Exception
+    {
+        save(newComment("PageC1", "Main.Page", "", 1000), null);
+
+        // The store does not know about the comment
+        assertEquals(0, index.getNumberOfComments("Main.Page", CommentThreadIndex.Filter.ALL, context));
+    }
+}
@@ -22,13 +22,9 @@
  */
 package org.xwiki.security;
 
-import java.util.TreeSet;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.SortedSet;
-
-import java.lang.ref.WeakReference;
-import java.lang.ref.ReferenceQueue;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * Represents access level.
@@ -43,9 +39,14 @@
  * </li>
  * <li>Try to reuse an existing instance if available:<br/>
  *
- * {@code newInstance = newInstance.reuseInstance();}
+ * {@code newInstance = newInstance.getExistingInstance();}
  * </li></ol>
  * After step 3. the instance is read-only.
+ *
+ * Code that computes many access levels may instead work on the
+ * {@code int} representation returned by {@link #getLevels()}, using
+ * the static accessors of this class, and obtain the shared instance
+ * with {@link #getInstance(int)} at the end.
  * @version $Id$
  */
 public class AccessLevel implements RightCacheEntry, Cloneable, Comparable<AccessLevel>
@@ -58,10 +59,29 @@ public class AccessLevel implements RightCacheEntry, Cloneable, Comparable<Acces
     /** Read-only flag/mask. */
     private static final int RO_MASK =  1 << 31;
 
-    /** Pool of existing instances. */
-    private static SortedSet<ALWeakRef> pool = new TreeSet();
-    /** Reference queue for removing cleared references.  */
-    private static ReferenceQueue<AccessLevel> refQueue = new ReferenceQueue();
+    /** Number of distinct states of a right. */
+    private static final int STATES = 3;
+
+    /** Number of rights. */
+    private static final int RIGHTS = Right.values().length;
+
+    /**
+     * Table of existing instances, indexed by the base 3 encoding of
+     * the right states, see {@link #index(int)}.  With nine rights,
+     * this is 3^9 = 19683 slots, and the instances are only created
+     * for the states that are actually used.  The slots are filled
+     * with compare-and-set, so no lock is taken when reusing
+     * instances.
+     */
+    private static final AtomicReferenceArray<AccessLevel> INSTANCES;
+
+    static {
+        int size = 1;
+        for (int i = 0; i < RIGHTS; i++) {
+            size *= STATES;
+        }
+        INSTANCES = new AtomicReferenceArray<AccessLevel>(size);
+    }
 
     static {
         DEFAULT_ACCESS_LEVEL = new AccessLevel() 
@@ -91,89 +111,127 @@ public class AccessLevel implements RightCacheEntry, Cloneable, Comparable<Acces
      */
     private int levels;
 
+    /** Construct an access level where all rights are undetermined. */
+    public AccessLevel()
+    {
+    }
+
     /**
-     * Weak reference for storing instances in a pool.
+     * @param levels The access levels, as returned by {@link #getLevels()}.
      */
-    private static class ALWeakRef extends WeakReference<AccessLevel> implements Comparable<ALWeakRef>
+    private AccessLevel(int levels)
     {
-        /** Unique order value for these reference objects. */
-        private int order;
-
-        /**
-         * @param level Access level that shall be weakly referenced.
-         */
-        public ALWeakRef(AccessLevel level)
-        {
-            super(level, refQueue);
-            order = level.levels;
-        }
+        this.levels = levels;
+    }
 
-        @Override
-        public int compareTo(ALWeakRef other)
-        {
-            return order - other.order;
+    /**
+     * @param levels The access levels, without the read only flag.
+     * @return The slot of the access levels in the instance table.
+     */
+    private static int index(int levels)
+    {
+        int index = 0;
+        for (int i = RIGHTS - 1; i >= 0; i--) {
+            int state = (levels >>> (2 * i)) & 0x3;
+            /* UNDETERMINED, DENY and ALLOW are 0x0, 0x2 and 0x3. */
+            index = index * STATES + (state == 0 ? 0 : state - 1);
         }
+        return index;
+    }
 
-        @Override
-        public boolean equals(Object other)
-        {
-            return other instanceof ALWeakRef && order == ((ALWeakRef) other).order;
+    /**
+     * Reuse existing instance, if available.
+     * @return An access levels instance that equals the given one.
+     */
+    public AccessLevel getExistingInstance()
+    {
+        // The caller's instance is read-only afterwards, whether or not it is the one reused.
+        setReadOnly();
+        int index = index(getReadOnlyCleared());
+        AccessLevel existing = INSTANCES.get(index);
+        if (existing != null) {
+            return existing;
         }
-
-        @Override
-        public int hashCode()
-        {
-            return order;
+        if (INSTANCES.compareAndSet(index, null, this)) {
+            return this;
         }
+        return INSTANCES.get(index);
     }
 
     /**
-     * @param member Return from the pool an existing instance that is
-     * equal to member, if exists.
-     * @return An instance that is equal to the given one, or null if no such instance exist.
+     * Obtain the shared read-only instance for the given access levels.
+     * @param levels The access levels, as returned by {@link #getLevels()}.
+     * @return An access levels instance with the given levels.
      */
-    private ALWeakRef getFromPool(ALWeakRef member)
+    public static AccessLevel getInstance(int levels)
     {
-        SortedSet<ALWeakRef> tail = pool.tailSet(member);
-        if (tail.size() > 0 && member.equals(tail.first())) {
-            return tail.first();
+        AccessLevel existing = INSTANCES.get(index(levels & ~RO_MASK));
+        if (existing != null) {
+            return existing;
         }
-        return null;
+        return new AccessLevel(levels & ~RO_MASK).getExistingInstance();
     }
 
     /**
-     * Cleanup the reference queue.
+     * @return The access levels of this instance as an {@code int},
+     * which can be manipulated with the static accessors of this
+     * class.
      */
-    private void cleanQueue()
+    public final int getLevels()
     {
-        ALWeakRef ref;
-        while ((ref = (ALWeakRef) refQueue.poll()) != null) {
-            pool.remove(ref);
-        }
+        return getReadOnlyCleared();
     }
 
     /**
-     * Reuse existing instance, if available.
-     * @param levels
-     * @return An access levels instance that equals the given one.
+     * Obtain the right state for the right from an {@code int}
+     * representation of access levels.
+     * @param levels The access levels.
+     * @param right The right to get.
+     * @return The state of the right.
      */
-    public AccessLevel getExistingInstance()
+    public static RightState get(int levels, Right right)
     {
-        setReadOnly();
-        synchronized (pool) {
-            cleanQueue();
-            ALWeakRef ref = new ALWeakRef(this);
-            ALWeakRef pooledRef = getFromPool(ref);
-            if (pooledRef != null) {
-                AccessLevel pooled = pooledRef.get();
-                if (pooled != null) {
-                    return pooled;
-                }
-                pool.remove(pooledRef);
-            }
-            pool.add(ref);
+        switch ((levels >>> (2 * right.getValue())) & 0x3) {
+            case 0x3:
+                return RightState.ALLOW;
+            case 0x2:
+                return RightState.DENY;
+            default:
+                return RightState.UNDETERMINED;
         }
-        return this;
+    }
+
+    /**
+     * Set the right state on the given right in an {@code int}
+     * representation of access levels.
+     * @param levels The access levels.
+     * @param right The right to set.
+     * @param state The state to set the right to.
+     * @return The modified access levels.
+     */
+    public static int set(int levels, Right right, RightState state)
+    {
+        int shift = 2 * right.getValue();
+        return (levels & ~(0x3 << shift)) | (state.getValue() << shift);
+    }
+
+    /**
+     * @param levels The access levels.
+     * @param right The right to check.
+     * @return {@code true} if and only if the right is allowed.
+     */
+    public static boolean isAllowed(int levels, Right right)
+    {
+        return ((levels >>> (2 * right.getValue())) & 0x3) == 0x3;
+    }
+
+    /**
+     * @param right The right to check.
+     * @return {@code true} if and only if the right is allowed.
+     */
+    public final boolean isAllowed(Right right)
+    {
+        return isAllowed(levels, right);
     }
 
     /**
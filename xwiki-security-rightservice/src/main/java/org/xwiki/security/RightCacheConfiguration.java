@@ -33,4 +33,47 @@
 {
     /** @return a configured {@link Cache} instance. */
     Cache<RightCacheEntry> getCache();
+
+    /** @return the maximum number of entries in the right cache. */
+    int getCapacity();
+
+    /**
+     * @return the component hint of the {@link RightCache}
+     * implementation that should be used by the right service.
+     */
+    String getRightCacheHint();
+
+    /**
+     * @return the number of lock stripes used by right cache
+     * implementations that partition their write locks.
+     */
+    int getConcurrencyLevel();
+
+    /** @return {@code true} if the right cache should be preloaded at startup. */
+    boolean isPreloadEnabled();
+
+    /** @return the number of threads used for preloading the right cache. */
+    int getPreloadThreads();
+
+    /** @return the maximum time, in milliseconds, spent preloading the right cache. */
+    long getPreloadTimeBudget();
+
+    /**
+     * @return the maximum amount of heap memory, in bytes, that
+     * preloading the right cache may allocate.
+     */
+    long getPreloadMemoryBudget();
+
+    /**
+     * @return the file where the most recently loaded user and space
+     * pairs are saved, to be replayed by the preloader, or {@code
+     * null} if they should not be saved.
+     */
+    String getHotKeysFile();
+
+    /** @return the maximum number of saved user and space pairs. */
+    int getHotKeysCapacity();
+
+    /** @return the interval, in seconds, between the saves of the user and space pairs. */
+    int getHotKeysSnapshotInterval();
 }
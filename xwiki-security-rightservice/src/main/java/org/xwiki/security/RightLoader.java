@@ -25,6 +25,8 @@
 import org.xwiki.model.reference.EntityReference;
 import org.xwiki.model.reference.DocumentReference;
 
+import java.util.List;
+
 /**
  * Component for loading rights into a right cache.
  * @version $Id$
@@ -43,4 +45,26 @@
     AccessLevel load(DocumentReference user, EntityReference entity)
         throws RightServiceException;
 
+    /**
+     * Load the cache with the required entries to look up the access
+     * level for the user on each of the given entities.  The user
+     * entry is loaded only once, and the entries missing for the
+     * entities are loaded in batches.
+     * @param user The user identity.
+     * @param entities The entities.
+     * @return The resulting access levels, in the order of the entities.
+     * @exception RightServiceException if an error occurs.
+     */
+    List<AccessLevel> load(DocumentReference user, List<? extends EntityReference> entities)
+        throws RightServiceException;
+
+    /**
+     * Load the cache with the entries holding the rights objects of
+     * the entity and of its parents, without resolving the access
+     * level of any user.
+     * @param entity The entity.
+     * @exception RightServiceException if an error occurs.
+     */
+    void load(EntityReference entity) throws RightServiceException;
+
 }
\ No newline at end of file
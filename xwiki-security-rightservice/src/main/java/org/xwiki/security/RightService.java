@@ -20,9 +20,12 @@
  */
 package org.xwiki.security;
 
+import java.util.BitSet;
 import java.util.List;
 
 import org.xwiki.component.annotation.ComponentRole;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReference;
 
 import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.XWikiException;
@@ -76,6 +79,32 @@
      */
     boolean checkAccess(String action, XWikiDocument doc, XWikiContext context) throws XWikiException;
 
+    /**
+     * Checks if the wiki current user has the right to execute {@code action} on each of the documents {@code docs}.
+     * The user is authenticated only once, and the rights of all the documents are checked in one pass.
+     * 
+     * @param action the action to be executed on the documents
+     * @param docs the documents to perform action on
+     * @param context the xwiki context in which to perform the verification (from which to get the user, for example)
+     * @return a bit set where bit {@code i} is set if and only if the user has right to execute {@code action} on the
+     *         {@code i}th document <strong> (the login is requested from the authentication service if no user is
+     *         logged in and none of the documents are accessible). </strong>
+     * @throws XWikiException if something goes wrong during the rights checking process
+     */
+    BitSet checkAccess(String action, List<XWikiDocument> docs, XWikiContext context) throws XWikiException;
+
+    /**
+     * Filters a list of entities by the right of a user.  This resolves the groups of the user once, and loads the
+     * rights objects that are missing from the cache in batches, which makes it much cheaper than checking the
+     * entities one by one.
+     * 
+     * @param right the right to check
+     * @param user the user to check the right for
+     * @param entities the entities on which to check the right, of type DOCUMENT, SPACE or WIKI
+     * @return a bit set where bit {@code i} is set if and only if the user has the right on the {@code i}th entity
+     */
+    BitSet filterAccessible(Right right, DocumentReference user, Iterable<EntityReference> entities);
+
     /**
      * Verifies if the user identified by {@code username} has the access level identified by {@code right} on the
      * document with the name {@code docname}.
@@ -0,0 +1,140 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.xwiki.security;
+
+import org.xwiki.component.annotation.ComponentRole;
+
+/**
+ * Component for collecting metrics on the right service.  Recording
+ * must be cheap and must not allocate, since it happens on the
+ * cached path of every access check.
+ * @version $Id$
+ */
+@ComponentRole
+public interface RightServiceMetrics
+{
+    /** The timed operations. */
+    enum Operation
+    {
+        /** A single access check. */
+        CHECK_ACCESS,
+        /** An access check on a list of entities. */
+        FILTER_ACCESSIBLE,
+        /** A load of the right cache, including retries. */
+        LOAD,
+        /** A resolution of an access level from rights objects. */
+        RESOLVE
+    }
+
+    /** The categories of right cache entries. */
+    enum EntryCategory
+    {
+        /** Entries holding the access level of a user at an entity. */
+        USER_AT_ENTITY,
+        /** Entries holding the rights objects of an entity. */
+        ENTITY
+    }
+
+    /** The reasons for retrying a load of the right cache. */
+    enum Retry
+    {
+        /** A parent entry was evicted during the load. */
+        PARENT_EVICTED,
+        /** Another thread inserted a conflicting entry. */
+        CONFLICTING_INSERTION,
+        /** The cache was invalidated during the load. */
+        STALE_LOAD,
+        /** The load did not succeed within the maximum number of attempts. */
+        GAVE_UP
+    }
+
+    /**
+     * @param operation The operation.
+     * @param nanos The duration of the operation in nanoseconds.
+     */
+    void recordLatency(Operation operation, long nanos);
+
+    /** @param category The category of an entry that was found in the cache. */
+    void recordHit(EntryCategory category);
+
+    /** @param category The category of an entry that was not found in the cache. */
+    void recordMiss(EntryCategory category);
+
+    /** @param category The category of an entry that was removed from the cache. */
+    void recordEviction(EntryCategory category);
+
+    /** @param reason The reason that a load was retried. */
+    void recordRetry(Retry reason);
+
+    /**
+     * @param category An entry category.
+     * @return The number of cache hits.
+     */
+    long getHits(EntryCategory category);
+
+    /**
+     * @param category An entry category.
+     * @return The number of cache misses.
+     */
+    long getMisses(EntryCategory category);
+
+    /**
+     * @param category An entry category.
+     * @return The number of entries removed from the cache.
+     */
+    long getEvictions(EntryCategory category);
+
+    /**
+     * @param category An entry category.
+     * @return The fraction of the lookups that were hits, or 0 if
+     * there were no lookups.
+     */
+    double getHitRatio(EntryCategory category);
+
+    /**
+     * @param reason A retry reason.
+     * @return The number of retries for the reason.
+     */
+    long getRetries(Retry reason);
+
+    /**
+     * @param operation An operation.
+     * @return The number of timed operations.
+     */
+    long getCount(Operation operation);
+
+    /**
+     * @param operation An operation.
+     * @return The mean duration of the operation in nanoseconds.
+     */
+    double getMeanNanos(Operation operation);
+
+    /**
+     * @param operation An operation.
+     * @param percentile A percentile, between 0 and 100.
+     * @return An upper bound of the percentile of the durations of
+     * the operation in nanoseconds.
+     */
+    long getPercentileNanos(Operation operation, double percentile);
+
+    /** Reset all metrics. */
+    void reset();
+}
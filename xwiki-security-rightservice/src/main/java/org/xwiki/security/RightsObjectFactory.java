@@ -24,6 +24,7 @@
 import org.xwiki.model.reference.DocumentReference;
 
 import java.util.Collection;
+import java.util.Map;
 
 /**
  * Factory interface for generating instances of RightsObjects.
@@ -42,4 +43,17 @@
      */
     Collection<RightsObject> getInstances(DocumentReference docRef,  boolean global)
         throws RightServiceException;
+
+    /**
+     * Generate the rights objects of several documents at once.
+     * Implementations should avoid loading the documents that have
+     * no rights objects.
+     * @param docRefs References to the documents.
+     * @param global Use global objects, if {@code true}, otherwise document local objects.
+     * @return A map from each of the documents to its collection of rights objects.
+     * @throws RightServiceException on error.
+     */
+    Map<DocumentReference, Collection<RightsObject>> getInstances(Collection<DocumentReference> docRefs,
+                                                                  boolean global)
+        throws RightServiceException;
 }
@@ -22,6 +22,7 @@
 
 import com.xpn.xwiki.user.api.XWikiRightService;
 
+import java.util.BitSet;
 import java.util.List;
 
 import com.xpn.xwiki.XWikiContext;
@@ -51,7 +52,22 @@ public boolean checkAccess(String action, XWikiDocument doc, XWikiContext contex
     {
         return rightService.checkAccess(action, doc, context);
     }
- 
+
+    /**
+     * Check the right to execute an action on several documents at once.
+     * @param action the action to be executed on the documents
+     * @param docs the documents to perform action on
+     * @param context the xwiki context in which to perform the verification
+     * @return a bit set where bit {@code i} is set if and only if the action is allowed on the {@code i}th document
+     * @throws XWikiException if something goes wrong during the rights checking process
+     * @see RightService#checkAccess(String, List, XWikiContext)
+     */
+    public BitSet checkAccess(String action, List<XWikiDocument> docs, XWikiContext context)
+        throws XWikiException
+    {
+        return rightService.checkAccess(action, docs, context);
+    }
+
     @Override
     public boolean hasAccessLevel(String right, String username, String docname, XWikiContext context)
         throws XWikiException
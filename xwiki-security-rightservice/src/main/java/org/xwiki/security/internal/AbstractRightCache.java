@@ -0,0 +1,117 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.xwiki.security.internal;
+
+import org.xwiki.model.reference.EntityReference;
+
+import org.xwiki.component.annotation.Requirement;
+import org.xwiki.component.logging.AbstractLogEnabled;
+
+import org.xwiki.security.RightCache;
+import org.xwiki.security.RightCacheConfiguration;
+import org.xwiki.security.RightCacheEntry;
+import org.xwiki.security.RightCacheKey;
+import org.xwiki.security.RightServiceMetrics;
+import org.xwiki.security.RightServiceMetrics.EntryCategory;
+
+/**
+ * Common base for right cache implementations.  Takes care of
+ * producing the right cache keys, which are interned so that
+ * looking up the key of an entity that is already known does not
+ * allocate any objects.
+ * @version $Id$
+ */
+abstract class AbstractRightCache extends AbstractLogEnabled implements RightCache
+{
+    /** Configuration object to acquire a configured cache instance. */
+    @Requirement protected RightCacheConfiguration configuration;
+
+    /** Metrics for recording the hits, misses and evictions. */
+    @Requirement protected RightServiceMetrics metrics;
+
+    /** The interned keys of this cache. */
+    private final InternedRightCacheKey.Registry keys = new InternedRightCacheKey.Registry();
+
+    @Override
+    public RightCacheKey getRightCacheKey(EntityReference entity)
+    {
+        return keys.getKey(entity);
+    }
+
+    /**
+     * Record the outcome of a lookup.
+     * @param category The category of the looked up entry.
+     * @param entry The entry found, or {@code null} on a miss.
+     * @return The entry.
+     */
+    protected RightCacheEntry lookedUp(EntryCategory category, RightCacheEntry entry)
+    {
+        if (entry == null) {
+            metrics.recordMiss(category);
+        } else {
+            metrics.recordHit(category);
+        }
+        return entry;
+    }
+
+    /**
+     * @param key A key obtained from {@link #getRightCacheKey(EntityReference)}.
+     * @return The key as an interned key.
+     */
+    protected static InternedRightCacheKey intern(RightCacheKey key)
+    {
+        return (InternedRightCacheKey) key;
+    }
+
+    /**
+     * Generate a key for representing an entry containing a
+     * particular user's access level to an entity.
+     * @param user Entity representing a user name.
+     * @param entity The entity that is the object for this key.
+     * @return Key for the cache.
+     */
+    protected String generateKey(RightCacheKey user, RightCacheKey entity)
+    {
+        return intern(user).getKeyString() + ':' + intern(entity).getKeyString();
+    }
+
+    /**
+     * Generate a key for representing an entry containging
+     * information on whether this entity is associated with any
+     * rights object.
+     * @param entity The entity that is the object for this key.
+     * @return Key for the cache.
+     */
+    protected String generateKey(RightCacheKey entity)
+    {
+        return intern(entity).getKeyString();
+    }
+
+    /**
+     * @param entity An entity that is stored in the cache.
+     * @return The key of the parent entity, or {@code null} if the
+     * entity is a root entry.
+     */
+    protected RightCacheKey getParentKey(RightCacheKey entity)
+    {
+        return intern(entity).getParent();
+    }
+}
@@ -24,6 +24,7 @@
 
 import org.xwiki.security.RightResolver;
 import org.xwiki.security.RightService;
+import org.xwiki.security.AccessLevel;
 import org.xwiki.security.Right;
 import org.xwiki.security.RightState;
 import static org.xwiki.security.Right.*;
@@ -34,8 +35,12 @@
 import org.xwiki.model.reference.EntityReference;
 import org.xwiki.model.EntityType;
 
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 import java.util.EnumMap;
 
@@ -90,6 +95,261 @@ abstract class AbstractRightResolver extends AbstractLogEnabled implements Right
         enabledRights.put(EntityType.WIKI,     Arrays.asList(wikiRights));
     }
 
+    /** Mask of all rights. */
+    protected final int allRightsMask = (1 << Right.values().length) - 1;
+
+    /** Mask of the rights that are allowed by default. */
+    protected final int defaultAllowMask = toMask(AccessLevel.DEFAULT_ACCESS_LEVEL, ALLOW);
+
+    /** Mask of the rights for which ties are resolved to allow, from {@link #tieResolution}. */
+    protected final int tieAllowMask = toMask(tieResolution, ALLOW);
+
+    /** Mask of the rights for which smaller wins, from {@link #smallerWin}. */
+    protected final int smallerWinMask = toMask(smallerWin, Boolean.TRUE);
+
+    /** Mask of {@link #adminImpliedRights}. */
+    protected final int adminImpliedMask = toMask(Arrays.asList(adminImpliedRights));
+
+    /** Mask of {@link #programImpliedRights}. */
+    protected final int programImpliedMask = toMask(Arrays.asList(programImpliedRights));
+
+    /** Masks of {@link #enabledRights}. */
+    protected final Map<EntityType, Integer> enabledRightsMask = new EnumMap(EntityType.class);
+
+    {
+        for (Map.Entry<EntityType, Iterable<Right>> e : enabledRights.entrySet()) {
+            enabledRightsMask.put(e.getKey(), toMask(e.getValue()));
+        }
+    }
+
+    /**
+     * Access levels accumulated as bit masks indexed by {@link
+     * Right#getValue()}.  A right is never in both masks.
+     */
+    protected static final class LevelMasks
+    {
+        /** The allowed rights. */
+        int allow;
+
+        /** The denied rights. */
+        int deny;
+
+        /**
+         * @param bit The mask of a single right.
+         * @return the state of the right.
+         */
+        RightState get(int bit)
+        {
+            if ((allow & bit) != 0) {
+                return ALLOW;
+            }
+            if ((deny & bit) != 0) {
+                return DENY;
+            }
+            return UNDETERMINED;
+        }
+
+        /**
+         * @param bit The mask of a single right.
+         * @param state The new state of the right.
+         */
+        void set(int bit, RightState state)
+        {
+            allow &= ~bit;
+            deny &= ~bit;
+            if (state == ALLOW) {
+                allow |= bit;
+            } else if (state == DENY) {
+                deny |= bit;
+            }
+        }
+
+        /**
+         * @param rights Mask of the rights to allow.
+         */
+        void allow(int rights)
+        {
+            allow |= rights;
+            deny &= ~rights;
+        }
+
+        /**
+         * @return the mask of the rights that are not determined.
+         */
+        int undetermined()
+        {
+            return ~(allow | deny);
+        }
+
+        /**
+         * @return these levels in the representation of {@link AccessLevel#getLevels()}.
+         */
+        int toLevels()
+        {
+            int levels = 0;
+            for (int bits = allow | deny; bits != 0; bits &= bits - 1) {
+                int value = Integer.numberOfTrailingZeros(bits);
+                levels |= ((allow & (1 << value)) != 0 ? ALLOW : DENY).getValue() << (2 * value);
+            }
+            return levels;
+        }
+    }
+
+    /**
+     * A user and its groups, identified by the identifiers of the
+     * wiki whose rights objects are being matched.
+     */
+    protected static final class Principals
+    {
+        /** The user. */
+        final DocumentReference user;
+
+        /** The groups, in the order they were given. */
+        final List<DocumentReference> groups;
+
+        /** The identifiers that {@link #userId} and {@link #groupIds} were looked up in. */
+        private PrincipalIds ids;
+
+        /** The identifier of the user. */
+        int userId;
+
+        /** The identifiers of the groups, in the same order as the groups. */
+        int[] groupIds;
+
+        /**
+         * @param user The user identity.
+         * @param groups The groups where the user is a member.
+         */
+        Principals(DocumentReference user, Collection<DocumentReference> groups)
+        {
+            this.user = user;
+            this.groups = new ArrayList<DocumentReference>(groups);
+            this.groupIds = new int[this.groups.size()];
+        }
+
+        /**
+         * Match the user and its groups against the rights objects
+         * of a level.  The identifiers are looked up again only when
+         * the level belongs to another wiki than the previous one,
+         * which happens once when resolving rights in a virtual
+         * wiki, and no identifier is ever assigned.
+         * @param index The rights objects of a level.
+         * @return the positions of the objects that apply to the
+         * user or any of its groups, or {@code null} if there are none.
+         */
+        BitSet match(RightsObjectIndex index)
+        {
+            if (index.isEmpty()) {
+                return null;
+            }
+            if (index.getPrincipalIds() != ids) {
+                ids = index.getPrincipalIds();
+                userId = ids.findUserId(user);
+                int i = 0;
+                for (DocumentReference group : groups) {
+                    groupIds[i++] = ids.findGroupId(group);
+                }
+            }
+            return index.match(userId, groupIds);
+        }
+    }
+
+    /**
+     * @param right A right.
+     * @return The mask of the right.
+     */
+    protected static int mask(Right right)
+    {
+        return 1 << right.getValue();
+    }
+
+    /**
+     * @param rights Some rights.
+     * @return The mask of the rights.
+     */
+    private static int toMask(Iterable<Right> rights)
+    {
+        int mask = 0;
+        for (Right right : rights) {
+            mask |= mask(right);
+        }
+        return mask;
+    }
+
+    /**
+     * @param <T> The type of the values.
+     * @param map A map from rights.
+     * @param value A value.
+     * @return The mask of the rights that are mapped to the value.
+     */
+    private static <T> int toMask(Map<Right, T> map, T value)
+    {
+        int mask = 0;
+        for (Map.Entry<Right, T> e : map.entrySet()) {
+            if (value.equals(e.getValue())) {
+                mask |= mask(e.getKey());
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * @param accessLevel An access level.
+     * @param state A state.
+     * @return The mask of the rights that are in the state.
+     */
+    private static int toMask(AccessLevel accessLevel, RightState state)
+    {
+        int mask = 0;
+        for (Right right : Right.values()) {
+            if (accessLevel.get(right) == state) {
+                mask |= mask(right);
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * @param ref The entity reference that specifies a level in the document hierarchy.
+     * @return The mask of the rights that are enabled at the level.
+     * The PROGRAM right is only enabled on the main wiki.
+     */
+    protected int getEnabledRights(EntityReference ref)
+    {
+        int enabled = enabledRightsMask.get(ref.getType());
+        if (ref.getParent() != null) {
+            enabled &= ~mask(PROGRAM);
+        }
+        return enabled;
+    }
+
+    /**
+     * Merge the current levels with the result from previous ones.
+     * @param currentLevel The access level computed at the current level in the document hierarchy.
+     * @param accessLevel The resulting access levels previously computed.
+     * @param enabled The rights enabled at the current level.
+     */
+    protected void mergeLevels(LevelMasks currentLevel, LevelMasks accessLevel, int enabled)
+    {
+        int undetermined = enabled & accessLevel.undetermined();
+        int override = enabled & ~undetermined & currentLevel.allow & ~smallerWinMask;
+        accessLevel.allow |= (currentLevel.allow & undetermined) | override;
+        accessLevel.deny = (accessLevel.deny | (currentLevel.deny & undetermined)) & ~override;
+    }
+
+    /**
+     * Allow the rights implied by the program or admin rights.
+     * @param accessLevel The accumulated result.
+     */
+    protected void allowImpliedRights(LevelMasks accessLevel)
+    {
+        if ((accessLevel.allow & mask(PROGRAM)) != 0) {
+            accessLevel.allow(programImpliedMask);
+        } else if ((accessLevel.allow & mask(ADMIN)) != 0) {
+            accessLevel.allow(adminImpliedMask);
+        }
+    }
+
     /**
      * Check if the user is the super admin.
      *
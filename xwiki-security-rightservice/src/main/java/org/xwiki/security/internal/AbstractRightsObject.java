@@ -78,6 +78,9 @@ public abstract class AbstractRightsObject implements RightsObject
     /** The state specified by this object. */
     private final RightState state;
 
+    /** The rights, as a bit mask indexed by {@link Right#getValue()}. */
+    private int rightsMask;
+
     /**
      * Construct a more manageable java object from the corresponding
      * xwiki object.
@@ -112,6 +115,8 @@ protected AbstractRightsObject(BaseObject obj, DocumentReferenceResolver resolve
             DocumentReference ref = resolver.resolve(group, wikiName);
             this.groups.add(ref);
         }
+
+        compile();
     }
 
     /** 
@@ -130,6 +135,44 @@ protected AbstractRightsObject(Set<Right> rights,
         this.groups = groups;
         this.rights = rights;
         this.state = state;
+
+        compile();
+    }
+
+    /**
+     * Compute the compact form of this object, which is used by the
+     * right resolvers.  The users and groups are indexed separately,
+     * see {@link RightsObjectIndex}.
+     */
+    private void compile()
+    {
+        for (Right right : rights) {
+            rightsMask |= 1 << right.getValue();
+        }
+    }
+
+    /**
+     * @return The rights of this object, as a bit mask indexed by {@link Right#getValue()}.
+     */
+    int getRightsMask()
+    {
+        return rightsMask;
+    }
+
+    /**
+     * @return The users this object applies to.
+     */
+    Set<DocumentReference> getUsers()
+    {
+        return users;
+    }
+
+    /**
+     * @return The groups this object applies to.
+     */
+    Set<DocumentReference> getGroups()
+    {
+        return groups;
     }
 
     /**
@@ -0,0 +1,409 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.xwiki.security.internal;
+
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.EntityType;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Initializable;
+
+import org.xwiki.security.RightCacheEntry;
+import org.xwiki.security.RightCacheKey;
+import org.xwiki.security.ParentEntryEvictedException;
+import org.xwiki.security.ConflictingInsertionException;
+import org.xwiki.security.RightServiceMetrics.EntryCategory;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A right cache implementation that never blocks readers.
+ *
+ * The entity entries are kept in a concurrent map keyed by the
+ * interned right cache keys, and the user at entity entries are kept
+ * in a concurrent map of their entity entry, keyed by the user key.
+ * A lookup is therefore one or two hash lookups, without locking
+ * and without allocating any objects.
+ *
+ * Insertions are serialized per subtree: the insertions below a
+ * given space (or wiki, for wiki level entries) share a lock stripe,
+ * while insertions in unrelated subtrees proceed in parallel.
+ * Removals are lock-free; a removed node is flagged before its
+ * children are visited, and an insertion re-checks the flags of its
+ * parents after linking itself, so an entry can never survive the
+ * removal of one of its parents.
+ *
+ * The number of entries is bounded by the configured capacity.
+ * Since reads are not recorded, entries are evicted in insertion
+ * order rather than in least recently used order.  Only the entries
+ * which have not been removed count towards the capacity, and the
+ * removed entries are purged from the insertion order once they
+ * outnumber the capacity.
+ *
+ * @version $Id$
+ */
+@Component("concurrent")
+public class ConcurrentRightCache extends AbstractRightCache implements Initializable
+{
+    /** Updater for the removed flag of the nodes. */
+    private static final AtomicIntegerFieldUpdater<Node> REMOVED
+        = AtomicIntegerFieldUpdater.newUpdater(Node.class, "removed");
+
+    /** The entity entries. */
+    private final ConcurrentMap<InternedRightCacheKey, Node> nodes
+        = new ConcurrentHashMap<InternedRightCacheKey, Node>();
+
+    /** The nodes in insertion order, for bounding the number of entries. */
+    private final ConcurrentLinkedQueue<Node> insertionOrder = new ConcurrentLinkedQueue<Node>();
+
+    /** The number of nodes in the insertion order queue, including the removed ones not yet drained. */
+    private final AtomicInteger queued = new AtomicInteger();
+
+    /** The number of nodes which have not been removed. */
+    private final AtomicInteger size = new AtomicInteger();
+
+    /** Serializes the draining of the insertion order queue. */
+    private final Lock evictionLock = new ReentrantLock();
+
+    /** The maximum number of entries. */
+    private int capacity;
+
+    /** Lock stripes for serializing insertions within a subtree. */
+    private Lock[] stripes;
+
+    @Override
+    public void initialize()
+    {
+        stripes = new Lock[configuration.getConcurrencyLevel()];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+        capacity = configuration.getCapacity();
+        configuration = null;
+    }
+
+    @Override
+    public void addUserAtEntity(RightCacheKey user, RightCacheKey entity, RightCacheEntry entry)
+        throws ParentEntryEvictedException, ConflictingInsertionException
+    {
+        RightCacheKey[] parents = {user, entity };
+        addEntry(intern(user), intern(entity), parents, entry);
+    }
+
+    @Override
+    public void addWithExplicitParent(RightCacheKey entity, RightCacheKey parent, RightCacheEntry entry)
+        throws ParentEntryEvictedException, ConflictingInsertionException
+    {
+        RightCacheKey[] parents = parent != null ? new RightCacheKey[] {parent } : new RightCacheKey[0];
+        addEntry(null, intern(entity), parents, entry);
+    }
+
+    @Override
+    public void addWithMultipleParents(RightCacheKey entity, Iterable<RightCacheKey> parents, RightCacheEntry entry)
+        throws ParentEntryEvictedException, ConflictingInsertionException
+    {
+        List<RightCacheKey> parentList = new ArrayList<RightCacheKey>();
+        for (RightCacheKey parent : parents) {
+            parentList.add(parent);
+        }
+        addEntry(null, intern(entity), parentList.toArray(new RightCacheKey[parentList.size()]), entry);
+    }
+
+    @Override
+    public void add(RightCacheKey entity, RightCacheEntry entry)
+        throws ParentEntryEvictedException, ConflictingInsertionException
+    {
+        RightCacheKey parent = getParentKey(entity);
+        RightCacheKey[] parents = parent != null ? new RightCacheKey[] {parent } : new RightCacheKey[0];
+        addEntry(null, intern(entity), parents, entry);
+    }
+
+    /**
+     * Add an entry to this cache.
+     * @param user The user, for user at entity entries, otherwise {@code null}.
+     * @param entity The entity which is the object of this cache entry.
+     * @param parentKeys The keys of the parent entity entries.
+     * @param entry The entry to insert.
+     * @throws ParentEntryEvictedException when the parent entry of
+     * this entry was evicted before this insertion.  Since all
+     * entries, except wiki-entries, must have a parent cached, the
+     * {@link RightsLoader} must restart its load attempt.
+     * @throws ConflictingInsertionException when another thread have
+     * inserted this entry, but with a different content.
+     */
+    private void addEntry(InternedRightCacheKey user, InternedRightCacheKey entity, RightCacheKey[] parentKeys,
+                          RightCacheEntry entry)
+        throws ParentEntryEvictedException, ConflictingInsertionException
+    {
+        Lock lock = getStripe(entity.getEntityReference());
+        lock.lock();
+        try {
+            Node old = getNode(user, entity);
+            if (old != null) {
+                if (old.entry.equals(entry)) {
+                    // Another thread have already inserted this entry.
+                    return;
+                } else {
+                    // Another thread have inserted an entry which is
+                    // different from this entry!
+                    throw new ConflictingInsertionException();
+                }
+            }
+
+            Node[] parents = new Node[parentKeys.length];
+            for (int i = 0; i < parentKeys.length; i++) {
+                parents[i] = getNode(null, intern(parentKeys[i]));
+                if (parents[i] == null) {
+                    getLogger().debug("Parent entry was evicted.  Throwing exception.");
+                    throw new ParentEntryEvictedException();
+                }
+            }
+
+            Node node;
+            // Counted before being linked, so that a concurrent removal always finds it counted.
+            size.incrementAndGet();
+            if (user == null) {
+                node = new Node(null, entity, entry, parents);
+                linkChild(parents, node);
+                nodes.put(entity, node);
+            } else {
+                // The entity entry is the last parent.
+                Node owner = parents[parents.length - 1];
+                node = new Node(user, entity, entry, parents);
+                linkChild(parents, node);
+                owner.userEntries.put(user, node);
+            }
+
+            // A parent may have been removed concurrently, after we
+            // looked it up but before we were linked as its child.
+            for (Node parent : parents) {
+                if (parent.removed != 0) {
+                    invalidate(node);
+                    getLogger().debug("Parent entry was evicted during insertion.  Throwing exception.");
+                    throw new ParentEntryEvictedException();
+                }
+            }
+
+            insertionOrder.offer(node);
+            queued.incrementAndGet();
+        } finally {
+            lock.unlock();
+        }
+
+        evict();
+    }
+
+    /**
+     * @param parents The parent nodes.
+     * @param child The child node to add to the parents.
+     */
+    private void linkChild(Node[] parents, Node child)
+    {
+        for (Node parent : parents) {
+            parent.children.add(child);
+        }
+    }
+
+    /**
+     * Evict the oldest entries until the capacity is respected, and
+     * purge the removed entries from the insertion order when they
+     * outnumber the capacity.  If another thread is already evicting,
+     * it will take this insertion into account.
+     */
+    private void evict()
+    {
+        if (size.get() <= capacity && queued.get() <= 2 * capacity) {
+            return;
+        }
+        if (!evictionLock.tryLock()) {
+            return;
+        }
+        try {
+            while (size.get() > capacity) {
+                Node node = insertionOrder.poll();
+                if (node == null) {
+                    break;
+                }
+                queued.decrementAndGet();
+                invalidate(node);
+            }
+            if (queued.get() > 2 * capacity) {
+                for (Iterator<Node> it = insertionOrder.iterator(); it.hasNext();) {
+                    if (it.next().removed != 0) {
+                        it.remove();
+                        queued.decrementAndGet();
+                    }
+                }
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    @Override
+    public RightCacheEntry get(RightCacheKey entity)
+    {
+        Node node = getNode(null, intern(entity));
+        return lookedUp(EntryCategory.ENTITY, node != null ? node.entry : null);
+    }
+
+    @Override
+    public RightCacheEntry get(RightCacheKey user, RightCacheKey entity)
+    {
+        Node node = getNode(intern(user), intern(entity));
+        return lookedUp(EntryCategory.USER_AT_ENTITY, node != null ? node.entry : null);
+    }
+
+    /**
+     * @param user The user, for user at entity entries, otherwise {@code null}.
+     * @param entity The entity.
+     * @return The node, if cached and not removed, otherwise {@code null}.
+     */
+    private Node getNode(InternedRightCacheKey user, InternedRightCacheKey entity)
+    {
+        Node node = nodes.get(entity);
+        if (node != null && user != null) {
+            node = node.userEntries.get(user);
+        }
+        return node != null && node.removed == 0 ? node : null;
+    }
+
+    @Override
+    public void remove(RightCacheKey user, RightCacheKey entity)
+    {
+        Node node = getNode(intern(user), intern(entity));
+        if (node != null) {
+            invalidate(node);
+        }
+    }
+
+    @Override
+    public void remove(RightCacheKey entity)
+    {
+        Node node = getNode(null, intern(entity));
+        if (node != null) {
+            invalidate(node);
+        }
+    }
+
+    /**
+     * Remove a node and, recursively, all of its children.
+     * @param node The node to remove.
+     */
+    private void invalidate(Node node)
+    {
+        // Flag the node before visiting the children, see addEntry.
+        if (!REMOVED.compareAndSet(node, 0, 1)) {
+            return;
+        }
+        size.decrementAndGet();
+        metrics.recordEviction(node.user == null ? EntryCategory.ENTITY : EntryCategory.USER_AT_ENTITY);
+        if (node.user == null) {
+            nodes.remove(node.entity, node);
+        } else {
+            node.parents[node.parents.length - 1].userEntries.remove(node.user, node);
+        }
+        for (Node parent : node.parents) {
+            parent.children.remove(node);
+        }
+        for (Node child : node.children) {
+            invalidate(child);
+        }
+    }
+
+    /**
+     * The lock stripe of an entity is determined by the first space
+     * in its hierarchy, or by its wiki, if it is a wiki entity.
+     * @param entity An entity, as represented in the cache hierarchy.
+     * @return The lock stripe for the subtree of the entity.
+     */
+    private Lock getStripe(EntityReference entity)
+    {
+        EntityReference subtree = entity.getRoot();
+        int hash = 0;
+        for (EntityReference ref = subtree; ref != null; ref = ref.getChild()) {
+            hash = 31 * hash + ref.getName().hashCode();
+            if (ref.getType() == EntityType.SPACE) {
+                break;
+            }
+        }
+        // Spread the bits, as the names are usually short.
+        hash ^= (hash >>> 20) ^ (hash >>> 12);
+        hash ^= (hash >>> 7) ^ (hash >>> 4);
+        return stripes[(hash & Integer.MAX_VALUE) % stripes.length];
+    }
+
+    /**
+     * Represent nodes in the parent-child relationship datastructure.
+     */
+    private static final class Node
+    {
+        /** The user, for user at entity entries, otherwise {@code null}. */
+        private final InternedRightCacheKey user;
+
+        /** The entity of this entry. */
+        private final InternedRightCacheKey entity;
+
+        /** The cached entry. */
+        private final RightCacheEntry entry;
+
+        /** The parent entries.  For user at entity entries, the entity entry is the last one. */
+        private final Node[] parents;
+
+        /** The child entries. */
+        private final Set<Node> children
+            = Collections.newSetFromMap(new ConcurrentHashMap<Node, Boolean>(4, 0.75f, 1));
+
+        /** The user at entity entries of this entity entry, by user. */
+        private final ConcurrentMap<InternedRightCacheKey, Node> userEntries;
+
+        /** Non-zero when this node has been removed from the cache. */
+        private volatile int removed;
+
+        /**
+         * @param user The user, for user at entity entries, otherwise {@code null}.
+         * @param entity The entity of this entry.
+         * @param entry The cached entry.
+         * @param parents The parent entries.
+         */
+        Node(InternedRightCacheKey user, InternedRightCacheKey entity, RightCacheEntry entry, Node[] parents)
+        {
+            this.user = user;
+            this.entity = entity;
+            this.entry = entry;
+            this.parents = parents;
+            this.userEntries = user == null
+                ? new ConcurrentHashMap<InternedRightCacheKey, Node>(4, 0.75f, 1)
+                : null;
+        }
+    }
+}
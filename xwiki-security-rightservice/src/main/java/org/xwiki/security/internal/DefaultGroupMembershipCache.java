@@ -0,0 +1,359 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.xwiki.security.internal;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.annotation.Requirement;
+import org.xwiki.component.logging.AbstractLogEnabled;
+
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+
+import org.xwiki.security.RightServiceException;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Default group membership cache.
+ *
+ * The direct memberships of each wiki form a graph, which is loaded
+ * from the group documents of the wiki the first time a member of the
+ * wiki is looked up.  The transitive groups of the members that have
+ * been looked up are computed from the graphs of the wiki of the
+ * member and of the main wiki, and kept as the closure index of the
+ * wiki of the member.  When a group document is saved, the edges of
+ * the group are replaced by those of the saved document, and the
+ * transitive groups of its members, direct or indirect, before and
+ * after the change are computed again.  The group service is
+ * therefore never asked about the groups of a single member.
+ *
+ * Lookups are done by the right loader, and updates by the worker
+ * of the right cache invalidator, and they do run concurrently.  A
+ * lookup that read the transitive groups of a member just before an
+ * update may return the groups from before the update, but the loader
+ * discards such an answer, since the invalidator starts a new epoch
+ * before updating the cache.  The graphs are loaded, modified and
+ * traversed while synchronized on the cache, so a group document
+ * saved while the graph of its wiki is being loaded is applied after
+ * the load.
+ *
+ * @version $Id$
+ */
+@Component
+public class DefaultGroupMembershipCache extends AbstractLogEnabled implements GroupMembershipCache
+{
+    /** Name of the field holding the member name in group objects. */
+    private static final String MEMBER_FIELD = "member";
+
+    /** Resolver for user and group names. */
+    @Requirement("user") private DocumentReferenceResolver<String> resolver;
+
+    /** The membership graph of each wiki that has been loaded, keyed by the name of the wiki. */
+    private final ConcurrentMap<String, MembershipGraph> graphs = new ConcurrentHashMap<String, MembershipGraph>();
+
+    /** The name of the main wiki, known once a member has been looked up. */
+    private volatile String mainWiki;
+
+    /**
+     * The direct memberships recorded by the group documents of a
+     * wiki, together with the transitive groups of the members of the
+     * wiki that have been looked up.  The edges are only accessed
+     * while synchronized on the cache.
+     */
+    private static final class MembershipGraph
+    {
+        /** The groups of the wiki that each user or group is a direct member of. */
+        private final ConcurrentMap<DocumentReference, Set<DocumentReference>> groupsOfMember
+            = new ConcurrentHashMap<DocumentReference, Set<DocumentReference>>();
+
+        /** The direct members of each group of the wiki that has members. */
+        private final ConcurrentMap<DocumentReference, Set<DocumentReference>> membersOfGroup
+            = new ConcurrentHashMap<DocumentReference, Set<DocumentReference>>();
+
+        /** The transitive groups of the members of the wiki that have been looked up. */
+        private final ConcurrentMap<DocumentReference, Collection<DocumentReference>> closure
+            = new ConcurrentHashMap<DocumentReference, Collection<DocumentReference>>();
+
+        /**
+         * @param group A group of the wiki.
+         * @param member A direct member of the group.
+         */
+        void addMember(DocumentReference group, DocumentReference member)
+        {
+            add(membersOfGroup, group, member);
+            add(groupsOfMember, member, group);
+        }
+
+        /**
+         * @param group A group of the wiki.
+         * @param member A former direct member of the group.
+         */
+        void removeMember(DocumentReference group, DocumentReference member)
+        {
+            remove(membersOfGroup, group, member);
+            remove(groupsOfMember, member, group);
+        }
+
+        /**
+         * @param group A document of the wiki.
+         * @return The direct members of the group.
+         */
+        Set<DocumentReference> getMembers(DocumentReference group)
+        {
+            Set<DocumentReference> members = membersOfGroup.get(group);
+            return members == null ? Collections.<DocumentReference>emptySet() : members;
+        }
+
+        /**
+         * @param member A user or group.
+         * @return The groups of the wiki that the member is a direct member of.
+         */
+        Set<DocumentReference> getGroups(DocumentReference member)
+        {
+            Set<DocumentReference> groups = groupsOfMember.get(member);
+            return groups == null ? Collections.<DocumentReference>emptySet() : groups;
+        }
+
+        /**
+         * @param edges The edges from each node.
+         * @param from The source of the edge to add.
+         * @param to The target of the edge to add.
+         */
+        private static void add(ConcurrentMap<DocumentReference, Set<DocumentReference>> edges,
+                                DocumentReference from, DocumentReference to)
+        {
+            Set<DocumentReference> targets = edges.get(from);
+            if (targets == null) {
+                targets = new LinkedHashSet<DocumentReference>();
+                edges.put(from, targets);
+            }
+            targets.add(to);
+        }
+
+        /**
+         * @param edges The edges from each node.
+         * @param from The source of the edge to remove.
+         * @param to The target of the edge to remove.
+         */
+        private static void remove(ConcurrentMap<DocumentReference, Set<DocumentReference>> edges,
+                                   DocumentReference from, DocumentReference to)
+        {
+            Set<DocumentReference> targets = edges.get(from);
+            if (targets != null) {
+                targets.remove(to);
+                if (targets.isEmpty()) {
+                    edges.remove(from);
+                }
+            }
+        }
+    }
+
+    @Override
+    public Collection<DocumentReference> getGroupsForMember(DocumentReference member)
+        throws RightServiceException
+    {
+        MembershipGraph graph = getGraph(member.getWikiReference().getName());
+        Collection<DocumentReference> groups = graph.closure.get(member);
+        if (groups != null) {
+            return groups;
+        }
+
+        if (mainWiki == null) {
+            mainWiki = XWikiUtils.getMainWiki();
+        }
+        getGraph(mainWiki);
+        synchronized (this) {
+            groups = graph.closure.get(member);
+            if (groups == null) {
+                groups = computeGroups(member);
+                graph.closure.put(member, groups);
+            }
+        }
+        return groups;
+    }
+
+    @Override
+    public boolean isCachedGroup(DocumentReference document)
+    {
+        MembershipGraph graph = graphs.get(document.getWikiReference().getName());
+        return graph != null && graph.membersOfGroup.containsKey(document);
+    }
+
+    @Override
+    public synchronized Collection<DocumentReference> groupUpdated(DocumentReference group, XWikiDocument document)
+    {
+        MembershipGraph graph = graphs.get(group.getWikiReference().getName());
+        if (graph == null) {
+            // No member has been looked up in a graph holding this group.
+            return Collections.emptySet();
+        }
+
+        /*
+         * The former members lose the group, and the new members
+         * gain it, along with their own members in both cases.
+         */
+        Set<DocumentReference> affected = new LinkedHashSet<DocumentReference>();
+        affected.add(group);
+        collectMembers(group, affected);
+
+        Collection<DocumentReference> members = getDirectMembers(group, document);
+        for (DocumentReference formerMember : new ArrayList<DocumentReference>(graph.getMembers(group))) {
+            if (!members.contains(formerMember)) {
+                graph.removeMember(group, formerMember);
+            }
+        }
+        for (DocumentReference member : members) {
+            graph.addMember(group, member);
+        }
+        collectMembers(group, affected);
+        affected.remove(group);
+
+        for (DocumentReference member : affected) {
+            MembershipGraph memberGraph = graphs.get(member.getWikiReference().getName());
+            if (memberGraph != null && memberGraph.closure.containsKey(member)) {
+                memberGraph.closure.put(member, computeGroups(member));
+            }
+        }
+        return affected;
+    }
+
+    /**
+     * @param wikiName The name of a wiki.
+     * @return The membership graph of the wiki, which is loaded if
+     * needed.
+     * @throws RightServiceException on error.
+     */
+    private MembershipGraph getGraph(String wikiName) throws RightServiceException
+    {
+        MembershipGraph graph = graphs.get(wikiName);
+        if (graph != null) {
+            return graph;
+        }
+        synchronized (this) {
+            graph = graphs.get(wikiName);
+            if (graph == null) {
+                graph = new MembershipGraph();
+                for (XWikiDocument document : XWikiUtils.getGroupDocuments(wikiName)) {
+                    DocumentReference group = document.getDocumentReference();
+                    for (DocumentReference member : getDirectMembers(group, document)) {
+                        graph.addMember(group, member);
+                    }
+                }
+                graphs.put(wikiName, graph);
+            }
+        }
+        return graph;
+    }
+
+    /**
+     * Compute the transitive groups of a member from the graphs of
+     * the wiki of the member and of the main wiki.  Must be called
+     * while synchronized on the cache.
+     * @param member A user or group.
+     * @return The groups of the member, direct ones first.
+     */
+    private Collection<DocumentReference> computeGroups(DocumentReference member)
+    {
+        Set<DocumentReference> groups = new LinkedHashSet<DocumentReference>();
+        List<DocumentReference> toVisit = new ArrayList<DocumentReference>();
+        toVisit.add(member);
+        for (int i = 0; i < toVisit.size(); i++) {
+            DocumentReference node = toVisit.get(i);
+            for (String wikiName : new String[] {node.getWikiReference().getName(), mainWiki}) {
+                MembershipGraph graph = graphs.get(wikiName);
+                if (graph == null) {
+                    continue;
+                }
+                for (DocumentReference group : graph.getGroups(node)) {
+                    if (groups.add(group)) {
+                        toVisit.add(group);
+                    }
+                }
+            }
+        }
+        groups.remove(member);
+        return Collections.unmodifiableList(new ArrayList<DocumentReference>(groups));
+    }
+
+    /**
+     * Collect the members, direct or indirect, of a group.  Must be
+     * called while synchronized on the cache.
+     * @param group A group.
+     * @param members The members collected so far.
+     */
+    private void collectMembers(DocumentReference group, Set<DocumentReference> members)
+    {
+        MembershipGraph graph = graphs.get(group.getWikiReference().getName());
+        if (graph == null) {
+            return;
+        }
+        for (DocumentReference member : new ArrayList<DocumentReference>(graph.getMembers(group))) {
+            if (members.add(member)) {
+                collectMembers(member, members);
+            }
+        }
+    }
+
+    /**
+     * @param group Reference to the group document.
+     * @param document The group document, or {@code null} if it was
+     * deleted.
+     * @return The members listed in the group document.
+     */
+    private Collection<DocumentReference> getDirectMembers(DocumentReference group, XWikiDocument document)
+    {
+        Collection<DocumentReference> members = new LinkedHashSet<DocumentReference>();
+        if (document == null) {
+            return members;
+        }
+
+        /*
+         * The group members inherit the wiki from the group
+         * itself, unless the wiki name is explicitly given.
+         */
+        String wikiName = group.getWikiReference().getName();
+        DocumentReference groupClass = resolver.resolve(XWikiUtils.GROUP_CLASS, wikiName);
+        List<BaseObject> objects = document.getXObjects(groupClass);
+        if (objects == null) {
+            return members;
+        }
+        for (BaseObject object : objects) {
+            if (object == null) {
+                continue;
+            }
+            String member = object.getStringValue(MEMBER_FIELD);
+            if (member != null && member.length() > 0) {
+                members.add(resolver.resolve(member, wikiName));
+            }
+        }
+        return members;
+    }
+}
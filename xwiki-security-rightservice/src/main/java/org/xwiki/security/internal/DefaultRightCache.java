@@ -26,21 +26,14 @@
 import org.xwiki.cache.event.CacheEntryListener;
 import org.xwiki.cache.event.CacheEntryEvent;
 
-import org.xwiki.model.reference.EntityReference;
-import org.xwiki.model.EntityType;
-import org.xwiki.model.reference.EntityReferenceSerializer;
-
-import org.xwiki.component.annotation.Requirement;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.component.phase.Initializable;
-import org.xwiki.component.logging.AbstractLogEnabled;
 
-import org.xwiki.security.RightCache;
-import org.xwiki.security.RightCacheConfiguration;
 import org.xwiki.security.RightCacheEntry;
 import org.xwiki.security.RightCacheKey;
 import org.xwiki.security.ParentEntryEvictedException;
 import org.xwiki.security.ConflictingInsertionException;
+import org.xwiki.security.RightServiceMetrics.EntryCategory;
 
 import java.util.Map;
 import java.util.TreeMap;
@@ -56,17 +49,11 @@
  * @version $Id$
  */
 @Component
-public class DefaultRightCache extends AbstractLogEnabled implements RightCache, Initializable
+public class DefaultRightCache extends AbstractRightCache implements Initializable
 {
-    /** The keys in the cache are generated from instances of {@link EntityReference}. */
-    @Requirement("rightcachekey") private EntityReferenceSerializer<String> keySerializer;
-
     /** The cache instance. */
     private Cache<RightCacheEntry> cache;
 
-    /** Configuration object to acquire a configured cache instance. */
-    @Requirement private RightCacheConfiguration configuration;
-
     /**
      * The cache entries are arranged into a hierarchy.  This data
      * structure stores the parent-child relationships between
@@ -85,82 +72,6 @@ public void initialize()
         configuration = null;
     }
 
-    @Override
-    public RightCacheKey getRightCacheKey(EntityReference entity)
-    {
-        final EntityReference clone = entity.clone();
-        clone.setChild(null);
-        String mainWiki = XWikiUtils.getMainWiki();
-        EntityReference root = clone.getRoot();
-        assert (root.getType() == EntityType.WIKI);
-        if (!root.getName().equals(mainWiki)) {
-            EntityReference main = new EntityReference(mainWiki, EntityType.WIKI, null);
-            root.setParent(main);
-        }
-
-        return new RightCacheKey() {
-            private final EntityReference entity = clone;
-
-            @Override
-            public EntityReference getEntityReference()
-            {
-                return entity;
-            }
-        };
-    }
-
-    /**
-     * Generate a key for representing an entry containing a
-     * particular user's access level to an entity.
-     * @param user Entity representing a user name.
-     * @param entity The entity that is the object for this key.
-     * @return Key for the cache.
-     */
-    private String generateKey(EntityReference user, EntityReference entity)
-    {
-        // We prefix this category of entries with a unique prefix symbol.
-        return "1" + keySerializer.serialize(user) 
-             + ":" + keySerializer.serialize(entity);
-    }
-
-    /**
-     * Generate a key for representing an entry containging
-     * information on whether this entity is associated with any
-     * rights object.
-     * @param entity The entity that is the object for this key.
-     * @return Key for the cache.
-     */
-    private String generateKey(EntityReference entity)
-    {
-        // We prefix this category of entries with a unique prefix symbol.
-        return "2" + keySerializer.serialize(entity);
-    }
-
-    /**
-     * Generate a key for representing an entry containing a
-     * particular user's access level to an entity.
-     * @param user Entity representing a user name.
-     * @param entity The entity that is the object for this key.
-     * @return Key for the cache.
-     */
-    private String generateKey(RightCacheKey user, RightCacheKey entity)
-    {
-        return generateKey(user.getEntityReference(), entity.getEntityReference());
-    }
-
-    /**
-     * Generate a key for representing an entry containging
-     * information on whether this entity is associated with any
-     * rights object.
-     * @param entity The entity that is the object for this key.
-     * @return Key for the cache.
-     */
-    private String generateKey(RightCacheKey entity)
-    {
-        return generateKey(entity.getEntityReference());
-    }
-
-
     /**
      * Add an entry to this cache.
      * @param user Entity representing the user.
@@ -182,7 +93,7 @@ public void addUserAtEntity(RightCacheKey user, RightCacheKey entity, RightCache
         getLogger().debug("Adding user at entity: "
                           + user.getEntityReference() + ", "
                           + entity.getEntityReference());
-        addEntry(generateKey(user, entity), parents, entry);
+        addEntry(generateKey(user, entity), null, parents, entry);
     }
 
     /**
@@ -201,7 +112,7 @@ public void addWithExplicitParent(RightCacheKey entity, RightCacheKey parent, Ri
         throws ParentEntryEvictedException, ConflictingInsertionException
     {
         String parentKey = parent != null ? generateKey(parent) : null;
-        addEntry(generateKey(entity), parentKey, entry);
+        addEntry(generateKey(entity), entity, parentKey, entry);
     }
 
     /**
@@ -219,7 +130,7 @@ public void addWithExplicitParent(RightCacheKey entity, RightCacheKey parent, Ri
     public void addWithMultipleParents(RightCacheKey entity, Iterable<RightCacheKey> parents, RightCacheEntry entry)
         throws ParentEntryEvictedException, ConflictingInsertionException
     {
-        addEntry(generateKey(entity), parents, entry);
+        addEntry(generateKey(entity), entity, parents, entry);
     }
 
     /**
@@ -236,17 +147,16 @@ public void addWithMultipleParents(RightCacheKey entity, Iterable<RightCacheKey>
     public void add(RightCacheKey entity, RightCacheEntry entry)
         throws ParentEntryEvictedException, ConflictingInsertionException
     {
-        EntityReference parent = entity.getEntityReference().getParent();
-        if (parent != null) {
-            parent = getRightCacheKey(parent).getEntityReference();
-        }
+        RightCacheKey parent = getParentKey(entity);
         String parentKey = parent != null ? generateKey(parent) : null;
-        addEntry(generateKey(entity), parentKey, entry);
+        addEntry(generateKey(entity), entity, parentKey, entry);
     }
 
     /**
      * Add an entry to this cache.
      * @param key The key under which this entry will be stored.
+     * @param entity The entity of the entry, or {@code null} for user
+     * at entity entries.
      * @param parentObject An object representing the parent entry/entries.
      * @param entry The entry to insert.
      * @throws ParentEntryEvictedException when the parent entry of
@@ -256,7 +166,7 @@ public void add(RightCacheKey entity, RightCacheEntry entry)
      * @throws ConflictingInsertionException when another thread have
      * inserted this entry, but with a different content.
      */
-    private void addEntry(String key, Object parentObject, RightCacheEntry entry)
+    private void addEntry(String key, RightCacheKey entity, Object parentObject, RightCacheEntry entry)
         throws ParentEntryEvictedException, ConflictingInsertionException
     {
         readWriteLock.writeLock().lock();
@@ -272,7 +182,7 @@ private void addEntry(String key, Object parentObject, RightCacheEntry entry)
                     throw new ConflictingInsertionException();
                 }
             }
-            addParentRelation(parentObject, key);
+            addParentRelation(parentObject, key, entity);
             cache.set(key, entry);
         } finally {
             readWriteLock.writeLock().unlock();
@@ -284,7 +194,7 @@ public RightCacheEntry get(RightCacheKey entity)
     {
         readWriteLock.readLock().lock();
         try {
-            return cache.get(generateKey(entity));
+            return lookedUp(EntryCategory.ENTITY, cache.get(generateKey(entity)));
         } finally {
             readWriteLock.readLock().unlock();
         }
@@ -293,10 +203,12 @@ public RightCacheEntry get(RightCacheKey entity)
     @Override
     public RightCacheEntry get(RightCacheKey user, RightCacheKey entity)
     {
-        getLogger().debug("Getting " + user.getEntityReference() + " at " + entity.getEntityReference());
+        if (getLogger().isDebugEnabled()) {
+            getLogger().debug("Getting " + user.getEntityReference() + " at " + entity.getEntityReference());
+        }
         readWriteLock.readLock().lock();
         try {
-            return cache.get(generateKey(user, entity));
+            return lookedUp(EntryCategory.USER_AT_ENTITY, cache.get(generateKey(user, entity)));
         } finally {
             readWriteLock.readLock().unlock();
         }
@@ -340,22 +252,24 @@ private void removeEntryNoChildren(String key)
     {
         removeParentRelation(key);
         cache.remove(key);
+        parentRelations.remove(key);
     }
 
     /**
      * Add one or several parents to the given key.
      * @param parentObject Either a parent key, or a list of parent keys.
      * @param key The key.
+     * @param entity The entity of the entry, may be null.
      * @exception ParentEntryEvictedException if the parent entry is
      * not in the cache.
      */
-    private void addParentRelation(Object parentObject, String key)
+    private void addParentRelation(Object parentObject, String key, RightCacheKey entity)
         throws ParentEntryEvictedException
     {
         if (parentObject == null || parentObject instanceof String) {
-            addParentRelation((String) parentObject, key);
+            addParentRelation((String) parentObject, key, entity);
         } else if (parentObject instanceof Iterable) {
-            addParentRelation((Iterable<RightCacheKey>) parentObject, key);
+            addParentRelation((Iterable<RightCacheKey>) parentObject, key, entity);
         }
     }
 
@@ -363,12 +277,13 @@ private void addParentRelation(Object parentObject, String key)
      * Setup a parent-child relationship.
      * @param parentKey The key for the parent entry.
      * @param key The key for the child entry.
+     * @param entity The entity of the child entry, may be null.
      * @throws ParentEntryEvictedException when the parent entry of
      * this entry was evicted before this insertion.  Since all
      * entries, except wiki-entries, must have a parent cached, the
      * {@link RightsLoader} must restart its load attempt.
      */
-    private void addParentRelation(String parentKey, String key)
+    private void addParentRelation(String parentKey, String key, RightCacheKey entity)
         throws ParentEntryEvictedException
     {
         Parent parent;
@@ -382,7 +297,7 @@ private void addParentRelation(String parentKey, String key)
             }
             parent.addChild(key);
         } 
-        Node n = new Node(parent);
+        Node n = new Node(parent, entity);
         parentRelations.put(key, n);
     }
 
@@ -390,10 +305,11 @@ private void addParentRelation(String parentKey, String key)
      * Add multiple parent relations to the given key.
      * @param parentReferences List of parents.
      * @param key Key of the entry.
+     * @param entity The entity of the entry, may be null.
      * @exception ParentEntryEvictedException if the parent entry was
      * not in the cache.
      */
-    private void addParentRelation(Iterable<RightCacheKey> parentReferences, String key)
+    private void addParentRelation(Iterable<RightCacheKey> parentReferences, String key, RightCacheKey entity)
         throws ParentEntryEvictedException
     {
         List<Node> parents = new LinkedList();
@@ -407,7 +323,7 @@ private void addParentRelation(Iterable<RightCacheKey> parentReferences, String
         }
         Parent p = new MultiParent(parents);
         p.addChild(key);
-        Node n = new Node(p);
+        Node n = new Node(p, entity);
         parentRelations.put(key, n);
     }
 
@@ -504,14 +420,21 @@ private static class Node implements Parent
         private Set<String> children;
         /** The parent entry. */
         private final Parent parent;
+        /**
+         * The key of the entity of this entry.  Referencing it keeps
+         * the interned key, and thereby its id, alive for as long as
+         * the entry is cached.
+         */
+        private final RightCacheKey entity;
 
         /**
          * @param parent The parent entry, may be null.
+         * @param entity The key of the entity of this entry, may be null.
          */
-        Node(Parent parent)
+        Node(Parent parent, RightCacheKey entity)
         {
-            this.children = children;
             this.parent = parent;
+            this.entity = entity;
         }
 
         /** @return The set of children.  May be null. */
@@ -571,8 +494,10 @@ public void cacheEntryAdded(CacheEntryEvent<RightCacheEntry> event)
         public void cacheEntryRemoved(CacheEntryEvent<RightCacheEntry> event)
         {
             String key = event.getEntry().getKey();
+            metrics.recordEviction(key.indexOf(':') < 0 ? EntryCategory.ENTITY : EntryCategory.USER_AT_ENTITY);
             removeChildren(key);
             removeParentRelation(key);
+            parentRelations.remove(key);
             getLogger().debug("Cache entry removed: " + key);
         }
 
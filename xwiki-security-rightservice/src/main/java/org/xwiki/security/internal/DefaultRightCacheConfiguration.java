@@ -51,6 +51,30 @@ public class DefaultRightCacheConfiguration extends AbstractLogEnabled
     /** Prefix for the configuration property keys. */
     private static final String RIGHTCACHE_PREFIX = "security.rightcache.";
 
+    /** Default number of cache entries. */
+    private static final int DEFAULT_CAPACITY = 500;
+
+    /** Default number of lock stripes. */
+    private static final int DEFAULT_CONCURRENCY_LEVEL = 32;
+
+    /** Default number of preloading threads. */
+    private static final int DEFAULT_PRELOAD_THREADS = 2;
+
+    /** Default maximum time spent preloading, in milliseconds. */
+    private static final int DEFAULT_PRELOAD_TIME_BUDGET = 60000;
+
+    /** Default maximum memory allocated by preloading, in megabytes. */
+    private static final int DEFAULT_PRELOAD_MEMORY_BUDGET = 64;
+
+    /** Default number of saved user and space pairs. */
+    private static final int DEFAULT_HOT_KEYS_CAPACITY = 1000;
+
+    /** Default interval between saves of the user and space pairs, in seconds. */
+    private static final int DEFAULT_HOT_KEYS_SNAPSHOT_INTERVAL = 300;
+
+    /** Bytes per megabyte. */
+    private static final long MEGABYTE = 1024 * 1024;
+
     /** Obtain configuration from the xwiki.properties file. */
     @Requirement("xwikiproperties")
     private ConfigurationSource configuration;
@@ -69,6 +93,24 @@ private String getRightCacheProperty(String name, String defaultValue)
         return configuration.getProperty(RIGHTCACHE_PREFIX + name, defaultValue);
     }
 
+    /**
+     * @param name Name of the property.
+     * @param defaultValue A default value to use if none could be
+     * found in the configuration, or if the configured value is not
+     * a number.
+     * @return a configured integer property, or the given default value.
+     */
+    private int getRightCacheIntProperty(String name, Integer defaultValue)
+    {
+        String valueString = getRightCacheProperty(name, defaultValue.toString());
+        try {
+            return Integer.parseInt(valueString);
+        } catch (NumberFormatException e) {
+            getLogger().warn("Invalid value for " + RIGHTCACHE_PREFIX + name + ": '" + valueString + "'");
+            return defaultValue;
+        }
+    }
+
     @Override
     public Cache<RightCacheEntry> getCache()
     {
@@ -76,14 +118,7 @@ public Cache<RightCacheEntry> getCache()
         CacheConfiguration cacheConfig = new CacheConfiguration();
         cacheConfig.setConfigurationId("xwiki.security.rightcache");
         LRUEvictionConfiguration lru = new LRUEvictionConfiguration();
-        Integer defaultCapacity = 500;
-        String capacityString = getRightCacheProperty("capacity", defaultCapacity.toString());
-        int capacity;
-        try {
-            capacity = Integer.parseInt(capacityString);
-        } catch (NumberFormatException e) {
-            capacity = defaultCapacity;
-        }
+        int capacity = getCapacity();
         lru.setMaxEntries(capacity);
         cacheConfig.put(EntryEvictionConfiguration.CONFIGURATIONID, lru);
         try {
@@ -100,4 +135,66 @@ public Cache<RightCacheEntry> getCache()
 
         return cache;
     }
-}
\ No newline at end of file
+
+    @Override
+    public int getCapacity()
+    {
+        return getRightCacheIntProperty("capacity", DEFAULT_CAPACITY);
+    }
+
+    @Override
+    public String getRightCacheHint()
+    {
+        return getRightCacheProperty("type", "default");
+    }
+
+    @Override
+    public int getConcurrencyLevel()
+    {
+        int level = getRightCacheIntProperty("concurrencyLevel", DEFAULT_CONCURRENCY_LEVEL);
+        return level > 0 ? level : DEFAULT_CONCURRENCY_LEVEL;
+    }
+
+    @Override
+    public boolean isPreloadEnabled()
+    {
+        return Boolean.parseBoolean(getRightCacheProperty("preload.enabled", "false"));
+    }
+
+    @Override
+    public int getPreloadThreads()
+    {
+        return Math.max(1, getRightCacheIntProperty("preload.threads", DEFAULT_PRELOAD_THREADS));
+    }
+
+    @Override
+    public long getPreloadTimeBudget()
+    {
+        return getRightCacheIntProperty("preload.timeBudget", DEFAULT_PRELOAD_TIME_BUDGET);
+    }
+
+    @Override
+    public long getPreloadMemoryBudget()
+    {
+        return getRightCacheIntProperty("preload.memoryBudget", DEFAULT_PRELOAD_MEMORY_BUDGET) * MEGABYTE;
+    }
+
+    @Override
+    public String getHotKeysFile()
+    {
+        String file = getRightCacheProperty("hotKeys.file", "");
+        return file.length() == 0 ? null : file;
+    }
+
+    @Override
+    public int getHotKeysCapacity()
+    {
+        return getRightCacheIntProperty("hotKeys.capacity", DEFAULT_HOT_KEYS_CAPACITY);
+    }
+
+    @Override
+    public int getHotKeysSnapshotInterval()
+    {
+        return getRightCacheIntProperty("hotKeys.snapshotInterval", DEFAULT_HOT_KEYS_SNAPSHOT_INTERVAL);
+    }
+}
@@ -24,41 +24,174 @@
 
 import org.xwiki.security.RightCache;
 import org.xwiki.security.RightCacheKey;
-import org.xwiki.security.RightServiceException;
 
 import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReference;
 
 import org.xwiki.observation.EventListener;
 import org.xwiki.observation.event.Event;
 import org.xwiki.bridge.event.DocumentDeletedEvent;
 import org.xwiki.bridge.event.DocumentUpdatedEvent;
 
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.xwiki.component.annotation.Component;
 import org.xwiki.component.annotation.Requirement;
 import org.xwiki.component.logging.AbstractLogEnabled;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
 
 /**
  * The instance of this class monitors updates and invalidates right
  * cache entries whenever necessary.
+ *
+ * Invalidations are not applied on the thread that saves the
+ * document.  The update events are queued and coalesced per
+ * invalidated entity, so that a burst of saves to the same document
+ * results in a single eviction, and are applied in batches by a
+ * background worker.  Updates of documents in a space or wiki whose
+ * invalidation is pending are absorbed by it, since removing the
+ * entry of the space or wiki removes the entries below it.  Loaders
+ * do not block on the worker; instead they compare the invalidation
+ * epoch before and after a load and retry if a batch was applied
+ * meanwhile.
  * @version $Id$
  */
 @Component
-public class DefaultRightCacheInvalidator extends AbstractLogEnabled implements RightCacheInvalidator, EventListener
+public class DefaultRightCacheInvalidator extends AbstractLogEnabled
+    implements RightCacheInvalidator, EventListener, Initializable, Disposable
 {
     /** The right cache. */
     @Requirement private RightCache rightCache;
 
+    /** The group membership cache. */
+    @Requirement private GroupMembershipCache groupMembershipCache;
+
+    /** Execution, for setting up the context of the worker. */
+    @Requirement private Execution execution;
+
+    /**
+     * The context from which the worker creates the context of each
+     * batch, created from the context of the first event.  It is
+     * never used directly, so the state left by a batch does not leak
+     * into the next one.
+     */
+    private volatile XWikiContext backgroundContext;
+
+    /** The worker applying the invalidations. */
+    private Thread worker;
+
     /**
-     * We use a fair read-write lock to suspend the delivery of
-     * document update events while there are loads in progress.
+     * The fair read-write lock is held for writing while a batch of
+     * invalidations is applied.  Loaders that fail to complete
+     * within the epoch take the read lock to exclude the worker.
      */
     private final ReadWriteLock readWriteLock = new ReentrantReadWriteLock(true);
 
+    /**
+     * The pending invalidations, keyed by the entity whose entry is
+     * to be removed: the wiki for the wiki preferences, the space for
+     * the space preferences and the document otherwise.
+     */
+    private final ConcurrentMap<EntityReference, Invalidation> pending
+        = new ConcurrentHashMap<EntityReference, Invalidation>();
+
+    /** The entities with a pending invalidation, in arrival order. */
+    private final BlockingQueue<EntityReference> queue = new LinkedBlockingQueue<EntityReference>();
+
+    /** The number of pending invalidations that have not yet been completely applied. */
+    private final AtomicInteger outstanding = new AtomicInteger();
+
+    /** The invalidation epoch. */
+    private final AtomicLong epoch = new AtomicLong();
+
+    /** The total number of received events. */
+    private final AtomicLong receivedEvents = new AtomicLong();
+
+    /** The number of received events that were coalesced into a pending invalidation. */
+    private final AtomicLong coalescedEvents = new AtomicLong();
+
+    /** A pending invalidation. */
+    private static final class Invalidation
+    {
+        /** The updated document. */
+        private final DocumentReference document;
+
+        /** The most recent version of the updated document. */
+        private final Object source;
+
+        /** Whether the document has been deleted. */
+        private final boolean deleted;
+
+        /**
+         * @param document The updated document.
+         * @param source The most recent version of the updated document.
+         * @param deleted Whether the document has been deleted.
+         */
+        Invalidation(DocumentReference document, Object source, boolean deleted)
+        {
+            this.document = document;
+            this.source = source;
+            this.deleted = deleted;
+        }
+    }
+
+    @Override
+    public void initialize()
+    {
+        worker = new Thread(new Runnable() {
+                public void run()
+                {
+                    processQueue();
+                }
+            }, "XWiki right cache invalidator");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Stop the worker.  The invalidations that are still pending are
+     * dropped, together with the cache they apply to.
+     */
+    @Override
+    public void dispose()
+    {
+        if (worker == null) {
+            return;
+        }
+        worker.interrupt();
+        try {
+            worker.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        worker = null;
+        queue.clear();
+        pending.clear();
+        synchronized (outstanding) {
+            outstanding.set(0);
+            outstanding.notifyAll();
+        }
+    }
+
     @Override
     public void suspend()
     {
@@ -71,6 +204,52 @@ public void resume()
         readWriteLock.readLock().unlock();
     }
 
+    @Override
+    public long getEpoch()
+    {
+        return epoch.get();
+    }
+
+    @Override
+    public void flush()
+    {
+        synchronized (outstanding) {
+            while (outstanding.get() > 0) {
+                try {
+                    outstanding.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    @Override
+    public int getQueueDepth()
+    {
+        return outstanding.get();
+    }
+
+    @Override
+    public long getReceivedEvents()
+    {
+        return receivedEvents.get();
+    }
+
+    @Override
+    public long getCoalescedEvents()
+    {
+        return coalescedEvents.get();
+    }
+
+    @Override
+    public double getCoalescingRatio()
+    {
+        long received = receivedEvents.get();
+        return received == 0 ? 0 : (double) coalescedEvents.get() / received;
+    }
+
     /**
      * {@inheritDoc}
      * 
@@ -104,37 +283,166 @@ public List<Event> getEvents()
     public void onEvent(Event event, Object source, Object data)
     {
         DocumentReference ref = XWikiUtils.getDocumentReference(source);
+        receivedEvents.incrementAndGet();
+        if (backgroundContext == null) {
+            initializeBackgroundContext();
+        }
+        EntityReference entity = getInvalidatedEntity(ref);
+        if (entity == ref && isAbsorbed(ref, source)) {
+            coalescedEvents.incrementAndGet();
+            return;
+        }
+        // The worker removes the pending entry before applying it, so
+        // an update that is not coalesced is always queued again.
+        if (pending.put(entity, new Invalidation(ref, source, event instanceof DocumentDeletedEvent)) == null) {
+            outstanding.incrementAndGet();
+            queue.add(entity);
+        } else {
+            coalescedEvents.incrementAndGet();
+        }
+    }
+
+    /**
+     * @param ref Reference to an updated document.
+     * @return The entity whose cache entry must be removed: the wiki
+     * for the wiki preferences, the space for the space preferences
+     * and the document itself otherwise.
+     */
+    private EntityReference getInvalidatedEntity(DocumentReference ref)
+    {
+        if (ref.getName().equals(XWikiUtils.WIKI_DOC)
+            && ref.getParent().getName().equals(XWikiUtils.WIKI_SPACE)) {
+            return ref.getWikiReference();
+        } else if (ref.getName().equals(XWikiUtils.SPACE_DOC)) {
+            return ref.getParent();
+        }
+        return ref;
+    }
+
+    /**
+     * An update of a document is absorbed by a pending invalidation of
+     * its space or wiki, which removes the entry of the document too,
+     * unless the document is a group, whose members must be
+     * invalidated as well.  The pending invalidation cannot be in the
+     * middle of being applied, since the worker removes it from the
+     * pending invalidations before removing any cache entry.
+     * @param ref Reference to the updated document.
+     * @param source The updated document.
+     * @return {@code true} if and only if the update needs no
+     * invalidation of its own.
+     */
+    private boolean isAbsorbed(DocumentReference ref, Object source)
+    {
+        if (!pending.containsKey(ref.getParent()) && !pending.containsKey(ref.getWikiReference())) {
+            return false;
+        }
+        return !XWikiUtils.isGroupDocument(source) && !groupMembershipCache.isCachedGroup(ref);
+    }
+
+    /**
+     * Keep a background context created from the context of the
+     * thread reporting an update.  The worker must not use the
+     * context of that thread, which belongs to a request.
+     */
+    private synchronized void initializeBackgroundContext()
+    {
+        if (backgroundContext != null) {
+            return;
+        }
+        ExecutionContext context = execution.getContext();
+        XWikiContext xwikiContext = context == null ? null
+            : (XWikiContext) context.getProperty(XWikiContext.EXECUTIONCONTEXT_KEY);
+        if (xwikiContext != null) {
+            backgroundContext = XWikiUtils.createBackgroundXWikiContext(xwikiContext);
+        }
+    }
+
+    /**
+     * Apply the queued invalidations in batches, until the thread is
+     * interrupted.
+     */
+    private void processQueue()
+    {
+        List<EntityReference> batch = new ArrayList<EntityReference>();
+        while (true) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            queue.drainTo(batch);
+            try {
+                applyBatch(batch);
+            } finally {
+                synchronized (outstanding) {
+                    outstanding.addAndGet(-batch.size());
+                    outstanding.notifyAll();
+                }
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Apply a batch of pending invalidations to the cache, in a new
+     * background context.
+     * @param batch The invalidated entities.
+     */
+    private void applyBatch(List<EntityReference> batch)
+    {
         readWriteLock.writeLock().lock();
+        XWikiContext xwikiContext = backgroundContext;
+        if (xwikiContext != null) {
+            execution.setContext(XWikiUtils.createBackgroundContext(xwikiContext));
+        }
         try {
-            deliverUpdateEvent(ref);
-            if (XWikiUtils.isGroupDocument(source)) {
-                XWikiUtils.invalidateGroupMembers(ref, rightCache);
+            epoch.incrementAndGet();
+            List<Invalidation> invalidations = new ArrayList<Invalidation>(batch.size());
+            Set<EntityReference> removed = new HashSet<EntityReference>();
+            for (EntityReference entity : batch) {
+                Invalidation invalidation = pending.remove(entity);
+                if (invalidation != null) {
+                    invalidations.add(invalidation);
+                    removed.add(entity);
+                }
+            }
+            for (Invalidation invalidation : invalidations) {
+                DocumentReference ref = invalidation.document;
+                try {
+                    EntityReference entity = getInvalidatedEntity(ref);
+                    // A document is removed with its space or wiki when these are invalidated by the same batch
+                    if (entity != ref
+                        || !(removed.contains(ref.getParent()) || removed.contains(ref.getWikiReference()))) {
+                        rightCache.remove(rightCache.getRightCacheKey(entity));
+                    }
+                    if (XWikiUtils.isGroupDocument(invalidation.source) || groupMembershipCache.isCachedGroup(ref)) {
+                        invalidateGroupMembers(ref, invalidation.deleted ? null : (XWikiDocument) invalidation.source);
+                    }
+                } catch (RuntimeException e) {
+                    getLogger().error("Failed to invalidate the right cache for " + ref + ".", e);
+                }
             }
-        } catch (RightServiceException e) {
-            getLogger().error("Failed to invalidate group members on the document: " + ref, e);
         } finally {
+            if (xwikiContext != null) {
+                execution.removeContext();
+            }
             readWriteLock.writeLock().unlock();
         }
     }
 
     /**
-     * Describe <code>deliverUpdateEvent</code> method here.
-     *
-     * @param ref Reference to the document that should be
-     * invalidated.
+     * Due to the special case where a user have been added to the
+     * group, we need to remove the entries of all members of the
+     * group whose memberships may have changed.  These are found in
+     * the group membership cache, which is updated at the same time.
+     * @param group Reference to the group document.
+     * @param document The group document, or {@code null} if it was
+     * deleted.
      */
-    private void deliverUpdateEvent(DocumentReference ref)
+    private void invalidateGroupMembers(DocumentReference group, XWikiDocument document)
     {
-        if (ref.getName().equals(XWikiUtils.WIKI_DOC)
-            && ref.getParent().getName().equals(XWikiUtils.WIKI_SPACE)) {
-            RightCacheKey wikiKey = rightCache.getRightCacheKey(ref.getWikiReference());
-            rightCache.remove(wikiKey);
-        } else if (ref.getName().equals(XWikiUtils.SPACE_DOC)) {
-            RightCacheKey spaceKey = rightCache.getRightCacheKey(ref.getParent());
-            rightCache.remove(spaceKey);
-        } else {
-            RightCacheKey key = rightCache.getRightCacheKey(ref);
-            rightCache.remove(key);
+        for (DocumentReference member : groupMembershipCache.groupUpdated(group, document)) {
+            rightCache.remove(rightCache.getRightCacheKey(member));
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,511 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.xwiki.security.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.annotation.Requirement;
+import org.xwiki.component.logging.AbstractLogEnabled;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.EntityReferenceResolver;
+import org.xwiki.model.reference.EntityReferenceSerializer;
+import org.xwiki.model.reference.SpaceReference;
+import org.xwiki.model.reference.WikiReference;
+
+import org.xwiki.security.RightCacheConfiguration;
+import org.xwiki.security.RightLoader;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.store.XWikiStoreInterface;
+
+/**
+ * Default right cache preloader.  The preloader loads the entries
+ * of all wikis and spaces, which hold the rights objects of the
+ * wiki preferences and the space preferences, and the group graph.
+ * Then it replays the user and space pairs that were most recently
+ * loaded before the restart, which are periodically saved to a file.
+ *
+ * Preloading stops as soon as the configured time budget is spent,
+ * or when the heap has grown by more than the configured memory
+ * budget since preloading started.
+ * @version $Id$
+ */
+@Component
+public class DefaultRightCachePreloader extends AbstractLogEnabled
+    implements RightCachePreloader, Initializable, Disposable
+{
+    /** Separator between the parts of a hot key. */
+    private static final String SEPARATOR = "\t";
+
+    /** Query for the names of the group documents. */
+    private static final String GROUP_QUERY
+        = "select distinct obj.name from BaseObject as obj where obj.className = ?";
+
+    /** The number of hot keys replayed by a single task. */
+    private static final int HOT_KEYS_PER_TASK = 100;
+
+    /** Milliseconds per second. */
+    private static final long MILLIS_PER_SECOND = 1000L;
+
+    /** The right cache configuration. */
+    @Requirement private RightCacheConfiguration configuration;
+
+    /** The loader for filling the cache. */
+    @Requirement private RightLoader rightLoader;
+
+    /** The group membership cache. */
+    @Requirement private GroupMembershipCache groupMembershipCache;
+
+    /** Execution, for setting up the context of the preloading threads. */
+    @Requirement private Execution execution;
+
+    /** Resolver for the users of the hot keys. */
+    @Requirement private DocumentReferenceResolver<String> documentReferenceResolver;
+
+    /** Resolver for the group names. */
+    @Requirement("user") private DocumentReferenceResolver<String> userResolver;
+
+    /** Resolver for the spaces and wikis of the hot keys. */
+    @Requirement private EntityReferenceResolver<String> entityReferenceResolver;
+
+    /** Serializer for the hot keys. */
+    @Requirement private EntityReferenceSerializer<String> serializer;
+
+    /** Whether preloading have been started. */
+    private final AtomicBoolean started = new AtomicBoolean();
+
+    /** The recorded user and space pairs, or {@code null} if they are not saved. */
+    private HotKeys hotKeys;
+
+    /** The file where the hot keys are saved. */
+    private File hotKeysFile;
+
+    /** The timer saving the hot keys periodically, or {@code null} if they are not saved periodically. */
+    private Timer timer;
+
+    @Override
+    public void initialize()
+    {
+        String file = configuration.getHotKeysFile();
+        if (file == null) {
+            return;
+        }
+        hotKeysFile = new File(file);
+        hotKeys = new HotKeys(configuration.getHotKeysCapacity());
+        long interval = configuration.getHotKeysSnapshotInterval() * MILLIS_PER_SECOND;
+        if (interval > 0) {
+            timer = new Timer("XWiki right cache hot keys", true);
+            timer.schedule(new TimerTask() {
+                    @Override
+                    public void run()
+                    {
+                        saveHotKeys();
+                    }
+                }, interval, interval);
+        }
+    }
+
+    @Override
+    public void dispose()
+    {
+        if (timer != null) {
+            timer.cancel();
+            timer = null;
+        }
+        saveHotKeys();
+    }
+
+    @Override
+    public void recordLoad(DocumentReference user, EntityReference entity)
+    {
+        if (hotKeys == null || user == null || entity == null) {
+            return;
+        }
+        EntityReference scope = entity;
+        while (scope.getType() != EntityType.SPACE && scope.getType() != EntityType.WIKI
+               && scope.getParent() != null) {
+            scope = scope.getParent();
+        }
+        hotKeys.record(serializer.serialize(user) + SEPARATOR + scope.getType() + SEPARATOR
+                       + serializer.serialize(scope));
+    }
+
+    @Override
+    public void saveHotKeys()
+    {
+        if (hotKeys == null) {
+            return;
+        }
+        try {
+            hotKeys.save(hotKeysFile);
+        } catch (IOException e) {
+            getLogger().warn("Failed to save the right cache hot keys to " + hotKeysFile + ": " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void start()
+    {
+        if (!configuration.isPreloadEnabled() || !started.compareAndSet(false, true)) {
+            return;
+        }
+        ExecutionContext executionContext = execution.getContext();
+        XWikiContext requestContext = executionContext == null ? null
+            : (XWikiContext) executionContext.getProperty(XWikiContext.EXECUTIONCONTEXT_KEY);
+        if (requestContext == null) {
+            getLogger().warn("No xwiki context available, the right cache will not be preloaded.");
+            return;
+        }
+        // The preloading outlives the request, so it must not keep the request context.
+        final XWikiContext context = XWikiUtils.createBackgroundXWikiContext(requestContext);
+        Thread coordinator = new Thread(new Runnable() {
+                public void run()
+                {
+                    preload(context);
+                }
+            }, "XWiki right cache preloader");
+        coordinator.setDaemon(true);
+        coordinator.start();
+    }
+
+    /**
+     * Run the preloading tasks and wait for them to complete, or for
+     * the time budget to be spent.
+     * @param context The xwiki context to take the wiki instance from.
+     */
+    private void preload(XWikiContext context)
+    {
+        long timeBudget = configuration.getPreloadTimeBudget();
+        Budget budget = new Budget(timeBudget, configuration.getPreloadMemoryBudget());
+        AtomicInteger loaded = new AtomicInteger();
+
+        List<String> wikis;
+        setContext(context);
+        try {
+            wikis = getWikis();
+        } finally {
+            execution.removeContext();
+        }
+
+        List<String> keys;
+        try {
+            keys = hotKeysFile == null ? new ArrayList<String>() : HotKeys.read(hotKeysFile);
+        } catch (IOException e) {
+            getLogger().warn("Failed to read the right cache hot keys from " + hotKeysFile + ": " + e.getMessage());
+            keys = new ArrayList<String>();
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(configuration.getPreloadThreads(), new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                public Thread newThread(Runnable runnable)
+                {
+                    Thread thread = new Thread(runnable, "XWiki right cache preloader " + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        for (String wiki : wikis) {
+            pool.execute(new WikiTask(context, budget, loaded, wiki));
+            pool.execute(new GroupTask(context, budget, loaded, wiki));
+        }
+        for (int i = 0; i < keys.size(); i += HOT_KEYS_PER_TASK) {
+            pool.execute(new HotKeyTask(context, budget, loaded,
+                                        keys.subList(i, Math.min(i + HOT_KEYS_PER_TASK, keys.size()))));
+        }
+        pool.shutdown();
+        try {
+            if (!pool.awaitTermination(timeBudget, TimeUnit.MILLISECONDS)) {
+                pool.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            pool.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+
+        getLogger().info("Preloaded " + loaded.get() + " right cache entries in "
+                         + budget.getElapsedMillis() + " ms"
+                         + (budget.isExhausted() ? ", stopped when the budget was exhausted." : "."));
+    }
+
+    /** @return The names of all wikis. */
+    private List<String> getWikis()
+    {
+        XWikiContext context = getXWikiContext();
+        List<String> wikis = new ArrayList<String>();
+        wikis.add(context.getMainXWiki());
+        try {
+            for (String wiki : context.getWiki().getVirtualWikisDatabaseNames(context)) {
+                if (!wikis.contains(wiki)) {
+                    wikis.add(wiki);
+                }
+            }
+        } catch (Exception e) {
+            getLogger().warn("Failed to list the wikis, only the main wiki will be preloaded: " + e.getMessage());
+        }
+        return wikis;
+    }
+
+    /**
+     * Set up a new execution context for the current thread.
+     * @param context The xwiki context to take the wiki instance from.
+     */
+    private void setContext(XWikiContext context)
+    {
+        execution.setContext(XWikiUtils.createBackgroundContext(context));
+    }
+
+    /** @return The xwiki context of the current thread. */
+    private XWikiContext getXWikiContext()
+    {
+        return (XWikiContext) execution.getContext().getProperty(XWikiContext.EXECUTIONCONTEXT_KEY);
+    }
+
+    /**
+     * The time and memory budget of the preloading.  The memory is
+     * measured as the growth of the used heap, which is approximate
+     * since it includes garbage that has not yet been collected.
+     */
+    private static final class Budget
+    {
+        /** Nanoseconds per millisecond. */
+        private static final long NANOS_PER_MILLI = 1000000L;
+
+        /** The start time, in nanoseconds. */
+        private final long start;
+
+        /** The time budget, in nanoseconds. */
+        private final long time;
+
+        /** The maximum amount of used heap. */
+        private final long memoryLimit;
+
+        /**
+         * @param timeMillis The time budget in milliseconds.
+         * @param memoryBytes The memory budget in bytes.
+         */
+        Budget(long timeMillis, long memoryBytes)
+        {
+            start = System.nanoTime();
+            time = timeMillis * NANOS_PER_MILLI;
+            memoryLimit = usedMemory() + memoryBytes;
+        }
+
+        /** @return {@code true} if the time or the memory budget is spent. */
+        boolean isExhausted()
+        {
+            return System.nanoTime() - start > time || usedMemory() > memoryLimit;
+        }
+
+        /** @return The time elapsed since the preloading started. */
+        long getElapsedMillis()
+        {
+            return (System.nanoTime() - start) / NANOS_PER_MILLI;
+        }
+
+        /** @return The amount of used heap. */
+        private static long usedMemory()
+        {
+            Runtime runtime = Runtime.getRuntime();
+            return runtime.totalMemory() - runtime.freeMemory();
+        }
+    }
+
+    /** A unit of preloading work, which runs with its own xwiki context. */
+    private abstract class Task implements Runnable
+    {
+        /** The xwiki context to take the wiki instance from. */
+        private final XWikiContext context;
+
+        /** The budget. */
+        protected final Budget budget;
+
+        /** The count of loaded entries. */
+        protected final AtomicInteger loaded;
+
+        /**
+         * @param context The xwiki context to take the wiki instance from.
+         * @param budget The budget.
+         * @param loaded The count of loaded entries.
+         */
+        Task(XWikiContext context, Budget budget, AtomicInteger loaded)
+        {
+            this.context = context;
+            this.budget = budget;
+            this.loaded = loaded;
+        }
+
+        @Override
+        public void run()
+        {
+            if (budget.isExhausted()) {
+                return;
+            }
+            setContext(context);
+            try {
+                preload(getXWikiContext());
+            } catch (Exception e) {
+                getLogger().warn("Failed to preload the right cache: " + e.getMessage());
+            } finally {
+                execution.removeContext();
+            }
+        }
+
+        /**
+         * @param xwikiContext The xwiki context of this task.
+         * @throws Exception on error.
+         */
+        abstract void preload(XWikiContext xwikiContext) throws Exception;
+    }
+
+    /** Load the entries of a wiki and of all its spaces. */
+    private final class WikiTask extends Task
+    {
+        /** The name of the wiki. */
+        private final String wiki;
+
+        /**
+         * @param context The xwiki context to take the wiki instance from.
+         * @param budget The budget.
+         * @param loaded The count of loaded entries.
+         * @param wiki The name of the wiki.
+         */
+        WikiTask(XWikiContext context, Budget budget, AtomicInteger loaded, String wiki)
+        {
+            super(context, budget, loaded);
+            this.wiki = wiki;
+        }
+
+        @Override
+        void preload(XWikiContext xwikiContext) throws Exception
+        {
+            WikiReference wikiReference = new WikiReference(wiki);
+            rightLoader.load(wikiReference);
+            loaded.incrementAndGet();
+            xwikiContext.setDatabase(wiki);
+            for (String space : xwikiContext.getWiki().getSpaces(xwikiContext)) {
+                if (budget.isExhausted()) {
+                    return;
+                }
+                rightLoader.load(new SpaceReference(space, wikiReference));
+                loaded.incrementAndGet();
+            }
+        }
+    }
+
+    /** Load the entries and the memberships of all groups of a wiki. */
+    private final class GroupTask extends Task
+    {
+        /** The name of the wiki. */
+        private final String wiki;
+
+        /**
+         * @param context The xwiki context to take the wiki instance from.
+         * @param budget The budget.
+         * @param loaded The count of loaded entries.
+         * @param wiki The name of the wiki.
+         */
+        GroupTask(XWikiContext context, Budget budget, AtomicInteger loaded, String wiki)
+        {
+            super(context, budget, loaded);
+            this.wiki = wiki;
+        }
+
+        @Override
+        void preload(XWikiContext xwikiContext) throws Exception
+        {
+            XWikiStoreInterface store = xwikiContext.getWiki().getStore();
+            if (store == null) {
+                return;
+            }
+            xwikiContext.setDatabase(wiki);
+            List<String> groups = store.search(GROUP_QUERY, 0, 0, Arrays.asList(XWikiUtils.GROUP_CLASS), xwikiContext);
+            for (String name : groups) {
+                if (budget.isExhausted()) {
+                    return;
+                }
+                DocumentReference group = userResolver.resolve(name, wiki);
+                rightLoader.load(group);
+                groupMembershipCache.getGroupsForMember(group);
+                loaded.incrementAndGet();
+            }
+        }
+    }
+
+    /** Replay saved user and space pairs. */
+    private final class HotKeyTask extends Task
+    {
+        /** The hot keys. */
+        private final List<String> keys;
+
+        /**
+         * @param context The xwiki context to take the wiki instance from.
+         * @param budget The budget.
+         * @param loaded The count of loaded entries.
+         * @param keys The hot keys.
+         */
+        HotKeyTask(XWikiContext context, Budget budget, AtomicInteger loaded, List<String> keys)
+        {
+            super(context, budget, loaded);
+            this.keys = keys;
+        }
+
+        @Override
+        void preload(XWikiContext xwikiContext) throws Exception
+        {
+            for (String key : keys) {
+                if (budget.isExhausted()) {
+                    return;
+                }
+                String[] parts = key.split(SEPARATOR);
+                if (parts.length != 3) {
+                    continue;
+                }
+                DocumentReference user = documentReferenceResolver.resolve(parts[0]);
+                EntityReference entity = entityReferenceResolver.resolve(parts[2], EntityType.valueOf(parts[1]));
+                rightLoader.load(user, entity);
+                loaded.incrementAndGet();
+            }
+        }
+    }
+}
@@ -42,10 +42,20 @@
 import org.xwiki.security.RightsObject;
 import org.xwiki.security.RightsObjectFactory;
 import org.xwiki.security.AccessLevel;
+import org.xwiki.security.RightServiceMetrics;
+import org.xwiki.security.RightServiceMetrics.Operation;
+import org.xwiki.security.RightServiceMetrics.Retry;
 
-import java.util.List;
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * The default implementation for the right loader.
@@ -67,23 +77,142 @@ public class DefaultRightLoader extends AbstractLogEnabled implements RightLoade
     /** Event listener responsible for invalidating cache entries. */
     @Requirement private RightCacheInvalidator rightCacheInvalidator;
 
+    /** Index of the groups of users and groups. */
+    @Requirement private GroupMembershipCache groupMembershipCache;
+
     /** Factory object for producing RightsObject instances from the corresponding xwiki rights objects. */
     @Requirement private RightsObjectFactory rightsObjectFactory;
 
+    /** Metrics for recording load latencies and retries. */
+    @Requirement private RightServiceMetrics metrics;
+
+    /**
+     * The keys of the entries inserted by the load attempt in
+     * progress on the current thread, so that they can be discarded
+     * if the attempt turns out to be stale.
+     */
+    private final ThreadLocal<List<RightCacheKey>> insertedKeys = new ThreadLocal<List<RightCacheKey>>();
+
+    @Override
+    public AccessLevel load(final DocumentReference user, final EntityReference entity)
+        throws RightServiceException
+    {
+        return retry(new Attempt<AccessLevel>() {
+                @Override
+                AccessLevel run()
+                    throws ParentEntryEvictedException, ConflictingInsertionException, RightServiceException
+                {
+                    return loadRequiredEntries(user, entity);
+                }
+            });
+    }
+
     @Override
-    public AccessLevel load(DocumentReference user, EntityReference entity)
+    public List<AccessLevel> load(final DocumentReference user, final List<? extends EntityReference> entities)
         throws RightServiceException
+    {
+        return retry(new Attempt<List<AccessLevel>>() {
+                @Override
+                List<AccessLevel> run()
+                    throws ParentEntryEvictedException, ConflictingInsertionException, RightServiceException
+                {
+                    return loadRequiredEntries(user, entities);
+                }
+            });
+    }
+
+    @Override
+    public void load(final EntityReference entity) throws RightServiceException
+    {
+        retry(new Attempt<Void>() {
+                @Override
+                Void run()
+                    throws ParentEntryEvictedException, ConflictingInsertionException, RightServiceException
+                {
+                    getRightsObjects(rightCache.getRightCacheKey(entity), entity);
+                    return null;
+                }
+            });
+    }
+
+    /**
+     * A single attempt at loading entries into the cache.
+     * @param <T> The type of the result of the load.
+     */
+    private abstract static class Attempt<T>
+    {
+        /**
+         * @return The result of the load.
+         * @throws ParentEntryEvictedException If one of the parent
+         * entries are evicted before the load is completed.
+         * @throws ConflictingInsertionException When different threads
+         * have inserted conflicting entries into the cache.
+         * @throws RightServiceException On error.
+         */
+        abstract T run()
+            throws ParentEntryEvictedException, ConflictingInsertionException, RightServiceException;
+    }
+
+    /**
+     * Run the load attempt and retry it if it was disturbed by
+     * concurrent modifications of the cache.  An attempt is stale if
+     * the cache invalidator applied any invalidations while it was in
+     * progress, in which case the entries it inserted are discarded.
+     * The last attempt is made with the cache invalidator suspended,
+     * so that it cannot become stale.
+     * @param <T> The type of the result of the load.
+     * @param attempt The load attempt.
+     * @return The result of the load.
+     * @throws RightServiceException On error, or if the load did not
+     * succeed in {@link #MAX_RETRIES} attempts.
+     */
+    private <T> T retry(Attempt<T> attempt) throws RightServiceException
+    {
+        long start = System.nanoTime();
+        try {
+            return retryAttempts(attempt);
+        } finally {
+            metrics.recordLatency(Operation.LOAD, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * @param <T> The type of the result of the load.
+     * @param attempt The load attempt.
+     * @return The result of the load.
+     * @throws RightServiceException On error, or if the load did not
+     * succeed in {@link #MAX_RETRIES} attempts.
+     * @see #retry(Attempt)
+     */
+    private <T> T retryAttempts(Attempt<T> attempt) throws RightServiceException
     {
         int retries = 0;
     RETRY: 
         while (true) {
-            rightCacheInvalidator.suspend();
-
+            retries++;
+            boolean suspended = retries == MAX_RETRIES;
+            if (suspended) {
+                rightCacheInvalidator.suspend();
+            }
+            List<RightCacheKey> inserted = new ArrayList<RightCacheKey>();
+            insertedKeys.set(inserted);
             try {
-                retries++;
-                return loadRequiredEntries(user, entity);
+                long epoch = rightCacheInvalidator.getEpoch();
+                T result = attempt.run();
+                if (suspended || rightCacheInvalidator.getEpoch() == epoch) {
+                    return result;
+                }
+                for (RightCacheKey key : inserted) {
+                    rightCache.remove(key);
+                }
+                metrics.recordRetry(Retry.STALE_LOAD);
+                getLogger().debug("The cache was invalidated during the load.  Have tried "
+                                  + retries
+                                  + " times.  Retrying...");
+                continue RETRY;
             } catch (ParentEntryEvictedException e) {
                 if (retries < MAX_RETRIES) {
+                    metrics.recordRetry(Retry.PARENT_EVICTED);
                     getLogger().debug("The parent entry was evicted. Have tried " 
                                       + retries
                                       + " times.  Trying again...");
@@ -91,14 +220,19 @@ public AccessLevel load(DocumentReference user, EntityReference entity)
                 }
             } catch (ConflictingInsertionException e) {
                 if (retries < MAX_RETRIES) {
+                    metrics.recordRetry(Retry.CONFLICTING_INSERTION);
                     getLogger().debug("There were conflicting insertions.  Have tried "
                                       + retries
                                       + " times.  Retrying...");
                     continue RETRY;
                 }
             } finally {
-                rightCacheInvalidator.resume();
+                insertedKeys.remove();
+                if (suspended) {
+                    rightCacheInvalidator.resume();
+                }
             }
+            metrics.recordRetry(Retry.GAVE_UP);
             getLogger().error("Failed to load the cache in "
                               + retries
                               + " attempts.  Giving up.");
@@ -106,6 +240,23 @@ public AccessLevel load(DocumentReference user, EntityReference entity)
         }
     }
 
+    /**
+     * Insert an entry into the cache, and remember its key in case
+     * the load attempt turns out to be stale.
+     * @param key The key of the entry.
+     * @param entry The entry.
+     * @throws ParentEntryEvictedException If the parent entry is no
+     * longer in the cache.
+     * @throws ConflictingInsertionException When different threads
+     * have inserted conflicting entries into the cache.
+     */
+    private void insert(RightCacheKey key, RightCacheEntry entry)
+        throws ParentEntryEvictedException, ConflictingInsertionException
+    {
+        rightCache.add(key, entry);
+        insertedKeys.get().add(key);
+    }
+
     /**
      * @param user The user identity.
      * @param entity The entity that is the object of thi rihghts check.
@@ -153,13 +304,30 @@ private AccessLevel loadRequiredEntries(DocumentReference user, EntityReference
      */
     private AccessLevel loadUserAtEntity(DocumentReference user, EntityReference entity)
         throws ParentEntryEvictedException, ConflictingInsertionException, RightServiceException
+    {
+        Collection<DocumentReference> groups = loadUserEntry(user);
+        return loadUserAtEntity(user, groups, entity);
+    }
+
+    /**
+     * Make sure that the entry of the user and the entries of its
+     * groups are loaded.
+     * @param user Entity that identifies user.
+     * @return The collection of groups of the user.
+     * @throws ParentEntryEvictedException If one of the parent
+     * entries are evicted before the load is completed.
+     * @throws ConflictingInsertionException When different threads
+     * have inserted conflicting entries into the cache.
+     * @throws RightServiceException On error.
+     */
+    private Collection<DocumentReference> loadUserEntry(DocumentReference user)
+        throws ParentEntryEvictedException, ConflictingInsertionException, RightServiceException
     {
         /*
          * Make sure the group entries are loaded
          */
         Collection<DocumentReference> groups = loadGroupEntries(user);
-        EntityReference userParent = user.getParent().clone();
-        userParent.setChild(null);
+        EntityReference userParent = user.getParent();
         /*
          * Make sure the parent of the user document is loaded.
          */
@@ -175,23 +343,205 @@ private AccessLevel loadUserAtEntity(DocumentReference user, EntityReference ent
             parents.add(rightCache.getRightCacheKey(group));
         }
 
-        RightCacheKey userKey   = rightCache.getRightCacheKey(user);
-        RightCacheKey entityKey = rightCache.getRightCacheKey(entity);
+        RightCacheKey userKey = rightCache.getRightCacheKey(user);
         RightCacheEntry entry = loadRightsObjects(user);
         rightCache.addWithMultipleParents(userKey, parents, entry);
+        insertedKeys.get().add(userKey);
+        return groups;
+    }
+
+    /**
+     * Resolve the access level of the user at an entity, assuming
+     * that the user entry is already loaded.
+     * @param user Entity that identifies user.
+     * @param groups The groups of the user.
+     * @param entity The entity that is the object of this rights check.
+     * @return The access level cache entry that was loaded into the cache.
+     * @throws ParentEntryEvictedException If one of the parent
+     * entries are evicted before the load is completed.
+     * @throws ConflictingInsertionException When different threads
+     * have inserted conflicting entries into the cache.
+     * @throws RightServiceException On error.
+     */
+    private AccessLevel loadUserAtEntity(DocumentReference user,
+                                         Collection<DocumentReference> groups,
+                                         EntityReference entity)
+        throws ParentEntryEvictedException, ConflictingInsertionException, RightServiceException
+    {
+        RightCacheKey userKey   = rightCache.getRightCacheKey(user);
+        RightCacheKey entityKey = rightCache.getRightCacheKey(entity);
 
         List<Collection<RightsObject>> rightsObjects
             = getRightsObjects(entityKey, entity);
 
+        long start = System.nanoTime();
         AccessLevel accessLevel = rightResolver.resolve(user, entity, entityKey, groups, rightsObjects);
-        getLogger().debug("Adding "
-                          + userKey.getEntityReference() + "@"
-                          + entityKey.getEntityReference() + ": "
-                          + accessLevel);
+        metrics.recordLatency(Operation.RESOLVE, System.nanoTime() - start);
+        if (getLogger().isDebugEnabled()) {
+            getLogger().debug("Adding "
+                              + userKey.getEntityReference() + "@"
+                              + entityKey.getEntityReference() + ": "
+                              + accessLevel);
+        }
         rightCache.addUserAtEntity(userKey, entityKey, accessLevel);
         return accessLevel;
     }
 
+    /**
+     * Load the access levels of the user at several entities.  The
+     * user and group entries are loaded only once, the missing
+     * entries for the entities are loaded in batches, and the access
+     * level is resolved only once for all entities that inherit their
+     * rights from the same entity.
+     * @param user The user identity.
+     * @param entities The entities that are the objects of this rights check.
+     * @return The resulting access levels, in the order of the entities.
+     * @throws ParentEntryEvictedException If one of the parent
+     * entries are evicted before the load is completed.
+     * @throws ConflictingInsertionException When different threads
+     * have inserted conflicting entries into the cache.
+     * @throws RightServiceException On error.
+     */
+    private List<AccessLevel> loadRequiredEntries(DocumentReference user, List<? extends EntityReference> entities)
+        throws ParentEntryEvictedException, ConflictingInsertionException, RightServiceException
+    {
+        List<AccessLevel> accessLevels = new ArrayList(entities.size());
+        if (entities.isEmpty()) {
+            return accessLevels;
+        }
+
+        preloadRightsObjects(entities);
+
+        Collection<DocumentReference> groups = loadUserEntry(user);
+        RightCacheKey userKey = rightCache.getRightCacheKey(user);
+        Map<RightCacheKey, AccessLevel> resolved = new HashMap();
+
+        for (EntityReference entity : entities) {
+            EntityReference holder = findRightsHolder(entity);
+            if (holder == null) {
+                accessLevels.add(AccessLevel.DEFAULT_ACCESS_LEVEL);
+                continue;
+            }
+            RightCacheKey holderKey = rightCache.getRightCacheKey(holder);
+            AccessLevel accessLevel = resolved.get(holderKey);
+            if (accessLevel == null) {
+                RightCacheEntry entry = rightCache.get(userKey, holderKey);
+                if (entry != null && entry.getType() == RightCacheEntry.Type.ACCESS_LEVEL) {
+                    accessLevel = (AccessLevel) entry;
+                } else {
+                    accessLevel = loadUserAtEntity(user, groups, holder);
+                }
+                resolved.put(holderKey, accessLevel);
+            }
+            accessLevels.add(accessLevel);
+        }
+        return accessLevels;
+    }
+
+    /**
+     * Find the entity at which the access level for the given entity
+     * should be resolved.  This is the nearest entity in the
+     * hierarchy that have rights objects, or the wiki.
+     * @param entity The entity that is the object of the rights check.
+     * @return The entity holding the rights objects, or {@code null} if {@code entity} is {@code null}.
+     * @throws ParentEntryEvictedException If one of the parent
+     * entries are evicted before the load is completed.
+     * @throws ConflictingInsertionException When different threads
+     * have inserted conflicting entries into the cache.
+     * @throws RightServiceException On error.
+     */
+    private EntityReference findRightsHolder(EntityReference entity)
+        throws ParentEntryEvictedException, ConflictingInsertionException, RightServiceException
+    {
+        for (EntityReference ref = entity; ref != null; ref = ref.getParent()) {
+            RightCacheKey key = rightCache.getRightCacheKey(ref);
+            RightCacheEntry entry = rightCache.get(key);
+            boolean foundObjects;
+            if (entry == null) {
+                List<Collection<RightsObject>> rightsObjects = getRightsObjects(key, ref);
+                foundObjects = rightsObjects.get(rightsObjects.size() - 1).size() > 0;
+            } else {
+                foundObjects = entry.getType() == RightCacheEntry.Type.HAVE_OBJECTS;
+            }
+            if (foundObjects || ref.getType() == EntityType.WIKI) {
+                return ref;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Load the entries of all the given entities and their parents
+     * that are missing in the cache.  The entities are grouped by
+     * their position in the hierarchy, so that each wiki and space is
+     * visited only once, and the rights objects of all missing
+     * entries are fetched with a single request to the rights object
+     * factory for global and document local objects respectively.
+     * @param entities The entities to load.
+     * @throws ParentEntryEvictedException If one of the parent
+     * entries are evicted before the load is completed.
+     * @throws ConflictingInsertionException When different threads
+     * have inserted conflicting entries into the cache.
+     * @throws RightServiceException On error.
+     */
+    private void preloadRightsObjects(List<? extends EntityReference> entities)
+        throws ParentEntryEvictedException, ConflictingInsertionException, RightServiceException
+    {
+        /*
+         * Walking each hierarchy from the root inserts parents before
+         * their children, so this map is ordered as the cache
+         * requires for the insertions.
+         */
+        Map<RightCacheKey, DocumentReference> missing = new LinkedHashMap();
+        Set<RightCacheKey> visited = new HashSet();
+        Collection<DocumentReference> globalDocs = new ArrayList();
+        Collection<DocumentReference> localDocs = new ArrayList();
+
+        for (EntityReference entity : entities) {
+            if (entity == null) {
+                continue;
+            }
+            RightCacheKey entityKey = rightCache.getRightCacheKey(entity);
+            if (!visited.add(entityKey)) {
+                continue;
+            }
+            EntityReference hierarchy = entityKey.getEntityReference();
+            for (EntityReference ref = hierarchy.getRoot(); ref != null; ref = ref.getChild()) {
+                RightCacheKey key = rightCache.getRightCacheKey(ref);
+                if (missing.containsKey(key) || rightCache.get(key) != null) {
+                    continue;
+                }
+                DocumentReference docRef = getRightsDocument(ref);
+                missing.put(key, docRef);
+                if (ref.getType() == EntityType.DOCUMENT) {
+                    localDocs.add(docRef);
+                } else {
+                    globalDocs.add(docRef);
+                }
+            }
+        }
+
+        if (missing.isEmpty()) {
+            return;
+        }
+
+        Map<DocumentReference, Collection<RightsObject>> globalObjects
+            = rightsObjectFactory.getInstances(globalDocs, true);
+        Map<DocumentReference, Collection<RightsObject>> localObjects
+            = rightsObjectFactory.getInstances(localDocs, false);
+
+        for (Map.Entry<RightCacheKey, DocumentReference> e : missing.entrySet()) {
+            RightCacheKey key = e.getKey();
+            if (rightCache.get(key) != null) {
+                continue;
+            }
+            EntityType type = key.getEntityReference().getType();
+            Collection<RightsObject> objs = (type == EntityType.DOCUMENT ? localObjects : globalObjects)
+                .get(e.getValue());
+            insert(key, toEntry(key.getEntityReference(), objs));
+        }
+    }
+
     /**
      * Make sure that the group entries for this user's groups are loaded.
      * @param user The user.
@@ -205,11 +555,10 @@ private AccessLevel loadUserAtEntity(DocumentReference user, EntityReference ent
     private Collection<DocumentReference> loadGroupEntries(DocumentReference user)
         throws ParentEntryEvictedException, ConflictingInsertionException, RightServiceException
     {
-        Collection<DocumentReference> groups = XWikiUtils.getGroupsForUser(user);
+        Collection<DocumentReference> groups = groupMembershipCache.getGroupsForMember(user);
                                               
         for (DocumentReference group : groups) {
-            EntityReference parent = group.getParent().clone();
-            parent.setChild(null);
+            EntityReference parent = group.getParent();
             /*
              * Make sure the parent entries of the group is cached.
              */
@@ -219,7 +568,7 @@ private Collection<DocumentReference> loadGroupEntries(DocumentReference user)
             RightCacheEntry entry = rightCache.get(groupKey);
             if (entry == null) {
                 entry = loadRightsObjects(group);
-                rightCache.add(groupKey, entry);
+                insert(groupKey, entry);
             }
         }
         return groups;
@@ -249,23 +598,21 @@ private List<Collection<RightsObject>> getRightsObjects(RightCacheKey entityKey,
         List<Collection<RightsObject>> rightsObjects = new LinkedList();
         EntityReference hierarchy = entityKey.getEntityReference();
         for (EntityReference ref = hierarchy.getRoot(); ref != null; ref = ref.getChild()) {
-            Collection<RightsObject> thisLevel = new LinkedList();
-            rightsObjects.add(thisLevel);
-            RightCacheEntry entry = rightCache.get(rightCache.getRightCacheKey(ref));
+            RightCacheKey key = rightCache.getRightCacheKey(ref);
+            RightCacheEntry entry = rightCache.get(key);
             if (entry == null) {
                 entry = loadRightsObjects(ref);
-                rightCache.add(rightCache.getRightCacheKey(ref), entry);
+                insert(key, entry);
             }
             if (entry.getType() != RightCacheEntry.Type.HAVE_OBJECTS) {
+                rightsObjects.add(Collections.<RightsObject>emptyList());
                 continue;
             }
             switch (ref.getType()) {
                 case SPACE:
                 case WIKI:
-                    thisLevel.addAll(entry.getObjects(GlobalRightsObject.class));
-                    break;
                 case DOCUMENT:
-                    thisLevel.addAll(entry.getObjects(LocalRightsObject.class));
+                    rightsObjects.add(getRightsObjects(entry));
                     break;
                 default:
                     String message = "There is an entry of type "
@@ -278,25 +625,50 @@ private List<Collection<RightsObject>> getRightsObjects(RightCacheKey entityKey,
         return rightsObjects;
     }
 
+    /**
+     * @param entry A cache entry that have rights objects.
+     * @return The rights objects of the entry, indexed by the users
+     * and groups they name.
+     */
+    private Collection<RightsObject> getRightsObjects(RightCacheEntry entry)
+    {
+        if (entry instanceof ObjectEntry) {
+            return ((ObjectEntry) entry).getRightsObjects();
+        }
+        return entry.getObjects(RightsObject.class);
+    }
+
     /**
      * Load the global rights object of a wiki or space.
      * @param entity Either a document, space or wiki entity referenced.
      * @return the right cache entry that should be loaded into the cache.
      * @throws RightServiceException On error.
+     * @throws ParentEntryEvictedException If the entry of the wiki
+     * of the entity is no longer in the cache.
      */
     private RightCacheEntry loadRightsObjects(EntityReference entity)
+        throws RightServiceException, ParentEntryEvictedException
+    {
+        DocumentReference docRef = getRightsDocument(entity);
+        Collection<RightsObject> objs
+            = rightsObjectFactory.getInstances(docRef, entity.getType() != EntityType.DOCUMENT);
+        return toEntry(entity, objs);
+    }
+
+    /**
+     * @param entity Either a document, space or wiki entity referenced.
+     * @return the document holding the rights objects of the entity.
+     * @throws RightServiceException On error.
+     */
+    private DocumentReference getRightsDocument(EntityReference entity)
         throws RightServiceException
     {
-        DocumentReference docRef;
-        boolean global;
         switch (entity.getType()) {
             case SPACE:
                 EntityReference spaceDoc = new EntityReference(XWikiUtils.SPACE_DOC,
                                                                EntityType.DOCUMENT,
                                                                entity.clone());
-                docRef = new DocumentReference(spaceDoc);
-                global = true;
-                break;
+                return new DocumentReference(spaceDoc);
             case WIKI:
                 EntityReference space = new EntityReference(XWikiUtils.WIKI_SPACE,
                                                             EntityType.SPACE,
@@ -304,33 +676,67 @@ private RightCacheEntry loadRightsObjects(EntityReference entity)
                 EntityReference wikiDoc = new EntityReference(XWikiUtils.WIKI_DOC,
                                                               EntityType.DOCUMENT,
                                                               space);
-                docRef = new DocumentReference(wikiDoc);
-                global = true;
-                break;
+                return new DocumentReference(wikiDoc);
             case DOCUMENT:
-                docRef = new DocumentReference(entity);
-                global = false;
-                break;
+                // The entity may be shared by a right cache key, so it must not be linked to a new child.
+                return new DocumentReference(entity.clone());
             default:
                 getLogger().error("Rights on entities of type "
                                   + entity.getType()
                                   + " is not supported by this loader!");
                 throw new EntityTypeNotSupportedException(entity.getType(), this);
         }
+    }
 
+    /**
+     * @param entity The entity.
+     * @param objs The rights objects of the entity, may be {@code null} if there are none.
+     * @return the right cache entry that should be loaded into the cache.
+     * @throws ParentEntryEvictedException If the entry of the wiki of
+     * the entity is no longer in the cache.
+     */
+    private RightCacheEntry toEntry(EntityReference entity, Collection<RightsObject> objs)
+        throws ParentEntryEvictedException
+    {
         RightCacheEntry entry;
-        Collection<RightsObject> objs = rightsObjectFactory.getInstances(docRef, global);
-
-        if (objs.size() == 0 && entity.getType() != EntityType.WIKI) {
+        if ((objs == null || objs.size() == 0) && entity.getType() != EntityType.WIKI) {
             entry = RightCacheEntry.HAVE_NO_RIGHT_OBJECT_ENTRY;
         } else {
-            ObjectEntry objEntry = new ObjectEntry();
-            for (RightsObject obj : objs) {
-                objEntry.addObject(obj);
+            ObjectEntry objEntry = new ObjectEntry(getPrincipalIds(entity));
+            if (objs != null) {
+                for (RightsObject obj : objs) {
+                    objEntry.addObject(obj);
+                }
             }
             entry = objEntry;
         }
         return entry;
     }
 
+    /**
+     * The users and groups named by rights objects are identified
+     * per wiki, and the identifiers are held by the entry of the
+     * wiki so that they are dropped with it.
+     * @param entity The entity whose rights objects are to be cached.
+     * @return The identifiers of the users and groups of the wiki of the entity.
+     * @throws ParentEntryEvictedException If the entry of the wiki is
+     * no longer in the cache.
+     */
+    private PrincipalIds getPrincipalIds(EntityReference entity)
+        throws ParentEntryEvictedException
+    {
+        if (entity.getType() == EntityType.WIKI) {
+            return new PrincipalIds();
+        }
+        RightCacheEntry wikiEntry
+            = rightCache.get(rightCache.getRightCacheKey(entity.extractReference(EntityType.WIKI)));
+        if (wikiEntry == null) {
+            throw new ParentEntryEvictedException();
+        }
+        if (wikiEntry instanceof ObjectEntry) {
+            return ((ObjectEntry) wikiEntry).getPrincipalIds();
+        }
+        return new PrincipalIds();
+    }
+
 }
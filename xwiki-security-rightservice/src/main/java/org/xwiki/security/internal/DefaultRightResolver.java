@@ -24,7 +24,6 @@
 
 import org.xwiki.component.annotation.Component;
 
-import org.xwiki.security.Right;
 import static org.xwiki.security.Right.*;
 import org.xwiki.security.RightState;
 import org.xwiki.security.RightCacheKey;
@@ -35,6 +34,7 @@
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.EntityReference;
 
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.List;
 import java.util.ListIterator;
@@ -54,37 +54,36 @@ public AccessLevel resolve(DocumentReference user,
                                Collection<DocumentReference> groups,
                                List<Collection<RightsObject>> rightsObjects)
     {
-        AccessLevel accessLevel = new AccessLevel();
+        LevelMasks accessLevel = new LevelMasks();
 
         /*
          * Allow everything for superadmin.
          */
         if (isSuperAdmin(user)) {
-            for (Right right : Right.values()) {
-                accessLevel.allow(right);
-            }
-            return accessLevel.getExistingInstance();
+            accessLevel.allow(allRightsMask);
+            return AccessLevel.getInstance(accessLevel.toLevels());
         }
 
         /*
          * Creator is granted delete-rights.
          */
         if (isCreator(user, entity)) {
-            accessLevel.allow(DELETE);
+            accessLevel.allow(mask(DELETE));
         }
 
         /*
          * Wiki owner is granted admin rights.
          */
         if (isWikiOwner(user, entity)) {
-            accessLevel.allow(ADMIN);
+            accessLevel.allow(mask(ADMIN));
         }
 
+        Principals principals = new Principals(user, groups);
         ListIterator<Collection<RightsObject>> iterator
             = rightsObjects.listIterator(rightsObjects.size());
         EntityReference ref = entityKey.getEntityReference();
         while (iterator.hasPrevious() && ref != null) {
-            resolve(user, groups, iterator.previous(), ref, accessLevel);
+            resolve(principals, iterator.previous(), ref, accessLevel);
             ref = ref.getParent();
         }
 
@@ -92,7 +91,7 @@ public AccessLevel resolve(DocumentReference user,
 
         postProcess(user, entity, accessLevel);
 
-        return accessLevel.getExistingInstance();
+        return AccessLevel.getInstance(accessLevel.toLevels());
     }
 
     /**
@@ -102,156 +101,71 @@ public AccessLevel resolve(DocumentReference user,
      * @param entity The entity, which the user wants to access.
      * @param accessLevel The accumulated result.
      */
-    private void postProcess(DocumentReference user, EntityReference entity, AccessLevel accessLevel)
+    private void postProcess(DocumentReference user, EntityReference entity, LevelMasks accessLevel)
     {
-        for (Right right : Right.values()) {
-            if (accessLevel.get(right) == UNDETERMINED) {
-                if (!user.getWikiReference().getName().equals(entity.getRoot().getName())) {
-                    /*
-                     * Deny all by default for users from another wiki.
-                     */
-                    accessLevel.deny(right);
-                } else {
-                    accessLevel.set(right, AccessLevel.DEFAULT_ACCESS_LEVEL.get(right));
-                }
-            }
-        }
-
-        if (accessLevel.get(PROGRAM) == ALLOW) {
-            for (Right right : programImpliedRights) {
-                accessLevel.allow(right);
-            }
-        } else if (accessLevel.get(ADMIN)  == ALLOW) {
-            for (Right right : adminImpliedRights) {
-                accessLevel.allow(right);
+        int undetermined = allRightsMask & accessLevel.undetermined();
+        if (undetermined != 0) {
+            if (!user.getWikiReference().getName().equals(entity.getRoot().getName())) {
+                /*
+                 * Deny all by default for users from another wiki.
+                 */
+                accessLevel.deny |= undetermined;
+            } else {
+                accessLevel.allow |= undetermined & defaultAllowMask;
+                accessLevel.deny |= undetermined & ~defaultAllowMask;
             }
         }
 
+        allowImpliedRights(accessLevel);
     }
 
     /**
-     * Compute the access level of a particular document hierarchy level.
-     * @param user The user.
-     * @param groups The groups where the user is a member.
+     * Compute the access level of a particular document hierarchy
+     * level.  Within a level, a right is allowed or denied by the
+     * rights objects that match the user, which are looked up in the
+     * index of the level, and ties are broken
+     * according to {@link #tieResolution}.  An allow that does not
+     * match the user means an implicit deny.
+     * @param principals The user and the groups where the user is a member.
      * @param rightsObjects The rights objects at this level in the document hierarchy.
      * @param ref The entity reference that specifies this level in the document hierarchy.
      * @param accessLevel The accumulated result.
      */
-    private void resolve(DocumentReference user,
-                         Collection<DocumentReference> groups,
+    private void resolve(Principals principals,
                          Collection<RightsObject> rightsObjects,
                          EntityReference ref,
-                         AccessLevel accessLevel)
+                         LevelMasks accessLevel)
     {
-        AccessLevel currentLevel = new AccessLevel();
-
-        for (Right right : enabledRights.get(ref.getType())) {
-            boolean foundAllow = false;
-            for (RightsObject obj : rightsObjects) {
-                if (obj.checkRight(right)) {
-                    if (obj.getState() == ALLOW) {
-                        foundAllow = true;
-                    }
-                    resolveLevel(right, user, groups, obj, ref, currentLevel);
-                }
-            }
-            if (foundAllow && currentLevel.get(right) == UNDETERMINED) {
-                /*
-                 * The same behavior as the old implementation. I.e.,
-                 * an allow means implicit deny for everyone else.
-                 */
-                currentLevel.deny(right);
-
-            }
-        }
-        mergeLevels(currentLevel, accessLevel, ref);
-    }
-
-
-    /**
-     * Resolve the given right for the user on the level given by ref.
-     * @param right The right to resolve.
-     * @param user The user identity.
-     * @param groups The groups where the user is a member.
-     * @param obj The currently considered rights object.
-     * @param ref An entity reference that represents the current level in the document hierarchy.
-     * @param accessLevel The accumulated result at the current level.
-     */
-    private void resolveLevel(Right right,
-                              DocumentReference user,
-                              Collection<DocumentReference> groups,
-                              RightsObject obj,
-                              EntityReference ref,
-                              AccessLevel accessLevel)
-    {
-        if (right == PROGRAM && ref.getParent() != null) {
-            /*
-             * Programming rights only checked on main wiki.
-             */
-            return;
-        }
-
-        if (obj.checkUser(user)) {
-            resolveConflict(obj.getState(), right, accessLevel);
-        } else {
-            for (DocumentReference group : groups) {
-                if (obj.checkGroup(group)) {
-                    resolveConflict(obj.getState(), right, accessLevel);
-                    break;
+        int enabled = getEnabledRights(ref);
+        RightsObjectIndex index = RightsObjectIndex.of(rightsObjects);
+        int foundAllow = index.getAllowRights() & enabled;
+        int allow = 0;
+        int deny = 0;
+
+        BitSet matches = principals.match(index);
+        if (matches != null) {
+            for (int i = matches.nextSetBit(0); i >= 0; i = matches.nextSetBit(i + 1)) {
+                AbstractRightsObject obj = index.get(i);
+                int rights = obj.getRightsMask() & enabled;
+                RightState state = obj.getState();
+                if (state == ALLOW) {
+                    allow |= rights;
+                } else if (state == DENY) {
+                    deny |= rights;
                 }
             }
         }
-    }
 
-    /**
-     * Resolve conflicting rights within the current level in the document hierarchy.
-     * @param state The state to consider setting.
-     * @param right The right that is being concerned.
-     * @param accessLevel The accumulated result.
-     */
-    private void resolveConflict(RightState state, Right right, AccessLevel accessLevel)
-    {
-        if (accessLevel.get(right) == UNDETERMINED) {
-            accessLevel.set(right, state);
-            return;
-        }
-        if (state == UNDETERMINED) {
-            return;
-        }
-        if (accessLevel.get(right) != state) {
-            accessLevel.set(right, tieResolution.get(right));
-        }
-    }
+        int tie = allow & deny;
+        LevelMasks currentLevel = new LevelMasks();
+        currentLevel.allow = (allow & ~deny) | (tie & tieAllowMask);
+        currentLevel.deny = (deny & ~allow) | (tie & ~tieAllowMask);
+        /*
+         * The same behavior as the old implementation. I.e.,
+         * an allow means implicit deny for everyone else.
+         */
+        currentLevel.deny |= foundAllow & currentLevel.undetermined();
 
-    /**
-     * Merge the current levels with the result from previous ones.
-     * @param currentLevel The access level computed at the current level in the document hierarchy.
-     * @param accessLevel The resulting access levels previously computed.
-     * @param ref {@link EntityReference} that specifies the current level in the document hierarchy.
-     */
-    private void mergeLevels(AccessLevel currentLevel,
-                             AccessLevel accessLevel,
-                             EntityReference ref)
-    {
-        for (Right right : enabledRights.get(ref.getType())) {
-            if (right == PROGRAM && ref.getParent() != null) {
-                /*
-                 * Programming rights only allowed on main wiki.
-                 */
-                continue;
-            }
-            if (accessLevel.get(right) == UNDETERMINED) {
-                accessLevel.set(right, currentLevel.get(right));
-                continue;
-            }
-            if (currentLevel.get(right) == UNDETERMINED) {
-                continue;
-            }
-            if (currentLevel.get(right) == ALLOW) {
-                if (!smallerWin.get(right)) {
-                    accessLevel.allow(right);
-                }
-            }
-        }
+        mergeLevels(currentLevel, accessLevel, enabled);
     }
 }
@@ -28,12 +28,13 @@
 import org.xwiki.security.RightServiceException;
 import org.xwiki.security.Right;
 import static org.xwiki.security.Right.*;
-import org.xwiki.security.RightState;
 import org.xwiki.security.RightCache;
 import org.xwiki.security.RightCacheKey;
 import org.xwiki.security.RightCacheEntry;
 import org.xwiki.security.RightLoader;
 import org.xwiki.security.AccessLevel;
+import org.xwiki.security.RightServiceMetrics;
+import org.xwiki.security.RightServiceMetrics.Operation;
 
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.EntityReference;
@@ -41,6 +42,10 @@
 import org.xwiki.model.reference.DocumentReferenceResolver;
 import org.xwiki.model.reference.EntityReferenceSerializer;
 
+import org.xwiki.context.Execution;
+
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
 import java.util.Formatter;
 
@@ -72,6 +77,15 @@ public class DefaultRightService extends AbstractLogEnabled implements RightServ
     /** Serializer. */
     @Requirement private EntityReferenceSerializer<String> entityReferenceSerializer;
 
+    /** Execution object, for obtaining the xwiki context. */
+    @Requirement private Execution execution;
+
+    /** Metrics for recording the latencies of the access checks. */
+    @Requirement private RightServiceMetrics metrics;
+
+    /** The preloader, which records the loaded access levels. */
+    @Requirement private RightCachePreloader preloader;
+
     /**
      * Convert an action to a right.
      * @param action String representation of action.
@@ -165,7 +179,9 @@ private boolean userIsGuest(DocumentReference userRef)
      */
     public boolean checkAccess(String action, XWikiDocument doc, XWikiContext context) throws XWikiException
     {
-        getLogger().debug("checkAccess for action " + action);
+        if (getLogger().isDebugEnabled()) {
+            getLogger().debug("checkAccess for action " + action);
+        }
 
         Right right = actionToRight(action);
 
@@ -187,6 +203,131 @@ public boolean checkAccess(String action, XWikiDocument doc, XWikiContext contex
         return allow;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public BitSet checkAccess(String action, List<XWikiDocument> docs, XWikiContext context)
+        throws XWikiException
+    {
+        if (getLogger().isDebugEnabled()) {
+            getLogger().debug("checkAccess for action " + action + " on " + docs.size() + " documents");
+        }
+
+        if (docs.isEmpty()) {
+            return new BitSet();
+        }
+
+        Right right = actionToRight(action);
+
+        boolean userWasAuthenticated = context.getUser() != null;
+
+        DocumentReference user = authenticateUser(right, docs.get(0), context);
+
+        BitSet allowed;
+        if (user == null) {
+            allowed = new BitSet();
+        } else {
+            List<EntityReference> documents = new ArrayList(docs.size());
+            for (XWikiDocument doc : docs) {
+                documents.add(doc.getDocumentReference());
+            }
+            allowed = filterAccessible(right, user, documents, context);
+        }
+
+        if (allowed.isEmpty() && !userWasAuthenticated) {
+            showLogin(context);
+        }
+
+        return allowed;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public BitSet filterAccessible(Right right, DocumentReference user, Iterable<EntityReference> entities)
+    {
+        XWikiContext context = (XWikiContext) execution.getContext()
+            .getProperty(XWikiContext.EXECUTIONCONTEXT_KEY);
+        return filterAccessible(right, user, entities, context);
+    }
+
+    /**
+     * Check the right for the user on each of the entities, and
+     * record the latency of the check.
+     * @param right The right that will be checked.
+     * @param user The user that will be checked.
+     * @param entities The entities that will be checked.
+     * @param context The current context.
+     * @return a bit set where bit {@code i} is set if and only if
+     * the user have the right on the {@code i}th entity.
+     */
+    private BitSet filterAccessible(Right right,
+                                    DocumentReference user,
+                                    Iterable<EntityReference> entities,
+                                    XWikiContext context)
+    {
+        long start = System.nanoTime();
+        try {
+            return filterAccessibleUntimed(right, user, entities, context);
+        } finally {
+            metrics.recordLatency(Operation.FILTER_ACCESSIBLE, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Check the right for the user on each of the entities.  The
+     * access levels found in the cache are used directly, and the
+     * missing ones are loaded with a single call to the loader.
+     * @param right The right that will be checked.
+     * @param user The user that will be checked.
+     * @param entities The entities that will be checked.
+     * @param context The current context.
+     * @return a bit set where bit {@code i} is set if and only if
+     * the user have the right on the {@code i}th entity.
+     */
+    private BitSet filterAccessibleUntimed(Right right,
+                                           DocumentReference user,
+                                           Iterable<EntityReference> entities,
+                                           XWikiContext context)
+    {
+        BitSet allowed = new BitSet();
+        List<EntityReference> missing = new ArrayList();
+        List<Integer> missingIndexes = new ArrayList();
+
+        int i = 0;
+        for (EntityReference entity : entities) {
+            AccessLevel accessLevel = getCachedAccessLevel(user, entity);
+            if (accessLevel == null) {
+                missing.add(entity);
+                missingIndexes.add(i);
+            } else if (checkAccess(right, user, entity, accessLevel, context)) {
+                allowed.set(i);
+            }
+            i++;
+        }
+
+        if (missing.isEmpty()) {
+            return allowed;
+        }
+
+        List<AccessLevel> accessLevels;
+        try {
+            accessLevels = rightLoader.load(user, missing);
+        } catch (Exception e) {
+            getLogger().error("Failed to check rights for user [" + context.getUser() + "]", e);
+            return allowed;
+        }
+
+        for (int j = 0; j < missing.size(); j++) {
+            preloader.recordLoad(user, missing.get(j));
+            if (checkAccess(right, user, missing.get(j), accessLevels.get(j), context)) {
+                allowed.set(missingIndexes.get(j));
+            }
+        }
+
+        return allowed;
+    }
+
     /**
      * @param username name as a string.
      * @param wikiname default wiki name, if not explicitly specified in the username.
@@ -279,14 +420,37 @@ private boolean checkAccess(Right right,
                                 EntityReference entity,
                                 XWikiContext context)
     {
-        AccessLevel accessLevel;
+        long start = System.nanoTime();
         try {
-            accessLevel = getAccessLevel(user, entity);
-        } catch (Exception e) {
-            getLogger().error("Failed to check admin right for user [" + context.getUser() + "]", e);
-            return false;
+            AccessLevel accessLevel;
+            try {
+                accessLevel = getAccessLevel(user, entity);
+            } catch (Exception e) {
+                getLogger().error("Failed to check admin right for user [" + context.getUser() + "]", e);
+                return false;
+            }
+
+            return checkAccess(right, user, entity, accessLevel, context);
+        } finally {
+            metrics.recordLatency(Operation.CHECK_ACCESS, System.nanoTime() - start);
         }
+    }
 
+    /**
+     * @param right The right that will be checked.
+     * @param user The user that will be checked
+     * @param entity The document that will be checked.
+     * @param accessLevel The access level of the user at the document.
+     * @param context The current context.
+     * @return {@code true} if and only if the access level grants the
+     * given right.
+     */
+    private boolean checkAccess(Right right,
+                                DocumentReference user,
+                                EntityReference entity,
+                                AccessLevel accessLevel,
+                                XWikiContext context)
+    {
         if (context.getWiki().isReadOnly()) {
             if (right == EDIT || right == DELETE || right == COMMENT || right == REGISTER) {
                 logDeny(user, entity, right, "server in read-only mode");
@@ -294,7 +458,7 @@ private boolean checkAccess(Right right,
             }
         }
 
-        if (accessLevel.get(right) == RightState.ALLOW) {
+        if (accessLevel.isAllowed(right)) {
             logAllow(user, entity, right, "");
             return true;
         } else {
@@ -343,45 +507,70 @@ private DocumentReference getUserReference(XWikiContext context)
     /**
      * Obtain the access level for the user on the given entity from
      * the cache, and load it into the cache if unavailable.
+     *
+     * When the access level is cached by the concurrent right cache,
+     * this method does not allocate any objects, unless debug logging
+     * is enabled.  The default right cache concatenates a string key
+     * for each user at entity lookup.
+     *
      * @param user The user identity.
      * @param entity The entity.  May be of type DOCUMENT, WIKI, or SPACE.
      * @return the cached access level object.
      * @exception RightServiceException if an error occurs
      */
-    private AccessLevel getAccessLevel(DocumentReference user, EntityReference entity)
+    AccessLevel getAccessLevel(DocumentReference user, EntityReference entity)
         throws RightServiceException
     {
-
-        for (EntityReference ref = entity; ref != null; ref = ref.getParent()) {
-            RightCacheEntry entry = rightCache.get(rightCache.getRightCacheKey(ref));
-            if (entry == null) {
-                AccessLevel level = rightLoader.load(user, entity);
+        AccessLevel level = getCachedAccessLevel(user, entity);
+        if (level == null) {
+            level = rightLoader.load(user, entity);
+            preloader.recordLoad(user, entity);
+            if (getLogger().isDebugEnabled()) {
                 Formatter f = new Formatter();
-                getLogger().debug(f.format("1. Loaded a new entry for %s@%s into cache: %s",
+                getLogger().debug(f.format("Loaded a new entry for %s@%s into cache: %s",
                                            entityReferenceSerializer.serialize(user),
                                            entityReferenceSerializer.serialize(entity),
                                            level).toString());
-                return level;
+            }
+        }
+        return level;
+    }
+
+    /**
+     * Obtain the access level for the user on the given entity from
+     * the cache.
+     *
+     * @param user The user identity.
+     * @param entity The entity.  May be of type DOCUMENT, WIKI, or SPACE.
+     * @return the cached access level object, or {@code null} if
+     * some of the required entries are missing in the cache.
+     */
+    private AccessLevel getCachedAccessLevel(DocumentReference user, EntityReference entity)
+    {
+        RightCacheKey userKey = null;
+
+        for (EntityReference ref = entity; ref != null; ref = ref.getParent()) {
+            RightCacheKey entityKey = rightCache.getRightCacheKey(ref);
+            RightCacheEntry entry = rightCache.get(entityKey);
+            if (entry == null) {
+                return null;
             }
             switch (entry.getType()) {
                 case HAVE_OBJECTS:
-                    RightCacheKey userKey = rightCache.getRightCacheKey(user);
-                    RightCacheKey entityKey = rightCache.getRightCacheKey(ref);
+                    if (userKey == null) {
+                        userKey = rightCache.getRightCacheKey(user);
+                    }
                     entry = rightCache.get(userKey, entityKey);
                     if (entry == null) {
-                        AccessLevel level = rightLoader.load(user, entity);
-                        Formatter f = new Formatter();
-                        getLogger().debug(f.format("2. Loaded a new entry for %s@%s into cache: %s",
-                                                   entityReferenceSerializer.serialize(user),
-                                                   entityReferenceSerializer.serialize(entity),
-                                                   level).toString());
-                        return level;
+                        return null;
                     } else {
                         if (entry.getType() == RightCacheEntry.Type.ACCESS_LEVEL) {
-                            getLogger().debug("Got cached entry for "
-                                      + entityReferenceSerializer.serialize(user)
-                                      + "@"
-                                      + entityReferenceSerializer.serialize(entity) + ": " + entry);
+                            if (getLogger().isDebugEnabled()) {
+                                getLogger().debug("Got cached entry for "
+                                                  + entityReferenceSerializer.serialize(user)
+                                                  + "@"
+                                                  + entityReferenceSerializer.serialize(entity) + ": " + entry);
+                            }
                             return (AccessLevel) entry;
                         } else {
                             Formatter f = new Formatter();
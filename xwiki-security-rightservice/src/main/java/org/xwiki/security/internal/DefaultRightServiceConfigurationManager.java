@@ -37,6 +37,8 @@
 import org.xwiki.security.RightServiceConfigurationManager;
 import org.xwiki.security.RightService;
 import org.xwiki.security.RightResolver;
+import org.xwiki.security.RightCache;
+import org.xwiki.security.RightCacheConfiguration;
 
 /**
  * Default factory for right service.
@@ -101,16 +103,60 @@ private void configureRightResolver()
                          + resolver.getClass().getName());
     }
 
+    /** Configure the right cache instance. */
+    private void configureRightCache()
+    {
+        String hint;
+        RightCache cache;
+        try {
+            hint = componentManager.lookup(RightCacheConfiguration.class).getRightCacheHint();
+            cache = componentManager.lookup(RightCache.class, hint);
+        } catch (ComponentLookupException e) {
+            getLogger().error("Failed to lookup component for RightCache.", e);
+            throw new RuntimeException(e);
+        }
+
+        if (!hint.equals(DEFAULT_HINT)) {
+            try {
+                ComponentDescriptor<RightCache> descriptor
+                    = componentManager.getComponentDescriptor(RightCache.class, DEFAULT_HINT);
+                componentManager.registerComponent(descriptor, cache);
+            } catch (ComponentRepositoryException e) {
+                getLogger().error("Failed to register default right cache instance.", e);
+                throw new RuntimeException(e);
+            }
+        }
+
+        getLogger().info("Successfully configured right cache of type "
+                         + cache.getClass().getName());
+    }
+
+    /** Start preloading the right cache, if it is enabled. */
+    private void startPreloader()
+    {
+        try {
+            componentManager.lookup(RightCachePreloader.class).start();
+        } catch (ComponentLookupException e) {
+            getLogger().warn("Failed to lookup the right cache preloader, the cache will not be preloaded.");
+        }
+    }
+
     @Override
     public RightService getConfiguredRightService()
     {
         configureRightResolver();
+        configureRightCache();
 
+        RightService rightService;
         try {
-            return componentManager.lookup(RightService.class);
+            rightService = componentManager.lookup(RightService.class);
         } catch (ComponentLookupException e) {
             getLogger().error("Failed to lookup component for RightService.");
             throw new RuntimeException(e);
         }
+
+        startPreloader();
+
+        return rightService;
     }
 }
\ No newline at end of file
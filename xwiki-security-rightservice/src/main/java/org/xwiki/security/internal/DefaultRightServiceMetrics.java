@@ -0,0 +1,353 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.xwiki.security.internal;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.annotation.Requirement;
+import org.xwiki.component.logging.AbstractLogEnabled;
+import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.component.manager.ComponentManager;
+import org.xwiki.component.phase.Initializable;
+
+import org.xwiki.security.RightServiceMetrics;
+
+/**
+ * Default implementation of the right service metrics, based on
+ * striped counters and histograms.  The metrics are registered as a
+ * JMX MBean under {@link #OBJECT_NAME}.
+ * @version $Id$
+ */
+@Component
+public class DefaultRightServiceMetrics extends AbstractLogEnabled
+    implements RightServiceMetrics, RightServiceMetricsMBean, Initializable
+{
+    /** The name of the MBean. */
+    public static final String OBJECT_NAME = "org.xwiki.security:type=RightServiceMetrics";
+
+    /** Nanoseconds per microsecond. */
+    private static final double NANOS_PER_MICRO = 1000.0;
+
+    /** The 99th percentile. */
+    private static final double P99 = 99;
+
+    /** The component manager, for looking up the cache invalidator. */
+    @Requirement private ComponentManager componentManager;
+
+    /** Latencies, indexed by operation. */
+    private final LatencyHistogram[] latencies = new LatencyHistogram[Operation.values().length];
+
+    /** Cache hits, indexed by entry category. */
+    private final StripedCounter[] hits = counters(EntryCategory.values().length);
+
+    /** Cache misses, indexed by entry category. */
+    private final StripedCounter[] misses = counters(EntryCategory.values().length);
+
+    /** Cache evictions, indexed by entry category. */
+    private final StripedCounter[] evictions = counters(EntryCategory.values().length);
+
+    /** Load retries, indexed by reason. */
+    private final StripedCounter[] retries = counters(Retry.values().length);
+
+    {
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * @param n The number of counters.
+     * @return An array of new counters.
+     */
+    private static StripedCounter[] counters(int n)
+    {
+        StripedCounter[] counters = new StripedCounter[n];
+        for (int i = 0; i < n; i++) {
+            counters[i] = new StripedCounter();
+        }
+        return counters;
+    }
+
+    @Override
+    public void initialize()
+    {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            // Replace the metrics of a previous component manager.
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(new StandardMBean(this, RightServiceMetricsMBean.class), name);
+        } catch (JMException e) {
+            getLogger().warn("Failed to register the right service metrics MBean: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void recordLatency(Operation operation, long nanos)
+    {
+        latencies[operation.ordinal()].record(nanos);
+    }
+
+    @Override
+    public void recordHit(EntryCategory category)
+    {
+        hits[category.ordinal()].increment();
+    }
+
+    @Override
+    public void recordMiss(EntryCategory category)
+    {
+        misses[category.ordinal()].increment();
+    }
+
+    @Override
+    public void recordEviction(EntryCategory category)
+    {
+        evictions[category.ordinal()].increment();
+    }
+
+    @Override
+    public void recordRetry(Retry reason)
+    {
+        retries[reason.ordinal()].increment();
+    }
+
+    @Override
+    public long getHits(EntryCategory category)
+    {
+        return hits[category.ordinal()].sum();
+    }
+
+    @Override
+    public long getMisses(EntryCategory category)
+    {
+        return misses[category.ordinal()].sum();
+    }
+
+    @Override
+    public long getEvictions(EntryCategory category)
+    {
+        return evictions[category.ordinal()].sum();
+    }
+
+    @Override
+    public double getHitRatio(EntryCategory category)
+    {
+        long hit = getHits(category);
+        long lookups = hit + getMisses(category);
+        return lookups == 0 ? 0 : (double) hit / lookups;
+    }
+
+    @Override
+    public long getRetries(Retry reason)
+    {
+        return retries[reason.ordinal()].sum();
+    }
+
+    @Override
+    public long getCount(Operation operation)
+    {
+        return latencies[operation.ordinal()].count();
+    }
+
+    @Override
+    public double getMeanNanos(Operation operation)
+    {
+        return latencies[operation.ordinal()].mean();
+    }
+
+    @Override
+    public long getPercentileNanos(Operation operation, double percentile)
+    {
+        return latencies[operation.ordinal()].percentile(percentile);
+    }
+
+    @Override
+    public void reset()
+    {
+        for (LatencyHistogram latency : latencies) {
+            latency.reset();
+        }
+        for (StripedCounter[] counters : new StripedCounter[][] {hits, misses, evictions, retries }) {
+            for (StripedCounter counter : counters) {
+                counter.reset();
+            }
+        }
+    }
+
+    @Override
+    public long getUserAtEntityHits()
+    {
+        return getHits(EntryCategory.USER_AT_ENTITY);
+    }
+
+    @Override
+    public long getUserAtEntityMisses()
+    {
+        return getMisses(EntryCategory.USER_AT_ENTITY);
+    }
+
+    @Override
+    public long getUserAtEntityEvictions()
+    {
+        return getEvictions(EntryCategory.USER_AT_ENTITY);
+    }
+
+    @Override
+    public double getUserAtEntityHitRatio()
+    {
+        return getHitRatio(EntryCategory.USER_AT_ENTITY);
+    }
+
+    @Override
+    public long getEntityHits()
+    {
+        return getHits(EntryCategory.ENTITY);
+    }
+
+    @Override
+    public long getEntityMisses()
+    {
+        return getMisses(EntryCategory.ENTITY);
+    }
+
+    @Override
+    public long getEntityEvictions()
+    {
+        return getEvictions(EntryCategory.ENTITY);
+    }
+
+    @Override
+    public double getEntityHitRatio()
+    {
+        return getHitRatio(EntryCategory.ENTITY);
+    }
+
+    @Override
+    public long getParentEvictedRetries()
+    {
+        return getRetries(Retry.PARENT_EVICTED);
+    }
+
+    @Override
+    public long getConflictingInsertionRetries()
+    {
+        return getRetries(Retry.CONFLICTING_INSERTION);
+    }
+
+    @Override
+    public long getStaleLoadRetries()
+    {
+        return getRetries(Retry.STALE_LOAD);
+    }
+
+    @Override
+    public long getFailedLoads()
+    {
+        return getRetries(Retry.GAVE_UP);
+    }
+
+    @Override
+    public long getCheckAccessCount()
+    {
+        return getCount(Operation.CHECK_ACCESS);
+    }
+
+    @Override
+    public double getCheckAccessMeanMicros()
+    {
+        return getMeanNanos(Operation.CHECK_ACCESS) / NANOS_PER_MICRO;
+    }
+
+    @Override
+    public double getCheckAccess99thPercentileMicros()
+    {
+        return getPercentileNanos(Operation.CHECK_ACCESS, P99) / NANOS_PER_MICRO;
+    }
+
+    @Override
+    public long getLoadCount()
+    {
+        return getCount(Operation.LOAD);
+    }
+
+    @Override
+    public double getLoadMeanMicros()
+    {
+        return getMeanNanos(Operation.LOAD) / NANOS_PER_MICRO;
+    }
+
+    @Override
+    public double getLoad99thPercentileMicros()
+    {
+        return getPercentileNanos(Operation.LOAD, P99) / NANOS_PER_MICRO;
+    }
+
+    @Override
+    public double getResolveMeanMicros()
+    {
+        return getMeanNanos(Operation.RESOLVE) / NANOS_PER_MICRO;
+    }
+
+    @Override
+    public int getInvalidationQueueDepth()
+    {
+        RightCacheInvalidator invalidator = getInvalidator();
+        return invalidator == null ? 0 : invalidator.getQueueDepth();
+    }
+
+    @Override
+    public double getInvalidationCoalescingRatio()
+    {
+        RightCacheInvalidator invalidator = getInvalidator();
+        return invalidator == null ? 0 : invalidator.getCoalescingRatio();
+    }
+
+    @Override
+    public double getPercentileMicros(String operation, double percentile)
+    {
+        return getPercentileNanos(Operation.valueOf(operation), percentile) / NANOS_PER_MICRO;
+    }
+
+    /**
+     * The invalidator depends on the cache, which depends on the
+     * metrics, so it is looked up when needed.
+     * @return The right cache invalidator, or {@code null} if it is
+     * not available.
+     */
+    private RightCacheInvalidator getInvalidator()
+    {
+        try {
+            return componentManager.lookup(RightCacheInvalidator.class);
+        } catch (ComponentLookupException e) {
+            getLogger().debug("No right cache invalidator available.");
+            return null;
+        }
+    }
+}
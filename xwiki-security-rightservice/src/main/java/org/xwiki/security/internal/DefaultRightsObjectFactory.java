@@ -34,15 +34,24 @@
 import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.XWikiException;
 import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.store.XWikiStoreInterface;
 
 import org.xwiki.context.Execution;
 
 import org.xwiki.model.reference.DocumentReferenceResolver;
 import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReferenceSerializer;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Implementation of the rights object factory interface.
@@ -51,9 +60,19 @@
 @Component
 public class DefaultRightsObjectFactory extends AbstractLogEnabled implements RightsObjectFactory
 {
+    /** Maximum number of document names passed to a single query. */
+    private static final int BATCH_SIZE = 500;
+
+    /** Query for the names of the documents that hold objects of a class. */
+    private static final String OBJECT_QUERY
+        = "select distinct obj.name from BaseObject as obj where obj.className = ? and obj.name in (";
+
     /** Resolver for user and group names. */
     @Requirement("user") private DocumentReferenceResolver<String> resolver;
 
+    /** Serializer for document names relative to their wiki. */
+    @Requirement("local") private EntityReferenceSerializer<String> localSerializer;
+
     /** Execution object. */
     @Requirement private Execution execution;
 
@@ -101,5 +120,89 @@ public Collection<RightsObject> getInstances(DocumentReference docRef,  boolean
 
         return rightsObjs;
     }
-}
 
+    @Override
+    public Map<DocumentReference, Collection<RightsObject>> getInstances(Collection<DocumentReference> docRefs,
+                                                                         boolean global)
+        throws RightServiceException
+    {
+        Map<DocumentReference, Collection<RightsObject>> instances = new HashMap();
+        if (docRefs.isEmpty()) {
+            return instances;
+        }
+
+        Map<String, List<DocumentReference>> wikis = new LinkedHashMap();
+        for (DocumentReference docRef : docRefs) {
+            String wikiName = docRef.getWikiReference().getName();
+            List<DocumentReference> docs = wikis.get(wikiName);
+            if (docs == null) {
+                docs = new ArrayList();
+                wikis.put(wikiName, docs);
+            }
+            docs.add(docRef);
+        }
+
+        String className = global
+            ? AbstractRightsObject.GLOBAL_RIGHTS_CLASS
+            : AbstractRightsObject.LOCAL_RIGHTS_CLASS;
+
+        for (Map.Entry<String, List<DocumentReference>> wiki : wikis.entrySet()) {
+            Set<String> withObjects = getDocumentsWithObjects(wiki.getKey(), className, wiki.getValue());
+            for (DocumentReference docRef : wiki.getValue()) {
+                if (withObjects == null || withObjects.contains(localSerializer.serialize(docRef))) {
+                    instances.put(docRef, getInstances(docRef, global));
+                } else {
+                    instances.put(docRef, Collections.<RightsObject>emptyList());
+                }
+            }
+        }
+
+        return instances;
+    }
+
+    /**
+     * Query the store of a wiki for those of the given documents
+     * that have objects of the given class.
+     * @param wikiName The name of the wiki.
+     * @param className The name of the class.
+     * @param docRefs The documents, which are all located in the wiki.
+     * @return The local names of the documents that have objects of
+     * the class, or {@code null} if the store could not be queried,
+     * in which case all documents should be inspected.
+     */
+    private Set<String> getDocumentsWithObjects(String wikiName, String className, List<DocumentReference> docRefs)
+    {
+        XWikiContext context = (XWikiContext) execution.getContext()
+            .getProperty(XWikiContext.EXECUTIONCONTEXT_KEY);
+        XWikiStoreInterface store = context.getWiki().getStore();
+        if (store == null) {
+            return null;
+        }
+
+        Set<String> withObjects = new HashSet();
+        String currentWiki = context.getDatabase();
+        try {
+            context.setDatabase(wikiName);
+            for (int start = 0; start < docRefs.size(); start += BATCH_SIZE) {
+                List<DocumentReference> batch = docRefs.subList(start, Math.min(start + BATCH_SIZE, docRefs.size()));
+                StringBuilder query = new StringBuilder(OBJECT_QUERY);
+                List<String> parameters = new ArrayList(batch.size() + 1);
+                parameters.add(className);
+                for (DocumentReference docRef : batch) {
+                    query.append(parameters.size() == 1 ? "?" : ",?");
+                    parameters.add(localSerializer.serialize(docRef));
+                }
+                query.append(')');
+                List<String> names = store.search(query.toString(), 0, 0, parameters, context);
+                withObjects.addAll(names);
+            }
+        } catch (XWikiException e) {
+            getLogger().warn("Failed to query for rights objects in wiki [" + wikiName
+                             + "], loading the documents one by one.", e);
+            return null;
+        } finally {
+            context.setDatabase(currentWiki);
+        }
+        return withObjects;
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.xwiki.security.internal;
+
+import org.xwiki.component.annotation.ComponentRole;
+
+import org.xwiki.model.reference.DocumentReference;
+
+import org.xwiki.security.RightServiceException;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+
+import java.util.Collection;
+
+/**
+ * Index of the group memberships of users and groups.  The direct
+ * memberships of a wiki are loaded from its group documents the
+ * first time they are needed, and then kept up to date from the
+ * updates of the group documents, together with the transitive
+ * groups of the members that have been looked up.
+ * @version $Id$
+ */
+@ComponentRole
+public interface GroupMembershipCache
+{
+    /**
+     * @param member The identity of a user or group.
+     * @return the groups that the member belongs to, directly or
+     * through other groups, in the wiki of the member and in the
+     * main wiki.
+     * @throws RightServiceException on error.
+     */
+    Collection<DocumentReference> getGroupsForMember(DocumentReference member)
+        throws RightServiceException;
+
+    /**
+     * A document that is not known by this cache as a group has no
+     * member, so its update only needs to be reported to the cache
+     * if it now holds group objects.
+     * @param document Reference to a document.
+     * @return {@code true} if and only if the document is a group
+     * with at least one member in a wiki whose memberships are
+     * loaded.
+     */
+    boolean isCachedGroup(DocumentReference document);
+
+    /**
+     * Replace the direct members of a group by those of its saved
+     * document, and update the transitive groups of the members
+     * affected by the change.
+     * @param group Reference to the group document.
+     * @param document The group document, as it was saved, or {@code
+     * null} if it was deleted.
+     * @return The users and groups whose group memberships may have
+     * changed.
+     */
+    Collection<DocumentReference> groupUpdated(DocumentReference group, XWikiDocument document);
+}
@@ -0,0 +1,135 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.xwiki.security.internal;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A bounded record of the most recently loaded keys, where a key
+ * identifies a user and the space, or wiki, where an access level
+ * was loaded.  The record can be saved to, and read back from, a
+ * file with one key per line.
+ * @version $Id$
+ */
+final class HotKeys
+{
+    /** The encoding of the file. */
+    private static final String ENCODING = "UTF-8";
+
+    /** The keys, in least recently loaded first order. */
+    private final Map<String, Boolean> keys;
+
+    /**
+     * @param capacity The maximum number of keys.
+     */
+    HotKeys(final int capacity)
+    {
+        keys = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+                /** Serial version. */
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest)
+                {
+                    return size() > capacity;
+                }
+            };
+    }
+
+    /** @param key The key that was loaded. */
+    synchronized void record(String key)
+    {
+        keys.put(key, Boolean.TRUE);
+    }
+
+    /** @return The keys, most recently loaded first. */
+    synchronized List<String> getKeys()
+    {
+        List<String> list = new ArrayList<String>(keys.keySet());
+        Collections.reverse(list);
+        return list;
+    }
+
+    /**
+     * Save the keys to a file.  The keys are written to a temporary
+     * file that then replaces the file, so that a crash while saving
+     * does not leave a truncated file.
+     * @param file The file.
+     * @throws IOException on error.
+     */
+    void save(File file) throws IOException
+    {
+        List<String> list = getKeys();
+        File tmp = new File(file.getPath() + ".tmp");
+        Writer writer = new OutputStreamWriter(new FileOutputStream(tmp), ENCODING);
+        try {
+            for (String key : list) {
+                writer.write(key);
+                writer.write('\n');
+            }
+        } finally {
+            writer.close();
+        }
+        if (!tmp.renameTo(file)) {
+            file.delete();
+            if (!tmp.renameTo(file)) {
+                throw new IOException("Failed to rename " + tmp + " to " + file);
+            }
+        }
+    }
+
+    /**
+     * @param file A file written by {@link #save(File)}.
+     * @return The keys in the file, most recently loaded first, or
+     * an empty list if the file does not exist.
+     * @throws IOException on error.
+     */
+    static List<String> read(File file) throws IOException
+    {
+        List<String> list = new ArrayList<String>();
+        if (!file.exists()) {
+            return list;
+        }
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), ENCODING));
+        try {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                if (line.length() > 0) {
+                    list.add(line);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return list;
+    }
+}
@@ -0,0 +1,262 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.xwiki.security.internal;
+
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.EntityReference;
+
+import org.xwiki.security.RightCacheKey;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A right cache key that is interned, i.e., there is at most one
+ * instance per entity in the document hierarchy of the cache.  Keys
+ * are therefore compared by identity and hashed by a numeric id
+ * that is assigned when the key is first created.
+ *
+ * The keys form a tree that mirrors the document hierarchy.  A key
+ * holds its parent strongly and its children weakly, so a key is
+ * kept for as long as a cache entry, or a thread, refers to it.
+ * Looking up an existing key walks the tree by entity names and
+ * does not allocate any objects.
+ *
+ * @version $Id$
+ */
+final class InternedRightCacheKey implements RightCacheKey
+{
+    /** Number of entity types. */
+    private static final int TYPES = EntityType.values().length;
+
+    /** The id of this key. */
+    private final int id;
+
+    /** The parent key, or {@code null} for the main wiki. */
+    private final InternedRightCacheKey parent;
+
+    /** The entity reference representing the hierarchy within the cache. */
+    private final EntityReference entityReference;
+
+    /** String representation of the id, used by caches with string keys. */
+    private final String keyString;
+
+    /** Child keys, one map per entity type, created on demand. */
+    private final AtomicReferenceArray<ConcurrentMap<String, KeyReference>> children
+        = new AtomicReferenceArray<ConcurrentMap<String, KeyReference>>(TYPES);
+
+    /** The registry that created this key. */
+    private final Registry registry;
+
+    /**
+     * @param registry The registry that creates this key.
+     * @param name The name of the entity.
+     * @param type The type of the entity.
+     * @param parent The parent key.
+     */
+    private InternedRightCacheKey(Registry registry, String name, EntityType type, InternedRightCacheKey parent)
+    {
+        this.registry = registry;
+        this.id = registry.nextId.incrementAndGet();
+        this.parent = parent;
+        this.entityReference = new EntityReference(name, type,
+                                                   parent != null ? parent.entityReference.clone() : null);
+        this.keyString = Integer.toString(id);
+    }
+
+    @Override
+    public EntityReference getEntityReference()
+    {
+        return entityReference;
+    }
+
+    /** @return The id of this key. */
+    int getId()
+    {
+        return id;
+    }
+
+    /** @return The parent key, or {@code null} if this is the main wiki. */
+    InternedRightCacheKey getParent()
+    {
+        return parent;
+    }
+
+    /** @return A string that uniquely identifies this key. */
+    String getKeyString()
+    {
+        return keyString;
+    }
+
+    /**
+     * Get the child key with the given name and type, creating it if
+     * it does not exist.
+     * @param name The name of the child entity.
+     * @param type The type of the child entity.
+     * @return The interned child key.
+     */
+    InternedRightCacheKey getChild(String name, EntityType type)
+    {
+        ConcurrentMap<String, KeyReference> map = children.get(type.ordinal());
+        if (map == null) {
+            children.compareAndSet(type.ordinal(), null, new ConcurrentHashMap<String, KeyReference>(4, 0.75f, 1));
+            map = children.get(type.ordinal());
+        }
+
+        while (true) {
+            KeyReference ref = map.get(name);
+            if (ref != null) {
+                InternedRightCacheKey child = ref.get();
+                if (child != null) {
+                    return child;
+                }
+            }
+            registry.expungeStaleKeys();
+            InternedRightCacheKey child = new InternedRightCacheKey(registry, name, type, this);
+            KeyReference newRef = new KeyReference(child, registry.queue, map, name);
+            if (ref == null ? map.putIfAbsent(name, newRef) == null : map.replace(name, ref, newRef)) {
+                return child;
+            }
+        }
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return id;
+    }
+
+    @Override
+    public boolean equals(Object other)
+    {
+        return other == this;
+    }
+
+    @Override
+    public String toString()
+    {
+        return parent != null
+            ? parent.toString() + '/' + entityReference.getName()
+            : entityReference.getName();
+    }
+
+    /**
+     * Weak reference to a child key, which knows how to remove itself
+     * from its parent.
+     */
+    private static final class KeyReference extends WeakReference<InternedRightCacheKey>
+    {
+        /** The map holding this reference. */
+        private final ConcurrentMap<String, KeyReference> map;
+
+        /** The name of the referenced entity. */
+        private final String name;
+
+        /**
+         * @param key The referenced key.
+         * @param queue The reference queue.
+         * @param map The map holding this reference.
+         * @param name The name of the referenced entity.
+         */
+        KeyReference(InternedRightCacheKey key, ReferenceQueue<InternedRightCacheKey> queue,
+                     ConcurrentMap<String, KeyReference> map, String name)
+        {
+            super(key, queue);
+            this.map = map;
+            this.name = name;
+        }
+
+        /** Remove this reference from the map holding it. */
+        void expunge()
+        {
+            map.remove(name, this);
+        }
+    }
+
+    /**
+     * Interns the keys of one right cache.
+     */
+    static final class Registry
+    {
+        /** Id generator. */
+        private final AtomicInteger nextId = new AtomicInteger();
+
+        /** Queue of cleared child references. */
+        private final ReferenceQueue<InternedRightCacheKey> queue = new ReferenceQueue<InternedRightCacheKey>();
+
+        /**
+         * The key of the main wiki.  The main wiki is fixed for the
+         * lifetime of the wiki instance, so it is resolved once.
+         */
+        private volatile InternedRightCacheKey mainWiki;
+
+        /**
+         * Get the interned key for an entity.  The main wiki is
+         * prepended as root for entities in virtual wikis.  Only the
+         * parents of the entity are considered, so the entity may
+         * have a child set.
+         * @param entity An entity reference.
+         * @return The interned key.
+         */
+        InternedRightCacheKey getKey(EntityReference entity)
+        {
+            EntityReference parent = entity.getParent();
+            if (parent == null) {
+                assert (entity.getType() == EntityType.WIKI);
+                InternedRightCacheKey main = getMainWiki();
+                if (main.entityReference.getName().equals(entity.getName())) {
+                    return main;
+                }
+                return main.getChild(entity.getName(), EntityType.WIKI);
+            }
+            return getKey(parent).getChild(entity.getName(), entity.getType());
+        }
+
+        /** @return the key of the main wiki. */
+        private InternedRightCacheKey getMainWiki()
+        {
+            InternedRightCacheKey main = mainWiki;
+            if (main == null) {
+                synchronized (this) {
+                    main = mainWiki;
+                    if (main == null) {
+                        main = new InternedRightCacheKey(this, XWikiUtils.getMainWiki(), EntityType.WIKI, null);
+                        mainWiki = main;
+                    }
+                }
+            }
+            return main;
+        }
+
+        /** Remove references to keys that have been garbage collected. */
+        void expungeStaleKeys()
+        {
+            KeyReference ref;
+            while ((ref = (KeyReference) queue.poll()) != null) {
+                ref.expunge();
+            }
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.xwiki.security.internal;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A latency histogram with power of two buckets, where bucket
+ * {@code i} counts the durations {@code d} such that
+ * {@code 2^(i-1) <= d < 2^i} nanoseconds.  Like the
+ * {@link StripedCounter}, the histogram is striped per thread so that
+ * recording a duration is cheap and does not allocate.
+ * @version $Id$
+ */
+final class LatencyHistogram
+{
+    /** The number of buckets. */
+    private static final int BUCKETS = 64;
+
+    /** The offset of the total duration within a row. */
+    private static final int TOTAL = BUCKETS;
+
+    /** The length of the row of a stripe, padded to a cache line. */
+    private static final int ROW = BUCKETS + StripedCounter.PADDING;
+
+    /** The rows of all stripes. */
+    private final AtomicLongArray cells = new AtomicLongArray(StripedCounter.STRIPES * ROW);
+
+    /** @param nanos The duration to record. */
+    void record(long nanos)
+    {
+        int row = StripedCounter.stripe() * ROW;
+        int bucket = nanos <= 0 ? 0 : Math.min(BUCKETS - 1, BUCKETS - Long.numberOfLeadingZeros(nanos));
+        cells.incrementAndGet(row + bucket);
+        if (nanos > 0) {
+            cells.addAndGet(row + TOTAL, nanos);
+        }
+    }
+
+    /** @return The bucket counts, summed over all stripes. */
+    private long[] buckets()
+    {
+        long[] buckets = new long[BUCKETS];
+        for (int s = 0; s < StripedCounter.STRIPES; s++) {
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets[i] += cells.get(s * ROW + i);
+            }
+        }
+        return buckets;
+    }
+
+    /** @return The number of recorded durations. */
+    long count()
+    {
+        long count = 0;
+        for (long bucket : buckets()) {
+            count += bucket;
+        }
+        return count;
+    }
+
+    /** @return The mean duration in nanoseconds, or 0 if nothing has been recorded. */
+    double mean()
+    {
+        long total = 0;
+        for (int s = 0; s < StripedCounter.STRIPES; s++) {
+            total += cells.get(s * ROW + TOTAL);
+        }
+        long count = count();
+        return count == 0 ? 0 : (double) total / count;
+    }
+
+    /**
+     * @param percentile A percentile, between 0 and 100.
+     * @return An upper bound of the given percentile of the recorded
+     * durations in nanoseconds, or 0 if nothing has been recorded.
+     */
+    long percentile(double percentile)
+    {
+        long[] buckets = buckets();
+        long count = 0;
+        for (long bucket : buckets) {
+            count += bucket;
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(count * Math.max(0, Math.min(100, percentile)) / 100);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets[i];
+            if (seen >= rank && seen > 0) {
+                return i == BUCKETS - 1 ? Long.MAX_VALUE : (1L << i) - 1;
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    /** Discard all recorded durations. */
+    void reset()
+    {
+        for (int i = 0; i < cells.length(); i++) {
+            cells.set(i, 0);
+        }
+    }
+}
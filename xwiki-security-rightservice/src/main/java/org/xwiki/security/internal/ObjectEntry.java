@@ -21,6 +21,7 @@
 package org.xwiki.security.internal;
 
 import org.xwiki.security.RightCacheEntry;
+import org.xwiki.security.RightsObject;
 
 import java.util.Collection;
 import java.util.LinkedList;
@@ -28,6 +29,11 @@
 /**
  * A right cache entry that caches objects, which may be of type
  * RightsObject or GroupObject.
+ *
+ * The rights objects are also kept in a {@link RightsObjectIndex},
+ * built with the {@link PrincipalIds} of the wiki of the entry.  The
+ * entry of a wiki holds the identifiers used by all the entries of
+ * the wiki, so that they are removed from the cache together.
  * @version $Id$
  */
 class ObjectEntry implements RightCacheEntry
@@ -35,13 +41,55 @@ class ObjectEntry implements RightCacheEntry
     /** The list of objects. */
     private final Collection objects = new LinkedList();
 
+    /** The identifiers of the users and groups of the wiki of this entry. */
+    private final PrincipalIds principalIds;
+
+    /** The rights objects of this entry, indexed by the users and groups they name. */
+    private RightsObjectIndex rightsObjects;
+
+    /**
+     * Create an empty entry with identifiers of its own.
+     */
+    public ObjectEntry()
+    {
+        this(new PrincipalIds());
+    }
+
+    /**
+     * @param principalIds The identifiers of the users and groups of the wiki of this entry.
+     */
+    public ObjectEntry(PrincipalIds principalIds)
+    {
+        this.principalIds = principalIds;
+    }
+
     /**
      * Add an object to this entry.
      * @param o The object to add.
      */
-    public void addObject(Object o)
+    public synchronized void addObject(Object o)
     {
         objects.add(o);
+        rightsObjects = null;
+    }
+
+    /**
+     * @return The identifiers of the users and groups of the wiki of this entry.
+     */
+    PrincipalIds getPrincipalIds()
+    {
+        return principalIds;
+    }
+
+    /**
+     * @return The rights objects of this entry, indexed by the users and groups they name.
+     */
+    synchronized RightsObjectIndex getRightsObjects()
+    {
+        if (rightsObjects == null) {
+            rightsObjects = new RightsObjectIndex(getObjects(RightsObject.class), principalIds);
+        }
+        return rightsObjects;
     }
 
     @Override
@@ -0,0 +1,144 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.xwiki.security.internal;
+
+import org.xwiki.model.reference.DocumentReference;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Assigns small integer identifiers to the users and groups that
+ * are named by the rights objects of a wiki, so that rights objects
+ * can be matched against a user and its groups by comparing integers
+ * and bit sets instead of document references.
+ *
+ * Users and groups are numbered separately, which keeps the group
+ * identifiers dense even on wikis with many users.  Identifiers are
+ * only assigned when rights objects are indexed.  Looking up the
+ * identifiers of a user and its groups while resolving rights never
+ * assigns any, so that users named by no rights object are not
+ * remembered.
+ *
+ * There is one instance per wiki, held by the right cache entry of
+ * the wiki, so that the identifiers are dropped together with the
+ * cached rights objects of the wiki.
+ *
+ * @version $Id$
+ */
+final class PrincipalIds
+{
+    /** The identifier of the principals that no rights object names. */
+    static final int UNKNOWN = -1;
+
+    /** The identifiers of the users. */
+    private final ConcurrentMap<DocumentReference, Integer> users
+        = new ConcurrentHashMap<DocumentReference, Integer>();
+
+    /** The identifiers of the groups. */
+    private final ConcurrentMap<DocumentReference, Integer> groups
+        = new ConcurrentHashMap<DocumentReference, Integer>();
+
+    /** The next user identifier. */
+    private final AtomicInteger nextUser = new AtomicInteger();
+
+    /** The next group identifier. */
+    private final AtomicInteger nextGroup = new AtomicInteger();
+
+    /**
+     * @param user A user named by a rights object.
+     * @return the identifier of the user, which is assigned if needed.
+     */
+    int getUserId(DocumentReference user)
+    {
+        return getId(users, nextUser, user);
+    }
+
+    /**
+     * @param group A group named by a rights object.
+     * @return the identifier of the group, which is assigned if needed.
+     */
+    int getGroupId(DocumentReference group)
+    {
+        return getId(groups, nextGroup, group);
+    }
+
+    /**
+     * @param user A user identity.
+     * @return the identifier of the user, or {@link #UNKNOWN} if no
+     * rights object names the user.
+     */
+    int findUserId(DocumentReference user)
+    {
+        return findId(users, user);
+    }
+
+    /**
+     * @param group A group identity.
+     * @return the identifier of the group, or {@link #UNKNOWN} if no
+     * rights object names the group.
+     */
+    int findGroupId(DocumentReference group)
+    {
+        return findId(groups, group);
+    }
+
+    /**
+     * @return the number of users and groups that have an identifier.
+     */
+    int size()
+    {
+        return users.size() + groups.size();
+    }
+
+    /**
+     * @param ids The identifiers assigned so far.
+     * @param principal The user or group.
+     * @return the identifier of the principal, or {@link #UNKNOWN}.
+     */
+    private static int findId(ConcurrentMap<DocumentReference, Integer> ids, DocumentReference principal)
+    {
+        Integer id = ids.get(principal);
+        return id == null ? UNKNOWN : id;
+    }
+
+    /**
+     * @param ids The identifiers assigned so far.
+     * @param next The next identifier.
+     * @param principal The user or group.
+     * @return the identifier of the principal.
+     */
+    private static int getId(ConcurrentMap<DocumentReference, Integer> ids,
+                             AtomicInteger next,
+                             DocumentReference principal)
+    {
+        Integer id = ids.get(principal);
+        if (id == null) {
+            Integer newId = next.getAndIncrement();
+            id = ids.putIfAbsent(principal, newId);
+            if (id == null) {
+                id = newId;
+            }
+        }
+        return id;
+    }
+}
@@ -35,11 +35,10 @@
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.EntityReference;
 
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.List;
 import java.util.ListIterator;
-import java.util.Map;
-import java.util.EnumMap;
 
 /**
  * The default implementation for the right resolver.
@@ -62,30 +61,29 @@ public AccessLevel resolve(DocumentReference user,
                                Collection<DocumentReference> groups,
                                List<Collection<RightsObject>> rightsObjects)
     {
-        AccessLevel accessLevel = new AccessLevel();
+        LevelMasks accessLevel = new LevelMasks();
 
         /*
          * Allow everything for superadmin.
          */
         if (isSuperAdmin(user)) {
-            for (Right right : Right.values()) {
-                accessLevel.allow(right);
-            }
-            return accessLevel.getExistingInstance();
+            accessLevel.allow(allRightsMask);
+            return AccessLevel.getInstance(accessLevel.toLevels());
         }
 
         /*
          * Wiki owner is granted admin rights.
          */
         if (isWikiOwner(user, entity)) {
-            accessLevel.allow(ADMIN);
+            accessLevel.allow(mask(ADMIN));
         }
 
+        Principals principals = new Principals(user, groups);
         ListIterator<Collection<RightsObject>> iterator
             = rightsObjects.listIterator(rightsObjects.size());
         EntityReference ref = entityKey.getEntityReference();
         while (iterator.hasPrevious() && ref != null) {
-            resolve(user, groups, iterator.previous(), ref, accessLevel);
+            resolve(principals, iterator.previous(), ref, accessLevel);
             ref = ref.getParent();
         }
 
@@ -93,7 +91,7 @@ public AccessLevel resolve(DocumentReference user,
 
         postProcess(user, entity, accessLevel);
 
-        return accessLevel.getExistingInstance();
+        return AccessLevel.getInstance(accessLevel.toLevels());
     }
 
     /**
@@ -103,166 +101,120 @@ public AccessLevel resolve(DocumentReference user,
      * @param entity The entity, which the user wants to access.
      * @param accessLevel The accumulated result.
      */
-    private void postProcess(DocumentReference user, EntityReference entity, AccessLevel accessLevel)
+    private void postProcess(DocumentReference user, EntityReference entity, LevelMasks accessLevel)
     {
-        for (Right right : Right.values()) {
-            if (accessLevel.get(right) == UNDETERMINED) {
-                if (!user.getWikiReference().getName().equals(entity.getRoot().getName())) {
-                    /*
-                     * Deny all by default for users from another wiki.
-                     */
-                    accessLevel.deny(right);
-                } else {
-                    /*
-                     * Creator is granted delete-rights, by default.
-                     */
-                    if (right == DELETE && isCreator(user, entity)) {
-                        accessLevel.allow(DELETE);
-                    } else {
-                        accessLevel.set(right, AccessLevel.DEFAULT_ACCESS_LEVEL.get(right));
-                    }
+        int undetermined = allRightsMask & accessLevel.undetermined();
+        if (undetermined != 0) {
+            if (!user.getWikiReference().getName().equals(entity.getRoot().getName())) {
+                /*
+                 * Deny all by default for users from another wiki.
+                 */
+                accessLevel.deny |= undetermined;
+            } else {
+                /*
+                 * Creator is granted delete-rights, by default.
+                 */
+                if ((undetermined & mask(DELETE)) != 0 && isCreator(user, entity)) {
+                    accessLevel.allow |= mask(DELETE);
+                    undetermined &= ~mask(DELETE);
                 }
+                accessLevel.allow |= undetermined & defaultAllowMask;
+                accessLevel.deny |= undetermined & ~defaultAllowMask;
             }
         }
 
-        if (accessLevel.get(PROGRAM) == ALLOW) {
-            for (Right right : programImpliedRights) {
-                accessLevel.allow(right);
-            }
-        } else if (accessLevel.get(ADMIN)  == ALLOW) {
-            for (Right right : adminImpliedRights) {
-                accessLevel.allow(right);
-            }
-        }
-
+        allowImpliedRights(accessLevel);
     }
 
     /**
-     * Compute the access level of a particular document hierarchy level.
-     * @param user The user.
-     * @param groups The groups where the user is a member.
+     * Compute the access level of a particular document hierarchy
+     * level.  Only the rights objects that match the user are
+     * considered, in their order, and for each of them only the
+     * rights it carries.
+     * @param principals The user and the groups where the user is a member.
      * @param rightsObjects The rights objects at this level in the document hierarchy.
      * @param ref The entity reference that specifies this level in the document hierarchy.
      * @param accessLevel The accumulated result.
      */
-    private void resolve(DocumentReference user,
-                         Collection<DocumentReference> groups,
+    private void resolve(Principals principals,
                          Collection<RightsObject> rightsObjects,
                          EntityReference ref,
-                         AccessLevel accessLevel)
+                         LevelMasks accessLevel)
     {
-        AccessLevel currentLevel = new AccessLevel();
-        Map<Right, Integer> priorities = new EnumMap(Right.class);
+        int enabled = getEnabledRights(ref);
+        LevelMasks currentLevel = new LevelMasks();
+        RightsObjectIndex index = RightsObjectIndex.of(rightsObjects);
+        BitSet matches = principals.match(index);
+        if (matches == null) {
+            mergeLevels(currentLevel, accessLevel, enabled);
+            return;
+        }
 
-        for (Right right : enabledRights.get(ref.getType())) {
-            boolean foundAllow = false;
-            for (RightsObject obj : rightsObjects) {
-                if (obj.checkRight(right)) {
-                    resolveLevel(right, user, groups, obj, ref, priorities, currentLevel);
-                }
+        int[] priorities = new int[Right.values().length];
+        for (int i = matches.nextSetBit(0); i >= 0; i = matches.nextSetBit(i + 1)) {
+            AbstractRightsObject obj = index.get(i);
+            int rights = obj.getRightsMask() & enabled;
+            if (rights == 0) {
+                continue;
+            }
+            int priority = index.namesUser(i, principals.userId)
+                ? USER_PRIORITY
+                : getPriority(principals, index, i);
+            for (int bits = rights; bits != 0; bits &= bits - 1) {
+                resolveConflict(obj.getState(), Integer.numberOfTrailingZeros(bits), priority, priorities,
+                                currentLevel);
             }
         }
-        mergeLevels(currentLevel, accessLevel, ref);
+        mergeLevels(currentLevel, accessLevel, enabled);
     }
 
-
     /**
-     * Resolve the given right for the user on the level given by ref.
-     * @param right The right to resolve.
-     * @param user The user identity.
-     * @param groups The groups where the user is a member.
-     * @param obj The currently considered rights object.
-     * @param ref An entity reference that represents the current level in the document hierarchy.
-     * @param priorities The accumulated priorities of each right in the current level.
-     * @param accessLevel The accumulated result at the current level.
+     * @param principals The user and the groups where the user is a
+     * member, matched against the index.
+     * @param index The rights objects of the level.
+     * @param position The position of an object that matches one of the groups.
+     * @return the priority of the first of the groups that the object matches.
      */
-    private void resolveLevel(Right right,
-                              DocumentReference user,
-                              Collection<DocumentReference> groups,
-                              RightsObject obj,
-                              EntityReference ref,
-                              Map<Right, Integer> priorities,
-                              AccessLevel accessLevel)
+    private int getPriority(Principals principals, RightsObjectIndex index, int position)
     {
-        if (right == PROGRAM && ref.getParent() != null) {
-            /*
-             * Programming rights only checked on main wiki.
-             */
-            return;
-        }
-
-        if (obj.checkUser(user)) {
-            resolveConflict(obj.getState(), right, USER_PRIORITY, priorities, accessLevel);
-        } else {
-            for (DocumentReference group : groups) {
-                if (obj.checkGroup(group)) {
-                    resolveConflict(obj.getState(), right, getPriority(group), priorities, accessLevel);
-                    break;
-                }
+        for (int i = 0; i < principals.groupIds.length; i++) {
+            if (index.namesGroup(position, principals.groupIds[i])) {
+                return getPriority(principals.groups.get(i));
             }
         }
+        return ALL_GROUP_PRIORITY;
     }
 
     /**
      * Resolve conflicting rights within the current level in the document hierarchy.
      * @param state The state to consider setting.
-     * @param right The right that is being concerned.
+     * @param value The value of the right that is being concerned.
      * @param priority The priority to use for this particular right match.
-     * @param priorities Priority that was used for previous matches.
+     * @param priorities Priority that was used for previous matches, indexed by right value.
      * @param accessLevel The accumulated result.
      */
     private void resolveConflict(RightState state,
-                                 Right right,
+                                 int value,
                                  int priority,
-                                 Map<Right, Integer> priorities,
-                                 AccessLevel accessLevel)
+                                 int[] priorities,
+                                 LevelMasks accessLevel)
     {
-        if (accessLevel.get(right) == UNDETERMINED) {
-            accessLevel.set(right, state);
-            priorities.put(right, priority);
+        int bit = 1 << value;
+        RightState current = accessLevel.get(bit);
+        if (current == UNDETERMINED) {
+            accessLevel.set(bit, state);
+            priorities[value] = priority;
             return;
         }
         if (state == UNDETERMINED) {
             return;
         }
-        if (accessLevel.get(right) != state) {
-            if (priority > priorities.get(right)) {
-                accessLevel.set(right, state);
-                priorities.put(right, priority);
+        if (current != state) {
+            if (priority > priorities[value]) {
+                accessLevel.set(bit, state);
+                priorities[value] = priority;
             } else {
-                accessLevel.set(right, tieResolution.get(right));
-            }
-        }
-    }
-
-    /**
-     * Merge the current levels with the result from previous ones.
-     * @param currentLevel The access level computed at the current level in the document hierarchy.
-     * @param accessLevel The resulting access levels previously computed.
-     * @param ref {@link EntityReference} that specifies the current level in the document hierarchy.
-     */
-    private void mergeLevels(AccessLevel currentLevel,
-                             AccessLevel accessLevel,
-                             EntityReference ref)
-    {
-        for (Right right : enabledRights.get(ref.getType())) {
-            if (right == PROGRAM && ref.getParent() != null) {
-                /*
-                 * Programming rights only allowed on main wiki.
-                 */
-                continue;
-            }
-            if (accessLevel.get(right) == UNDETERMINED) {
-                accessLevel.set(right, currentLevel.get(right));
-                continue;
-            }
-            if (currentLevel.get(right) == UNDETERMINED) {
-                continue;
-            }
-            if (currentLevel.get(right) == ALLOW) {
-                if (!smallerWin.get(right)) {
-                    accessLevel.allow(right);
-                }
+                accessLevel.set(bit, (tieAllowMask & bit) != 0 ? ALLOW : DENY);
             }
         }
     }
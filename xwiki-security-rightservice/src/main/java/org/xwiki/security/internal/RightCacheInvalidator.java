@@ -35,4 +35,37 @@
 
     /** Resume delivery of invalidation events. */
     void resume();
+
+    /**
+     * The epoch is incremented each time the invalidator starts to
+     * apply a batch of invalidations to the cache.  A loader that
+     * observes a different epoch after it has inserted its entries
+     * cannot trust that they are up to date.
+     * @return The current invalidation epoch.
+     */
+    long getEpoch();
+
+    /**
+     * Wait until all invalidation events that have been received
+     * before this call have been applied to the cache.
+     */
+    void flush();
+
+    /** @return The number of distinct entities waiting to be invalidated. */
+    int getQueueDepth();
+
+    /** @return The total number of invalidation events received. */
+    long getReceivedEvents();
+
+    /**
+     * @return The number of invalidation events that were merged
+     * into an already pending invalidation of the same entity.
+     */
+    long getCoalescedEvents();
+
+    /**
+     * @return The fraction of the received invalidation events that
+     * were coalesced, or 0 if no event has been received.
+     */
+    double getCoalescingRatio();
 }
@@ -27,31 +27,79 @@
 
 /**
  * A serializer used by the right cache for generating keys.
+ *
+ * Each name is followed by the separator of its type.  The colons,
+ * dots and backslashes of the names are escaped with a backslash, so
+ * that two different references never share a key.  The key is
+ * written in a single scan into a builder sized for it, and names
+ * without any character to escape are appended as is.
  * @version $Id$
  */
 @Component("rightcachekey")
 public class RightCacheKeyEntityReferenceSerializer implements EntityReferenceSerializer<String>
 {
+    /** Escape character. */
+    private static final char ESCAPE = '\\';
+
     @Override
     public String serialize(EntityReference reference, Object... parameters)
     {
-        StringBuilder builder = new StringBuilder();
-        EntityReference mainWiki = reference.getRoot();
-        for (EntityReference ref = reference.getRoot(); ref != null; ref = ref.getChild()) {
-            builder.append(ref.getName());
-            switch (ref.getType()) {
-                case WIKI:
-                    builder.append(':');
-                    break;
-                case SPACE:
-                    builder.append('.');
-                    break;
-                case DOCUMENT:
-                    break;
-                default:
-                    throw new IllegalArgumentException("Unsopported entity type: " + ref.getType());
-            }
+        int length = 0;
+        for (EntityReference ref = reference; ref != null; ref = ref.getParent()) {
+            length += ref.getName().length() + 1;
         }
+        // A few escapes fit without growing the builder.
+        StringBuilder builder = new StringBuilder(length + 8);
+        serialize(reference, builder);
         return builder.toString();
     }
+
+    /**
+     * Append the parents of the reference, then the reference itself.
+     * The children of the reference are not part of its key.
+     * @param reference The reference to append.
+     * @param builder The key being built.
+     */
+    private void serialize(EntityReference reference, StringBuilder builder)
+    {
+        if (reference.getParent() != null) {
+            serialize(reference.getParent(), builder);
+        }
+        switch (reference.getType()) {
+            case WIKI:
+                appendEscaped(reference.getName(), builder);
+                builder.append(':');
+                break;
+            case SPACE:
+                appendEscaped(reference.getName(), builder);
+                builder.append('.');
+                break;
+            case DOCUMENT:
+                appendEscaped(reference.getName(), builder);
+                break;
+            default:
+                throw new IllegalArgumentException("Unsopported entity type: " + reference.getType());
+        }
+    }
+
+    /**
+     * @param name The name to append.
+     * @param builder The key being built.
+     */
+    private static void appendEscaped(String name, StringBuilder builder)
+    {
+        int start = 0;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c == ':' || c == '.' || c == ESCAPE) {
+                builder.append(name, start, i).append(ESCAPE);
+                start = i;
+            }
+        }
+        if (start == 0) {
+            builder.append(name);
+        } else {
+            builder.append(name, start, name.length());
+        }
+    }
 }
@@ -0,0 +1,53 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.xwiki.security.internal;
+
+import org.xwiki.component.annotation.ComponentRole;
+
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReference;
+
+/**
+ * Warms up the right cache after a restart, so that the first
+ * requests of the users do not all pay the full cost of loading the
+ * rights.
+ * @version $Id$
+ */
+@ComponentRole
+public interface RightCachePreloader
+{
+    /**
+     * Start preloading the right cache in background threads, if
+     * preloading is enabled.  Only the first call has any effect.
+     */
+    void start();
+
+    /**
+     * Record that the access level of a user at an entity had to be
+     * loaded, so that it can be preloaded after the next restart.
+     * @param user The user.
+     * @param entity The entity.
+     */
+    void recordLoad(DocumentReference user, EntityReference entity);
+
+    /** Save the recorded user and space pairs, if a file is configured. */
+    void saveHotKeys();
+}
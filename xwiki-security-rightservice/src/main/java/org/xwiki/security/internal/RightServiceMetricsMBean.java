@@ -0,0 +1,102 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.xwiki.security.internal;
+
+/**
+ * JMX view of the right service metrics.  Durations are reported in
+ * microseconds.
+ * @version $Id$
+ */
+public interface RightServiceMetricsMBean
+{
+    /** @return The number of user at entity entries found in the cache. */
+    long getUserAtEntityHits();
+
+    /** @return The number of user at entity entries not found in the cache. */
+    long getUserAtEntityMisses();
+
+    /** @return The number of user at entity entries removed from the cache. */
+    long getUserAtEntityEvictions();
+
+    /** @return The hit ratio of the user at entity entries. */
+    double getUserAtEntityHitRatio();
+
+    /** @return The number of entity entries found in the cache. */
+    long getEntityHits();
+
+    /** @return The number of entity entries not found in the cache. */
+    long getEntityMisses();
+
+    /** @return The number of entity entries removed from the cache. */
+    long getEntityEvictions();
+
+    /** @return The hit ratio of the entity entries. */
+    double getEntityHitRatio();
+
+    /** @return The number of loads retried because a parent entry was evicted. */
+    long getParentEvictedRetries();
+
+    /** @return The number of loads retried because of conflicting insertions. */
+    long getConflictingInsertionRetries();
+
+    /** @return The number of loads retried because the cache was invalidated meanwhile. */
+    long getStaleLoadRetries();
+
+    /** @return The number of loads that gave up. */
+    long getFailedLoads();
+
+    /** @return The number of access checks. */
+    long getCheckAccessCount();
+
+    /** @return The mean duration of an access check. */
+    double getCheckAccessMeanMicros();
+
+    /** @return The 99th percentile of the duration of an access check. */
+    double getCheckAccess99thPercentileMicros();
+
+    /** @return The number of loads. */
+    long getLoadCount();
+
+    /** @return The mean duration of a load. */
+    double getLoadMeanMicros();
+
+    /** @return The 99th percentile of the duration of a load. */
+    double getLoad99thPercentileMicros();
+
+    /** @return The mean duration of a resolution. */
+    double getResolveMeanMicros();
+
+    /** @return The number of documents waiting to be invalidated. */
+    int getInvalidationQueueDepth();
+
+    /** @return The fraction of the invalidation events that were coalesced. */
+    double getInvalidationCoalescingRatio();
+
+    /**
+     * @param operation The name of an operation.
+     * @param percentile A percentile, between 0 and 100.
+     * @return The percentile of the durations of the operation.
+     */
+    double getPercentileMicros(String operation, double percentile);
+
+    /** Reset all metrics. */
+    void reset();
+}
@@ -0,0 +1,158 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.xwiki.security.internal;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.annotation.Requirement;
+import org.xwiki.script.service.ScriptService;
+
+import org.xwiki.security.RightServiceMetrics;
+import org.xwiki.security.RightServiceMetrics.EntryCategory;
+import org.xwiki.security.RightServiceMetrics.Operation;
+import org.xwiki.security.RightServiceMetrics.Retry;
+
+/**
+ * Read only access to the right service metrics from scripts.  The
+ * categories, reasons and operations are given by the names of the
+ * constants in {@link RightServiceMetrics}, and unknown names yield
+ * {@code -1}.
+ * @version $Id$
+ */
+@Component("rightservicemetrics")
+public class RightServiceMetricsScriptService implements ScriptService
+{
+    /** The metrics. */
+    @Requirement private RightServiceMetrics metrics;
+
+    /** The right cache invalidator. */
+    @Requirement private RightCacheInvalidator invalidator;
+
+    /**
+     * @param category {@code USER_AT_ENTITY} or {@code ENTITY}.
+     * @return The number of cache hits.
+     */
+    public long getHits(String category)
+    {
+        EntryCategory c = toEnum(EntryCategory.class, category);
+        return c == null ? -1 : metrics.getHits(c);
+    }
+
+    /**
+     * @param category {@code USER_AT_ENTITY} or {@code ENTITY}.
+     * @return The number of cache misses.
+     */
+    public long getMisses(String category)
+    {
+        EntryCategory c = toEnum(EntryCategory.class, category);
+        return c == null ? -1 : metrics.getMisses(c);
+    }
+
+    /**
+     * @param category {@code USER_AT_ENTITY} or {@code ENTITY}.
+     * @return The number of entries removed from the cache.
+     */
+    public long getEvictions(String category)
+    {
+        EntryCategory c = toEnum(EntryCategory.class, category);
+        return c == null ? -1 : metrics.getEvictions(c);
+    }
+
+    /**
+     * @param category {@code USER_AT_ENTITY} or {@code ENTITY}.
+     * @return The cache hit ratio.
+     */
+    public double getHitRatio(String category)
+    {
+        EntryCategory c = toEnum(EntryCategory.class, category);
+        return c == null ? -1 : metrics.getHitRatio(c);
+    }
+
+    /**
+     * @param reason The name of a retry reason.
+     * @return The number of load retries for the reason.
+     */
+    public long getRetries(String reason)
+    {
+        Retry r = toEnum(Retry.class, reason);
+        return r == null ? -1 : metrics.getRetries(r);
+    }
+
+    /**
+     * @param operation The name of an operation.
+     * @return The number of timed operations.
+     */
+    public long getCount(String operation)
+    {
+        Operation o = toEnum(Operation.class, operation);
+        return o == null ? -1 : metrics.getCount(o);
+    }
+
+    /**
+     * @param operation The name of an operation.
+     * @return The mean duration of the operation in nanoseconds.
+     */
+    public double getMeanNanos(String operation)
+    {
+        Operation o = toEnum(Operation.class, operation);
+        return o == null ? -1 : metrics.getMeanNanos(o);
+    }
+
+    /**
+     * @param operation The name of an operation.
+     * @param percentile A percentile, between 0 and 100.
+     * @return An upper bound of the percentile of the durations in nanoseconds.
+     */
+    public long getPercentileNanos(String operation, double percentile)
+    {
+        Operation o = toEnum(Operation.class, operation);
+        return o == null ? -1 : metrics.getPercentileNanos(o, percentile);
+    }
+
+    /** @return The number of documents waiting to be invalidated in the right cache. */
+    public int getInvalidationQueueDepth()
+    {
+        return invalidator.getQueueDepth();
+    }
+
+    /** @return The fraction of the invalidation events that were coalesced. */
+    public double getInvalidationCoalescingRatio()
+    {
+        return invalidator.getCoalescingRatio();
+    }
+
+    /**
+     * @param <E> The enum type.
+     * @param type The enum class.
+     * @param name The name of a constant.
+     * @return The constant, or {@code null} if there is no such constant.
+     */
+    private static <E extends Enum<E>> E toEnum(Class<E> type, String name)
+    {
+        if (name == null) {
+            return null;
+        }
+        try {
+            return Enum.valueOf(type, name.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.xwiki.security.internal;
+
+import org.xwiki.model.reference.DocumentReference;
+
+import org.xwiki.security.RightState;
+import org.xwiki.security.RightsObject;
+
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * The rights objects of a level in the document hierarchy, indexed
+ * by the identifiers of the users and groups they name.  Matching a
+ * user and its groups against the level costs one lookup per
+ * principal, instead of a scan of all the rights objects of the
+ * level.
+ *
+ * The index is built once, when the rights objects are cached, with
+ * the {@link PrincipalIds} of the wiki.  The right resolvers build a
+ * temporary index for levels given as plain collections.
+ *
+ * @version $Id$
+ */
+final class RightsObjectIndex extends AbstractCollection<RightsObject>
+{
+    /** The index of the levels without rights objects. */
+    private static final RightsObjectIndex EMPTY
+        = new RightsObjectIndex(Collections.<RightsObject>emptyList(), new PrincipalIds());
+
+    /** The identifiers of the users and groups named by the objects. */
+    private final PrincipalIds ids;
+
+    /** The rights objects, in the order they were given. */
+    private final AbstractRightsObject[] objects;
+
+    /** The positions of the objects naming each user, by user identifier. */
+    private final Map<Integer, BitSet> users = new HashMap<Integer, BitSet>();
+
+    /** The positions of the objects naming each group, by group identifier. */
+    private final Map<Integer, BitSet> groups = new HashMap<Integer, BitSet>();
+
+    /** The rights of the objects that allow rights, as a bit mask. */
+    private int allowRights;
+
+    /**
+     * @param rightsObjects The rights objects of the level.
+     * @param ids The identifiers of the users and groups of the wiki.
+     */
+    RightsObjectIndex(Collection<? extends RightsObject> rightsObjects, PrincipalIds ids)
+    {
+        this.ids = ids;
+        objects = new AbstractRightsObject[rightsObjects.size()];
+        int i = 0;
+        for (RightsObject o : rightsObjects) {
+            AbstractRightsObject obj = (AbstractRightsObject) o;
+            objects[i] = obj;
+            for (DocumentReference user : obj.getUsers()) {
+                add(users, ids.getUserId(user), i);
+            }
+            for (DocumentReference group : obj.getGroups()) {
+                add(groups, ids.getGroupId(group), i);
+            }
+            if (obj.getState() == RightState.ALLOW) {
+                allowRights |= obj.getRightsMask();
+            }
+            i++;
+        }
+    }
+
+    /**
+     * @param rightsObjects The rights objects of a level, as given to a right resolver.
+     * @return the index of the rights objects.
+     */
+    static RightsObjectIndex of(Collection<RightsObject> rightsObjects)
+    {
+        if (rightsObjects instanceof RightsObjectIndex) {
+            return (RightsObjectIndex) rightsObjects;
+        }
+        if (rightsObjects.isEmpty()) {
+            return EMPTY;
+        }
+        return new RightsObjectIndex(rightsObjects, new PrincipalIds());
+    }
+
+    /**
+     * @param positions The positions of the objects, by principal identifier.
+     * @param id The identifier of a principal.
+     * @param position The position of an object naming the principal.
+     */
+    private static void add(Map<Integer, BitSet> positions, int id, int position)
+    {
+        BitSet bits = positions.get(id);
+        if (bits == null) {
+            bits = new BitSet();
+            positions.put(id, bits);
+        }
+        bits.set(position);
+    }
+
+    /**
+     * @return the identifiers of the users and groups named by the objects.
+     */
+    PrincipalIds getPrincipalIds()
+    {
+        return ids;
+    }
+
+    /**
+     * @param position The position of an object.
+     * @return the object.
+     */
+    AbstractRightsObject get(int position)
+    {
+        return objects[position];
+    }
+
+    /**
+     * @return the rights of the objects that allow rights, whoever
+     * they apply to, as a bit mask indexed by {@link
+     * org.xwiki.security.Right#getValue()}.
+     */
+    int getAllowRights()
+    {
+        return allowRights;
+    }
+
+    /**
+     * @param userId The identifier of the user, see {@link PrincipalIds#findUserId(DocumentReference)}.
+     * @param groupIds The identifiers of the groups of the user.
+     * @return the positions of the objects that apply to the user or
+     * any of the groups, or {@code null} if there are none.
+     */
+    BitSet match(int userId, int[] groupIds)
+    {
+        BitSet matches = null;
+        BitSet bits = users.get(userId);
+        if (bits != null) {
+            matches = (BitSet) bits.clone();
+        }
+        for (int groupId : groupIds) {
+            bits = groups.get(groupId);
+            if (bits != null) {
+                if (matches == null) {
+                    matches = (BitSet) bits.clone();
+                } else {
+                    matches.or(bits);
+                }
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * @param position The position of an object.
+     * @param userId The identifier of a user.
+     * @return {@code true} if and only if the object names the user.
+     */
+    boolean namesUser(int position, int userId)
+    {
+        BitSet bits = users.get(userId);
+        return bits != null && bits.get(position);
+    }
+
+    /**
+     * @param position The position of an object.
+     * @param groupId The identifier of a group.
+     * @return {@code true} if and only if the object names the group.
+     */
+    boolean namesGroup(int position, int groupId)
+    {
+        BitSet bits = groups.get(groupId);
+        return bits != null && bits.get(position);
+    }
+
+    @Override
+    public Iterator<RightsObject> iterator()
+    {
+        return Arrays.<RightsObject>asList(objects).iterator();
+    }
+
+    @Override
+    public int size()
+    {
+        return objects.length;
+    }
+}
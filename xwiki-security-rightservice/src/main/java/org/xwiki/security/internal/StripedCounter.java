@@ -0,0 +1,92 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.xwiki.security.internal;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter that is striped over several cells, so that threads
+ * that update the counter concurrently seldom contend for the same
+ * cache line.  Reading the counter sums the cells, and is therefore
+ * more expensive than updating it.
+ * @version $Id$
+ */
+final class StripedCounter
+{
+    /** The number of long values in a cache line. */
+    static final int PADDING = 8;
+
+    /** The number of stripes, a power of two. */
+    static final int STRIPES;
+
+    static {
+        int target = Math.min(64, 2 * Runtime.getRuntime().availableProcessors());
+        int stripes = 1;
+        while (stripes < target) {
+            stripes <<= 1;
+        }
+        STRIPES = stripes;
+    }
+
+    /** The cells, of which every {@link #PADDING}th is used. */
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+    /** Increment the counter by one. */
+    void increment()
+    {
+        cells.incrementAndGet(stripe() * PADDING);
+    }
+
+    /** @param delta The value to add to the counter. */
+    void add(long delta)
+    {
+        cells.addAndGet(stripe() * PADDING, delta);
+    }
+
+    /** @return The current value of the counter. */
+    long sum()
+    {
+        long sum = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            sum += cells.get(i * PADDING);
+        }
+        return sum;
+    }
+
+    /** Reset the counter to zero. */
+    void reset()
+    {
+        for (int i = 0; i < STRIPES; i++) {
+            cells.set(i * PADDING, 0);
+        }
+    }
+
+    /**
+     * @return The stripe of the current thread, determined by
+     * hashing its id.
+     */
+    static int stripe()
+    {
+        long id = Thread.currentThread().getId();
+        int hash = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+        return (hash >>> 16) & (STRIPES - 1);
+    }
+}
@@ -25,7 +25,6 @@
 
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.DocumentReferenceResolver;
-import org.xwiki.model.reference.EntityReferenceSerializer;
 
 import com.xpn.xwiki.XWikiException;
 import com.xpn.xwiki.XWikiContext;
@@ -33,7 +32,6 @@
 import com.xpn.xwiki.doc.XWikiDocument;
 
 import org.xwiki.security.RightServiceException;
-import org.xwiki.security.RightCache;
 
 import com.xpn.xwiki.web.Utils;
 
@@ -74,83 +72,25 @@ private XWikiUtils()
     }
 
     /**
-     * @param user The identity of the user.
-     * @return the collection of groups represented by their document references.
+     * @param wikiName The name of a wiki.
+     * @return the group documents of the wiki.
      * @throws RightServiceException on error.
      */
-    public static Collection<DocumentReference> getGroupsForUser(DocumentReference user)
+    public static Collection<XWikiDocument> getGroupDocuments(String wikiName)
         throws RightServiceException
     {
-        DocumentReferenceResolver<String> resolver   = getUserResolver();
-        EntityReferenceSerializer<String> serializer = Utils.getComponent(EntityReferenceSerializer.class);
-
-        Collection<String> groupNames;
-        try {
-            XWikiContext xwikiContext = getXWikiContext();
-            XWikiGroupService groupService = xwikiContext.getWiki().getGroupService(xwikiContext);
-            String userName = serializer.serialize(user);
-            groupNames = groupService.getAllGroupsNamesForMember(userName, Integer.MAX_VALUE, 0, xwikiContext);
-        } catch (XWikiException e) {
-            throw new RightServiceException("Failed to generate the group names.",  e);
-        }
-        /*
-         * The groups inherit the wiki of the user, unless the wiki
-         * name is explicitly given.
-         */
-        String wikiName = user.getWikiReference().getName();
-        Collection<DocumentReference> groups = new LinkedList();
-        for (String groupName : groupNames) {
-            DocumentReference group = resolver.resolve(groupName, wikiName);
-            groups.add(group);
-        }
-        return groups;
-    }
-
-    /**
-     * Due to the special case where a user have been added to the
-     * group, we need to step through all members of the group and
-     * remove all corresponding user entries.
-     * @param group The group.
-     * @param rightCache Right cache instance to invalidate.
-     * @throws RightServiceException on error.
-     */
-    public static void invalidateGroupMembers(DocumentReference group,
-                                              RightCache rightCache)
-        throws RightServiceException
-    {
-        DocumentReferenceResolver<String> resolver = getUserResolver();
-        EntityReferenceSerializer<String> serializer  = Utils.getComponent(EntityReferenceSerializer.class);
+        XWikiContext xwikiContext = getXWikiContext();
+        String currentWiki = xwikiContext.getDatabase();
         try {
-            XWikiContext xwikiContext = getXWikiContext();
+            xwikiContext.setDatabase(wikiName);
             XWikiGroupService groupService = xwikiContext.getWiki().getGroupService(xwikiContext);
-            String groupName = serializer.serialize(group);
-            /*
-             * The group members inherit the wiki from the group
-             * itself, unless the wiki name is explicitly given.
-             */
-            String wikiName = group.getWikiReference().getName();
-            final int nb = 100;
-            int i = 0;
-            Collection<String> memberNames;
-            do {
-                memberNames = groupService.getAllMembersNamesForGroup(groupName,
-                                                                      nb,
-                                                                      i * nb,
-                                                                      xwikiContext);
-                for (String member : memberNames) {
-                    DocumentReference memberRef = resolver.resolve(member, wikiName);
-                    /*
-                     * Avoid infinite loops.
-                     */
-                    if (!memberRef.equals(group)) {
-                        rightCache.remove(rightCache.getRightCacheKey(memberRef));
-                    }
-                }
-                i++;
-            } while(memberNames.size() == nb);
+            List<XWikiDocument> groups = (List<XWikiDocument>) groupService.getAllMatchedGroups(null, true, 0, 0,
+                                                                                               null, xwikiContext);
+            return groups == null ? new LinkedList<XWikiDocument>() : groups;
         } catch (XWikiException e) {
-            LOG.error("Failed to invalidate group members.", e);
-            throw new RightServiceException(e);
+            throw new RightServiceException("Failed to obtain the groups of wiki " + wikiName + ".",  e);
+        } finally {
+            xwikiContext.setDatabase(currentWiki);
         }
     }
 
@@ -189,6 +129,37 @@ private static XWikiContext getXWikiContext()
         return xwikiContext;
     }
 
+    /**
+     * Create an xwiki context for a background thread of the right
+     * service.  A request context must not be shared with another
+     * thread, since it is modified, and eventually released, by the
+     * request.  The new context only takes the wiki instance and the
+     * engine context from the given one, and is set on the main wiki.
+     * @param context An xwiki context, typically of a request.
+     * @return A new xwiki context.
+     */
+    static XWikiContext createBackgroundXWikiContext(XWikiContext context)
+    {
+        XWikiContext backgroundContext = new XWikiContext();
+        backgroundContext.setWiki(context.getWiki());
+        backgroundContext.setEngineContext(context.getEngineContext());
+        backgroundContext.setMainXWiki(context.getMainXWiki());
+        backgroundContext.setDatabase(context.getMainXWiki());
+        return backgroundContext;
+    }
+
+    /**
+     * @param context An xwiki context, typically of a request.
+     * @return A new execution context holding a new xwiki context.
+     * @see #createBackgroundXWikiContext(XWikiContext)
+     */
+    static ExecutionContext createBackgroundContext(XWikiContext context)
+    {
+        ExecutionContext executionContext = new ExecutionContext();
+        executionContext.setProperty(XWikiContext.EXECUTIONCONTEXT_KEY, createBackgroundXWikiContext(context));
+        return executionContext;
+    }
+
     /**
      * @return the name of the main wiki.
      */
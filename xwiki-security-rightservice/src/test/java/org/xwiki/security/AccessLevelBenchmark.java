@@ -0,0 +1,131 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.xwiki.security;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmark of the canonicalization of access levels under
+ * contention.  Each thread reuses instances for a fixed set of
+ * random access levels, as the right resolvers do for each resolved
+ * user at entity entry.
+ *
+ * Run with {@code java -cp <test classpath> org.xwiki.security.AccessLevelBenchmark}
+ * to measure with 1 to 64 threads.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class AccessLevelBenchmark
+{
+    /** Number of distinct access levels used by each thread. */
+    private static final int PATTERNS = 256;
+
+    /** The access levels of a thread. */
+    @State(Scope.Thread)
+    public static class Patterns
+    {
+        /** The access levels, in their {@code int} representation. */
+        int[] levels = new int[PATTERNS];
+
+        /** The next access level to use. */
+        int next;
+
+        /** Compute some random access levels. */
+        @Setup
+        public void setUp()
+        {
+            Random random = new Random(PATTERNS);
+            RightState[] states = RightState.values();
+            for (int i = 0; i < PATTERNS; i++) {
+                int l = 0;
+                for (Right right : Right.values()) {
+                    l = AccessLevel.set(l, right, states[random.nextInt(states.length)]);
+                }
+                levels[i] = l;
+            }
+        }
+
+        /** @return the next access level. */
+        int next()
+        {
+            next = (next + 1) % PATTERNS;
+            return levels[next];
+        }
+    }
+
+    /**
+     * The pattern used by the resolvers: build a new instance and
+     * replace it with the shared one.
+     * @param patterns The access levels of this thread.
+     * @return the shared instance.
+     */
+    @Benchmark
+    public AccessLevel getExistingInstance(Patterns patterns)
+    {
+        int l = patterns.next();
+        AccessLevel level = new AccessLevel();
+        for (Right right : Right.values()) {
+            level.set(right, AccessLevel.get(l, right));
+        }
+        return level.getExistingInstance();
+    }
+
+    /**
+     * The allocation free path for levels computed as {@code int}.
+     * @param patterns The access levels of this thread.
+     * @return the shared instance.
+     */
+    @Benchmark
+    public AccessLevel getInstance(Patterns patterns)
+    {
+        return AccessLevel.getInstance(patterns.next());
+    }
+
+    /**
+     * @param args Ignored.
+     * @throws Exception if the benchmark fails.
+     */
+    public static void main(String[] args) throws Exception
+    {
+        for (int threads = 1; threads <= 64; threads *= 2) {
+            Options options = new OptionsBuilder()
+                .include(AccessLevelBenchmark.class.getSimpleName())
+                .threads(threads)
+                .forks(1)
+                .warmupIterations(5)
+                .measurementIterations(5)
+                .build();
+            new Runner(options).run();
+        }
+    }
+}
@@ -139,4 +139,46 @@ public void testClone()
 
         assertDefaultAccessLevel();
     }
+
+    public void testExistingInstanceIsReadOnly()
+    {
+        AccessLevel l = AccessLevel.DEFAULT_ACCESS_LEVEL.clone();
+        assertTrue(l.getExistingInstance() == AccessLevel.DEFAULT_ACCESS_LEVEL);
+
+        boolean assertions = false;
+        assert assertions = true;
+        if (assertions) {
+            try {
+                l.allow(Right.ADMIN);
+                fail("The instance passed to getExistingInstance should be read-only.");
+            } catch (AssertionError e) {
+                // Expected.
+            }
+        }
+
+        assertDefaultAccessLevel();
+    }
+
+    public void testIntAccessors()
+    {
+        int l = AccessLevel.DEFAULT_ACCESS_LEVEL.getLevels();
+        for (Right right : Right.values()) {
+            assertTrue(AccessLevel.get(l, right) == AccessLevel.DEFAULT_ACCESS_LEVEL.get(right));
+        }
+        assertTrue(AccessLevel.getInstance(l) == AccessLevel.DEFAULT_ACCESS_LEVEL);
+
+        l = AccessLevel.set(l, Right.ADMIN, RightState.ALLOW);
+        l = AccessLevel.set(l, Right.VIEW, RightState.UNDETERMINED);
+        assertTrue(AccessLevel.isAllowed(l, Right.ADMIN));
+        assertTrue(AccessLevel.get(l, Right.VIEW) == RightState.UNDETERMINED);
+        assertTrue(AccessLevel.get(l, Right.PROGRAM) == RightState.DENY);
+
+        AccessLevel k = AccessLevel.DEFAULT_ACCESS_LEVEL.clone();
+        k.allow(Right.ADMIN);
+        k.clear(Right.VIEW);
+        assertTrue(AccessLevel.getInstance(l) == k.getExistingInstance());
+        assertTrue(AccessLevel.getInstance(l).getLevels() == l);
+
+        assertDefaultAccessLevel();
+    }
 }
@@ -34,6 +34,8 @@
 import org.jmock.Expectations;
 import org.jmock.Mockery;
 import org.jmock.States;
+import org.jmock.api.Invocation;
+import org.jmock.lib.action.CustomAction;
 import org.jmock.integration.junit4.JMock;
 import org.jmock.integration.junit4.JUnit4Mockery;
 
@@ -91,6 +93,17 @@ public void initializeTests() throws Exception
             mockery = new JUnit4Mockery();
             mockGroupService = mockery.mock(XWikiGroupService.class);
             wiki.setGroupService(mockGroupService);
+            mockery.checking(new Expectations() {{
+                // The group documents of a wiki are those added to the mock wiki.
+                allowing(mockGroupService).getAllMatchedGroups(null, true, 0, 0, null, xwikiContext);
+                will(new CustomAction("get the group documents")
+                    {
+                        public Object invoke(Invocation invocation)
+                        {
+                            return wiki.getGroupDocuments(((XWikiContext) invocation.getParameter(5)).getDatabase());
+                        }
+                    });
+            }});
             execution.getContext().setProperty(XWikiContext.EXECUTIONCONTEXT_KEY, xwikiContext);
             invalidator = getComponentManager().lookup(RightCacheInvalidator.class);
         } catch (Exception e) {
@@ -0,0 +1,174 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.xwiki.security.internal;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReference;
+
+import org.xwiki.security.RightCacheEntry;
+import org.xwiki.security.AccessLevel;
+
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import com.xpn.xwiki.XWikiContext;
+
+import java.util.List;
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs the right cache tests against the concurrent right cache, and
+ * checks that concurrent insertions and removals leave no orphaned
+ * entries behind.
+ */
+public class ConcurrentRightCacheTest extends DefaultRightCacheTest
+{
+    @Override
+    protected String getCacheHint()
+    {
+        return "concurrent";
+    }
+
+    @Test
+    public void testConcurrentInsertionsAndRemovals() throws Exception
+    {
+        final DocumentReference user = resolver.resolve("wiki1:XWiki.user");
+        final List<DocumentReference> documents = new ArrayList<DocumentReference>();
+        for (int s = 0; s < 8; s++) {
+            for (int p = 0; p < 8; p++) {
+                documents.add(resolver.resolve("wiki1:space" + s + ".page" + p));
+            }
+        }
+
+        final XWikiContext xwikiContext = (XWikiContext) getComponentManager().lookup(Execution.class)
+            .getContext().getProperty(XWikiContext.EXECUTIONCONTEXT_KEY);
+        final int threads = 8;
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads + 1);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+        for (int t = 0; t < threads; t++) {
+            final int offset = t;
+            new Thread() {
+                @Override
+                public void run()
+                {
+                    try {
+                        initThread(xwikiContext);
+                        start.await();
+                        for (int i = 0; i < 200; i++) {
+                            DocumentReference document = documents.get((offset + i) % documents.size());
+                            insertToCache(document, null, cache, AccessLevel.DEFAULT_ACCESS_LEVEL);
+                            insertToCache(user, null, cache, AccessLevel.DEFAULT_ACCESS_LEVEL);
+                            try {
+                                cache.addUserAtEntity(k(cache, user), k(cache, document),
+                                                      AccessLevel.DEFAULT_ACCESS_LEVEL);
+                            } catch (Exception e) {
+                                // Evicted parents are expected, as the wiki is concurrently removed.
+                            }
+                        }
+                    } catch (Throwable e) {
+                        failure.set(e);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+
+        new Thread() {
+            @Override
+            public void run()
+            {
+                try {
+                    initThread(xwikiContext);
+                    start.await();
+                    for (int i = 0; i < 50; i++) {
+                        cache.remove(k(cache, user.getWikiReference()));
+                        Thread.yield();
+                    }
+                } catch (Throwable e) {
+                    failure.set(e);
+                } finally {
+                    done.countDown();
+                }
+            }
+        }.start();
+
+        start.countDown();
+        done.await();
+        assertNull(failure.get());
+
+        cache.remove(k(cache, user.getWikiReference()));
+
+        for (DocumentReference document : documents) {
+            for (EntityReference ref = document; ref != null; ref = ref.getParent()) {
+                assertNull(cache.get(k(cache, ref)));
+            }
+            assertNull(cache.get(k(cache, user), k(cache, document)));
+        }
+        assertNull(cache.get(k(cache, user)));
+    }
+
+    @Test
+    public void testRemovedEntriesDoNotCountTowardsCapacity()
+    {
+        // 52 entries which must survive, the capacity being 500.
+        DocumentReference kept = resolver.resolve("wiki1:space.page0");
+        for (int p = 0; p < 50; p++) {
+            insertToCache(resolver.resolve("wiki1:space.page" + p), null, cache, AccessLevel.DEFAULT_ACCESS_LEVEL);
+        }
+
+        // 402 entries, all removed with their wiki.
+        DocumentReference removed = resolver.resolve("wiki2:space.page0");
+        for (int p = 0; p < 400; p++) {
+            insertToCache(resolver.resolve("wiki2:space.page" + p), null, cache, AccessLevel.DEFAULT_ACCESS_LEVEL);
+        }
+        cache.remove(k(cache, removed.getWikiReference()));
+
+        // 402 more entries, 454 live entries in all.
+        for (int p = 0; p < 400; p++) {
+            insertToCache(resolver.resolve("wiki3:space.page" + p), null, cache, AccessLevel.DEFAULT_ACCESS_LEVEL);
+        }
+
+        for (EntityReference ref = kept; ref != null; ref = ref.getParent()) {
+            assertNotNull(cache.get(k(cache, ref)));
+        }
+        assertNull(cache.get(k(cache, removed)));
+    }
+
+    /**
+     * Make the xwiki context available to a worker thread.
+     * @param xwikiContext The xwiki context of the test.
+     * @throws Exception on error.
+     */
+    private void initThread(XWikiContext xwikiContext) throws Exception
+    {
+        Execution execution = getComponentManager().lookup(Execution.class);
+        ExecutionContext context = new ExecutionContext();
+        context.setProperty(XWikiContext.EXECUTIONCONTEXT_KEY, xwikiContext);
+        execution.setContext(context);
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.xwiki.security.internal;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import org.xwiki.model.reference.DocumentReference;
+
+import static java.util.Arrays.asList;
+import java.util.ArrayList;
+import java.util.Collection;
+
+public class DefaultGroupMembershipCacheTest extends AbstractTestCase
+{
+    @Test
+    public void testIncrementalUpdates() throws Exception
+    {
+        DocumentReference userA = docRefResolver.resolve("xwiki:XWiki.userA");
+        DocumentReference userB = docRefResolver.resolve("xwiki:XWiki.userB");
+        DocumentReference userC = docRefResolver.resolve("xwiki:XWiki.userC");
+        DocumentReference groupA = docRefResolver.resolve("xwiki:XWiki.GroupA");
+        DocumentReference groupB = docRefResolver.resolve("xwiki:XWiki.GroupB");
+
+        // GroupB is a member of GroupA.
+        wiki.add(MockDocument.newGroupDocument("xwiki:XWiki.GroupA", new String[] {"XWiki.userA", "XWiki.GroupB"}))
+            .add(MockDocument.newGroupDocument("xwiki:XWiki.GroupB", new String[] {"XWiki.userB"}));
+
+        GroupMembershipCache cache = getComponentManager().lookup(GroupMembershipCache.class);
+
+        assertEquals(asList(groupA), new ArrayList<DocumentReference>(cache.getGroupsForMember(userA)));
+        assertEquals(asList(groupB, groupA), new ArrayList<DocumentReference>(cache.getGroupsForMember(userB)));
+        assertTrue(cache.getGroupsForMember(userC).isEmpty());
+        assertTrue(cache.isCachedGroup(groupB));
+        assertFalse(cache.isCachedGroup(userA));
+
+        // userB is replaced by userC in GroupB, so both are affected, but not the members of GroupA only.
+        Collection<DocumentReference> affected = cache.groupUpdated(groupB,
+            MockDocument.newGroupDocument("xwiki:XWiki.GroupB", new String[] {"XWiki.userC"}));
+        assertEquals(2, affected.size());
+        assertTrue(affected.contains(userB));
+        assertTrue(affected.contains(userC));
+        assertTrue(cache.getGroupsForMember(userB).isEmpty());
+        assertEquals(asList(groupB, groupA), new ArrayList<DocumentReference>(cache.getGroupsForMember(userC)));
+
+        // GroupB leaves GroupA, which affects the members of GroupB as well.
+        affected = cache.groupUpdated(groupA,
+            MockDocument.newGroupDocument("xwiki:XWiki.GroupA", new String[] {"XWiki.userA"}));
+        assertEquals(3, affected.size());
+        assertTrue(affected.containsAll(asList(userA, groupB, userC)));
+        assertEquals(asList(groupB), new ArrayList<DocumentReference>(cache.getGroupsForMember(userC)));
+        assertEquals(asList(groupA), new ArrayList<DocumentReference>(cache.getGroupsForMember(userA)));
+
+        // GroupB is deleted.
+        affected = cache.groupUpdated(groupB, null);
+        assertEquals(asList(userC), new ArrayList<DocumentReference>(affected));
+        assertFalse(cache.isCachedGroup(groupB));
+        assertTrue(cache.getGroupsForMember(userC).isEmpty());
+
+        // The group documents were only read once.
+        assertEquals(1, wiki.groupQueries);
+    }
+
+    @Test
+    public void testCyclesAndOtherWikis() throws Exception
+    {
+        DocumentReference userX = docRefResolver.resolve("wikiY:XWiki.userX");
+        DocumentReference groupA = docRefResolver.resolve("xwiki:XWiki.GroupA");
+        DocumentReference groupB = docRefResolver.resolve("xwiki:XWiki.GroupB");
+        DocumentReference groupY = docRefResolver.resolve("wikiY:XWiki.GroupY");
+
+        // GroupA and GroupB are members of each other, and userX of wikiY is a member of groups of both wikis.
+        wiki.add(MockDocument.newGroupDocument("xwiki:XWiki.GroupA", new String[] {"XWiki.GroupB"}))
+            .add(MockDocument.newGroupDocument("xwiki:XWiki.GroupB", new String[] {"XWiki.GroupA",
+                                                                                   "wikiY:XWiki.userX"}))
+            .add(MockDocument.newGroupDocument("wikiY:XWiki.GroupY", new String[] {"XWiki.userX"}));
+
+        GroupMembershipCache cache = getComponentManager().lookup(GroupMembershipCache.class);
+
+        assertEquals(asList(groupY, groupB, groupA),
+                     new ArrayList<DocumentReference>(cache.getGroupsForMember(userX)));
+        assertEquals(asList(groupB), new ArrayList<DocumentReference>(cache.getGroupsForMember(groupA)));
+        assertEquals(2, wiki.groupQueries);
+
+        // Removing userX from GroupB of the main wiki updates the groups of userX in wikiY.
+        Collection<DocumentReference> affected = cache.groupUpdated(groupB,
+            MockDocument.newGroupDocument("xwiki:XWiki.GroupB", new String[] {"XWiki.GroupA"}));
+        assertTrue(affected.contains(userX));
+        assertTrue(affected.contains(groupA));
+        assertFalse(affected.contains(groupB));
+        assertEquals(asList(groupY), new ArrayList<DocumentReference>(cache.getGroupsForMember(userX)));
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.xwiki.security.internal;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.observation.EventListener;
+
+import org.xwiki.security.RightCache;
+import org.xwiki.security.RightCacheKey;
+
+public class DefaultRightCacheInvalidatorTest extends AbstractTestCase
+{
+    @Test
+    public void testCoalescing() throws Exception
+    {
+        RightCache cache = getComponentManager().lookup(RightCache.class);
+        DocumentReference docRef = docRefResolver.resolve("xwiki:Space.Page");
+        MockDocument document = new MockDocument(docRef, "xwiki:XWiki.Admin");
+
+        RightCacheKey wikiKey = cache.getRightCacheKey(docRef.getWikiReference());
+        RightCacheKey spaceKey = cache.getRightCacheKey(docRef.getLastSpaceReference());
+        RightCacheKey docKey = cache.getRightCacheKey(docRef);
+        cache.add(wikiKey, new ObjectEntry());
+        cache.add(spaceKey, new ObjectEntry());
+        cache.add(docKey, new ObjectEntry());
+
+        long epoch = invalidator.getEpoch();
+
+        // While suspended, the worker cannot apply the pending invalidation, so the saves are coalesced.
+        invalidator.suspend();
+        try {
+            for (int i = 0; i < 3; i++) {
+                ((EventListener) invalidator).onEvent(null, document, null);
+            }
+            assertEquals(1, invalidator.getQueueDepth());
+            assertNotNull(cache.get(docKey));
+        } finally {
+            invalidator.resume();
+        }
+        invalidator.flush();
+
+        assertEquals(0, invalidator.getQueueDepth());
+        assertEquals(3, invalidator.getReceivedEvents());
+        assertEquals(2, invalidator.getCoalescedEvents());
+        assertEquals(2.0 / 3.0, invalidator.getCoalescingRatio(), 1e-9);
+        assertTrue(invalidator.getEpoch() > epoch);
+        assertNull(cache.get(docKey));
+        assertNotNull(cache.get(spaceKey));
+    }
+
+    @Test
+    public void testAbsorption() throws Exception
+    {
+        RightCache cache = getComponentManager().lookup(RightCache.class);
+        DocumentReference docRef = docRefResolver.resolve("xwiki:Space.Page");
+        DocumentReference prefsRef = docRefResolver.resolve("xwiki:Space.WebPreferences");
+
+        RightCacheKey spaceKey = cache.getRightCacheKey(docRef.getLastSpaceReference());
+        RightCacheKey docKey = cache.getRightCacheKey(docRef);
+        cache.add(cache.getRightCacheKey(docRef.getWikiReference()), new ObjectEntry());
+        cache.add(spaceKey, new ObjectEntry());
+        cache.add(docKey, new ObjectEntry());
+
+        // The pending invalidation of the space removes the entry of the document too.
+        invalidator.suspend();
+        try {
+            ((EventListener) invalidator).onEvent(null, new MockDocument(prefsRef, "xwiki:XWiki.Admin"), null);
+            ((EventListener) invalidator).onEvent(null, new MockDocument(docRef, "xwiki:XWiki.Admin"), null);
+            assertEquals(1, invalidator.getQueueDepth());
+            assertEquals(1, invalidator.getCoalescedEvents());
+        } finally {
+            invalidator.resume();
+        }
+        invalidator.flush();
+
+        assertNull(cache.get(spaceKey));
+        assertNull(cache.get(docKey));
+    }
+
+    @Test
+    public void testDispose() throws Exception
+    {
+        int workers = countWorkers();
+        ((Disposable) invalidator).dispose();
+        assertEquals(workers - 1, countWorkers());
+        // Disposing twice is harmless, and flushing does not wait for a stopped worker.
+        ((Disposable) invalidator).dispose();
+        invalidator.flush();
+        assertEquals(0, invalidator.getQueueDepth());
+    }
+
+    private int countWorkers()
+    {
+        int count = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if ("XWiki right cache invalidator".equals(thread.getName())) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -93,7 +93,15 @@ public class DefaultRightCacheTest extends AbstractComponentTestCase
      */
     private static final Log LOG = LogFactory.getLog(DefaultRightCacheTest.class);
 
-    private static RightCacheKey k(RightCache c, EntityReference e)
+    /**
+     * @return the hint of the right cache implementation under test.
+     */
+    protected String getCacheHint()
+    {
+        return "default";
+    }
+
+    protected static RightCacheKey k(RightCache c, EntityReference e)
     {
         return c.getRightCacheKey(e);
     }
@@ -115,7 +123,7 @@ public void initializeTest() throws Exception
             context.setProperty(XWikiContext.EXECUTIONCONTEXT_KEY, xwikiContext);
             xwikiContext.setWiki(new XWiki());
 
-            cache = getComponentManager().lookup(RightCache.class, "default");
+            cache = getComponentManager().lookup(RightCache.class, getCacheHint());
             resolver = getComponentManager().lookup(DocumentReferenceResolver.class);
 
         } catch (Exception e) {
@@ -243,7 +251,7 @@ public void testMultiParent()
         System.out.println("Number null: " + noNull + ", other: " + other);
     }
 
-    private void insertToCache(EntityReference e, List<EntityReference> parents, RightCache c, RightCacheEntry x)
+    protected void insertToCache(EntityReference e, List<EntityReference> parents, RightCache c, RightCacheEntry x)
     {
         int attempts = 0;
         RETRY: while (true) {
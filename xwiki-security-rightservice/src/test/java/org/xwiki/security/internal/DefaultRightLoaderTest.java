@@ -24,7 +24,6 @@
 import org.junit.Test;
 import org.junit.Before;
 
-import org.jmock.Expectations;
 import org.jmock.Mockery;
 import org.jmock.States;
 
@@ -42,6 +41,7 @@
 import static java.util.Collections.EMPTY_LIST;
 import static java.util.Collections.EMPTY_SET;
 
+import org.xwiki.bridge.event.DocumentDeletedEvent;
 import org.xwiki.observation.EventListener;
 
 public class DefaultRightLoaderTest extends AbstractTestCase
@@ -70,15 +70,6 @@ public void testRightLoader()
             .add(allGroupDocument);
 
         try {
-            mockery.checking(new Expectations() {{
-                allowing(mockGroupService)
-                    .getAllGroupsNamesForMember("wikiY:XWiki.userX", Integer.MAX_VALUE, 0, xwikiContext);
-                will(returnValue(asList(new String[]{"XWiki.XWikiAllGroup"})));
-                allowing(mockGroupService)
-                    .getAllGroupsNamesForMember("wikiY:XWiki.userY", Integer.MAX_VALUE, 0, xwikiContext);
-                will(returnValue(asList(new String[]{"XWiki.XWikiAllGroup"})));
-            }});
-
             RightLoader loader = getComponentManager().lookup(RightLoader.class);
             RightCache  cache  = getComponentManager().lookup(RightCache.class);
             RightCacheInvalidator invalidator = getComponentManager().lookup(RightCacheInvalidator.class);
@@ -106,7 +97,12 @@ public void testRightLoader()
             assertTrue(entry != null);
             assertTrue(entry.getType() == RightCacheEntry.Type.HAVE_OBJECTS);
 
+            // The rights objects of the document are indexed with the identifiers held by the entry of its wiki
+            assertSame(((ObjectEntry) entry).getPrincipalIds(),
+                       ((ObjectEntry) cache.get(cache.getRightCacheKey(userX))).getPrincipalIds());
+
             ((EventListener) invalidator).onEvent(null, wikiDocument, null);
+            invalidator.flush();
 
             entry = cache.get(cache.getRightCacheKey(userX), cache.getRightCacheKey(userX));
             assertTrue(entry == null);
@@ -122,20 +118,17 @@ public void testRightLoader()
 
             wikiDocument.denyGlobal(asList(new Right[]{COMMENT }),
                                     EMPTY_LIST,
-                                    asList(new String[]{"wikiY:XWiki.XWikiAllGroup" }));
+                                    asList(new String[]{"xwiki:XWiki.XWikiAllGroup" }));
 
             AccessLevel editNoComment = edit.clone();
             editNoComment.deny(COMMENT);
             level = loader.load(userX, userX);
             assertTrue(level.equals(editNoComment));
 
-            mockery.checking(new Expectations() {{
-                allowing(mockGroupService).getAllMembersNamesForGroup("xwiki:XWiki.GroupX", 100, 0, xwikiContext);
-                will(returnValue(asList(new String[]{"wikiY:XWiki.userX"})));
-            }});
             MockDocument group = MockDocument.newGroupDocument("XWiki.GroupX", new String[] {"wikiY:XWiki.userX" } );
             wiki.add(group);
             ((EventListener) invalidator).onEvent(null, group, null);
+            invalidator.flush();
 
             entry = cache.get(cache.getRightCacheKey(userX));
             assertTrue("Invalidating cache after group update", entry == null);
@@ -148,7 +141,15 @@ public void testRightLoader()
 
             entry = cache.get(cache.getRightCacheKey(userX.getParent().getParent()));
             assertTrue("Invalidating cache after group update", entry != null);
-            
+
+            loader.load(userX, userX);
+            ((EventListener) invalidator).onEvent(new DocumentDeletedEvent(group.getDocumentReference()), group, null);
+            invalidator.flush();
+
+            entry = cache.get(cache.getRightCacheKey(userX));
+            assertTrue("Invalidating cache after group deletion", entry == null);
+            assertFalse(getComponentManager().lookup(GroupMembershipCache.class).getGroupsForMember(userX)
+                        .contains(group.getDocumentReference()));
 
         } catch (Exception e) {
             LOG.error("Caught exception.", e);
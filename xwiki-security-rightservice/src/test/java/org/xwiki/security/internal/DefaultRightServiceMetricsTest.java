@@ -0,0 +1,84 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.xwiki.security.internal;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.ObjectName;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import org.xwiki.security.RightServiceMetrics;
+import org.xwiki.security.RightServiceMetrics.EntryCategory;
+import org.xwiki.security.RightServiceMetrics.Operation;
+import org.xwiki.security.RightServiceMetrics.Retry;
+
+public class DefaultRightServiceMetricsTest extends AbstractTestCase
+{
+    @Test
+    public void testCounters() throws Exception
+    {
+        RightServiceMetrics metrics = getComponentManager().lookup(RightServiceMetrics.class);
+        metrics.reset();
+
+        metrics.recordHit(EntryCategory.ENTITY);
+        metrics.recordHit(EntryCategory.ENTITY);
+        metrics.recordHit(EntryCategory.ENTITY);
+        metrics.recordMiss(EntryCategory.ENTITY);
+        metrics.recordEviction(EntryCategory.USER_AT_ENTITY);
+        metrics.recordRetry(Retry.PARENT_EVICTED);
+
+        assertEquals(3, metrics.getHits(EntryCategory.ENTITY));
+        assertEquals(1, metrics.getMisses(EntryCategory.ENTITY));
+        assertEquals(0.75, metrics.getHitRatio(EntryCategory.ENTITY), 1e-9);
+        assertEquals(0, metrics.getHitRatio(EntryCategory.USER_AT_ENTITY), 1e-9);
+        assertEquals(1, metrics.getEvictions(EntryCategory.USER_AT_ENTITY));
+        assertEquals(1, metrics.getRetries(Retry.PARENT_EVICTED));
+        assertEquals(0, metrics.getRetries(Retry.GAVE_UP));
+
+        ObjectName name = new ObjectName(DefaultRightServiceMetrics.OBJECT_NAME);
+        assertEquals(3L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "EntityHits"));
+
+        metrics.reset();
+        assertEquals(0, metrics.getHits(EntryCategory.ENTITY));
+    }
+
+    @Test
+    public void testLatencies() throws Exception
+    {
+        RightServiceMetrics metrics = getComponentManager().lookup(RightServiceMetrics.class);
+        metrics.reset();
+
+        for (int i = 0; i < 99; i++) {
+            metrics.recordLatency(Operation.CHECK_ACCESS, 1000);
+        }
+        metrics.recordLatency(Operation.CHECK_ACCESS, 1000000);
+
+        assertEquals(100, metrics.getCount(Operation.CHECK_ACCESS));
+        assertEquals((99 * 1000 + 1000000) / 100.0, metrics.getMeanNanos(Operation.CHECK_ACCESS), 1e-9);
+        // The percentiles are upper bounds of power of two buckets.
+        assertEquals(1023, metrics.getPercentileNanos(Operation.CHECK_ACCESS, 50));
+        assertEquals(1023, metrics.getPercentileNanos(Operation.CHECK_ACCESS, 99));
+        assertEquals((1L << 20) - 1, metrics.getPercentileNanos(Operation.CHECK_ACCESS, 100));
+        assertEquals(0, metrics.getCount(Operation.LOAD));
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.xwiki.security.internal;
+
+import java.io.File;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class HotKeysTest
+{
+    @Test
+    public void testMostRecentlyLoadedFirst() throws Exception
+    {
+        HotKeys hotKeys = new HotKeys(3);
+        hotKeys.record("a");
+        hotKeys.record("b");
+        hotKeys.record("c");
+        hotKeys.record("a");
+        hotKeys.record("d");
+
+        // b is the least recently loaded key, and was dropped.
+        assertEquals(asList("d", "a", "c"), hotKeys.getKeys());
+    }
+
+    @Test
+    public void testSaveAndRead() throws Exception
+    {
+        File file = File.createTempFile("hotkeys", ".txt");
+        file.deleteOnExit();
+        new File(file.getPath() + ".tmp").deleteOnExit();
+
+        HotKeys hotKeys = new HotKeys(10);
+        hotKeys.record("xwiki:XWiki.user\tSPACE\txwiki:Main");
+        hotKeys.record("xwiki:XWiki.admin\tWIKI\txwiki");
+        hotKeys.save(file);
+
+        assertEquals(asList("xwiki:XWiki.admin\tWIKI\txwiki", "xwiki:XWiki.user\tSPACE\txwiki:Main"),
+                     HotKeys.read(file));
+
+        assertTrue(file.delete());
+        assertTrue(HotKeys.read(file).isEmpty());
+    }
+}
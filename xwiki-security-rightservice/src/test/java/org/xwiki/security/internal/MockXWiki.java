@@ -27,6 +27,8 @@
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.DocumentReferenceResolver;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
 
@@ -40,6 +42,8 @@ public class MockXWiki extends XWiki
     private final XWiki mainXWiki;
     private String cacheCapacity = "500";
 
+    int groupQueries;
+
     public MockXWiki(String name, XWiki mainXWiki)
     {
         super();
@@ -69,6 +73,20 @@ public XWikiDocument getDocument(String docName, XWikiContext context)
         return getDocument(resolver.resolve(docName), context);
     }
 
+    public List<XWikiDocument> getGroupDocuments(String wikiName)
+    {
+        groupQueries++;
+        List<XWikiDocument> groups = new ArrayList();
+        DocumentReference groupClass = new DocumentReference(wikiName, "XWiki", "XWikiGroups");
+        for (MockDocument doc : documents.values()) {
+            if (doc.getDocumentReference().getWikiReference().getName().equals(wikiName)
+                && !doc.getXObjects(groupClass).isEmpty()) {
+                groups.add(doc);
+            }
+        }
+        return groups;
+    }
+
     @Override
     public String Param(String key, String defaultValue)
     {
@@ -0,0 +1,109 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.xwiki.security.internal;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.*;
+import org.junit.Test;
+
+import org.xwiki.component.descriptor.ComponentDescriptor;
+import org.xwiki.model.reference.DocumentReference;
+
+import org.xwiki.security.AccessLevel;
+import org.xwiki.security.RightCache;
+import org.xwiki.security.RightCacheEntry;
+import org.xwiki.security.RightCacheKey;
+import org.xwiki.security.RightService;
+
+/**
+ * Verifies that an access check answered entirely from the concurrent
+ * right cache does not allocate any objects.  The default right cache
+ * is not covered, as it builds string keys on lookups.
+ * @version $Id$
+ */
+public class RightCacheAllocationTest extends AbstractTestCase
+{
+    /** Number of checks performed before measuring. */
+    private static final int WARMUP = 200000;
+
+    /** Number of measured checks. */
+    private static final int ITERATIONS = 100000;
+
+    private static final RightCacheEntry NO_OBJECTS = new RightCacheEntry() {
+            @Override
+            public Type getType()
+            {
+                return Type.HAVE_NO_OBJECTS;
+            }
+
+            @Override
+            public <T> java.util.Collection<T> getObjects(Class<T> type)
+            {
+                return null;
+            }
+        };
+
+    @Test
+    public void testCachedAccessCheckDoesNotAllocate() throws Exception
+    {
+        java.lang.management.ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        assumeTrue(threadBean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) threadBean;
+        assumeTrue(bean.isThreadAllocatedMemorySupported());
+        bean.setThreadAllocatedMemoryEnabled(true);
+
+        RightCache cache = getComponentManager().lookup(RightCache.class, "concurrent");
+        ComponentDescriptor<RightCache> descriptor
+            = getComponentManager().getComponentDescriptor(RightCache.class, "default");
+        getComponentManager().registerComponent(descriptor, cache);
+
+        DefaultRightService service = (DefaultRightService) getComponentManager().lookup(RightService.class);
+
+        DocumentReference user = uResolver.resolve("XWiki.user");
+        DocumentReference doc = docRefResolver.resolve("xwiki:Space.Page");
+
+        RightCacheKey wikiKey = cache.getRightCacheKey(doc.getWikiReference());
+        cache.add(wikiKey, new ObjectEntry());
+        cache.add(cache.getRightCacheKey(doc.getLastSpaceReference()), NO_OBJECTS);
+        cache.add(cache.getRightCacheKey(doc), NO_OBJECTS);
+        cache.add(cache.getRightCacheKey(user.getLastSpaceReference()), NO_OBJECTS);
+        RightCacheKey userKey = cache.getRightCacheKey(user);
+        cache.add(userKey, NO_OBJECTS);
+        AccessLevel level = AccessLevel.DEFAULT_ACCESS_LEVEL.clone();
+        cache.addUserAtEntity(userKey, wikiKey, level);
+
+        for (int i = 0; i < WARMUP; i++) {
+            assertSame(level, service.getAccessLevel(user, doc));
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long before = bean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < ITERATIONS; i++) {
+            service.getAccessLevel(user, doc);
+        }
+        long allocated = bean.getThreadAllocatedBytes(threadId) - before;
+
+        assertTrue("Cached access checks allocated " + allocated + " bytes in " + ITERATIONS + " calls.",
+                   allocated < ITERATIONS);
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.xwiki.security.internal;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import org.xwiki.test.AbstractComponentTestCase;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.web.Utils;
+
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReference;
+
+import org.xwiki.security.AccessLevel;
+import org.xwiki.security.RightCache;
+import org.xwiki.security.RightCacheEntry;
+import org.xwiki.security.RightCacheKey;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmark comparing the read throughput of the right cache
+ * implementations.  The cache is filled with user at entity entries
+ * for a few users on a few spaces, which are then read at random.
+ *
+ * Run with {@code java -cp <test classpath> org.xwiki.security.internal.RightCacheBenchmark}
+ * to measure each implementation with 1 to 64 reader threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RightCacheBenchmark
+{
+    /** Number of spaces. */
+    private static final int SPACES = 8;
+
+    /** Number of documents per space. */
+    private static final int DOCUMENTS = 8;
+
+    /** Number of users. */
+    private static final int USERS = 4;
+
+    /** The right cache implementation under test. */
+    @Param({"default", "concurrent" })
+    public String cacheHint;
+
+    /** The cache under test. */
+    RightCache cache;
+
+    /** The xwiki context shared by all threads. */
+    XWikiContext xwikiContext;
+
+    /** The component manager. */
+    AbstractComponentTestCase components;
+
+    /** Keys of the users. */
+    final List<RightCacheKey> userKeys = new ArrayList<RightCacheKey>();
+
+    /** Keys of the documents. */
+    final List<RightCacheKey> documentKeys = new ArrayList<RightCacheKey>();
+
+    /**
+     * Per thread state, a random sequence of lookups.
+     */
+    @State(Scope.Thread)
+    public static class Reader
+    {
+        /** Random number generator. */
+        private final Random random = new Random();
+
+        /**
+         * @param benchmark The shared benchmark state.
+         * @throws Exception on error.
+         */
+        @Setup(Level.Trial)
+        public void setUp(RightCacheBenchmark benchmark) throws Exception
+        {
+            Execution execution = benchmark.components.getComponentManager().lookup(Execution.class);
+            ExecutionContext context = new ExecutionContext();
+            context.setProperty(XWikiContext.EXECUTIONCONTEXT_KEY, benchmark.xwikiContext);
+            execution.setContext(context);
+        }
+
+        /** @return a random number. */
+        int next()
+        {
+            return random.nextInt(Integer.MAX_VALUE);
+        }
+    }
+
+    /**
+     * Fill the cache.
+     * @throws Exception on error.
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws Exception
+    {
+        components = new AbstractComponentTestCase() { };
+        components.setUp();
+        Utils.setComponentManager(components.getComponentManager());
+        Execution execution = components.getComponentManager().lookup(Execution.class);
+        xwikiContext = new XWikiContext();
+        xwikiContext.setMainXWiki("xwiki");
+        xwikiContext.setWiki(new XWiki());
+        execution.getContext().setProperty(XWikiContext.EXECUTIONCONTEXT_KEY, xwikiContext);
+
+        cache = components.getComponentManager().lookup(RightCache.class, cacheHint);
+        DocumentReferenceResolver<String> resolver
+            = components.getComponentManager().lookup(DocumentReferenceResolver.class);
+
+        for (int u = 0; u < USERS; u++) {
+            DocumentReference user = resolver.resolve("xwiki:XWiki.user" + u);
+            addHierarchy(user);
+            userKeys.add(cache.getRightCacheKey(user));
+        }
+        for (int s = 0; s < SPACES; s++) {
+            for (int d = 0; d < DOCUMENTS; d++) {
+                DocumentReference document = resolver.resolve("xwiki:space" + s + ".page" + d);
+                addHierarchy(document);
+                RightCacheKey documentKey = cache.getRightCacheKey(document);
+                documentKeys.add(documentKey);
+                for (RightCacheKey userKey : userKeys) {
+                    cache.addUserAtEntity(userKey, documentKey, AccessLevel.DEFAULT_ACCESS_LEVEL);
+                }
+            }
+        }
+    }
+
+    /**
+     * Make sure the entity and its parents are cached.
+     * @param entity The entity.
+     * @throws Exception on error.
+     */
+    private void addHierarchy(EntityReference entity) throws Exception
+    {
+        RightCacheKey key = cache.getRightCacheKey(entity);
+        for (EntityReference ref = key.getEntityReference().getRoot(); ref != null; ref = ref.getChild()) {
+            RightCacheKey refKey = cache.getRightCacheKey(ref);
+            if (cache.get(refKey) == null) {
+                cache.add(refKey, RightCacheEntry.HAVE_NO_RIGHT_OBJECT_ENTRY);
+            }
+        }
+    }
+
+    /**
+     * @param reader Per thread state.
+     * @return The looked up entry.
+     */
+    @Benchmark
+    public RightCacheEntry getUserAtEntity(Reader reader)
+    {
+        int n = reader.next();
+        return cache.get(userKeys.get(n % USERS), documentKeys.get(n % documentKeys.size()));
+    }
+
+    /**
+     * @param reader Per thread state.
+     * @return The looked up entry.
+     */
+    @Benchmark
+    public RightCacheEntry getEntity(Reader reader)
+    {
+        return cache.get(documentKeys.get(reader.next() % documentKeys.size()));
+    }
+
+    /**
+     * Run the benchmark for 1 to 64 threads.
+     * @param args Ignored.
+     * @throws Exception on error.
+     */
+    public static void main(String[] args) throws Exception
+    {
+        for (int threads = 1; threads <= 64; threads *= 2) {
+            Options options = new OptionsBuilder()
+                .include(RightCacheBenchmark.class.getSimpleName())
+                .threads(threads)
+                .forks(1)
+                .warmupIterations(5)
+                .measurementIterations(5)
+                .build();
+            new Runner(options).run();
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.xwiki.security.internal;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReference;
+
+public class RightCacheKeyEntityReferenceSerializerTest
+{
+    private final RightCacheKeyEntityReferenceSerializer serializer = new RightCacheKeyEntityReferenceSerializer();
+
+    @Test
+    public void testSerialize() throws Exception
+    {
+        DocumentReference document = new DocumentReference("wiki", "Space", "Page");
+        assertEquals("wiki:Space.Page", serializer.serialize(document));
+        assertEquals("wiki:Space.", serializer.serialize(document.getParent()));
+
+        // Virtual wikis are below the main wiki.
+        EntityReference mainWiki = new EntityReference("xwiki", EntityType.WIKI);
+        EntityReference key = new EntityReference("Page", EntityType.DOCUMENT,
+            new EntityReference("Space", EntityType.SPACE,
+                new EntityReference("wiki", EntityType.WIKI, mainWiki)));
+        assertEquals("xwiki:wiki:Space.Page", serializer.serialize(key));
+    }
+
+    @Test
+    public void testSeparatorsInNamesAreEscaped() throws Exception
+    {
+        String key1 = serializer.serialize(new DocumentReference("wiki", "a.b", "c"));
+        String key2 = serializer.serialize(new DocumentReference("wiki", "a", "b.c"));
+        assertEquals("wiki:a\\.b.c", key1);
+        assertEquals("wiki:a.b\\.c", key2);
+
+        assertFalse(serializer.serialize(new DocumentReference("wiki", "a\\", "b"))
+            .equals(serializer.serialize(new DocumentReference("wiki", "a", "\\b"))));
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.xwiki.security.internal;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import org.xwiki.test.AbstractComponentTestCase;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.web.Utils;
+
+import org.xwiki.context.Execution;
+
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReference;
+
+import org.xwiki.security.AccessLevel;
+import org.xwiki.security.Right;
+import org.xwiki.security.RightCacheKey;
+import org.xwiki.security.RightResolver;
+import org.xwiki.security.RightState;
+import org.xwiki.security.RightsObject;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmark of the right resolvers on a space whose rights
+ * objects name many users and groups, of which only a few apply to
+ * the resolved user.  The rights objects are given either as plain
+ * collections, which the resolvers scan, or indexed by principal
+ * identifier as the right loader passes them.
+ *
+ * Run with {@code java -cp <test classpath> org.xwiki.security.internal.RightResolverBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RightResolverBenchmark
+{
+    /** Number of groups of the resolved user. */
+    private static final int GROUPS = 4;
+
+    /** The right resolver under test. */
+    @Param({"default", "priority" })
+    public String resolverHint;
+
+    /** Number of rights objects of each level. */
+    @Param({"10", "100", "1000" })
+    public int objects;
+
+    /** Whether the levels are indexed. */
+    @Param({"false", "true" })
+    public boolean indexed;
+
+    /** The component manager. */
+    AbstractComponentTestCase components;
+
+    /** The resolver under test. */
+    RightResolver resolver;
+
+    /** The resolved user. */
+    DocumentReference user;
+
+    /** The groups of the resolved user. */
+    final List<DocumentReference> groups = new ArrayList<DocumentReference>();
+
+    /** The space the rights are resolved at. */
+    EntityReference space;
+
+    /** The key of the space. */
+    RightCacheKey spaceKey;
+
+    /** The rights objects of the wiki and of the space. */
+    final List<Collection<RightsObject>> levels = new ArrayList<Collection<RightsObject>>();
+
+    /**
+     * Create the rights objects.
+     * @throws Exception on error.
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws Exception
+    {
+        components = new AbstractComponentTestCase() { };
+        components.setUp();
+        Utils.setComponentManager(components.getComponentManager());
+        Execution execution = components.getComponentManager().lookup(Execution.class);
+        XWikiContext xwikiContext = new XWikiContext();
+        xwikiContext.setMainXWiki("xwiki");
+        xwikiContext.setWiki(new MockXWiki("xwiki", null));
+        execution.getContext().setProperty(XWikiContext.EXECUTIONCONTEXT_KEY, xwikiContext);
+
+        resolver = components.getComponentManager().lookup(RightResolver.class, resolverHint);
+        DocumentReferenceResolver<String> docResolver
+            = components.getComponentManager().lookup(DocumentReferenceResolver.class);
+
+        user = docResolver.resolve("xwiki:XWiki.user0");
+        for (int g = 0; g < GROUPS; g++) {
+            groups.add(docResolver.resolve("xwiki:XWiki.group" + g));
+        }
+        DocumentReference spaceDoc = docResolver.resolve("xwiki:Space.WebPreferences");
+        space = spaceDoc.getParent();
+        spaceKey = new RightCacheKey() {
+                public EntityReference getEntityReference()
+                {
+                    return space;
+                }
+            };
+
+        PrincipalIds ids = new PrincipalIds();
+        for (int l = 0; l < 2; l++) {
+            List<RightsObject> level = new ArrayList<RightsObject>();
+            for (int o = 0; o < objects; o++) {
+                // Every tenth object applies to one of the groups of the user
+                Set<DocumentReference> users = new HashSet<DocumentReference>();
+                users.add(docResolver.resolve("xwiki:XWiki.user" + (o + 1)));
+                Set<DocumentReference> objectGroups = new HashSet<DocumentReference>();
+                objectGroups.add(docResolver.resolve("xwiki:XWiki.group" + (o % 10 == 0 ? o % GROUPS : GROUPS + o)));
+                Set<Right> rights = EnumSet.of(o % 2 == 0 ? Right.VIEW : Right.EDIT, Right.COMMENT);
+                level.add(new MockRightsObject(rights, o % 3 == 0 ? RightState.DENY : RightState.ALLOW,
+                                               users, objectGroups));
+            }
+            levels.add(indexed ? new RightsObjectIndex(level, ids) : level);
+        }
+    }
+
+    /**
+     * @return The resolved access level.
+     */
+    @Benchmark
+    public AccessLevel resolve()
+    {
+        return resolver.resolve(user, space, spaceKey, groups, levels);
+    }
+
+    /**
+     * Run the benchmark.
+     * @param args Ignored.
+     * @throws Exception on error.
+     */
+    public static void main(String[] args) throws Exception
+    {
+        Options options = new OptionsBuilder()
+            .include(RightResolverBenchmark.class.getSimpleName())
+            .forks(1)
+            .warmupIterations(5)
+            .measurementIterations(5)
+            .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ *
+ */
+package org.xwiki.security.internal;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import org.xwiki.security.*;
+import static org.xwiki.security.Right.*;
+import static org.xwiki.security.RightState.*;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import static java.util.Arrays.asList;
+
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReference;
+
+/**
+ * Tests of the compiled form of the rights objects used by the right
+ * resolvers: the per wiki principal identifiers and the index of the
+ * rights objects of a level.
+ */
+public class RightsObjectIndexTest extends AbstractTestCase
+{
+    private RightsObject rightsObject(RightState state, Set<Right> rights, Collection<DocumentReference> users,
+                                      Collection<DocumentReference> groups)
+    {
+        return new MockRightsObject(rights, state, new HashSet(users), new HashSet(groups));
+    }
+
+    @Test
+    public void testMatchByUserAndGroups() throws Exception
+    {
+        DocumentReference userX = uResolver.resolve("UserX", "wikiY");
+        DocumentReference userY = uResolver.resolve("UserY", "wikiY");
+        DocumentReference groupX = uResolver.resolve("GroupX", "wikiY");
+        DocumentReference groupY = uResolver.resolve("GroupY", "wikiY");
+
+        List<RightsObject> objects = asList(
+            rightsObject(ALLOW, EnumSet.of(VIEW), asList(userX), Collections.<DocumentReference>emptyList()),
+            rightsObject(DENY, EnumSet.of(EDIT), asList(userY), asList(groupX)),
+            rightsObject(ALLOW, EnumSet.of(EDIT, COMMENT), Collections.<DocumentReference>emptyList(), asList(groupY)));
+        RightsObjectIndex index = new RightsObjectIndex(objects, new PrincipalIds());
+
+        assertEquals(3, index.size());
+        assertEquals(objects, new ArrayList<RightsObject>(index));
+        assertEquals(AbstractRightResolver.mask(VIEW) | AbstractRightResolver.mask(EDIT)
+                     | AbstractRightResolver.mask(COMMENT), index.getAllowRights());
+
+        BitSet expected = new BitSet();
+        expected.set(0);
+        assertEquals(expected, new AbstractRightResolver.Principals(userX,
+                                                                    Collections.<DocumentReference>emptyList())
+                     .match(index));
+
+        AbstractRightResolver.Principals principals
+            = new AbstractRightResolver.Principals(userX, asList(groupY, groupX));
+        expected.set(1);
+        expected.set(2);
+        assertEquals(expected, principals.match(index));
+        assertTrue(index.namesUser(0, principals.userId));
+        assertFalse(index.namesUser(1, principals.userId));
+        assertTrue(index.namesGroup(2, principals.groupIds[0]));
+        assertTrue(index.namesGroup(1, principals.groupIds[1]));
+
+        assertNull(new AbstractRightResolver.Principals(uResolver.resolve("UserZ", "wikiY"),
+                                                        Collections.<DocumentReference>emptyList()).match(index));
+    }
+
+    @Test
+    public void testResolvingDoesNotAssignIdentifiers() throws Exception
+    {
+        DocumentReference userX = uResolver.resolve("UserX", "wikiY");
+        DocumentReference groupX = uResolver.resolve("GroupX", "wikiY");
+        PrincipalIds ids = new PrincipalIds();
+        RightsObjectIndex index = new RightsObjectIndex(
+            asList(rightsObject(ALLOW, EnumSet.of(VIEW), asList(userX), asList(groupX))), ids);
+        assertEquals(2, ids.size());
+
+        for (int i = 0; i < 1000; i++) {
+            DocumentReference user = uResolver.resolve("User" + i, "wikiY");
+            DocumentReference group = uResolver.resolve("Group" + i, "wikiY");
+            new AbstractRightResolver.Principals(user, asList(group)).match(index);
+        }
+
+        assertEquals(2, ids.size());
+        assertEquals(PrincipalIds.UNKNOWN, ids.findUserId(uResolver.resolve("User0", "wikiY")));
+        assertEquals(PrincipalIds.UNKNOWN, ids.findGroupId(uResolver.resolve("Group0", "wikiY")));
+    }
+
+    @Test
+    public void testIdentifiersArePerWiki() throws Exception
+    {
+        DocumentReference userX = uResolver.resolve("UserX", "wikiY");
+        DocumentReference userY = uResolver.resolve("UserY", "wikiY");
+
+        PrincipalIds mainIds = new PrincipalIds();
+        PrincipalIds wikiIds = new PrincipalIds();
+        RightsObjectIndex main = new RightsObjectIndex(
+            asList(rightsObject(ALLOW, EnumSet.of(VIEW), asList(userY, userX),
+                                Collections.<DocumentReference>emptyList())), mainIds);
+        RightsObjectIndex wiki = new RightsObjectIndex(
+            asList(rightsObject(ALLOW, EnumSet.of(VIEW), asList(userX), Collections.<DocumentReference>emptyList())),
+            wikiIds);
+        assertEquals(2, mainIds.size());
+        assertEquals(1, wikiIds.size());
+        assertEquals(PrincipalIds.UNKNOWN, wikiIds.findUserId(userY));
+
+        // The identifiers are looked up again when matching the levels of another wiki
+
+        AbstractRightResolver.Principals principals
+            = new AbstractRightResolver.Principals(userX, Collections.<DocumentReference>emptyList());
+        assertNotNull(principals.match(wiki));
+        assertNotNull(principals.match(main));
+        assertNotNull(principals.match(wiki));
+
+        principals = new AbstractRightResolver.Principals(userY, Collections.<DocumentReference>emptyList());
+        assertNotNull(principals.match(main));
+        assertNull(principals.match(wiki));
+    }
+
+    /**
+     * Resolve random rights objects with both resolvers, with levels
+     * given as plain collections and as indexes sharing the
+     * identifiers of a wiki, which is how the loader passes them.
+     */
+    @Test
+    public void testIndexedLevelsResolveAsPlainLevels() throws Exception
+    {
+        final DocumentReference doc = docRefResolver.resolve("wikiY:SpaceX.DocY");
+        wiki.add(new MockDocument(doc, "wikiY:XWiki.UserY"));
+        RightCacheKey key = new RightCacheKey() { public EntityReference getEntityReference() { return doc; }};
+        RightResolver[] resolvers = {resolver, getComponentManager().lookup(RightResolver.class, "priority") };
+
+        List<DocumentReference> users = new ArrayList<DocumentReference>();
+        List<DocumentReference> groups = new ArrayList<DocumentReference>();
+        for (int i = 0; i < 4; i++) {
+            users.add(uResolver.resolve("User" + i, "wikiY"));
+            groups.add(uResolver.resolve("Group" + i, "wikiY"));
+        }
+        groups.add(uResolver.resolve("XWikiAllGroup", "wikiY"));
+
+        Random random = new Random(42);
+        PrincipalIds ids = new PrincipalIds();
+        for (int n = 0; n < 1000; n++) {
+            List<Collection<RightsObject>> plainLevels = new ArrayList<Collection<RightsObject>>();
+            List<Collection<RightsObject>> indexedLevels = new ArrayList<Collection<RightsObject>>();
+            for (int l = 0; l < 3; l++) {
+                List<RightsObject> level = new ArrayList<RightsObject>();
+                for (int o = random.nextInt(4); o > 0; o--) {
+                    Set<Right> rights = EnumSet.noneOf(Right.class);
+                    for (Right right : Right.values()) {
+                        if (right != ILLEGAL && random.nextInt(3) == 0) {
+                            rights.add(right);
+                        }
+                    }
+                    level.add(rightsObject(random.nextBoolean() ? ALLOW : DENY, rights,
+                                           pick(random, users), pick(random, groups)));
+                }
+                plainLevels.add(level);
+                indexedLevels.add(new RightsObjectIndex(level, ids));
+            }
+            DocumentReference user = users.get(random.nextInt(users.size()));
+            List<DocumentReference> userGroups = pick(random, groups);
+            for (RightResolver r : resolvers) {
+                assertEquals(r.resolve(user, doc, key, userGroups, plainLevels),
+                             r.resolve(user, doc, key, userGroups, indexedLevels));
+            }
+        }
+    }
+
+    private List<DocumentReference> pick(Random random, List<DocumentReference> principals)
+    {
+        List<DocumentReference> picked = new ArrayList<DocumentReference>();
+        for (DocumentReference principal : principals) {
+            if (random.nextInt(3) == 0) {
+                picked.add(principal);
+            }
+        }
+        Collections.shuffle(picked, random);
+        return picked;
+    }
+}
@@ -25,9 +25,11 @@
 
 import static org.junit.Assert.*;
 import org.junit.Test;
-import org.jmock.Expectations;
 
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
+import java.util.List;
 import static java.util.Collections.EMPTY_LIST;
 import static java.util.Arrays.asList;
 
@@ -36,6 +38,7 @@
 import org.jmock.core.stub.CustomStub;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReference;
 
 import org.xwiki.observation.EventListener;
 
@@ -72,13 +75,8 @@ public void testHasAccessLevelWhithUserFromAnotherWiki() throws XWikiException
         XWikiDocument user = new XWikiDocument(new DocumentReference("wiki", "XWiki", "user"));
         XWikiDocument group = new XWikiDocument(new DocumentReference("wiki", "XWiki", "group"));
 
-        wiki.add(doc).add(preferences);
-
-        mockery.checking(new Expectations() {{
-            allowing(mockGroupService)
-                .getAllGroupsNamesForMember("wiki:XWiki.user", Integer.MAX_VALUE, 0, xwikiContext);
-            will(returnValue(asList(new String[]{"wiki:XWiki.group"})));
-        }});
+        wiki.add(doc).add(preferences)
+            .add(MockDocument.newGroupDocument("wiki:XWiki.group", new String[] {"wiki:XWiki.user"}));
 
         getContext().setDatabase("wiki");
 
@@ -90,6 +88,7 @@ public void testHasAccessLevelWhithUserFromAnotherWiki() throws XWikiException
         preferences.allowGlobal(asList(new Right[]{VIEW }), asList(new String[]{user.getPrefixedFullName() }), EMPTY_LIST);
 
         ((EventListener) invalidator).onEvent(null, preferences, null);
+        invalidator.flush();
 
         getContext().setDatabase(user.getWikiName());
 
@@ -118,6 +117,7 @@ public void testHasAccessLevelWhithUserFromAnotherWiki() throws XWikiException
         wiki.add(preferences);
         
         ((EventListener) invalidator).onEvent(null, preferences, null);
+        invalidator.flush();
 
         getContext().setDatabase(user.getWikiName());
 
@@ -143,6 +143,7 @@ public void testHasAccessLevelWhithUserFromAnotherWiki() throws XWikiException
         wiki.add(preferences);
 
         ((EventListener) invalidator).onEvent(null, preferences, null);
+        invalidator.flush();
 
         wiki.setWikiOwner(doc.getWikiName(), user.getPrefixedFullName());
 
@@ -179,18 +180,6 @@ public void testProgrammingRightsWhenNoContextDocumentIsSet() throws XWikiExcept
         prefs.allowGlobal(asList(new Right[]{PROGRAM, ADMIN}), asList(new String[]{"XWiki.Programmer" }), EMPTY_LIST);
         wiki.add(prefs);
 
-        mockery.checking(new Expectations() {{
-            allowing(mockGroupService)
-                .getAllGroupsNamesForMember("xwiki:" + RightService.GUEST_USER_FULLNAME, Integer.MAX_VALUE, 0, xwikiContext);
-            will(returnValue(EMPTY_LIST));
-            allowing(mockGroupService)
-                .getAllGroupsNamesForMember("xwiki:XWiki.Programmer", Integer.MAX_VALUE, 0, xwikiContext);
-            will(returnValue(EMPTY_LIST));
-            allowing(mockGroupService)
-                .getAllGroupsNamesForMember("xwiki:XWiki.superadmin", Integer.MAX_VALUE, 0, xwikiContext);
-            will(returnValue(EMPTY_LIST));
-        }});
-
         // Setup the context (no context document)
         getContext().setMainXWiki("xwiki");
         
@@ -210,4 +199,36 @@ public void testProgrammingRightsWhenNoContextDocumentIsSet() throws XWikiExcept
         getContext().setUser(RightService.SUPERADMIN_USER_FULLNAME);
         assertTrue(rightService.hasProgrammingRights(getContext()));
     }
+
+    @Test
+    public void testFilterAccessible() throws Exception
+    {
+        final XWikiRightService xwikiRightService = new XWikiCachingRightService();
+        final RightService rightService = getComponentManager().lookup(RightService.class);
+
+        List<EntityReference> documents = new ArrayList<EntityReference>();
+        for (int i = 0; i < 10; i++) {
+            MockDocument doc = new MockDocument("xwiki:Space.Doc" + i, "xwiki:XWiki.Admin");
+            if (i % 4 == 3) {
+                doc.denyLocal(asList(new Right[]{VIEW}), asList(new String[]{"xwiki:XWiki.user"}), EMPTY_LIST);
+            }
+            wiki.add(doc);
+            documents.add(doc.getDocumentReference());
+        }
+
+        getContext().setDatabase("xwiki");
+
+        DocumentReference user = new DocumentReference("xwiki", "XWiki", "user");
+        BitSet allowed = rightService.filterAccessible(VIEW, user, documents);
+
+        for (int i = 0; i < documents.size(); i++) {
+            assertEquals("Bulk check differs for document " + i,
+                xwikiRightService.hasAccessLevel("view", "xwiki:XWiki.user", "xwiki:Space.Doc" + i, getContext()),
+                allowed.get(i));
+            assertEquals(i % 4 != 3, allowed.get(i));
+        }
+
+        // Everything is cached now.
+        assertEquals(allowed, rightService.filterAccessible(VIEW, user, documents));
+    }
 }